@@ -0,0 +1,63 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Imperial College London.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Raul Castro Fernandez - initial design and implementation
+ ******************************************************************************/
+package uk.ac.imperial.lsds.seep.benchmarks;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import uk.ac.imperial.lsds.seep.comm.serialization.DataTuple;
+import uk.ac.imperial.lsds.seep.runtimeengine.OutOfOrderFairBufferedBarrier;
+
+/**
+ * Input barrier of a join: each invocation pushes the tuple with the next timestamp from both inputs, which
+ * makes it ready, and pulls it. The same two tuples are pushed again with a new timestamp once pulled.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BarrierBenchmark {
+
+	private OutOfOrderFairBufferedBarrier barrier;
+	private DataTuple left;
+	private DataTuple right;
+	private long ts;
+
+	@Setup
+	public void setUp() {
+		barrier = new OutOfOrderFairBufferedBarrier(Fixtures.joinQuery(), Fixtures.JOIN);
+		left = Fixtures.tuple(0);
+		right = Fixtures.tuple(0);
+	}
+
+	@Benchmark
+	public ArrayList<DataTuple> pushPull() {
+		ts++;
+		left.getPayload().timestamp = ts;
+		right.getPayload().timestamp = ts;
+		barrier.push(left, Fixtures.LEFT_SRC);
+		barrier.push(right, Fixtures.RIGHT_SRC);
+		return barrier.pull_from_barrier();
+	}
+}
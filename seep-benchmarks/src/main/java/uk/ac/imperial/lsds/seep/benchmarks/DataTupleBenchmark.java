@@ -0,0 +1,73 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Imperial College London.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Raul Castro Fernandez - initial design and implementation
+ ******************************************************************************/
+package uk.ac.imperial.lsds.seep.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import uk.ac.imperial.lsds.seep.comm.serialization.DataTuple;
+
+/**
+ * Attribute access and setValues on a tuple, boxed or compacted into primitive slots.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DataTupleBenchmark {
+
+	@Param({"false", "true"})
+	public boolean compact;
+
+	private DataTuple tuple;
+	private long ts;
+
+	@Setup
+	public void setUp() {
+		tuple = compact ? Fixtures.compactTuple(42) : Fixtures.tuple(42);
+	}
+
+	@Benchmark
+	public void getByName(Blackhole bh) {
+		bh.consume(tuple.getInt("key"));
+		bh.consume(tuple.getLong("value"));
+		bh.consume(tuple.getDouble("load"));
+		bh.consume(tuple.getString("label"));
+	}
+
+	@Benchmark
+	public void getByIndex(Blackhole bh) {
+		bh.consume(tuple.getIntAt(1));
+		bh.consume(tuple.getLongAt(2));
+		bh.consume(tuple.getDoubleAt(3));
+		bh.consume(tuple.getValueAt(4));
+	}
+
+	@Benchmark
+	public DataTuple setValues() {
+		ts++;
+		return tuple.setValues(ts, (int) (ts & 63), ts * 31, 0.5, "plug-0");
+	}
+}
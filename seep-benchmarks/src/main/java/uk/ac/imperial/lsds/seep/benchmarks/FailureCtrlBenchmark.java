@@ -0,0 +1,74 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Imperial College London.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Raul Castro Fernandez - initial design and implementation
+ ******************************************************************************/
+package uk.ac.imperial.lsds.seep.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import uk.ac.imperial.lsds.seep.comm.serialization.LongRangeSet;
+import uk.ac.imperial.lsds.seep.comm.serialization.controlhelpers.FailureCtrl;
+
+/**
+ * Merging of the failure control messages coming from downstream, as the dispatcher and the barrier do for
+ * every one of them. Downstream acks advance the low watermark batch by batch, with a few out of order acks
+ * and a window of alive tuples above it.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FailureCtrlBenchmark {
+
+	private static final int UPDATES = 1024;
+	private static final int BATCH = 50;
+
+	private final FailureCtrl[] downstream = new FailureCtrl[UPDATES];
+	private FailureCtrl fctrl;
+	private int next;
+
+	@Setup
+	public void setUp() {
+		for (int i = 0; i < UPDATES; i++) {
+			long lw = (long) i * BATCH;
+			downstream[i] = new FailureCtrl(lw, LongRangeSet.of(lw + 2, lw + 5, lw + 6, lw + 7),
+					LongRangeSet.range(lw + 8, lw + 4 * BATCH));
+		}
+		fctrl = new FailureCtrl();
+	}
+
+	@Benchmark
+	public boolean update() {
+		if (next == UPDATES) {
+			next = 0;
+			fctrl = new FailureCtrl();
+		}
+		return fctrl.update(downstream[next++]);
+	}
+
+	@Benchmark
+	public boolean acks() {
+		FailureCtrl other = downstream[(next++) & (UPDATES - 1)];
+		LongRangeSet acks = other.acks();
+		return acks.contains(other.lw() + 6) && other.isAcked(other.lw() + 5) && !acks.isEmpty();
+	}
+}
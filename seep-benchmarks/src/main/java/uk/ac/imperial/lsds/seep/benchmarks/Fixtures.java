@@ -0,0 +1,123 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Imperial College London.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Raul Castro Fernandez - initial design and implementation
+ ******************************************************************************/
+package uk.ac.imperial.lsds.seep.benchmarks;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import uk.ac.imperial.lsds.seep.comm.serialization.DataTuple;
+import uk.ac.imperial.lsds.seep.comm.serialization.TupleSchema;
+import uk.ac.imperial.lsds.seep.comm.serialization.TupleSchema.Type;
+import uk.ac.imperial.lsds.seep.comm.serialization.messages.Payload;
+import uk.ac.imperial.lsds.seep.comm.serialization.messages.TuplePayload;
+import uk.ac.imperial.lsds.seep.manet.Query;
+import uk.ac.imperial.lsds.seep.operator.Operator;
+import uk.ac.imperial.lsds.seep.processingunit.Dispatcher;
+import uk.ac.imperial.lsds.seep.processingunit.IProcessingUnit;
+
+/**
+ * Tuples and runtime objects shared by the benchmarks, built without deploying a query.
+ */
+final class Fixtures {
+
+	static final List<String> ATTRIBUTES = Arrays.asList("timestamp", "key", "value", "load", "label");
+	static final List<Type> TYPES = Arrays.asList(Type.LONG, Type.INT, Type.LONG, Type.DOUBLE, Type.OBJECT);
+	static final TupleSchema SCHEMA = TupleSchema.fromAttributes(ATTRIBUTES, TYPES);
+
+	/** Physical ids of the join query: two sources feeding the join, which feeds the sink **/
+	static final int LEFT_SRC = 10;
+	static final int RIGHT_SRC = 11;
+	static final int JOIN = 12;
+	static final int SINK = 13;
+
+	private Fixtures() {}
+
+	static TuplePayload payload(long ts) {
+		TuplePayload tp = new TuplePayload();
+		tp.timestamp = ts;
+		tp.instrumentation_ts = ts;
+		tp.local_ts = ts;
+		tp.attrValues = new Payload(ts, (int) (ts % 64), ts * 31, (ts % 1000) / 10.0, "plug-" + (ts % 8));
+		return tp;
+	}
+
+	static DataTuple tuple(long ts) {
+		return new DataTuple(SCHEMA, payload(ts));
+	}
+
+	static DataTuple compactTuple(long ts) {
+		DataTuple dt = tuple(ts);
+		dt.compact();
+		return dt;
+	}
+
+	static List<DataTuple> tuples(int n, boolean compact) {
+		List<DataTuple> tuples = new ArrayList<>(n);
+		for (long ts = 1; ts <= n; ts++) {
+			tuples.add(compact ? compactTuple(ts) : tuple(ts));
+		}
+		return tuples;
+	}
+
+	/**
+	 * Frontier query of a join of two sources, one replica per logical operator
+	 */
+	static Query joinQuery() {
+		TreeMap<Integer, Integer[]> logicalTopology = new TreeMap<>();
+		logicalTopology.put(0, new Integer[]{});
+		logicalTopology.put(1, new Integer[]{});
+		logicalTopology.put(2, new Integer[]{0, 1});
+		logicalTopology.put(3, new Integer[]{2});
+		TreeMap<Integer, Set<Integer>> log2phys = new TreeMap<>();
+		Map<Integer, InetAddress> phys2addr = new HashMap<>();
+		int[] physIds = {LEFT_SRC, RIGHT_SRC, JOIN, SINK};
+		for (int logicalId = 0; logicalId < physIds.length; logicalId++) {
+			log2phys.put(logicalId, new HashSet<>(Arrays.asList(physIds[logicalId])));
+			try {
+				phys2addr.put(physIds[logicalId], InetAddress.getByAddress(new byte[]{127, 0, 0, (byte) (logicalId + 1)}));
+			}
+			catch (UnknownHostException e) {
+				throw new RuntimeException(e);
+			}
+		}
+		return new Query(logicalTopology, log2phys, phys2addr);
+	}
+
+	/**
+	 * Dispatcher of the sink of the join query, whose output queues are the ones benchmarked. The processing unit
+	 * is a stub: the dispatcher only asks it for its operator at construction.
+	 */
+	static Dispatcher sinkDispatcher() {
+		final Operator op = Operator.getStatelessOperator(SINK, null, ATTRIBUTES);
+		op.getOpContext().setIsSink(true);
+		op.getOpContext().setFrontierQuery(joinQuery());
+		IProcessingUnit pu = (IProcessingUnit) Proxy.newProxyInstance(IProcessingUnit.class.getClassLoader(),
+				new Class<?>[]{IProcessingUnit.class}, new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) {
+						if (method.getName().equals("getOperator")) { return op; }
+						throw new UnsupportedOperationException(method.getName());
+					}
+				});
+		return new Dispatcher(pu);
+	}
+}
@@ -0,0 +1,84 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Imperial College London.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Raul Castro Fernandez - initial design and implementation
+ ******************************************************************************/
+package uk.ac.imperial.lsds.seep.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+import uk.ac.imperial.lsds.seep.comm.serialization.DataTuple;
+import uk.ac.imperial.lsds.seep.comm.serialization.messages.BatchTuplePayload;
+import uk.ac.imperial.lsds.seep.runtimeengine.OutputQueue;
+
+/**
+ * Kryo round trip of a batch of tuples, with Kryo configured as the output queues configure it. Throughput is
+ * in batches.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class KryoBatchBenchmark {
+
+	@Param({"1", "100"})
+	public int batchSize;
+
+	@Param({"false", "true"})
+	public boolean compact;
+
+	private Kryo kryo;
+	private BatchTuplePayload batch;
+	private Output output;
+	private Input input;
+
+	@Setup
+	public void setUp() {
+		kryo = OutputQueue.newKryo(Fixtures.SCHEMA);
+		batch = new BatchTuplePayload();
+		for (DataTuple dt : Fixtures.tuples(batchSize, compact)) {
+			batch.addTuple(dt.getPayload());
+		}
+		output = new Output(4096, -1);
+		input = new Input();
+		kryo.writeObject(output, batch);
+	}
+
+	@Benchmark
+	public int write() {
+		output.clear();
+		kryo.writeObject(output, batch);
+		return output.position();
+	}
+
+	@Benchmark
+	public BatchTuplePayload roundTrip() {
+		output.clear();
+		kryo.writeObject(output, batch);
+		input.setBuffer(output.getBuffer(), 0, output.position());
+		return kryo.readObject(input, BatchTuplePayload.class);
+	}
+}
@@ -0,0 +1,99 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Imperial College London.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Raul Castro Fernandez - initial design and implementation
+ ******************************************************************************/
+package uk.ac.imperial.lsds.seep.benchmarks;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import uk.ac.imperial.lsds.seep.comm.serialization.DataTuple;
+import uk.ac.imperial.lsds.seep.comm.serialization.LongRangeSet;
+import uk.ac.imperial.lsds.seep.processingunit.Dispatcher;
+import uk.ac.imperial.lsds.seep.processingunit.Dispatcher.OperatorOutputQueue;
+
+/**
+ * Output queue of the dispatcher holding queueSize unacked tuples: each invocation adds the tuple with the
+ * next timestamp and removes the oldest one, either on its own (as once it is sent) or with a range of acks.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class OperatorOutputQueueBenchmark {
+
+	private static final int ACK_BATCH = 16;
+
+	@Param({"100", "10000"})
+	public int queueSize;
+
+	private OperatorOutputQueue queue;
+	private DataTuple[] tuples;
+	private long ts;
+
+	@Setup
+	public void setUp() {
+		Dispatcher dispatcher = Fixtures.sinkDispatcher();
+		queue = dispatcher.new OperatorOutputQueue(Integer.MAX_VALUE);
+		/*
+		 * Ring of tuples, ts modulo its length is never in the queue when added
+		 */
+		tuples = new DataTuple[queueSize + ACK_BATCH];
+		for (int i = 0; i < tuples.length; i++) {
+			tuples[i] = Fixtures.tuple(0);
+		}
+		for (ts = 1; ts <= queueSize; ts++) {
+			add(ts);
+		}
+		ts = queueSize;
+	}
+
+	private void add(long ts) {
+		DataTuple dt = tuples[(int) (ts % tuples.length)];
+		dt.getPayload().timestamp = ts;
+		queue.add(dt);
+	}
+
+	@Benchmark
+	public DataTuple addRemoveHead() {
+		ts++;
+		add(ts);
+		return queue.tryRemoveHead();
+	}
+
+	@Benchmark
+	public DataTuple addRemove() {
+		ts++;
+		add(ts);
+		return queue.remove(ts - queueSize);
+	}
+
+	@Benchmark
+	public Map<Long, DataTuple> addRemoveAcked() {
+		for (int i = 0; i < ACK_BATCH; i++) {
+			ts++;
+			add(ts);
+		}
+		return queue.removeAll(LongRangeSet.range(ts - queueSize - ACK_BATCH + 1, ts - queueSize));
+	}
+}
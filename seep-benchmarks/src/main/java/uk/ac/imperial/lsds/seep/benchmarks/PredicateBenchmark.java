@@ -0,0 +1,106 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Imperial College London.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Raul Castro Fernandez - initial design and implementation
+ ******************************************************************************/
+package uk.ac.imperial.lsds.seep.benchmarks;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import uk.ac.imperial.lsds.seep.comm.serialization.DataTuple;
+import uk.ac.imperial.lsds.streamsql.codegen.CompiledSelectionProjection;
+import uk.ac.imperial.lsds.streamsql.codegen.PipelineCompiler;
+import uk.ac.imperial.lsds.streamsql.conversion.DoubleConversion;
+import uk.ac.imperial.lsds.streamsql.conversion.LongConversion;
+import uk.ac.imperial.lsds.streamsql.expressions.ColumnReference;
+import uk.ac.imperial.lsds.streamsql.expressions.IValueExpression;
+import uk.ac.imperial.lsds.streamsql.expressions.ValueExpression;
+import uk.ac.imperial.lsds.streamsql.predicates.ANDPredicate;
+import uk.ac.imperial.lsds.streamsql.predicates.ComparisonPredicate;
+import uk.ac.imperial.lsds.streamsql.predicates.IPredicate;
+import uk.ac.imperial.lsds.streamsql.util.ColumnBatch;
+
+/**
+ * Evaluation of the streamsql predicate "value > 1000 AND load < 50.0" over a batch of tuples: tuple at a
+ * time, over the columns of the batch, and by the class generated for the selection. Throughput is in
+ * batches.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PredicateBenchmark {
+
+	@Param({"1000"})
+	public int batchSize;
+
+	@Param({"false", "true"})
+	public boolean compact;
+
+	private List<DataTuple> tuples;
+	private IPredicate predicate;
+	private CompiledSelectionProjection compiled;
+
+	@Setup
+	public void setUp() {
+		tuples = Fixtures.tuples(batchSize, compact);
+		predicate = new ANDPredicate(
+				new ComparisonPredicate<Long>(ComparisonPredicate.GREATER_OP,
+						new ColumnReference<Long>(new LongConversion(), "value"),
+						new ValueExpression<Long>(new LongConversion(), 1000L)),
+				new ComparisonPredicate<Double>(ComparisonPredicate.LESS_OP,
+						new ColumnReference<Double>(new DoubleConversion(), "load"),
+						new ValueExpression<Double>(new DoubleConversion(), 50.0)));
+		compiled = PipelineCompiler.compile(predicate, new ArrayList<IValueExpression>());
+		if (compiled == null)
+			throw new IllegalStateException("Cannot compile " + predicate + ", is this a JDK?");
+	}
+
+	@Benchmark
+	public int tupleAtATime() {
+		int selected = 0;
+		for (DataTuple dt : tuples)
+			if (predicate.satisfied(dt))
+				selected++;
+		return selected;
+	}
+
+	@Benchmark
+	public int columnBatch() {
+		ColumnBatch batch = new ColumnBatch(tuples);
+		BitSet selection = batch.selectAll();
+		predicate.satisfied(batch, selection);
+		return selection.cardinality();
+	}
+
+	@Benchmark
+	public int generated() {
+		int selected = 0;
+		for (DataTuple dt : tuples)
+			if (compiled.process(dt) != null)
+				selected++;
+		return selected;
+	}
+}
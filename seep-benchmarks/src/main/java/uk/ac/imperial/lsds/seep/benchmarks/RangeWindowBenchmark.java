@@ -0,0 +1,113 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Imperial College London.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Raul Castro Fernandez - initial design and implementation
+ ******************************************************************************/
+package uk.ac.imperial.lsds.seep.benchmarks;
+
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import uk.ac.imperial.lsds.seep.comm.serialization.DataTuple;
+import uk.ac.imperial.lsds.streamsql.operator.IncrementalWindowOperator;
+import uk.ac.imperial.lsds.streamsql.operator.WindowOperator;
+import uk.ac.imperial.lsds.streamsql.windows.RangeWindow;
+
+/**
+ * Sliding range window over a stream of one tuple per time unit, driving an operator that sums an attribute
+ * either over the queue of the window or incrementally pane by pane.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RangeWindowBenchmark {
+
+	@Param({"1000"})
+	public int size;
+
+	@Param({"100"})
+	public int slide;
+
+	@Param({"false", "true"})
+	public boolean incremental;
+
+	private RangeWindow window;
+	private DataTuple[] tuples;
+	private long ts;
+	private long result;
+
+	@Setup
+	public void setUp() {
+		window = new RangeWindow(size, slide);
+		if (incremental) {
+			window.registerIncrementalCallback(new IncrementalWindowOperator() {
+				private long pane;
+				private long total;
+
+				@Override
+				public void enterPane(DataTuple tuple) {
+					pane += tuple.getLong("value");
+				}
+
+				@Override
+				public void closePane() {
+					total += pane;
+					pane = 0;
+				}
+
+				@Override
+				public void evaluateWindow() {
+					result = total;
+				}
+			});
+		}
+		else {
+			window.registerCallback(new WindowOperator() {
+				@Override
+				public void evaluateWindow(Queue<DataTuple> dataList) {
+					long sum = 0;
+					for (DataTuple dt : dataList)
+						sum += dt.getLong("value");
+					result = sum;
+				}
+			});
+		}
+		/*
+		 * Twice the tuples a window holds, so none is reused while in the window
+		 */
+		tuples = new DataTuple[2 * size];
+		for (int i = 0; i < tuples.length; i++) {
+			tuples[i] = Fixtures.tuple(0);
+		}
+	}
+
+	@Benchmark
+	public long updateWindow() {
+		ts++;
+		DataTuple dt = tuples[(int) (ts % tuples.length)];
+		dt.getPayload().attrValues.set(0, ts);
+		dt.getPayload().attrValues.set(2, ts);
+		window.updateWindow(dt);
+		return result;
+	}
+}
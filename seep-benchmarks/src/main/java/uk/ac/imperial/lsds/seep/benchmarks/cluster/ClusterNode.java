@@ -0,0 +1,86 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Imperial College London.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Raul Castro Fernandez - initial design and implementation
+ ******************************************************************************/
+package uk.ac.imperial.lsds.seep.benchmarks.cluster;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import uk.ac.imperial.lsds.seep.GLOBALS;
+import uk.ac.imperial.lsds.seep.api.QueryPlan;
+import uk.ac.imperial.lsds.seep.benchmarks.cluster.metrics.ClusterMetrics;
+import uk.ac.imperial.lsds.seep.comm.serialization.DataTuple;
+import uk.ac.imperial.lsds.seep.infrastructure.NodeManager;
+import uk.ac.imperial.lsds.seep.infrastructure.master.MasterController;
+import uk.ac.imperial.lsds.seep.manet.LinkEmulator;
+import uk.ac.imperial.lsds.seep.manet.stats.Stats;
+import uk.ac.imperial.lsds.seep.manet.stats.Stats.IntervalTput;
+
+/**
+ * Entry points of a node of the cluster. LocalCluster calls them by reflection on the class as loaded by the
+ * NodeClassLoader of the node, so they act on the node's own copy of the system (its GLOBALS, its operator...).
+ */
+public class ClusterNode {
+
+	private static final Set<Integer> hosted = Collections.synchronizedSet(new HashSet<Integer>());
+
+	private ClusterNode() {}
+
+	/**
+	 * Starts the master and submits the query to it. Returns the number of workers the query needs.
+	 */
+	public static int startMaster() {
+		MasterController mc = MasterController.getInstance();
+		mc.init();
+		QueryPlan qp = new ClusterQuery().compose();
+		mc.submitQuery(qp);
+		int workers = qp.getOps().size();
+		for (int replicas : qp.getPartitionRequirements().values()) { workers += replicas - 1; }
+		return workers;
+	}
+
+	public static int nodePoolSize() {
+		return MasterController.getInstance().getNodePoolSize();
+	}
+
+	public static void deployAndStart() throws Exception {
+		MasterController.getInstance().deployAndStart();
+	}
+
+	/**
+	 * Runs a worker listening on ownPort until the JVM exits
+	 */
+	public static void runWorker() throws UnknownHostException {
+		int mainPort = Integer.parseInt(GLOBALS.valueFor("mainPort"));
+		int ownPort = Integer.parseInt(GLOBALS.valueFor("ownPort"));
+		new NodeManager(mainPort, InetAddress.getByName(GLOBALS.valueFor("mainAddr")), ownPort).init();
+	}
+
+	public static boolean hosts(int opId) {
+		return hosted.contains(opId);
+	}
+
+	public static void fail() {
+		LinkEmulator.fail();
+	}
+
+	static void hosting(int opId) {
+		hosted.add(opId);
+	}
+
+	static void processed(int opId, Stats stats, DataTuple data) {
+		ClusterMetrics.processed(opId);
+		IntervalTput tput = stats.add(System.currentTimeMillis(), data.getString("value").length());
+		if (tput != null) { ClusterMetrics.throughput(opId, tput.cumIntervalTput); }
+	}
+}
@@ -0,0 +1,96 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Imperial College London.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Raul Castro Fernandez - initial design and implementation
+ ******************************************************************************/
+package uk.ac.imperial.lsds.seep.benchmarks.cluster;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import uk.ac.imperial.lsds.seep.GLOBALS;
+import uk.ac.imperial.lsds.seep.api.QueryBuilder;
+import uk.ac.imperial.lsds.seep.api.QueryComposer;
+import uk.ac.imperial.lsds.seep.api.QueryPlan;
+import uk.ac.imperial.lsds.seep.operator.Connectable;
+import uk.ac.imperial.lsds.seep.operator.InputDataIngestionMode;
+
+/**
+ * Query run by LocalCluster, one of the query types the master knows the frontier topology of:
+ * 
+ *   chain:  source -> chainLength operators, each replicated replicationFactor times -> sink
+ *   frJoin: 2 sources -> an operator each, replicated -> join, replicated -> sink
+ * 
+ * Sinks are replicated sinkScaleFactor times if scaleOutSinks is set.
+ */
+public class ClusterQuery implements QueryComposer {
+
+	private static final List<String> fields = new ArrayList<String>(Arrays.asList("tupleId", "value"));
+
+	private final int replicationFactor = Integer.parseInt(GLOBALS.valueFor("replicationFactor"));
+
+	public QueryPlan compose() {
+		String queryType = GLOBALS.valueFor("queryType");
+		if (queryType.equals("chain")) { return composeChain(); }
+		else if (queryType.equals("frJoin")) { return composeJoin(); }
+		else { throw new IllegalArgumentException("Unsupported query type for a local cluster: "+queryType); }
+	}
+
+	private QueryPlan composeChain() {
+		int chainLength = Integer.parseInt(GLOBALS.valueFor("chainLength"));
+		Connectable src = QueryBuilder.newStatelessSource(new RateSource(), -1, fields);
+		Connectable snk = QueryBuilder.newStatelessSink(new LatencySink(), -2, fields);
+
+		Connectable upstream = src;
+		for (int i = 0; i < chainLength; i++)
+		{
+			Connectable op = QueryBuilder.newStatelessOperator(new Relay(), i, fields);
+			upstream.connectTo(op, true, i);
+			upstream = op;
+		}
+		upstream.connectTo(snk, true, chainLength);
+
+		for (int i = 0; i < chainLength; i++) { scaleOut(i, replicationFactor); }
+		scaleOutSink(snk);
+		return QueryBuilder.build();
+	}
+
+	private QueryPlan composeJoin() {
+		Connectable src1 = QueryBuilder.newStatelessSource(new RateSource(), -1, fields);
+		Connectable src2 = QueryBuilder.newStatelessSource(new RateSource(), -2, fields);
+		Connectable op1 = QueryBuilder.newStatelessOperator(new Relay(), 0, fields);
+		Connectable op2 = QueryBuilder.newStatelessOperator(new Relay(), 1, fields);
+		Connectable join = QueryBuilder.newStatelessOperator(new PairJoin(), 2, fields);
+		Connectable snk = QueryBuilder.newStatelessSink(new LatencySink(), -3, fields);
+
+		src1.connectTo(op1, true, 0);
+		src2.connectTo(op2, true, 1);
+		op1.connectTo(join, InputDataIngestionMode.UPSTREAM_SYNC_BATCH_BUFFERED_BARRIER, true, 2);
+		op2.connectTo(join, InputDataIngestionMode.UPSTREAM_SYNC_BATCH_BUFFERED_BARRIER, true, 3);
+		join.connectTo(snk, true, 4);
+
+		scaleOut(op1.getOperatorId(), replicationFactor);
+		scaleOut(op2.getOperatorId(), replicationFactor);
+		scaleOut(join.getOperatorId(), replicationFactor);
+		scaleOutSink(snk);
+		return QueryBuilder.build();
+	}
+
+	private void scaleOutSink(Connectable snk) {
+		if (Boolean.parseBoolean(GLOBALS.valueFor("scaleOutSinks")))
+		{
+			int sinkScaleFactor = Integer.parseInt(GLOBALS.valueFor("sinkScaleFactor"));
+			scaleOut(snk.getOperatorId(), sinkScaleFactor > 0 ? sinkScaleFactor : replicationFactor);
+		}
+	}
+
+	private void scaleOut(int opId, int replicas) {
+		if (replicas > 1) { QueryBuilder.scaleOut(opId, replicas); }
+	}
+}
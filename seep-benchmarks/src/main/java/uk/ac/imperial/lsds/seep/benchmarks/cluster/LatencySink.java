@@ -0,0 +1,42 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Imperial College London.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Raul Castro Fernandez - initial design and implementation
+ ******************************************************************************/
+package uk.ac.imperial.lsds.seep.benchmarks.cluster;
+
+import java.util.List;
+
+import uk.ac.imperial.lsds.seep.benchmarks.cluster.metrics.ClusterMetrics;
+import uk.ac.imperial.lsds.seep.comm.serialization.DataTuple;
+import uk.ac.imperial.lsds.seep.manet.stats.Stats;
+import uk.ac.imperial.lsds.seep.operator.StatelessOperator;
+
+/**
+ * Records the end-to-end latency of every tuple, from the time its source created it (instrumentation_ts).
+ */
+public class LatencySink implements StatelessOperator {
+
+	private static final long serialVersionUID = 1L;
+	private Stats stats;
+
+	public void setUp() {
+		ClusterNode.hosting(api.getOperatorId());
+		stats = new Stats(api.getOperatorId());
+	}
+
+	public void processData(DataTuple data) {
+		ClusterMetrics.latency(System.currentTimeMillis() - data.getPayload().instrumentation_ts);
+		ClusterNode.processed(api.getOperatorId(), stats, data);
+		api.ack(data);
+	}
+
+	public void processData(List<DataTuple> dataList) {
+		for (DataTuple data : dataList) { processData(data); }
+	}
+}
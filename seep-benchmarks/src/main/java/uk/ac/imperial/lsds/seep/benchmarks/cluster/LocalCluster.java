@@ -0,0 +1,247 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Imperial College London.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Raul Castro Fernandez - initial design and implementation
+ ******************************************************************************/
+package uk.ac.imperial.lsds.seep.benchmarks.cluster;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.slf4j.LoggerFactory;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import uk.ac.imperial.lsds.seep.benchmarks.cluster.metrics.ClusterMetrics;
+
+/**
+ * Runs a master and the workers of a query in this JVM, each node with its own copy of the system (see
+ * NodeClassLoader) and its own loopback address, drives the query and reports its end-to-end latency
+ * percentiles and the throughput of each operator. Arguments are key=value pairs; those not listed here are
+ * config.properties overrides for all the nodes (e.g. queryType, replicationFactor, frameRate, linkDelay, which
+ * needs the default nioIngress=false):
+ * 
+ *   duration=60       seconds measured, after
+ *   warmUp=10         seconds of warm-up
+ *   failOperator=id   operator whose node fails (see LinkEmulator#fail())...
+ *   failAt=30         ...this many seconds into the measurement
+ *   logLevel=WARN     level of the system logs
+ * 
+ * e.g. java -cp seep-benchmarks-0.0.1-SNAPSHOT.jar uk.ac.imperial.lsds.seep.benchmarks.cluster.LocalCluster
+ *          queryType=frJoin replicationFactor=2 frameRate=500 linkDelay=5 linkLossRate=0.01
+ */
+public class LocalCluster {
+
+	private static final double[] percentiles = {50, 90, 99, 99.9, 100};
+	private static final String[] percentileNames = {"p50", "p90", "p99", "p99.9", "max"};
+	private static final long reportInterval = 5000;
+
+	private final Properties config = new Properties();
+	private final List<NodeClassLoader> workers = new ArrayList<>();
+	private NodeClassLoader master;
+
+	public static void main(String[] args) throws Exception {
+		Properties options = new Properties();
+		for (String arg : args)
+		{
+			String[] kv = arg.split("=", 2);
+			if (kv.length != 2) { throw new IllegalArgumentException("Expected key=value, got "+arg); }
+			options.setProperty(kv[0], kv[1]);
+		}
+		long duration = 1000 * Long.parseLong(take(options, "duration", "60"));
+		long warmUp = 1000 * Long.parseLong(take(options, "warmUp", "10"));
+		String failOperator = take(options, "failOperator", null);
+		long failAt = 1000 * Long.parseLong(take(options, "failAt", "30"));
+		setLogLevel(Level.toLevel(take(options, "logLevel", "WARN")));
+		if (Boolean.parseBoolean(options.getProperty("nioIngress", "false"))
+				&& (Double.parseDouble(options.getProperty("linkDelay", "0")) > 0
+						|| Double.parseDouble(options.getProperty("linkLossRate", "0")) > 0))
+		{
+			throw new IllegalArgumentException("nioIngress=true does not emulate linkDelay and linkLossRate");
+		}
+
+		LocalCluster cluster = new LocalCluster(options);
+		cluster.start();
+		System.out.println("Warming up for "+warmUp/1000+" s");
+		Thread.sleep(warmUp);
+		ClusterMetrics.reset();
+
+		long tStart = System.currentTimeMillis();
+		long tFail = failOperator == null ? Long.MAX_VALUE : tStart + failAt;
+		long tEnd = tStart + duration;
+		long tReport = tStart + reportInterval;
+		for (long tNow = tStart; tNow < tEnd; tNow = System.currentTimeMillis())
+		{
+			Thread.sleep(Math.max(0, Math.min(tEnd, Math.min(tFail, tReport)) - tNow));
+			tNow = System.currentTimeMillis();
+			if (tNow >= tFail)
+			{
+				System.out.println("Failing the node of operator "+failOperator);
+				cluster.fail(Integer.parseInt(failOperator));
+				tFail = Long.MAX_VALUE;
+			}
+			if (tNow >= tReport && tNow < tEnd)
+			{
+				report(tNow - tStart, false);
+				tReport += reportInterval;
+			}
+		}
+		report(System.currentTimeMillis() - tStart, true);
+		System.exit(0);
+	}
+
+	public LocalCluster(Properties overrides) throws IOException {
+		InputStream in = LocalCluster.class.getClassLoader().getResourceAsStream("config.properties");
+		config.load(in);
+		in.close();
+		// Driven at a fixed rate unless told otherwise
+		config.setProperty("mainAddr", "127.0.0.1");
+		config.setProperty("queryType", "frJoin");
+		config.setProperty("rateLimitSrc", "true");
+		config.setProperty("frameRate", "1000");
+		config.putAll(overrides);
+	}
+
+	/**
+	 * Starts the master, as many workers as the query has operators, and the query
+	 */
+	public void start() throws Exception {
+		int mainPort = Integer.parseInt(config.getProperty("mainPort"));
+		master = newNode(mainPort, "127.0.0.1");
+		int numWorkers = (Integer) call(master, "startMaster");
+		System.out.println("Starting "+numWorkers+" workers");
+		for (int i = 1; i <= numWorkers; i++)
+		{
+			// Every worker is a host of its own, with an address of the loopback
+			final NodeClassLoader worker = newNode(mainPort + i, "127.0.0."+(i + 1));
+			workers.add(worker);
+			Thread t = new Thread(new Runnable() {
+				public void run() {
+					try { call(worker, "runWorker"); }
+					catch (Exception e) { e.printStackTrace(); }
+				}
+			}, "worker-"+i);
+			t.setContextClassLoader(worker);
+			t.start();
+		}
+		while ((Integer) call(master, "nodePoolSize") < numWorkers) { Thread.sleep(100); }
+		call(master, "deployAndStart");
+	}
+
+	/**
+	 * Fails the node running an operator
+	 */
+	public void fail(int opId) throws Exception {
+		for (NodeClassLoader worker : workers)
+		{
+			if ((Boolean) call(worker, "hosts", opId))
+			{
+				call(worker, "fail");
+				return;
+			}
+		}
+		throw new IllegalArgumentException("No node runs operator "+opId);
+	}
+
+	private NodeClassLoader newNode(int ownPort, String nodeAddr) throws IOException {
+		Properties nodeConfig = new Properties();
+		nodeConfig.putAll(config);
+		nodeConfig.setProperty("ownPort", ""+ownPort);
+		nodeConfig.setProperty("nodeAddr", nodeAddr);
+		File f = File.createTempFile("node-"+ownPort+"-", ".properties");
+		f.deleteOnExit();
+		OutputStream out = new FileOutputStream(f);
+		nodeConfig.store(out, null);
+		out.close();
+		return new NodeClassLoader(classpath(), f.toURI().toURL());
+	}
+
+	/**
+	 * Calls a static method of ClusterNode in a node, with the node's class loader as the context one, so that
+	 * the threads the call starts belong to the node too
+	 */
+	private static Object call(NodeClassLoader node, String method, Object... args) throws Exception {
+		Class<?>[] types = new Class<?>[args.length];
+		for (int i = 0; i < args.length; i++) { types[i] = args[i] instanceof Integer ? int.class : args[i].getClass(); }
+		Thread current = Thread.currentThread();
+		ClassLoader previous = current.getContextClassLoader();
+		current.setContextClassLoader(node);
+		try
+		{
+			return node.loadClass(ClusterNode.class.getName()).getMethod(method, types).invoke(null, args);
+		}
+		catch (InvocationTargetException e)
+		{
+			throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+		}
+		finally
+		{
+			current.setContextClassLoader(previous);
+		}
+	}
+
+	private static void report(long elapsed, boolean summary) {
+		long[] latency = ClusterMetrics.latencyPercentiles(percentiles);
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format("[%6.1f s] %d tuples at the sinks", elapsed / 1000.0, ClusterMetrics.numLatencies()));
+		if (latency != null)
+		{
+			sb.append(", latency (ms)");
+			for (int i = 0; i < percentiles.length; i++)
+			{
+				sb.append(" "+percentileNames[i]+"="+latency[i]);
+			}
+		}
+		System.out.println(sb);
+		if (!summary) { return; }
+
+		Map<Integer, Double> tput = ClusterMetrics.throughput();
+		System.out.println(String.format("%10s %12s %12s %12s", "operator", "tuples", "tuples/s", "Kb/s"));
+		for (Map.Entry<Integer, Long> e : ClusterMetrics.processed().entrySet())
+		{
+			Double kbps = tput.get(e.getKey());
+			System.out.println(String.format("%10d %12d %12.1f %12s", e.getKey(), e.getValue(),
+					1000.0 * e.getValue() / elapsed, kbps == null ? "-" : String.format("%.1f", kbps)));
+		}
+	}
+
+	private static URL[] classpath() throws MalformedURLException {
+		String[] entries = System.getProperty("java.class.path").split(File.pathSeparator);
+		URL[] urls = new URL[entries.length];
+		for (int i = 0; i < entries.length; i++) { urls[i] = new File(entries[i]).toURI().toURL(); }
+		return urls;
+	}
+
+	private static String take(Properties options, String key, String defaultValue) {
+		String value = (String) options.remove(key);
+		return value == null ? defaultValue : value;
+	}
+
+	/**
+	 * Raises the level of the root logger, and of the loggers configured below it, to level
+	 */
+	private static void setLogLevel(Level level) {
+		LoggerContext context = (LoggerContext) LoggerFactory.getILoggerFactory();
+		for (Logger logger : context.getLoggerList())
+		{
+			if (logger.getLevel() != null && !logger.getLevel().isGreaterOrEqual(level)) { logger.setLevel(level); }
+		}
+		context.getLogger(Logger.ROOT_LOGGER_NAME).setLevel(level);
+	}
+}
@@ -0,0 +1,64 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Imperial College London.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Raul Castro Fernandez - initial design and implementation
+ ******************************************************************************/
+package uk.ac.imperial.lsds.seep.benchmarks.cluster;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+
+/**
+ * Class loader of a node of an in-process cluster. The system keeps a node's state in statics (GLOBALS, the
+ * operator API, NodeManager...), so every node loads its own copy of the classes of the classpath, child first,
+ * and reads its own config.properties. The JDK, logging and ClusterMetrics are shared by all the nodes.
+ */
+class NodeClassLoader extends URLClassLoader {
+
+	private static final String[] shared = {
+		"java.", "javax.", "sun.", "jdk.", "org.xml.", "org.w3c.", "org.slf4j.", "ch.qos.logback.",
+		"uk.ac.imperial.lsds.seep.benchmarks.cluster.metrics."
+	};
+
+	private final URL config;
+
+	NodeClassLoader(URL[] classpath, URL config) {
+		super(classpath, NodeClassLoader.class.getClassLoader());
+		this.config = config;
+	}
+
+	@Override
+	protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+		synchronized(getClassLoadingLock(name))
+		{
+			Class<?> c = findLoadedClass(name);
+			if (c == null)
+			{
+				if (isShared(name)) { return super.loadClass(name, resolve); }
+				try { c = findClass(name); }
+				catch (ClassNotFoundException e) { return super.loadClass(name, resolve); }
+			}
+			if (resolve) { resolveClass(c); }
+			return c;
+		}
+	}
+
+	@Override
+	public URL getResource(String name) {
+		if (name.equals("config.properties")) { return config; }
+		return super.getResource(name);
+	}
+
+	private static boolean isShared(String name) {
+		for (String prefix : shared)
+		{
+			if (name.startsWith(prefix)) { return true; }
+		}
+		return false;
+	}
+}
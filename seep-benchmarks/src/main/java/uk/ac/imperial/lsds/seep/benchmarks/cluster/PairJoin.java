@@ -0,0 +1,48 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Imperial College London.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Raul Castro Fernandez - initial design and implementation
+ ******************************************************************************/
+package uk.ac.imperial.lsds.seep.benchmarks.cluster;
+
+import java.util.List;
+
+import uk.ac.imperial.lsds.seep.comm.serialization.DataTuple;
+import uk.ac.imperial.lsds.seep.manet.stats.Stats;
+import uk.ac.imperial.lsds.seep.operator.StatelessOperator;
+
+/**
+ * Binary join of the tuples with the same timestamp, one from each input, as lined up by the barrier of the
+ * operator. It emits the one sent last, so the end-to-end latency is that of the slower path.
+ */
+public class PairJoin implements StatelessOperator {
+
+	private static final long serialVersionUID = 1L;
+	private Stats stats;
+
+	public void setUp() {
+		ClusterNode.hosting(api.getOperatorId());
+		stats = new Stats(api.getOperatorId());
+	}
+
+	public void processData(DataTuple data) {
+		throw new UnsupportedOperationException("Join inputs come in pairs");
+	}
+
+	public void processData(List<DataTuple> dataList) {
+		if (dataList.size() != 2) { throw new RuntimeException("Logic error - expected 1 tuple per input, got "+dataList.size()); }
+		DataTuple data = dataList.get(0);
+		if (dataList.get(1).getPayload().instrumentation_ts > data.getPayload().instrumentation_ts)
+		{
+			data = dataList.get(1);
+		}
+		DataTuple output = data.setValues(data.getLong("tupleId"), data.getString("value"));
+		ClusterNode.processed(api.getOperatorId(), stats, data);
+		api.send_highestWeight(output);
+	}
+}
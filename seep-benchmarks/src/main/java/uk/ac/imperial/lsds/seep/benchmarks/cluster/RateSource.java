@@ -0,0 +1,66 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Imperial College London.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Raul Castro Fernandez - initial design and implementation
+ ******************************************************************************/
+package uk.ac.imperial.lsds.seep.benchmarks.cluster;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import uk.ac.imperial.lsds.seep.GLOBALS;
+import uk.ac.imperial.lsds.seep.benchmarks.cluster.metrics.ClusterMetrics;
+import uk.ac.imperial.lsds.seep.comm.serialization.DataTuple;
+import uk.ac.imperial.lsds.seep.comm.serialization.messages.TuplePayload;
+import uk.ac.imperial.lsds.seep.operator.StatelessOperator;
+
+/**
+ * Sends tuples of tupleSizeChars characters at frameRate tuples/s (as fast as it can if rateLimitSrc is false).
+ * The tuple id is also the tuple timestamp, so that the tuples of several sources line up at a join.
+ */
+public class RateSource implements StatelessOperator {
+
+	private static final long serialVersionUID = 1L;
+	private static final Logger logger = LoggerFactory.getLogger(RateSource.class);
+
+	public void setUp() {
+		ClusterNode.hosting(api.getOperatorId());
+	}
+
+	public void processData(DataTuple dt) {
+		DataTuple data = new DataTuple(api.getDataMapper(), new TuplePayload());
+		boolean rateLimit = Boolean.parseBoolean(GLOBALS.valueFor("rateLimitSrc"));
+		long rate = Long.parseLong(GLOBALS.valueFor("frameRate"));
+		char[] chars = new char[Integer.parseInt(GLOBALS.valueFor("tupleSizeChars"))];
+		Arrays.fill(chars, 'x');
+		String value = new String(chars);
+		logger.info("Source {} sending at {} tuples/s", api.getOperatorId(), rateLimit ? rate : "unlimited");
+
+		long tStart = System.nanoTime();
+		for (long tupleId = 0; ; tupleId++)
+		{
+			if (rateLimit)
+			{
+				long wait = tStart + tupleId * 1000000000L / rate - System.nanoTime();
+				if (wait > 0) { LockSupport.parkNanos(wait); }
+			}
+			DataTuple output = data.newTuple(tupleId, value);
+			output.getPayload().timestamp = tupleId;
+			api.send_highestWeight(output);
+			ClusterMetrics.processed(api.getOperatorId());
+		}
+	}
+
+	public void processData(List<DataTuple> dataList) {
+		throw new UnsupportedOperationException();
+	}
+}
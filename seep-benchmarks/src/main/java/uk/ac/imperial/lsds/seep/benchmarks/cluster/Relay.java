@@ -0,0 +1,48 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Imperial College London.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Raul Castro Fernandez - initial design and implementation
+ ******************************************************************************/
+package uk.ac.imperial.lsds.seep.benchmarks.cluster;
+
+import java.util.List;
+
+import uk.ac.imperial.lsds.seep.GLOBALS;
+import uk.ac.imperial.lsds.seep.comm.serialization.DataTuple;
+import uk.ac.imperial.lsds.seep.manet.stats.Stats;
+import uk.ac.imperial.lsds.seep.operator.StatelessOperator;
+
+/**
+ * Forwards its input after defaultProcessingDelay ms of "work".
+ */
+public class Relay implements StatelessOperator {
+
+	private static final long serialVersionUID = 1L;
+	private final long processingDelay = Long.parseLong(GLOBALS.valueFor("defaultProcessingDelay"));
+	private Stats stats;
+
+	public void setUp() {
+		ClusterNode.hosting(api.getOperatorId());
+		stats = new Stats(api.getOperatorId());
+	}
+
+	public void processData(DataTuple data) {
+		if (processingDelay > 0)
+		{
+			try { Thread.sleep(processingDelay); }
+			catch (InterruptedException e) { }
+		}
+		DataTuple output = data.setValues(data.getLong("tupleId"), data.getString("value"));
+		ClusterNode.processed(api.getOperatorId(), stats, data);
+		api.send_highestWeight(output);
+	}
+
+	public void processData(List<DataTuple> dataList) {
+		throw new UnsupportedOperationException();
+	}
+}
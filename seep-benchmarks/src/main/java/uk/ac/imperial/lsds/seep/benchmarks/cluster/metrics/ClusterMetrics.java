@@ -0,0 +1,97 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Imperial College London.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Raul Castro Fernandez - initial design and implementation
+ ******************************************************************************/
+package uk.ac.imperial.lsds.seep.benchmarks.cluster.metrics;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Measurements of an in-process cluster run. Every node of the cluster has its own copy of the system classes,
+ * but this class is loaded once for all of them (see NodeClassLoader), so its only methods take and return
+ * plain JDK types.
+ */
+public class ClusterMetrics {
+
+	private static long[] latencies = new long[1 << 16];
+	private static int numLatencies = 0;
+	private static final Map<Integer, long[]> processed = new TreeMap<>();
+	private static final Map<Integer, Double> tput = new TreeMap<>();
+
+	private ClusterMetrics() {}
+
+	/**
+	 * End-to-end latency (ms) of a tuple received by a sink
+	 */
+	public static synchronized void latency(long latency) {
+		if (numLatencies == latencies.length) { latencies = Arrays.copyOf(latencies, 2 * numLatencies); }
+		latencies[numLatencies++] = latency;
+	}
+
+	/**
+	 * Counts a tuple processed by an operator
+	 */
+	public static synchronized void processed(int opId) {
+		long[] count = processed.get(opId);
+		if (count == null)
+		{
+			count = new long[1];
+			processed.put(opId, count);
+		}
+		count[0]++;
+	}
+
+	/**
+	 * Cumulative throughput (Kb/s) last reported by the Stats of an operator
+	 */
+	public static synchronized void throughput(int opId, double cumIntervalTput) {
+		tput.put(opId, cumIntervalTput);
+	}
+
+	/**
+	 * Drops the measurements so far (e.g. at the end of the warm-up)
+	 */
+	public static synchronized void reset() {
+		numLatencies = 0;
+		processed.clear();
+		tput.clear();
+	}
+
+	/**
+	 * Latency percentiles, e.g. {50, 99, 100}, of the tuples received so far, or null if none was
+	 */
+	public static synchronized long[] latencyPercentiles(double[] percentiles) {
+		if (numLatencies == 0) { return null; }
+		long[] sorted = Arrays.copyOf(latencies, numLatencies);
+		Arrays.sort(sorted);
+		long[] result = new long[percentiles.length];
+		for (int i = 0; i < percentiles.length; i++)
+		{
+			int rank = (int) Math.ceil(percentiles[i] / 100 * sorted.length);
+			result[i] = sorted[Math.max(0, Math.min(sorted.length, rank) - 1)];
+		}
+		return result;
+	}
+
+	public static synchronized int numLatencies() {
+		return numLatencies;
+	}
+
+	public static synchronized Map<Integer, Long> processed() {
+		Map<Integer, Long> result = new TreeMap<>();
+		for (Map.Entry<Integer, long[]> e : processed.entrySet()) { result.put(e.getKey(), e.getValue()[0]); }
+		return result;
+	}
+
+	public static synchronized Map<Integer, Double> throughput() {
+		return new TreeMap<>(tput);
+	}
+}
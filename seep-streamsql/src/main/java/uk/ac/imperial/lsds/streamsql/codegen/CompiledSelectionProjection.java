@@ -0,0 +1,83 @@
+package uk.ac.imperial.lsds.streamsql.codegen;
+
+import uk.ac.imperial.lsds.seep.comm.serialization.DataTuple;
+import uk.ac.imperial.lsds.streamsql.expressions.IValueExpression;
+import uk.ac.imperial.lsds.streamsql.predicates.IPredicate;
+
+/*
+ * Base of the classes PipelineCompiler generates for a SelectionProjection.
+ * Predicates and expressions that are not compiled (e.g. over strings or
+ * dates) are still evaluated by the interpreted tree, through the leaves kept
+ * here.
+ */
+public abstract class CompiledSelectionProjection {
+
+	protected final IPredicate[] predicates;
+	protected final IValueExpression[] expressions;
+
+	/*
+	 * Columns read by the generated code, and their offsets in the last tuple
+	 * layout seen. process may run concurrently, so the offsets are published
+	 * together, in one immutable holder
+	 */
+	private final String[] columns;
+	private volatile Offsets offsets;
+
+	protected CompiledSelectionProjection(IPredicate[] predicates, IValueExpression[] expressions, String[] columns) {
+		this.predicates = predicates;
+		this.expressions = expressions;
+		this.columns = columns;
+	}
+
+	/*
+	 * Values of the projected tuple (timestamp first), or null if the tuple
+	 * does not satisfy the predicate
+	 */
+	public abstract Object[] process(DataTuple tuple);
+
+	/*
+	 * Offsets of the columns in the tuple, indexed as the columns. Not to be
+	 * modified
+	 */
+	protected final int[] offsetsIn(DataTuple tuple) {
+		Offsets o = offsets;
+		if (o == null || !tuple.hasLayoutOf(o.layout)) {
+			o = new Offsets(tuple, columns);
+			offsets = o;
+		}
+		return o.idx;
+	}
+
+	/*
+	 * Numeric value at the offset, read as NumericEvaluator does
+	 */
+	protected static long longAt(DataTuple tuple, int idx) {
+		if (tuple.isCompact() && tuple.getSchema().isFixedWidth(idx))
+			return tuple.getLongAt(idx);
+		final Object value = tuple.getValueAt(idx);
+		if (value instanceof Number)
+			return ((Number) value).longValue();
+		return Long.parseLong(value.toString());
+	}
+
+	protected static double doubleAt(DataTuple tuple, int idx) {
+		if (tuple.isCompact() && tuple.getSchema().isFixedWidth(idx))
+			return tuple.getDoubleAt(idx);
+		final Object value = tuple.getValueAt(idx);
+		if (value instanceof Number)
+			return ((Number) value).doubleValue();
+		return Double.parseDouble(value.toString());
+	}
+
+	private static class Offsets {
+		final DataTuple layout;
+		final int[] idx;
+
+		Offsets(DataTuple layout, String[] columns) {
+			this.layout = layout;
+			this.idx = new int[columns.length];
+			for (int i = 0; i < columns.length; i++)
+				idx[i] = layout.indexOf(columns[i]);
+		}
+	}
+}
@@ -0,0 +1,363 @@
+package uk.ac.imperial.lsds.streamsql.codegen;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.net.URL;
+import java.nio.file.Files;
+import java.security.CodeSource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import uk.ac.imperial.lsds.seep.comm.serialization.DataTuple;
+import uk.ac.imperial.lsds.seep.infrastructure.dynamiccodedeployer.RuntimeClassLoader;
+import uk.ac.imperial.lsds.streamsql.conversion.DoubleConversion;
+import uk.ac.imperial.lsds.streamsql.conversion.IntegerConversion;
+import uk.ac.imperial.lsds.streamsql.conversion.LongConversion;
+import uk.ac.imperial.lsds.streamsql.expressions.Addition;
+import uk.ac.imperial.lsds.streamsql.expressions.ColumnReference;
+import uk.ac.imperial.lsds.streamsql.expressions.Constants;
+import uk.ac.imperial.lsds.streamsql.expressions.Division;
+import uk.ac.imperial.lsds.streamsql.expressions.IValueExpression;
+import uk.ac.imperial.lsds.streamsql.expressions.Multiplication;
+import uk.ac.imperial.lsds.streamsql.expressions.NumericEvaluator;
+import uk.ac.imperial.lsds.streamsql.expressions.Subtraction;
+import uk.ac.imperial.lsds.streamsql.predicates.ANDPredicate;
+import uk.ac.imperial.lsds.streamsql.predicates.BetweenPredicate;
+import uk.ac.imperial.lsds.streamsql.predicates.ComparisonPredicate;
+import uk.ac.imperial.lsds.streamsql.predicates.IPredicate;
+import uk.ac.imperial.lsds.streamsql.predicates.ORPredicate;
+
+/*
+ * Compiles the predicate and the expressions of a SelectionProjection into a
+ * single generated class, so that a tuple is selected and projected by one
+ * straight-line method instead of a walk over the interpreted trees:
+ *
+ * - AND, OR and BETWEEN become && and || of their conjuncts and disjuncts
+ * - comparisons of numeric values and arithmetic over them become primitive
+ *   long or double code, with the semantics of NumericEvaluator
+ * - columns are read at offsets resolved once per tuple layout, see
+ *   CompiledSelectionProjection.offsetsIn
+ *
+ * Anything else (strings, dates, LIKE) is left to the interpreted predicate or
+ * expression, called from the generated code. The source is compiled with the
+ * system Java compiler and loaded through a RuntimeClassLoader. Compilation
+ * needs a JDK: compile returns null when it fails, and the caller keeps the
+ * interpreted trees.
+ */
+public class PipelineCompiler {
+
+	private static final Logger LOG = LoggerFactory.getLogger(PipelineCompiler.class);
+
+	private static final String PACKAGE = "uk.ac.imperial.lsds.streamsql.codegen.generated";
+
+	private static final AtomicInteger classIds = new AtomicInteger();
+
+	/*
+	 * Interpreted leaves called from the generated code
+	 */
+	private final List<IPredicate> predicateLeaves = new ArrayList<>();
+	private final List<IValueExpression> expressionLeaves = new ArrayList<>();
+
+	/*
+	 * Columns read by the generated code, the timestamp first
+	 */
+	private final List<String> columns = new ArrayList<>(Arrays.asList(Constants.TIMESTAMP));
+
+	private PipelineCompiler() {
+	}
+
+	/*
+	 * The compiled pipeline, or null if it cannot be compiled
+	 */
+	public static CompiledSelectionProjection compile(IPredicate predicate, List<IValueExpression> expressions) {
+		final String className = "SelectionProjection" + classIds.getAndIncrement();
+		try {
+			final PipelineCompiler compiler = new PipelineCompiler();
+			final String source = compiler.source(className, predicate, expressions);
+			LOG.debug("Generated {}:\n{}", className, source);
+			final Class<?> c = compiler.load(className, source);
+			return (CompiledSelectionProjection) c.getConstructor(IPredicate[].class, IValueExpression[].class)
+					.newInstance(compiler.predicateLeaves.toArray(new IPredicate[0]),
+							compiler.expressionLeaves.toArray(new IValueExpression[0]));
+		}
+		catch (Exception | LinkageError e) {
+			LOG.warn("Cannot compile selection {} and projection {}, interpreting them: {}", predicate, expressions,
+					e.toString());
+			return null;
+		}
+	}
+
+	private String source(String className, IPredicate predicate, List<IValueExpression> expressions) {
+		final String selected = (predicate == null) ? null : predicate(predicate);
+		final List<String> projected = new ArrayList<>();
+		for (IValueExpression ve : expressions)
+			projected.add(value(ve));
+
+		final StringBuilder sb = new StringBuilder();
+		sb.append("package ").append(PACKAGE).append(";\n\n");
+		sb.append("import ").append(DataTuple.class.getName()).append(";\n");
+		sb.append("import ").append(IPredicate.class.getName()).append(";\n");
+		sb.append("import ").append(IValueExpression.class.getName()).append(";\n");
+		sb.append("import ").append(CompiledSelectionProjection.class.getName()).append(";\n\n");
+		sb.append("public final class ").append(className).append(" extends CompiledSelectionProjection {\n\n");
+		sb.append("\tprivate static final String[] COLUMNS = {");
+		for (int i = 0; i < columns.size(); i++)
+			sb.append(i == 0 ? " " : ", ").append(literal(columns.get(i)));
+		sb.append(" };\n");
+		sb.append("\n\tpublic ").append(className).append("(IPredicate[] predicates, IValueExpression[] expressions) {\n");
+		sb.append("\t\tsuper(predicates, expressions, COLUMNS);\n");
+		sb.append("\t}\n\n");
+		sb.append("\t@Override\n");
+		sb.append("\tpublic Object[] process(DataTuple t) {\n");
+		sb.append("\t\tfinal int[] c = offsetsIn(t);\n");
+		if (selected != null)
+			sb.append("\t\tif (!").append(selected).append(")\n\t\t\treturn null;\n");
+		sb.append("\t\treturn new Object[] { t.getValueAt(c[0])");
+		for (String value : projected)
+			sb.append(",\n\t\t\t\t").append(value);
+		sb.append(" };\n");
+		sb.append("\t}\n");
+		sb.append("}\n");
+		return sb.toString();
+	}
+
+	private String predicate(IPredicate p) {
+		if (p instanceof ANDPredicate || p instanceof ORPredicate) {
+			final String operator = (p instanceof ANDPredicate) ? " && " : " || ";
+			final StringBuilder sb = new StringBuilder("(");
+			for (IPredicate inner : p.getInnerPredicates()) {
+				if (sb.length() > 1)
+					sb.append(operator);
+				sb.append(predicate(inner));
+			}
+			return sb.append(")").toString();
+		}
+		if (p instanceof BetweenPredicate)
+			return predicate(p.getInnerPredicates().get(0));
+		if (p instanceof ComparisonPredicate && ((ComparisonPredicate<?>) p).isNumeric()) {
+			final ComparisonPredicate<?> comparison = (ComparisonPredicate<?>) p;
+			final IValueExpression<?> first = comparison.getFirstExpression();
+			final IValueExpression<?> second = comparison.getSecondExpression();
+			final String operator = operator(comparison.getOperator(false));
+			if (NumericEvaluator.compile(first).isIntegral() && NumericEvaluator.compile(second).isIntegral())
+				return "(" + longValue(first) + " " + operator + " " + longValue(second) + ")";
+			return "(Double.compare(" + doubleValue(first) + ", " + doubleValue(second) + ") " + operator + " 0)";
+		}
+		predicateLeaves.add(p);
+		return "predicates[" + (predicateLeaves.size() - 1) + "].satisfied(t)";
+	}
+
+	private static String operator(int op) {
+		switch (op) {
+		case ComparisonPredicate.EQUAL_OP:
+			return "==";
+		case ComparisonPredicate.NONEQUAL_OP:
+			return "!=";
+		case ComparisonPredicate.LESS_OP:
+			return "<";
+		case ComparisonPredicate.NONLESS_OP:
+			return ">=";
+		case ComparisonPredicate.GREATER_OP:
+			return ">";
+		case ComparisonPredicate.NONGREATER_OP:
+			return "<=";
+		default:
+			throw new IllegalArgumentException("Unsupported operation " + op);
+		}
+	}
+
+	/*
+	 * Projected value of the expression, boxed as its eval would return it
+	 */
+	private String value(IValueExpression<?> ve) {
+		if (ve instanceof ColumnReference)
+			return "t.getValueAt(c[" + column(((ColumnReference<?>) ve).getColumn()) + "])";
+		if (NumericEvaluator.compile(ve) != null) {
+			if (ve.getType() instanceof LongConversion)
+				return "Long.valueOf(" + longValue(ve) + ")";
+			if (ve.getType() instanceof IntegerConversion)
+				return "Integer.valueOf((int) " + longValue(ve) + ")";
+			if (ve.getType() instanceof DoubleConversion)
+				return "Double.valueOf(" + doubleValue(ve) + ")";
+		}
+		expressionLeaves.add(ve);
+		return "expressions[" + (expressionLeaves.size() - 1) + "].eval(t)";
+	}
+
+	/*
+	 * Code of NumericEvaluator.evalLong for the expression
+	 */
+	private String longValue(IValueExpression<?> ve) {
+		final NumericEvaluator evaluator = NumericEvaluator.compile(ve);
+		if (evaluator.isConstant())
+			return "(" + evaluator.evalLong(null) + "L)";
+		final boolean narrowToInt = ve.getType() instanceof IntegerConversion;
+		if (ve instanceof ColumnReference)
+			return narrow("longAt(t, c[" + column(((ColumnReference<?>) ve).getColumn()) + "])", narrowToInt);
+		if (isLongArithmetic(ve, evaluator))
+			return narrow(arithmetic(ve, true), narrowToInt);
+		if (evaluator.isIntegral())
+			return truncate(arithmetic(ve, false), narrowToInt);
+		return "((long) " + arithmetic(ve, false) + ")";
+	}
+
+	/*
+	 * Code of NumericEvaluator.evalDouble for the expression
+	 */
+	private String doubleValue(IValueExpression<?> ve) {
+		final NumericEvaluator evaluator = NumericEvaluator.compile(ve);
+		if (evaluator.isConstant())
+			return literal(evaluator.evalDouble(null));
+		if (evaluator.isIntegral() && (ve instanceof ColumnReference || isLongArithmetic(ve, evaluator)))
+			return "((double) " + longValue(ve) + ")";
+		if (ve instanceof ColumnReference)
+			return "doubleAt(t, c[" + column(((ColumnReference<?>) ve).getColumn()) + "])";
+		if (evaluator.isIntegral())
+			return "((double) " + truncate(arithmetic(ve, false), ve.getType() instanceof IntegerConversion) + ")";
+		return arithmetic(ve, false);
+	}
+
+	private static boolean isLongArithmetic(IValueExpression<?> ve, NumericEvaluator evaluator) {
+		if (!evaluator.isIntegral() || ve instanceof Division)
+			return false;
+		for (Object operand : ve.getInnerExpressions())
+			if (!NumericEvaluator.compile((IValueExpression<?>) operand).isIntegral())
+				return false;
+		return true;
+	}
+
+	private String arithmetic(IValueExpression<?> ve, boolean inLong) {
+		final String operator;
+		if (ve instanceof Addition)
+			operator = " + ";
+		else if (ve instanceof Subtraction)
+			operator = " - ";
+		else if (ve instanceof Multiplication)
+			operator = " * ";
+		else
+			operator = " / ";
+		final StringBuilder sb = new StringBuilder("(");
+		for (Object operand : ve.getInnerExpressions()) {
+			if (sb.length() > 1)
+				sb.append(operator);
+			sb.append(inLong ? longValue((IValueExpression<?>) operand) : doubleValue((IValueExpression<?>) operand));
+		}
+		return sb.append(")").toString();
+	}
+
+	private static String narrow(String value, boolean narrowToInt) {
+		return narrowToInt ? "((long) (int) " + value + ")" : value;
+	}
+
+	private static String truncate(String value, boolean narrowToInt) {
+		return narrowToInt ? "((long) (int) " + value + ")" : "((long) " + value + ")";
+	}
+
+	private int column(String name) {
+		int i = columns.indexOf(name);
+		if (i < 0) {
+			columns.add(name);
+			i = columns.size() - 1;
+		}
+		return i;
+	}
+
+	private static String literal(double value) {
+		if (Double.isNaN(value) || Double.isInfinite(value))
+			return "Double.longBitsToDouble(" + Double.doubleToRawLongBits(value) + "L)";
+		return "(" + Double.toString(value) + "d)";
+	}
+
+	private static String literal(String value) {
+		final StringBuilder sb = new StringBuilder("\"");
+		for (char c : value.toCharArray()) {
+			if (c == '"' || c == '\\')
+				sb.append('\\').append(c);
+			else if (c < 0x20 || c > 0x7e)
+				sb.append(String.format("\\u%04x", (int) c));
+			else
+				sb.append(c);
+		}
+		return sb.append("\"").toString();
+	}
+
+	/*
+	 * Compiles the source into a temporary directory and loads the class
+	 */
+	private Class<?> load(String className, String source) throws IOException {
+		final JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+		if (javac == null)
+			throw new IllegalStateException("No system Java compiler, is this a JRE?");
+
+		final File dir = Files.createTempDirectory("streamsql-codegen").toFile();
+		try {
+			final File file = new File(dir, className + ".java");
+			try (Writer writer = new FileWriter(file)) {
+				writer.write(source);
+			}
+
+			final DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+			final boolean compiled;
+			try (StandardJavaFileManager fileManager = javac.getStandardFileManager(diagnostics, null, null)) {
+				compiled = javac.getTask(null, fileManager, diagnostics,
+						Arrays.asList("-d", dir.getPath(), "-classpath", classpath(), "-nowarn"), null,
+						fileManager.getJavaFileObjects(file)).call();
+			}
+			if (!compiled)
+				throw new IllegalStateException("Generated " + className + " does not compile: "
+						+ diagnostics.getDiagnostics());
+
+			final RuntimeClassLoader loader = new RuntimeClassLoader(new URL[] { dir.toURI().toURL() },
+					CompiledSelectionProjection.class.getClassLoader());
+			final Class<?> c = loader.loadClass(PACKAGE + "." + className);
+			if (c == null)
+				throw new IllegalStateException("Cannot load generated " + className);
+			return c;
+		}
+		finally {
+			delete(dir);
+		}
+	}
+
+	/*
+	 * Class path of the JVM, and of the jars the classes the generated code
+	 * links to were loaded from, in case they were deployed at runtime
+	 */
+	private static String classpath() {
+		final StringBuilder sb = new StringBuilder(System.getProperty("java.class.path", ""));
+		for (Class<?> c : Arrays.<Class<?>> asList(DataTuple.class, CompiledSelectionProjection.class)) {
+			final CodeSource codeSource = c.getProtectionDomain().getCodeSource();
+			if (codeSource == null || codeSource.getLocation() == null)
+				continue;
+			try {
+				sb.append(File.pathSeparator).append(new File(codeSource.getLocation().toURI()).getPath());
+			}
+			catch (Exception e) {
+				LOG.debug("Cannot add {} to the class path: {}", codeSource.getLocation(), e.toString());
+			}
+		}
+		return sb.toString();
+	}
+
+	private static void delete(File file) {
+		final File[] children = file.listFiles();
+		if (children != null)
+			for (File child : children)
+				delete(child);
+		if (!file.delete())
+			file.deleteOnExit();
+	}
+}
@@ -5,8 +5,11 @@ import java.io.Serializable;
 public class SumCount implements Comparable<SumCount>, Serializable {
 	private static final long serialVersionUID = 1L;
 
-	private Double _sum;
-	private Long _count;
+	/*
+	 * Kept unboxed, as partial aggregates are updated for every tuple
+	 */
+	private double _sum;
+	private long _count;
 
 	public SumCount(Double sum, Long count) {
 		_sum = sum;
@@ -33,6 +36,29 @@ public class SumCount implements Comparable<SumCount>, Serializable {
 		return getAvg() == otherSumCount.getAvg();
 	}
 
+	public SumCount() {
+		this(0.0, 0L);
+	}
+
+	public void add(double value) {
+		_sum += value;
+		_count++;
+	}
+
+	public void add(SumCount other) {
+		_sum += other._sum;
+		_count += other._count;
+	}
+
+	public void subtract(SumCount other) {
+		_sum -= other._sum;
+		_count -= other._count;
+	}
+
+	public SumCount copy() {
+		return new SumCount(_sum, _count);
+	}
+
 	public double getAvg() {
 		return _sum / _count;
 	}
@@ -48,8 +74,8 @@ public class SumCount implements Comparable<SumCount>, Serializable {
 	@Override
 	public int hashCode() {
 		int hash = 7;
-		hash = 89 * hash + (_sum != null ? _sum.hashCode() : 0);
-		hash = 89 * hash + (_count != null ? _count.hashCode() : 0);
+		hash = 89 * hash + Double.valueOf(_sum).hashCode();
+		hash = 89 * hash + Long.valueOf(_count).hashCode();
 		return hash;
 	}
 
@@ -0,0 +1,252 @@
+package uk.ac.imperial.lsds.streamsql.expressions;
+
+import java.io.Serializable;
+
+import uk.ac.imperial.lsds.seep.comm.serialization.DataTuple;
+import uk.ac.imperial.lsds.streamsql.conversion.DoubleConversion;
+import uk.ac.imperial.lsds.streamsql.conversion.IntegerConversion;
+import uk.ac.imperial.lsds.streamsql.conversion.LongConversion;
+import uk.ac.imperial.lsds.streamsql.conversion.TypeConversion;
+
+/*
+ * Evaluates a numeric IValueExpression tree to primitive long or double values,
+ * without boxing operands or results. The tree is compiled once, when the
+ * query is planned: column references resolve their offset per tuple layout,
+ * and subtrees made only of constants are folded into a single constant.
+ *
+ * Arithmetic is computed in double and truncated for integral types (long,
+ * int), as IValueExpression.eval does, so that results are the same also
+ * when they overflow or go beyond the precision of a double.
+ */
+public abstract class NumericEvaluator implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final int ADD = 0;
+	private static final int SUBTRACT = 1;
+	private static final int MULTIPLY = 2;
+	private static final int DIVIDE = 3;
+
+	/*
+	 * Whether the expression has an integral type
+	 */
+	protected final boolean integral;
+
+	/*
+	 * Whether integral values are narrowed to int
+	 */
+	protected final boolean narrowToInt;
+
+	protected NumericEvaluator(TypeConversion<?> type) {
+		this.integral = !(type instanceof DoubleConversion);
+		this.narrowToInt = (type instanceof IntegerConversion);
+	}
+
+	public abstract long evalLong(DataTuple tuple);
+
+	public abstract double evalDouble(DataTuple tuple);
+
+	public boolean isIntegral() {
+		return integral;
+	}
+
+	public boolean isConstant() {
+		return false;
+	}
+
+	/*
+	 * Whether values of this type can be evaluated as plain numbers, unlike
+	 * e.g. dates under DateIntegerConversion
+	 */
+	public static boolean isNumeric(TypeConversion<?> type) {
+		return type instanceof LongConversion || type instanceof IntegerConversion
+				|| type instanceof DoubleConversion;
+	}
+
+	/*
+	 * Compiles the expression, or returns null if it is not a numeric
+	 * expression made of constants, column references and arithmetic
+	 */
+	public static NumericEvaluator compile(IValueExpression<?> ve) {
+		final TypeConversion<?> type = ve.getType();
+		if (!isNumeric(type))
+			return null;
+
+		if (ve instanceof ValueExpression)
+			return new Constant(type, (Number) ve.eval(null));
+
+		if (ve instanceof ColumnReference)
+			return new Column(type, ((ColumnReference<?>) ve).getColumn());
+
+		int op;
+		if (ve instanceof Addition)
+			op = ADD;
+		else if (ve instanceof Subtraction)
+			op = SUBTRACT;
+		else if (ve instanceof Multiplication)
+			op = MULTIPLY;
+		else if (ve instanceof Division)
+			op = DIVIDE;
+		else
+			return null;
+
+		final NumericEvaluator[] operands = new NumericEvaluator[ve.getInnerExpressions().size()];
+		boolean constant = true;
+		for (int i = 0; i < operands.length; i++) {
+			operands[i] = compile((IValueExpression<?>) ve.getInnerExpressions().get(i));
+			if (operands[i] == null)
+				return null;
+			constant &= operands[i].isConstant();
+		}
+
+		final NumericEvaluator arithmetic = new Arithmetic(type, op, operands);
+		if (constant)
+			return new Constant(type, arithmetic.integral ? (Number) arithmetic.evalLong(null)
+					: (Number) arithmetic.evalDouble(null));
+		return arithmetic;
+	}
+
+	protected long truncate(double value) {
+		return narrowToInt ? (int) value : (long) value;
+	}
+
+	protected long narrow(long value) {
+		return narrowToInt ? (int) value : value;
+	}
+
+	private static class Constant extends NumericEvaluator {
+
+		private static final long serialVersionUID = 1L;
+
+		private final long longValue;
+		private final double doubleValue;
+
+		Constant(TypeConversion<?> type, Number value) {
+			super(type);
+			this.longValue = integral ? narrow(value.longValue()) : (long) value.doubleValue();
+			this.doubleValue = integral ? longValue : value.doubleValue();
+		}
+
+		@Override
+		public long evalLong(DataTuple tuple) {
+			return longValue;
+		}
+
+		@Override
+		public double evalDouble(DataTuple tuple) {
+			return doubleValue;
+		}
+
+		@Override
+		public boolean isConstant() {
+			return true;
+		}
+	}
+
+	private static class Column extends NumericEvaluator {
+
+		private static final long serialVersionUID = 1L;
+
+		private final String column;
+
+		/*
+		 * Offset of the column in the last tuple layout seen
+		 */
+		private transient Offset offset;
+
+		Column(TypeConversion<?> type, String column) {
+			super(type);
+			this.column = column;
+		}
+
+		private int offsetIn(DataTuple tuple) {
+			Offset o = offset;
+			if (o == null || !tuple.hasLayoutOf(o.layout)) {
+				o = new Offset(tuple, tuple.indexOf(column));
+				offset = o;
+			}
+			return o.idx;
+		}
+
+		@Override
+		public long evalLong(DataTuple tuple) {
+			final int idx = offsetIn(tuple);
+			if (tuple.isCompact() && tuple.getSchema().isFixedWidth(idx))
+				return narrow(tuple.getLongAt(idx));
+			final Object value = tuple.getValueAt(idx);
+			if (value instanceof Number)
+				return narrow(((Number) value).longValue());
+			return narrow(Long.parseLong(value.toString()));
+		}
+
+		@Override
+		public double evalDouble(DataTuple tuple) {
+			if (integral)
+				return evalLong(tuple);
+			final int idx = offsetIn(tuple);
+			if (tuple.isCompact() && tuple.getSchema().isFixedWidth(idx))
+				return tuple.getDoubleAt(idx);
+			final Object value = tuple.getValueAt(idx);
+			if (value instanceof Number)
+				return ((Number) value).doubleValue();
+			return Double.parseDouble(value.toString());
+		}
+
+		private static class Offset {
+			final DataTuple layout;
+			final int idx;
+
+			Offset(DataTuple layout, int idx) {
+				this.layout = layout;
+				this.idx = idx;
+			}
+		}
+	}
+
+	private static class Arithmetic extends NumericEvaluator {
+
+		private static final long serialVersionUID = 1L;
+
+		private final int op;
+		private final NumericEvaluator[] operands;
+
+		Arithmetic(TypeConversion<?> type, int op, NumericEvaluator[] operands) {
+			super(type);
+			this.op = op;
+			this.operands = operands;
+		}
+
+		@Override
+		public long evalLong(DataTuple tuple) {
+			return integral ? truncate(compute(tuple)) : (long) compute(tuple);
+		}
+
+		@Override
+		public double evalDouble(DataTuple tuple) {
+			return integral ? truncate(compute(tuple)) : compute(tuple);
+		}
+
+		private double compute(DataTuple tuple) {
+			double result = operands[0].evalDouble(tuple);
+			switch (op) {
+			case ADD:
+				for (int i = 1; i < operands.length; i++)
+					result += operands[i].evalDouble(tuple);
+				break;
+			case SUBTRACT:
+				for (int i = 1; i < operands.length; i++)
+					result -= operands[i].evalDouble(tuple);
+				break;
+			case MULTIPLY:
+				for (int i = 1; i < operands.length; i++)
+					result *= operands[i].evalDouble(tuple);
+				break;
+			case DIVIDE:
+				for (int i = 1; i < operands.length; i++)
+					result /= operands[i].evalDouble(tuple);
+				break;
+			}
+			return result;
+		}
+	}
+}
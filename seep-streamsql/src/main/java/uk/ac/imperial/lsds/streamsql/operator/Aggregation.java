@@ -0,0 +1,156 @@
+package uk.ac.imperial.lsds.streamsql.operator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+
+import uk.ac.imperial.lsds.seep.comm.serialization.DataTuple;
+import uk.ac.imperial.lsds.seep.operator.StatefulOperator;
+import uk.ac.imperial.lsds.seep.state.StateWrapper;
+import uk.ac.imperial.lsds.streamsql.expressions.Constants;
+import uk.ac.imperial.lsds.streamsql.expressions.IValueExpression;
+import uk.ac.imperial.lsds.streamsql.visitors.OperatorVisitor;
+import uk.ac.imperial.lsds.streamsql.windows.WindowAggregate;
+import uk.ac.imperial.lsds.streamsql.windows.Window;
+
+/*
+ * Windowed aggregation with optional GROUP BY. The aggregates of every group
+ * are maintained incrementally, pane by pane, and when the window slides one
+ * tuple is emitted per group with tuples in the window:
+ *
+ *   timestamp, group by values..., aggregate values...
+ *
+ * where timestamp is the one of the latest tuple that entered the window.
+ */
+public class Aggregation implements StatefulOperator, IStreamSQLOperator, WindowOperator, IncrementalWindowOperator {
+
+	private static final long serialVersionUID = 1L;
+
+	private final Window window;
+	private final List<IValueExpression> groupBy;
+	private final List<WindowAggregate> aggregates;
+
+	/*
+	 * Also keeps the latest tuple that entered the window, and the position
+	 * of the window, so that both are checkpointed with the aggregates
+	 */
+	private AggregationState state;
+
+	public Aggregation(Window window, List<IValueExpression> groupBy, List<WindowAggregate> aggregates) {
+		this.window = window;
+		this.groupBy = groupBy;
+		this.aggregates = aggregates;
+		this.state = new AggregationState(groupBy, aggregates, window.getPanesPerWindow());
+	}
+
+	public Aggregation(Window window, List<WindowAggregate> aggregates) {
+		this(window, new ArrayList<IValueExpression>(), aggregates);
+	}
+
+	@Override
+	public void setUp() {
+		this.window.registerIncrementalCallback(this);
+	}
+
+	@Override
+	public void processData(DataTuple data) {
+		this.window.updateWindow(data);
+	}
+
+	@Override
+	public void processData(List<DataTuple> dataList) {
+		this.window.updateWindow(dataList);
+	}
+
+	@Override
+	public void enterPane(DataTuple tuple) {
+		state.group(tuple).accumulate(tuple);
+		state.setLatest(tuple, window.getPosition());
+	}
+
+	@Override
+	public void closePane() {
+		state.closePane();
+	}
+
+	@Override
+	public void evaluateWindow() {
+		emit(state);
+	}
+
+	/*
+	 * Evaluation over all the tuples of a window that does not drive the
+	 * operator pane by pane
+	 */
+	@Override
+	public void evaluateWindow(Queue<DataTuple> dataList) {
+		final AggregationState windowState = new AggregationState(groupBy, aggregates, 1);
+		DataTuple last = null;
+		for (DataTuple tuple : dataList) {
+			windowState.group(tuple).accumulate(tuple);
+			last = tuple;
+		}
+		windowState.setLatest(last, 0);
+		windowState.closePane();
+		emit(windowState);
+		windowState.setLatest(null, 0);
+	}
+
+	private void emit(AggregationState from) {
+		final DataTuple latest = from.getLatest();
+		if (latest == null)
+			return;
+		for (AggregationState.Group group : from.nonEmptyGroups()) {
+			final Object[] keyValues = group.getKeyValues();
+			final Object[] values = new Object[1 + keyValues.length + aggregates.size()];
+			values[0] = latest.getValue(Constants.TIMESTAMP);
+			System.arraycopy(keyValues, 0, values, 1, keyValues.length);
+			for (int i = 0; i < aggregates.size(); i++)
+				values[1 + keyValues.length + i] = group.getResult(i);
+			send(latest.setValues(values));
+		}
+	}
+
+	/*
+	 * Sends an output tuple downstream, overridden in tests
+	 */
+	void send(DataTuple tuple) {
+		api.send(tuple);
+	}
+
+	@Override
+	public StateWrapper getState() {
+		return new StateWrapper(1, 1, this.state);
+	}
+
+	@Override
+	public void replaceState(StateWrapper state) {
+		this.state = (AggregationState) state.getStateImpl();
+		/*
+		 * A state that saw tuples resumes the window where it was
+		 */
+		if (this.state.getLatest() != null)
+			this.window.setPosition(this.state.getWindowPosition());
+	}
+
+	@Override
+	public String toString() {
+		final StringBuilder sb = new StringBuilder();
+		sb.append("Aggregation (");
+		for (WindowAggregate aggregate : aggregates)
+			sb.append(aggregate.toString() + " ");
+		if (!groupBy.isEmpty()) {
+			sb.append("GROUP BY ");
+			for (IValueExpression ve : groupBy)
+				sb.append(ve.toString() + " ");
+		}
+		sb.append(")");
+		return sb.toString();
+	}
+
+	@Override
+	public void accept(OperatorVisitor ov) {
+		ov.visit(this);
+	}
+
+}
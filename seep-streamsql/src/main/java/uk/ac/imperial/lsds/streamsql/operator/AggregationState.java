@@ -0,0 +1,248 @@
+package uk.ac.imperial.lsds.streamsql.operator;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectIterator;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import uk.ac.imperial.lsds.seep.comm.serialization.DataTuple;
+import uk.ac.imperial.lsds.seep.state.CustomState;
+import uk.ac.imperial.lsds.seep.state.Partitionable;
+import uk.ac.imperial.lsds.seep.state.StateWrapper;
+import uk.ac.imperial.lsds.streamsql.expressions.IValueExpression;
+import uk.ac.imperial.lsds.streamsql.expressions.NumericEvaluator;
+import uk.ac.imperial.lsds.streamsql.windows.Aggregates;
+import uk.ac.imperial.lsds.streamsql.windows.SlidingAggregator;
+import uk.ac.imperial.lsds.streamsql.windows.WindowAggregate;
+
+/*
+ * Per-group partial aggregates of an Aggregation. Groups of a single integral
+ * key (e.g. a plug or house id), and the single group of an aggregation
+ * without GROUP BY, are kept in a primitive long-keyed hash table; other keys
+ * in a HashMap of their values. Groups without tuples in the window are
+ * dropped when a pane closes.
+ *
+ * The state is split by routing key, which for a single integral key is the
+ * key value itself (as an int) and otherwise the hash code of the key values.
+ */
+public class AggregationState implements CustomState, Partitionable, Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private final List<IValueExpression> groupBy;
+	private final List<WindowAggregate> aggregates;
+	private final int panesPerWindow;
+
+	/*
+	 * Evaluator of the key of single integral keys, null otherwise
+	 */
+	private final NumericEvaluator longKey;
+	private final boolean primitiveKeys;
+
+	private Long2ObjectOpenHashMap<Group> longGroups = new Long2ObjectOpenHashMap<>();
+	private HashMap<List<Object>, Group> objectGroups = new HashMap<>();
+
+	private String keyAttribute;
+
+	/*
+	 * Latest tuple that entered the window, template of the output tuples,
+	 * and the position of the window then. Retained until the next one
+	 * replaces it, as received tuples may be pooled
+	 */
+	private DataTuple latest;
+	private long windowPosition;
+
+	public AggregationState(List<IValueExpression> groupBy, List<WindowAggregate> aggregates, int panesPerWindow) {
+		this.groupBy = groupBy;
+		this.aggregates = aggregates;
+		this.panesPerWindow = panesPerWindow;
+		NumericEvaluator key = null;
+		if (groupBy.size() == 1) {
+			key = NumericEvaluator.compile(groupBy.get(0));
+			if (key != null && !key.isIntegral())
+				key = null;
+		}
+		this.longKey = key;
+		this.primitiveKeys = groupBy.isEmpty() || key != null;
+	}
+
+	/*
+	 * The group of the tuple, created if needed
+	 */
+	public Group group(DataTuple tuple) {
+		if (primitiveKeys) {
+			final long key = (longKey == null) ? 0 : longKey.evalLong(tuple);
+			Group group = longGroups.get(key);
+			if (group == null) {
+				group = newGroup(groupBy.isEmpty() ? new Object[0] : new Object[] { groupBy.get(0).eval(tuple) },
+						routingKey(key));
+				longGroups.put(key, group);
+			}
+			return group;
+		}
+		final Object[] values = new Object[groupBy.size()];
+		for (int i = 0; i < values.length; i++)
+			values[i] = groupBy.get(i).eval(tuple);
+		final List<Object> key = Arrays.asList(values);
+		Group group = objectGroups.get(key);
+		if (group == null) {
+			group = newGroup(values, key.hashCode());
+			objectGroups.put(key, group);
+		}
+		return group;
+	}
+
+	private Group newGroup(Object[] keyValues, int routingKey) {
+		/*
+		 * Without aggregates the group still needs a count to know when it is empty
+		 */
+		final int n = aggregates.isEmpty() ? 1 : aggregates.size();
+		final SlidingAggregator[] aggregators = new SlidingAggregator[n];
+		for (int i = 0; i < n; i++)
+			aggregators[i] = new SlidingAggregator(aggregates.isEmpty() ? Aggregates.count() : aggregates.get(i),
+					panesPerWindow);
+		return new Group(keyValues, routingKey, aggregators);
+	}
+
+	private static int routingKey(long key) {
+		return (int) (key ^ (key >>> 32));
+	}
+
+	/*
+	 * Closes the open pane of all groups, dropping the groups left empty
+	 */
+	public void closePane() {
+		final ObjectIterator<Long2ObjectMap.Entry<Group>> longIt = longGroups.long2ObjectEntrySet().fastIterator();
+		while (longIt.hasNext())
+			if (longIt.next().getValue().closePane())
+				longIt.remove();
+		final Iterator<Group> objectIt = objectGroups.values().iterator();
+		while (objectIt.hasNext())
+			if (objectIt.next().closePane())
+				objectIt.remove();
+	}
+
+	/*
+	 * Groups with tuples in the window
+	 */
+	public List<Group> nonEmptyGroups() {
+		final List<Group> groups = new ArrayList<>(longGroups.size() + objectGroups.size());
+		for (Group group : longGroups.values())
+			if (!group.isEmpty())
+				groups.add(group);
+		for (Group group : objectGroups.values())
+			if (!group.isEmpty())
+				groups.add(group);
+		return groups;
+	}
+
+	public int size() {
+		return longGroups.size() + objectGroups.size();
+	}
+
+	public void setLatest(DataTuple tuple, long windowPosition) {
+		if (tuple != latest) {
+			if (tuple != null)
+				tuple.retain();
+			if (latest != null)
+				latest.release();
+			latest = tuple;
+		}
+		this.windowPosition = windowPosition;
+	}
+
+	/*
+	 * Null until a tuple entered the window
+	 */
+	public DataTuple getLatest() {
+		return latest;
+	}
+
+	public long getWindowPosition() {
+		return windowPosition;
+	}
+
+	@Override
+	public void setKeyAttribute(String keyAttribute) {
+		this.keyAttribute = keyAttribute;
+	}
+
+	@Override
+	public String getKeyAttribute() {
+		return keyAttribute;
+	}
+
+	/*
+	 * Groups with a routing key up to key stay in the first partition, the
+	 * others move to the second one
+	 */
+	@Override
+	public StateWrapper[] splitState(StateWrapper toSplit, int key) {
+		final AggregationState kept = new AggregationState(groupBy, aggregates, panesPerWindow);
+		final AggregationState moved = new AggregationState(groupBy, aggregates, panesPerWindow);
+		kept.keyAttribute = moved.keyAttribute = keyAttribute;
+		kept.setLatest(latest, windowPosition);
+		moved.setLatest(latest, windowPosition);
+		for (Long2ObjectMap.Entry<Group> entry : longGroups.long2ObjectEntrySet())
+			((entry.getValue().routingKey <= key) ? kept : moved).longGroups.put(entry.getLongKey(), entry.getValue());
+		for (Map.Entry<List<Object>, Group> entry : objectGroups.entrySet())
+			((entry.getValue().routingKey <= key) ? kept : moved).objectGroups.put(entry.getKey(), entry.getValue());
+		return new StateWrapper[] {
+				new StateWrapper(toSplit.getOwnerId(), toSplit.getCheckpointInterval(), kept),
+				new StateWrapper(toSplit.getOwnerId(), toSplit.getCheckpointInterval(), moved) };
+	}
+
+	@Override
+	public void resetState() {
+		longGroups = new Long2ObjectOpenHashMap<>();
+		objectGroups = new HashMap<>();
+	}
+
+	public static class Group implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Object[] keyValues;
+		private final int routingKey;
+		private final SlidingAggregator[] aggregators;
+
+		Group(Object[] keyValues, int routingKey, SlidingAggregator[] aggregators) {
+			this.keyValues = keyValues;
+			this.routingKey = routingKey;
+			this.aggregators = aggregators;
+		}
+
+		public void accumulate(DataTuple tuple) {
+			for (SlidingAggregator aggregator : aggregators)
+				aggregator.accumulate(tuple);
+		}
+
+		/*
+		 * Returns whether the group is left without tuples
+		 */
+		boolean closePane() {
+			for (SlidingAggregator aggregator : aggregators)
+				aggregator.closePane();
+			return aggregators[0].isIdle();
+		}
+
+		public boolean isEmpty() {
+			return aggregators[0].isEmpty();
+		}
+
+		public Object[] getKeyValues() {
+			return keyValues;
+		}
+
+		public Object getResult(int aggregate) {
+			return aggregators[aggregate].result();
+		}
+	}
+}
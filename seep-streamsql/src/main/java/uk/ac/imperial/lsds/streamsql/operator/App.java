@@ -1,28 +1,33 @@
 package uk.ac.imperial.lsds.streamsql.operator;
 
-import uk.ac.imperial.lsds.streamsql.visitors.SeepSQLVisitor;
-import net.sf.jsqlparser.JSQLParserException;
-import net.sf.jsqlparser.parser.CCJSqlParserUtil;
-import net.sf.jsqlparser.statement.Statement;
+import java.util.Arrays;
+import java.util.List;
+
+import uk.ac.imperial.lsds.streamsql.conversion.IntegerConversion;
+import uk.ac.imperial.lsds.streamsql.conversion.LongConversion;
+import uk.ac.imperial.lsds.streamsql.conversion.DoubleConversion;
+import uk.ac.imperial.lsds.streamsql.conversion.TypeConversion;
+import uk.ac.imperial.lsds.streamsql.plan.SQLQueryComposer;
+import uk.ac.imperial.lsds.streamsql.plan.StreamDefinition;
 
 
 public class App {
-    
+
 	public static void main(String[] args) {
 		System.out.println( "Test runner..." );
-       
-        try {
-        	
-			Statement stmt = CCJSqlParserUtil.parse("SELECT * FROM tab1");
-			stmt.accept(new SeepSQLVisitor());
-			
-			int i = 0;
-//			stmt.accept(statementVisitor)
-			
-			
-		} catch (JSQLParserException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		}
+
+		String sql = (args.length > 0) ? args[0]
+				: "SELECT plug, AVG(load) AS avgLoad FROM plugs [RANGE 60 SLIDE 10] WHERE load > 0 GROUP BY plug";
+
+		/*
+		 * Sources are only needed to compose the query, not to plan it
+		 */
+		List<String> attributes = Arrays.asList("timestamp", "plug", "house", "load");
+		List<TypeConversion> types = Arrays.<TypeConversion> asList(new LongConversion(), new IntegerConversion(),
+				new IntegerConversion(), new DoubleConversion());
+
+		SQLQueryComposer composer = new SQLQueryComposer(sql);
+		composer.addStream(new StreamDefinition("plugs", attributes, types, null));
+		System.out.println(composer.explain());
     }
 }
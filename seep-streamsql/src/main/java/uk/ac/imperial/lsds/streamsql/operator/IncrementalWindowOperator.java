@@ -0,0 +1,28 @@
+package uk.ac.imperial.lsds.streamsql.operator;
+
+import uk.ac.imperial.lsds.seep.comm.serialization.DataTuple;
+
+/*
+ * Operator evaluated incrementally over the panes of a window (see
+ * SlidingAggregator), instead of over the queue of all tuples in the window.
+ * The window splits its size into panesPerWindow panes and drives the
+ * operator pane by pane.
+ */
+public interface IncrementalWindowOperator {
+
+	/*
+	 * The tuple entered the window, in the open pane
+	 */
+	public void enterPane(DataTuple tuple);
+
+	/*
+	 * The open pane was closed; panes beyond the size of the window are evicted
+	 */
+	public void closePane();
+
+	/*
+	 * The window slid: its closed panes are ready to be evaluated
+	 */
+	public void evaluateWindow();
+
+}
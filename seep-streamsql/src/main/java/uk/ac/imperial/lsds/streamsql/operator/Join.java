@@ -0,0 +1,122 @@
+package uk.ac.imperial.lsds.streamsql.operator;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import uk.ac.imperial.lsds.seep.comm.serialization.DataTuple;
+import uk.ac.imperial.lsds.seep.operator.StatefulOperator;
+import uk.ac.imperial.lsds.seep.operator.UpstreamTaggedProcessing;
+import uk.ac.imperial.lsds.seep.state.StateWrapper;
+import uk.ac.imperial.lsds.streamsql.predicates.IPredicate;
+import uk.ac.imperial.lsds.streamsql.visitors.OperatorVisitor;
+import uk.ac.imperial.lsds.streamsql.windows.JoinWindow;
+
+/*
+ * Symmetric windowed join of two inputs: every tuple that arrives on one input
+ * is joined with the window of the other input (see JoinState), and then
+ * enters the window of its own input. For every match one tuple is emitted:
+ *
+ *   left values..., right values...
+ *
+ * with the timestamps of the tuple that arrived last.
+ *
+ * The inputs are told apart by upstream, so each of them has to be connected
+ * with its own InputDataIngestionMode (e.g. ONE_AT_A_TIME), and the tuples of
+ * each one are delivered tagged with the id of their upstream operator. The
+ * operator fails to set up otherwise (see Operator.setUp). In a self-join the
+ * second occurrence of the stream is read through an operator of its own.
+ */
+public class Join implements StatefulOperator, IStreamSQLOperator, UpstreamTaggedProcessing {
+
+	private static final long serialVersionUID = 1L;
+
+	private final int leftOpId;
+	private final int rightOpId;
+	private final JoinWindow leftWindow;
+	private final JoinWindow rightWindow;
+	private final IPredicate predicate;
+
+	private JoinState state;
+
+	private final List<DataTuple> matches = new ArrayList<>();
+
+	public Join(int leftOpId, JoinWindow leftWindow, int rightOpId, JoinWindow rightWindow, IPredicate predicate) {
+		this.leftOpId = leftOpId;
+		this.rightOpId = rightOpId;
+		this.leftWindow = leftWindow;
+		this.rightWindow = rightWindow;
+		this.predicate = predicate;
+		this.state = new JoinState(predicate, leftWindow, rightWindow);
+	}
+
+	@Override
+	public void setUp() {
+	}
+
+	@Override
+	public void processData(int upstreamOpId, DataTuple data) {
+		final boolean fromLeft;
+		if (upstreamOpId == leftOpId)
+			fromLeft = true;
+		else if (upstreamOpId == rightOpId)
+			fromLeft = false;
+		else
+			throw new IllegalArgumentException("Tuple from operator " + upstreamOpId + " which is not an input of " + this);
+
+		matches.clear();
+		state.process(fromLeft, data, matches);
+		for (DataTuple match : matches)
+			api.send(fromLeft ? join(data, match, data) : join(match, data, data));
+	}
+
+	private static DataTuple join(DataTuple left, DataTuple right, DataTuple latest) {
+		final int leftSize = left.size();
+		final Object[] values = new Object[leftSize + right.size()];
+		for (int i = 0; i < leftSize; i++)
+			values[i] = left.getValueAt(i);
+		for (int i = leftSize; i < values.length; i++)
+			values[i] = right.getValueAt(i - leftSize);
+		return latest.setValues(values);
+	}
+
+	/*
+	 * Untagged tuples are not delivered to a Join that was set up, as its
+	 * inputs are checked beforehand
+	 */
+	@Override
+	public void processData(DataTuple data) {
+		throw new IllegalStateException(this + " was fed a tuple not tagged with its upstream");
+	}
+
+	@Override
+	public void processData(List<DataTuple> dataList) {
+		throw new IllegalStateException(this + " was fed tuples not tagged with their upstream");
+	}
+
+	@Override
+	public StateWrapper getState() {
+		return new StateWrapper(1, 1, this.state);
+	}
+
+	@Override
+	public void replaceState(StateWrapper state) {
+		this.state = (JoinState) state.getStateImpl();
+	}
+
+	@Override
+	public String toString() {
+		final StringBuilder sb = new StringBuilder();
+		sb.append("Join (");
+		sb.append(leftOpId + " [" + leftWindow + "], ");
+		sb.append(rightOpId + " [" + rightWindow + "] ON ");
+		sb.append(predicate.toString());
+		sb.append(")");
+		return sb.toString();
+	}
+
+	@Override
+	public void accept(OperatorVisitor ov) {
+		ov.visit(this);
+	}
+
+}
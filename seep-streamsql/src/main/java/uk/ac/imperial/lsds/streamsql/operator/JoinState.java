@@ -0,0 +1,300 @@
+package uk.ac.imperial.lsds.streamsql.operator;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectRBTreeMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectSortedMap;
+
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+import uk.ac.imperial.lsds.seep.comm.serialization.DataTuple;
+import uk.ac.imperial.lsds.seep.state.CustomState;
+import uk.ac.imperial.lsds.streamsql.expressions.Constants;
+import uk.ac.imperial.lsds.streamsql.expressions.IValueExpression;
+import uk.ac.imperial.lsds.streamsql.expressions.NumericEvaluator;
+import uk.ac.imperial.lsds.streamsql.predicates.ANDPredicate;
+import uk.ac.imperial.lsds.streamsql.predicates.ComparisonPredicate;
+import uk.ac.imperial.lsds.streamsql.predicates.IPredicate;
+import uk.ac.imperial.lsds.streamsql.windows.JoinWindow;
+
+/*
+ * Windows of the two inputs of a Join, each with an index to find the tuples
+ * an arriving tuple of the other input joins with. Comparisons of the join
+ * predicate are evaluated with the left tuple first and the right one second,
+ * so the index is built from one of its conjuncts:
+ *
+ * - an equality is looked up in a hash table, keyed by primitive longs when
+ *   both values are numeric and by the values themselves otherwise
+ * - an inequality of numeric values (e.g. one bound of a band join) is looked
+ *   up in a tree sorted by key
+ * - any other predicate is evaluated against the whole window (nested loops)
+ *
+ * Candidates from the index are checked against the whole predicate, unless
+ * the predicate is just the equality of numeric keys.
+ *
+ * Tuples are kept in arrival order and expire from the front of the window.
+ * The tuples of an index bucket are in arrival order too, so an expiring
+ * tuple is always the first of its bucket. Tuples are retained until they
+ * expire, as received tuples may be pooled.
+ */
+public class JoinState implements CustomState, Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	/*
+	 * Codes of the kinds of index
+	 */
+	private static final int HASH = 0;
+	private static final int OBJECT_HASH = 1;
+	private static final int BAND = 2;
+	private static final int NESTED_LOOP = 3;
+
+	private final IPredicate predicate;
+	private final int index;
+
+	/*
+	 * Comparison of the indexed conjunct, from the left and from the right
+	 */
+	private final int leftOperator;
+	private final int rightOperator;
+
+	/*
+	 * Key of the tuples of each input, evaluators for numeric keys and values
+	 * for the others, null for nested loops
+	 */
+	private final NumericEvaluator leftKey;
+	private final NumericEvaluator rightKey;
+	private final IValueExpression<?> leftValue;
+	private final IValueExpression<?> rightValue;
+	private final boolean integral;
+
+	/*
+	 * Whether matches of the index need no check against the predicate
+	 */
+	private final boolean exact;
+
+	/*
+	 * Whether any of the windows is a range window, so timestamps are needed
+	 */
+	private final boolean timed;
+	private long currentTime = Long.MIN_VALUE;
+
+	private final Side left;
+	private final Side right;
+
+	public JoinState(IPredicate predicate, JoinWindow leftWindow, JoinWindow rightWindow) {
+		this.predicate = predicate;
+
+		ComparisonPredicate<?> indexed = null;
+		int kind = NESTED_LOOP;
+		final List<IPredicate> conjuncts = (predicate instanceof ANDPredicate) ? predicate.getInnerPredicates()
+				: Collections.singletonList(predicate);
+		for (IPredicate conjunct : conjuncts) {
+			if (!(conjunct instanceof ComparisonPredicate))
+				continue;
+			final ComparisonPredicate<?> comparison = (ComparisonPredicate<?>) conjunct;
+			final int operator = comparison.getOperator(false);
+			if (operator == ComparisonPredicate.EQUAL_OP) {
+				indexed = comparison;
+				kind = comparison.isNumeric() ? HASH : OBJECT_HASH;
+				break;
+			}
+			if (operator != ComparisonPredicate.NONEQUAL_OP && comparison.isNumeric() && indexed == null) {
+				indexed = comparison;
+				kind = BAND;
+			}
+		}
+		this.index = kind;
+
+		if (indexed != null) {
+			this.leftOperator = indexed.getOperator(false);
+			this.rightOperator = indexed.getOperator(true);
+			this.leftValue = indexed.getFirstExpression();
+			this.rightValue = indexed.getSecondExpression();
+		}
+		else {
+			this.leftOperator = this.rightOperator = ComparisonPredicate.EQUAL_OP;
+			this.leftValue = this.rightValue = null;
+		}
+		if (kind == HASH || kind == BAND) {
+			this.leftKey = NumericEvaluator.compile(leftValue);
+			this.rightKey = NumericEvaluator.compile(rightValue);
+			this.integral = leftKey.isIntegral() && rightKey.isIntegral();
+		}
+		else {
+			this.leftKey = this.rightKey = null;
+			this.integral = false;
+		}
+		this.exact = (kind == HASH) && (predicate == indexed);
+
+		this.timed = leftWindow.isRange() || rightWindow.isRange();
+		this.left = new Side(leftWindow, kind);
+		this.right = new Side(rightWindow, kind);
+	}
+
+	/*
+	 * Adds the tuple arriving on one of the inputs to its window, after adding
+	 * to matches the tuples in the window of the other input it joins with
+	 */
+	public void process(boolean fromLeft, DataTuple tuple, List<DataTuple> matches) {
+		long timestamp = 0;
+		if (timed) {
+			timestamp = tuple.getLong(Constants.TIMESTAMP);
+			if (timestamp > currentTime)
+				currentTime = timestamp;
+			left.expire(currentTime);
+			right.expire(currentTime);
+		}
+
+		final Side other = fromLeft ? right : left;
+		final Entry entry = new Entry(tuple.retain(), timestamp);
+		switch (index) {
+		case HASH:
+			entry.key = key(fromLeft ? leftKey : rightKey, tuple);
+			probe(fromLeft, tuple, other.longIndex.get(entry.key), matches);
+			break;
+		case OBJECT_HASH:
+			entry.objectKey = (fromLeft ? leftValue : rightValue).eval(tuple);
+			probe(fromLeft, tuple, other.objectIndex.get(entry.objectKey), matches);
+			break;
+		case BAND:
+			entry.key = key(fromLeft ? leftKey : rightKey, tuple);
+			final Long2ObjectSortedMap<ArrayDeque<Entry>> tree = (Long2ObjectSortedMap<ArrayDeque<Entry>>) other.longIndex;
+			final int operator = fromLeft ? leftOperator : rightOperator;
+			/*
+			 * Keys of the other input the key of the tuple is less than, or
+			 * greater than, bounds included
+			 */
+			if (operator == ComparisonPredicate.LESS_OP || operator == ComparisonPredicate.NONGREATER_OP) {
+				for (ArrayDeque<Entry> bucket : tree.tailMap(entry.key).values())
+					probe(fromLeft, tuple, bucket, matches);
+			}
+			else {
+				for (ArrayDeque<Entry> bucket : tree.headMap(entry.key).values())
+					probe(fromLeft, tuple, bucket, matches);
+				probe(fromLeft, tuple, tree.get(entry.key), matches);
+			}
+			break;
+		default:
+			probe(fromLeft, tuple, other.entries, matches);
+		}
+
+		final Side own = fromLeft ? left : right;
+		own.add(entry);
+		own.expire(currentTime);
+	}
+
+	private void probe(boolean fromLeft, DataTuple tuple, Collection<Entry> candidates, List<DataTuple> matches) {
+		if (candidates == null)
+			return;
+		final JoinWindow window = fromLeft ? right.window : left.window;
+		for (Entry candidate : candidates) {
+			/*
+			 * Tuples that arrived out of order may be out of the window before
+			 * reaching the front of it
+			 */
+			if (window.isRange() && window.expired(candidate.timestamp, 0, currentTime))
+				continue;
+			if (exact || (fromLeft ? predicate.satisfied(tuple, candidate.tuple)
+					: predicate.satisfied(candidate.tuple, tuple)))
+				matches.add(candidate.tuple);
+		}
+	}
+
+	/*
+	 * Key of the tuple, compared as a long whatever the type of the value:
+	 * doubles are mapped to longs of the same order
+	 */
+	private long key(NumericEvaluator evaluator, DataTuple tuple) {
+		if (integral)
+			return evaluator.evalLong(tuple);
+		final double value = evaluator.evalDouble(tuple);
+		final long bits = Double.doubleToLongBits(value == 0.0 ? 0.0 : value);
+		return bits ^ ((bits >> 63) & Long.MAX_VALUE);
+	}
+
+	public int size() {
+		return left.entries.size() + right.entries.size();
+	}
+
+	private static class Side implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		private final JoinWindow window;
+
+		/*
+		 * Tuples in the window, oldest first
+		 */
+		private final ArrayDeque<Entry> entries = new ArrayDeque<>();
+
+		private final Long2ObjectMap<ArrayDeque<Entry>> longIndex;
+		private final HashMap<Object, ArrayDeque<Entry>> objectIndex;
+
+		Side(JoinWindow window, int index) {
+			this.window = window;
+			this.longIndex = (index == HASH) ? new Long2ObjectOpenHashMap<ArrayDeque<Entry>>()
+					: (index == BAND) ? new Long2ObjectRBTreeMap<ArrayDeque<Entry>>() : null;
+			this.objectIndex = (index == OBJECT_HASH) ? new HashMap<Object, ArrayDeque<Entry>>() : null;
+		}
+
+		void add(Entry entry) {
+			entries.addLast(entry);
+			if (longIndex != null) {
+				ArrayDeque<Entry> bucket = longIndex.get(entry.key);
+				if (bucket == null) {
+					bucket = new ArrayDeque<>(2);
+					longIndex.put(entry.key, bucket);
+				}
+				bucket.addLast(entry);
+			}
+			else if (objectIndex != null) {
+				ArrayDeque<Entry> bucket = objectIndex.get(entry.objectKey);
+				if (bucket == null) {
+					bucket = new ArrayDeque<>(2);
+					objectIndex.put(entry.objectKey, bucket);
+				}
+				bucket.addLast(entry);
+			}
+		}
+
+		void expire(long currentTime) {
+			while (!entries.isEmpty() && window.expired(entries.peekFirst().timestamp, entries.size(), currentTime)) {
+				final Entry expired = entries.removeFirst();
+				expired.tuple.release();
+				if (longIndex != null) {
+					final ArrayDeque<Entry> bucket = longIndex.get(expired.key);
+					bucket.removeFirst();
+					if (bucket.isEmpty())
+						longIndex.remove(expired.key);
+				}
+				else if (objectIndex != null) {
+					final ArrayDeque<Entry> bucket = objectIndex.get(expired.objectKey);
+					bucket.removeFirst();
+					if (bucket.isEmpty())
+						objectIndex.remove(expired.objectKey);
+				}
+			}
+		}
+	}
+
+	private static class Entry implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		private final DataTuple tuple;
+		private final long timestamp;
+		private long key;
+		private Object objectKey;
+
+		Entry(DataTuple tuple, long timestamp) {
+			this.tuple = tuple;
+			this.timestamp = timestamp;
+		}
+	}
+}
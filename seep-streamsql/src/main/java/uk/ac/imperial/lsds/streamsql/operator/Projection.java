@@ -59,8 +59,31 @@ public class Projection implements StatelessOperator, IStreamSQLOperator {
 
 	@Override
 	public void processData(List<DataTuple> dataList) {
-		for (DataTuple tuple : dataList)
-			processData(tuple);
+		
+		/*
+		 * Resolve the offsets of the projected attributes once for the batch,
+		 * and again only for tuples with a different layout
+		 */
+		DataTuple layout = null;
+		int[] offsets = new int[attributes.size() + 1];
+		
+		for (DataTuple data : dataList) {
+			if (layout == null || !data.hasLayoutOf(layout)) {
+				layout = data;
+				offsets[0] = data.indexOf(Constants.TIMESTAMP);
+				for (int i = 0; i < attributes.size(); i++)
+					offsets[i + 1] = data.indexOf(attributes.get(i));
+			}
+			
+			/*
+			 * Copy the projected columns of the row straight into its payload
+			 */
+			Object[] projectedValues = new Object[offsets.length];
+			for (int i = 0; i < offsets.length; i++)
+				projectedValues[i] = data.getValueAt(offsets[i]);
+			
+			api.send(data.setValues(projectedValues));
+		}
 	}
 	
 	@Override
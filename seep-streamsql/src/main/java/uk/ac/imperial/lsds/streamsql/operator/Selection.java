@@ -1,10 +1,12 @@
 package uk.ac.imperial.lsds.streamsql.operator;
 
+import java.util.BitSet;
 import java.util.List;
 
 import uk.ac.imperial.lsds.seep.comm.serialization.DataTuple;
 import uk.ac.imperial.lsds.seep.operator.StatelessOperator;
 import uk.ac.imperial.lsds.streamsql.predicates.IPredicate;
+import uk.ac.imperial.lsds.streamsql.util.ColumnBatch;
 import uk.ac.imperial.lsds.streamsql.visitors.OperatorVisitor;
 
 public class Selection implements StatelessOperator, IStreamSQLOperator {
@@ -27,7 +29,7 @@ public class Selection implements StatelessOperator, IStreamSQLOperator {
 			/*
 			 * Send the selected tuple
 			 */
-			api.send(data);
+			send(data);
 	}
 	
 	@Override
@@ -47,8 +49,26 @@ public class Selection implements StatelessOperator, IStreamSQLOperator {
 
 	@Override
 	public void processData(List<DataTuple> dataList) {
-		for (DataTuple tuple : dataList)
-			processData(tuple);
+
+		/*
+		 * Evaluate the predicate over the columns of the whole batch
+		 */
+		ColumnBatch batch = new ColumnBatch(dataList);
+		BitSet selection = batch.selectAll();
+		this.predicate.satisfied(batch, selection);
+
+		/*
+		 * Send the selected tuples, in order
+		 */
+		for (int row = selection.nextSetBit(0); row >= 0; row = selection.nextSetBit(row + 1))
+			send(dataList.get(row));
+	}
+
+	/*
+	 * Sends a selected tuple downstream, overridden in tests
+	 */
+	void send(DataTuple data) {
+		api.send(data);
 	}
 
 	@Override
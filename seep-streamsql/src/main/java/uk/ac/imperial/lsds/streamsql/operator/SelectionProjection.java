@@ -0,0 +1,144 @@
+package uk.ac.imperial.lsds.streamsql.operator;
+
+import java.util.BitSet;
+import java.util.List;
+
+import uk.ac.imperial.lsds.seep.GLOBALS;
+import uk.ac.imperial.lsds.seep.comm.serialization.DataTuple;
+import uk.ac.imperial.lsds.seep.operator.StatelessOperator;
+import uk.ac.imperial.lsds.streamsql.codegen.CompiledSelectionProjection;
+import uk.ac.imperial.lsds.streamsql.codegen.PipelineCompiler;
+import uk.ac.imperial.lsds.streamsql.expressions.ColumnReference;
+import uk.ac.imperial.lsds.streamsql.expressions.Constants;
+import uk.ac.imperial.lsds.streamsql.expressions.IValueExpression;
+import uk.ac.imperial.lsds.streamsql.predicates.IPredicate;
+import uk.ac.imperial.lsds.streamsql.util.ColumnBatch;
+import uk.ac.imperial.lsds.streamsql.visitors.OperatorVisitor;
+
+/*
+ * Selection followed by a projection, fused into one operator so that the
+ * tuples dropped by the predicate are never copied, and no tuple crosses
+ * the network between the two. Selected tuples are sent as
+ *
+ *   timestamp, values of the expressions...
+ *
+ * Without predicate all tuples are selected.
+ *
+ * With streamsqlCodeGeneration set, the predicate and the expressions are
+ * compiled into one generated class when the operator is set up (see
+ * PipelineCompiler), and interpreted only if that fails.
+ */
+public class SelectionProjection implements StatelessOperator, IStreamSQLOperator {
+
+	private static final long serialVersionUID = 1L;
+
+	private final IPredicate predicate;
+	private final List<IValueExpression> expressions;
+
+	private transient CompiledSelectionProjection compiled;
+
+	public SelectionProjection(IPredicate predicate, List<IValueExpression> expressions) {
+		this.predicate = predicate;
+		this.expressions = expressions;
+	}
+
+	@Override
+	public void setUp() {
+		if (Boolean.parseBoolean(GLOBALS.valueFor("streamsqlCodeGeneration")))
+			compiled = PipelineCompiler.compile(predicate, expressions);
+	}
+
+	@Override
+	public void processData(DataTuple data) {
+		if (compiled != null) {
+			final Object[] values = compiled.process(data);
+			if (values != null)
+				api.send(data.setValues(values));
+			return;
+		}
+		if (predicate == null || predicate.satisfied(data))
+			api.send(project(data, offsets(data)));
+	}
+
+	@Override
+	public void processData(List<DataTuple> dataList) {
+		if (compiled != null) {
+			for (DataTuple data : dataList) {
+				final Object[] values = compiled.process(data);
+				if (values != null)
+					api.send(data.setValues(values));
+			}
+			return;
+		}
+
+		/*
+		 * Evaluate the predicate over the columns of the whole batch
+		 */
+		BitSet selection;
+		if (predicate == null) {
+			selection = new BitSet(dataList.size());
+			selection.set(0, dataList.size());
+		}
+		else {
+			final ColumnBatch batch = new ColumnBatch(dataList);
+			selection = batch.selectAll();
+			predicate.satisfied(batch, selection);
+		}
+
+		/*
+		 * Project the selected tuples, resolving the offsets of projected
+		 * columns once per layout
+		 */
+		DataTuple layout = null;
+		int[] offsets = null;
+		for (int row = selection.nextSetBit(0); row >= 0; row = selection.nextSetBit(row + 1)) {
+			final DataTuple data = dataList.get(row);
+			if (layout == null || !data.hasLayoutOf(layout)) {
+				layout = data;
+				offsets = offsets(data);
+			}
+			api.send(project(data, offsets));
+		}
+	}
+
+	/*
+	 * Offsets of the timestamp and of the expressions that are plain column
+	 * references, -1 for the other expressions
+	 */
+	private int[] offsets(DataTuple data) {
+		final int[] offsets = new int[expressions.size() + 1];
+		offsets[0] = data.indexOf(Constants.TIMESTAMP);
+		for (int i = 0; i < expressions.size(); i++) {
+			final IValueExpression ve = expressions.get(i);
+			offsets[i + 1] = (ve instanceof ColumnReference) ? data.indexOf(((ColumnReference) ve).getColumn()) : -1;
+		}
+		return offsets;
+	}
+
+	private DataTuple project(DataTuple data, int[] offsets) {
+		final Object[] values = new Object[offsets.length];
+		values[0] = data.getValueAt(offsets[0]);
+		for (int i = 1; i < offsets.length; i++)
+			values[i] = (offsets[i] >= 0) ? data.getValueAt(offsets[i]) : expressions.get(i - 1).eval(data);
+		return data.setValues(values);
+	}
+
+	@Override
+	public String toString() {
+		final StringBuilder sb = new StringBuilder();
+		sb.append("SelectionProjection (");
+		if (predicate != null)
+			sb.append(predicate.toString() + " ");
+		sb.append("|");
+		for (IValueExpression ve : expressions)
+			sb.append(" " + ve.toString());
+		sb.append(")");
+		return sb.toString();
+	}
+
+	@Override
+	public void accept(OperatorVisitor ov) {
+		ov.visit(this);
+	}
+
+}
@@ -0,0 +1,205 @@
+package uk.ac.imperial.lsds.streamsql.plan;
+
+import java.util.List;
+
+import net.sf.jsqlparser.expression.BinaryExpression;
+import net.sf.jsqlparser.expression.DoubleValue;
+import net.sf.jsqlparser.expression.Expression;
+import net.sf.jsqlparser.expression.Function;
+import net.sf.jsqlparser.expression.LongValue;
+import net.sf.jsqlparser.expression.Parenthesis;
+import net.sf.jsqlparser.expression.SignedExpression;
+import net.sf.jsqlparser.expression.StringValue;
+import net.sf.jsqlparser.expression.operators.arithmetic.Addition;
+import net.sf.jsqlparser.expression.operators.arithmetic.Division;
+import net.sf.jsqlparser.expression.operators.arithmetic.Multiplication;
+import net.sf.jsqlparser.expression.operators.arithmetic.Subtraction;
+import net.sf.jsqlparser.expression.operators.conditional.AndExpression;
+import net.sf.jsqlparser.expression.operators.conditional.OrExpression;
+import net.sf.jsqlparser.expression.operators.relational.Between;
+import net.sf.jsqlparser.expression.operators.relational.EqualsTo;
+import net.sf.jsqlparser.expression.operators.relational.GreaterThan;
+import net.sf.jsqlparser.expression.operators.relational.GreaterThanEquals;
+import net.sf.jsqlparser.expression.operators.relational.LikeExpression;
+import net.sf.jsqlparser.expression.operators.relational.MinorThan;
+import net.sf.jsqlparser.expression.operators.relational.MinorThanEquals;
+import net.sf.jsqlparser.expression.operators.relational.NotEqualsTo;
+import net.sf.jsqlparser.schema.Column;
+import uk.ac.imperial.lsds.streamsql.conversion.DoubleConversion;
+import uk.ac.imperial.lsds.streamsql.conversion.LongConversion;
+import uk.ac.imperial.lsds.streamsql.conversion.StringConversion;
+import uk.ac.imperial.lsds.streamsql.expressions.ColumnReference;
+import uk.ac.imperial.lsds.streamsql.expressions.IValueExpression;
+import uk.ac.imperial.lsds.streamsql.expressions.ValueExpression;
+import uk.ac.imperial.lsds.streamsql.predicates.ANDPredicate;
+import uk.ac.imperial.lsds.streamsql.predicates.BetweenPredicate;
+import uk.ac.imperial.lsds.streamsql.predicates.ComparisonPredicate;
+import uk.ac.imperial.lsds.streamsql.predicates.IPredicate;
+import uk.ac.imperial.lsds.streamsql.predicates.LikePredicate;
+import uk.ac.imperial.lsds.streamsql.predicates.ORPredicate;
+import uk.ac.imperial.lsds.streamsql.windows.Aggregates;
+import uk.ac.imperial.lsds.streamsql.windows.WindowAggregate;
+
+/*
+ * Translates the expressions parsed by JSqlParser into value expressions,
+ * predicates and window aggregates, resolving columns in a Scope either
+ * before or after the join of its streams.
+ */
+public class ExpressionTranslator {
+
+	private final Scope scope;
+	private final boolean afterJoin;
+
+	public ExpressionTranslator(Scope scope, boolean afterJoin) {
+		this.scope = scope;
+		this.afterJoin = afterJoin;
+	}
+
+	public IValueExpression value(Expression e) {
+		if (e instanceof Parenthesis)
+			return value(((Parenthesis) e).getExpression());
+		if (e instanceof Column)
+			return new ColumnReference(scope.typeOf((Column) e), scope.nameOf((Column) e, afterJoin));
+		if (e instanceof LongValue)
+			return new ValueExpression<Long>(new LongConversion(), ((LongValue) e).getValue());
+		if (e instanceof DoubleValue)
+			return new ValueExpression<Double>(new DoubleConversion(), ((DoubleValue) e).getValue());
+		if (e instanceof StringValue)
+			return new ValueExpression<String>(new StringConversion(), ((StringValue) e).getValue());
+		if (e instanceof SignedExpression) {
+			final IValueExpression ve = value(((SignedExpression) e).getExpression());
+			if (((SignedExpression) e).getSign() == '-')
+				return new uk.ac.imperial.lsds.streamsql.expressions.Subtraction(
+						new ValueExpression<Long>(new LongConversion(), 0L), ve);
+			return ve;
+		}
+		if (e instanceof Addition)
+			return new uk.ac.imperial.lsds.streamsql.expressions.Addition(left(e), right(e));
+		if (e instanceof Subtraction)
+			return new uk.ac.imperial.lsds.streamsql.expressions.Subtraction(left(e), right(e));
+		if (e instanceof Multiplication)
+			return new uk.ac.imperial.lsds.streamsql.expressions.Multiplication(left(e), right(e));
+		if (e instanceof Division)
+			return new uk.ac.imperial.lsds.streamsql.expressions.Division(left(e), right(e));
+		throw new UnsupportedOperationException("Unsupported expression " + e);
+	}
+
+	private IValueExpression left(Expression e) {
+		return value(((BinaryExpression) e).getLeftExpression());
+	}
+
+	private IValueExpression right(Expression e) {
+		return value(((BinaryExpression) e).getRightExpression());
+	}
+
+	public IPredicate predicate(Expression e) {
+		if ((e instanceof Parenthesis && ((Parenthesis) e).isNot())
+				|| (e instanceof BinaryExpression && ((BinaryExpression) e).isNot()))
+			throw new UnsupportedOperationException("Unsupported predicate " + e);
+		if (e instanceof Parenthesis)
+			return predicate(((Parenthesis) e).getExpression());
+		if (e instanceof AndExpression)
+			return new ANDPredicate(predicate(((AndExpression) e).getLeftExpression()),
+					predicate(((AndExpression) e).getRightExpression()));
+		if (e instanceof OrExpression)
+			return new ORPredicate(predicate(((OrExpression) e).getLeftExpression()),
+					predicate(((OrExpression) e).getRightExpression()));
+		if (e instanceof Between) {
+			final Between between = (Between) e;
+			if (between.isNot())
+				throw new UnsupportedOperationException("Unsupported predicate " + e);
+			return new BetweenPredicate(value(between.getLeftExpression()), true,
+					value(between.getBetweenExpressionStart()), true, value(between.getBetweenExpressionEnd()));
+		}
+		if (e instanceof LikeExpression) {
+			return new LikePredicate(left(e), right(e));
+		}
+		final int operator = operator(e);
+		if (operator < 0)
+			throw new UnsupportedOperationException("Unsupported predicate " + e);
+		return new ComparisonPredicate(operator, left(e), right(e));
+	}
+
+	/*
+	 * Code of the comparison operator of the expression, -1 if it is not a comparison
+	 */
+	public static int operator(Expression e) {
+		if (e instanceof EqualsTo)
+			return ComparisonPredicate.EQUAL_OP;
+		if (e instanceof NotEqualsTo)
+			return ComparisonPredicate.NONEQUAL_OP;
+		if (e instanceof MinorThan)
+			return ComparisonPredicate.LESS_OP;
+		if (e instanceof MinorThanEquals)
+			return ComparisonPredicate.NONGREATER_OP;
+		if (e instanceof GreaterThan)
+			return ComparisonPredicate.GREATER_OP;
+		if (e instanceof GreaterThanEquals)
+			return ComparisonPredicate.NONLESS_OP;
+		return -1;
+	}
+
+	public static boolean isAggregate(Expression e) {
+		if (!(e instanceof Function))
+			return false;
+		final String name = ((Function) e).getName().toUpperCase();
+		return name.equals("COUNT") || name.equals("SUM") || name.equals("AVG") || name.equals("MIN")
+				|| name.equals("MAX");
+	}
+
+	public WindowAggregate aggregate(Expression e) {
+		final Function function = (Function) e;
+		final String name = function.getName().toUpperCase();
+		if (name.equals("COUNT"))
+			return Aggregates.count();
+		if (function.isAllColumns() || function.getParameters() == null
+				|| function.getParameters().getExpressions().size() != 1)
+			throw new UnsupportedOperationException("Unsupported aggregate " + e);
+		final IValueExpression ve = value(function.getParameters().getExpressions().get(0));
+		if (name.equals("SUM"))
+			return Aggregates.sum(ve);
+		if (name.equals("AVG"))
+			return Aggregates.avg(ve);
+		if (name.equals("MIN"))
+			return Aggregates.min(ve);
+		return Aggregates.max(ve);
+	}
+
+	/*
+	 * Adds the conjuncts of the expression to conjuncts
+	 */
+	public static void conjuncts(Expression e, List<Expression> conjuncts) {
+		if (e instanceof Parenthesis && ((Parenthesis) e).getExpression() instanceof AndExpression)
+			conjuncts(((Parenthesis) e).getExpression(), conjuncts);
+		else if (e instanceof AndExpression) {
+			conjuncts(((AndExpression) e).getLeftExpression(), conjuncts);
+			conjuncts(((AndExpression) e).getRightExpression(), conjuncts);
+		}
+		else if (e != null)
+			conjuncts.add(e);
+	}
+
+	/*
+	 * Adds the columns the expression refers to to columns
+	 */
+	public static void columns(Expression e, List<Column> columns) {
+		if (e instanceof Column)
+			columns.add((Column) e);
+		else if (e instanceof Parenthesis)
+			columns(((Parenthesis) e).getExpression(), columns);
+		else if (e instanceof SignedExpression)
+			columns(((SignedExpression) e).getExpression(), columns);
+		else if (e instanceof BinaryExpression) {
+			columns(((BinaryExpression) e).getLeftExpression(), columns);
+			columns(((BinaryExpression) e).getRightExpression(), columns);
+		}
+		else if (e instanceof Between) {
+			columns(((Between) e).getLeftExpression(), columns);
+			columns(((Between) e).getBetweenExpressionStart(), columns);
+			columns(((Between) e).getBetweenExpressionEnd(), columns);
+		}
+		else if (e instanceof Function && ((Function) e).getParameters() != null)
+			for (Expression parameter : ((Function) e).getParameters().getExpressions())
+				columns(parameter, columns);
+	}
+}
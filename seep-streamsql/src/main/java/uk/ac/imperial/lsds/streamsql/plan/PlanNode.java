@@ -0,0 +1,92 @@
+package uk.ac.imperial.lsds.streamsql.plan;
+
+import java.util.Arrays;
+import java.util.List;
+
+import uk.ac.imperial.lsds.seep.operator.OperatorCode;
+
+/*
+ * Node of the logical plan of a query: either a stream read by the query,
+ * or an operator over the nodes of its inputs. Attributes are the names of
+ * the attributes of the tuples the node outputs.
+ */
+public class PlanNode {
+
+	private final StreamDefinition stream;
+	private final OperatorCode code;
+	private final List<PlanNode> inputs;
+	private final List<String> attributes;
+
+	/*
+	 * Key attribute of the state of the operator, if partitionable
+	 */
+	private String keyAttribute;
+
+	public PlanNode(StreamDefinition stream) {
+		this.stream = stream;
+		this.code = null;
+		this.inputs = Arrays.asList();
+		this.attributes = stream.getAttributes();
+	}
+
+	public PlanNode(OperatorCode code, List<String> attributes, PlanNode... inputs) {
+		this.stream = null;
+		this.code = code;
+		this.inputs = Arrays.asList(inputs);
+		this.attributes = attributes;
+	}
+
+	public boolean isStream() {
+		return stream != null;
+	}
+
+	public StreamDefinition getStream() {
+		return stream;
+	}
+
+	public List<PlanNode> getInputs() {
+		return inputs;
+	}
+
+	public List<String> getAttributes() {
+		return attributes;
+	}
+
+	public String getKeyAttribute() {
+		return keyAttribute;
+	}
+
+	public void setKeyAttribute(String keyAttribute) {
+		this.keyAttribute = keyAttribute;
+	}
+
+	/*
+	 * Operator of the node, given the ids of the operators of its inputs.
+	 * Overridden by nodes whose operator needs to know them, e.g. joins.
+	 */
+	public OperatorCode instantiate(int[] inputOpIds) {
+		return code;
+	}
+
+	/*
+	 * Plan rooted at this node, one node per line
+	 */
+	public String explain() {
+		final StringBuilder sb = new StringBuilder();
+		explain(sb, 0);
+		return sb.toString();
+	}
+
+	private void explain(StringBuilder sb, int depth) {
+		for (int i = 0; i < depth; i++)
+			sb.append("  ");
+		sb.append(isStream() ? "Stream " + stream.getName() : toString()).append(" -> ").append(attributes).append("\n");
+		for (PlanNode input : inputs)
+			input.explain(sb, depth + 1);
+	}
+
+	@Override
+	public String toString() {
+		return isStream() ? stream.getName() : code.toString();
+	}
+}
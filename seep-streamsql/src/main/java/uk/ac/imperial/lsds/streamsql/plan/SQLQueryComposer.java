@@ -0,0 +1,158 @@
+package uk.ac.imperial.lsds.streamsql.plan;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.sf.jsqlparser.JSQLParserException;
+import net.sf.jsqlparser.parser.CCJSqlParserUtil;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import uk.ac.imperial.lsds.seep.api.QueryBuilder;
+import uk.ac.imperial.lsds.seep.api.QueryComposer;
+import uk.ac.imperial.lsds.seep.api.QueryPlan;
+import uk.ac.imperial.lsds.seep.operator.Connectable;
+import uk.ac.imperial.lsds.seep.operator.InputDataIngestionMode;
+import uk.ac.imperial.lsds.seep.operator.OperatorCode;
+import uk.ac.imperial.lsds.seep.operator.StatefulOperator;
+import uk.ac.imperial.lsds.seep.operator.UpstreamTaggedProcessing;
+import uk.ac.imperial.lsds.seep.state.CustomState;
+import uk.ac.imperial.lsds.seep.state.StateWrapper;
+import uk.ac.imperial.lsds.streamsql.visitors.SeepSQLVisitor;
+
+/*
+ * Composes the query plan of a SQL query over streams whose sources, and the
+ * sink of the query, are declared with QueryBuilder beforehand:
+ *
+ *   Connectable src = QueryBuilder.newStatelessSource(new Source(), -1, fields);
+ *   Connectable snk = QueryBuilder.newStatelessSink(new Sink(), -2, outputFields);
+ *   SQLQueryComposer composer = new SQLQueryComposer(
+ *       "SELECT plug, AVG(load) FROM plugs [RANGE 60 SLIDE 10] GROUP BY plug");
+ *   composer.addStream(new StreamDefinition("plugs", fields, types, src));
+ *   composer.setSink(snk);
+ *   QueryPlan qp = composer.compose();
+ *
+ * Operators of the query get consecutive ids from the first operator id on.
+ */
+public class SQLQueryComposer implements QueryComposer {
+
+	private static Logger LOG = LoggerFactory.getLogger(SQLQueryComposer.class);
+
+	private final String sql;
+	private final Map<String, StreamDefinition> catalog = new HashMap<>();
+	private Connectable sink;
+
+	private int firstOperatorId = 0;
+	private int checkpointInterval = 5000;
+
+	private PlanNode plan;
+	private int nextOperatorId;
+
+	public SQLQueryComposer(String sql) {
+		this.sql = sql;
+	}
+
+	public void addStream(StreamDefinition stream) {
+		catalog.put(stream.getName().toLowerCase(), stream);
+	}
+
+	public void setSink(Connectable sink) {
+		this.sink = sink;
+	}
+
+	public void setFirstOperatorId(int firstOperatorId) {
+		this.firstOperatorId = firstOperatorId;
+	}
+
+	/*
+	 * Checkpoint interval (ms) of the state of stateful operators
+	 */
+	public void setCheckpointInterval(int checkpointInterval) {
+		this.checkpointInterval = checkpointInterval;
+	}
+
+	/*
+	 * Logical plan of the query, parsing it if needed
+	 */
+	public PlanNode getPlan() {
+		if (plan == null) {
+			final Map<String, WindowDefinition> windows = new HashMap<>();
+			final String query = WindowDefinition.extract(sql, windows);
+			final SeepSQLVisitor visitor = new SeepSQLVisitor(catalog, windows);
+			try {
+				CCJSqlParserUtil.parse(query).accept(visitor);
+			}
+			catch (JSQLParserException e) {
+				throw new IllegalArgumentException("Cannot parse query " + sql, e);
+			}
+			final List<PlanNode> plans = visitor.getPlans();
+			if (plans.size() != 1)
+				throw new IllegalArgumentException("Query " + sql + " is not a single SELECT statement");
+			plan = plans.get(0);
+		}
+		return plan;
+	}
+
+	public String explain() {
+		return getPlan().explain();
+	}
+
+	@Override
+	public QueryPlan compose() {
+		if (sink == null)
+			throw new IllegalStateException("No sink for query " + sql);
+		LOG.info("Composing query {}, plan:\n{}", sql, explain());
+		nextOperatorId = firstOperatorId;
+		generate(getPlan()).connectTo(sink, true, 0);
+		return QueryBuilder.build();
+	}
+
+	/*
+	 * Declares the operators of the plan rooted at node, inputs first, and
+	 * connects them
+	 */
+	private Connectable generate(PlanNode node) {
+		if (node.isStream())
+			return node.getStream().getSource();
+
+		final List<PlanNode> inputs = node.getInputs();
+		final Connectable[] upstream = new Connectable[inputs.size()];
+		final int[] inputOpIds = new int[inputs.size()];
+		for (int i = 0; i < upstream.length; i++) {
+			upstream[i] = generate(inputs.get(i));
+			inputOpIds[i] = upstream[i].getOperatorId();
+		}
+
+		final int opId = nextOperatorId++;
+		final OperatorCode code = node.instantiate(inputOpIds);
+		final Connectable op;
+		if (code instanceof StatefulOperator) {
+			final StateWrapper sw = QueryBuilder.newCustomState(
+					(CustomState) ((StatefulOperator) code).getState().getStateImpl(), opId, checkpointInterval,
+					node.getKeyAttribute());
+			((StatefulOperator) code).replaceState(sw);
+			op = QueryBuilder.newStatefulOperator(code, opId, sw, node.getAttributes());
+		}
+		else
+			op = QueryBuilder.newStatelessOperator(code, opId, node.getAttributes());
+
+		/*
+		 * Operators that tell their inputs apart need each of them with its
+		 * own ingestion mode, so from a different upstream operator
+		 */
+		if (code instanceof UpstreamTaggedProcessing)
+			for (int i = 0; i < inputOpIds.length; i++)
+				for (int j = 0; j < i; j++)
+					if (inputOpIds[i] == inputOpIds[j])
+						throw new IllegalArgumentException(code + " reads operator " + inputOpIds[i]
+								+ " as two of its inputs, which it cannot tell apart");
+		for (int i = 0; i < upstream.length; i++)
+			if (code instanceof UpstreamTaggedProcessing)
+				upstream[i].connectTo(op, InputDataIngestionMode.ONE_AT_A_TIME, true, i);
+			else
+				upstream[i].connectTo(op, true, i);
+		return op;
+	}
+}
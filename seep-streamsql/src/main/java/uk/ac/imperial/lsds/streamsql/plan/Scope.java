@@ -0,0 +1,112 @@
+package uk.ac.imperial.lsds.streamsql.plan;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import net.sf.jsqlparser.schema.Column;
+import uk.ac.imperial.lsds.streamsql.conversion.TypeConversion;
+
+/*
+ * Streams in the FROM clause of a query, to resolve the columns the query
+ * refers to. A column is named by its attribute in the tuples of its stream,
+ * and after a join by its attribute in the joined tuples, where attributes of
+ * the second stream that clash with those of the first one are prefixed with
+ * the alias of the stream.
+ */
+public class Scope {
+
+	private final List<StreamDefinition> streams = new ArrayList<>();
+	private final List<String> aliases = new ArrayList<>();
+	private final List<WindowDefinition> windows = new ArrayList<>();
+
+	/*
+	 * Attribute of the columns of each stream after the join
+	 */
+	private final List<Map<String, String>> joined = new ArrayList<>();
+
+	public void add(StreamDefinition stream, String alias, WindowDefinition window) {
+		streams.add(stream);
+		aliases.add((alias == null) ? stream.getName() : alias);
+		windows.add(window);
+		joined.add(new HashMap<String, String>());
+	}
+
+	public int size() {
+		return streams.size();
+	}
+
+	public StreamDefinition getStream(int input) {
+		return streams.get(input);
+	}
+
+	public String getAlias(int input) {
+		return aliases.get(input);
+	}
+
+	public WindowDefinition getWindow(int input) {
+		return windows.get(input);
+	}
+
+	/*
+	 * Index of the stream of the column
+	 */
+	public int inputOf(Column column) {
+		final String table = (column.getTable() == null) ? null : column.getTable().getName();
+		int input = -1;
+		for (int i = 0; i < streams.size(); i++) {
+			if (table != null) {
+				if (table.equalsIgnoreCase(aliases.get(i)) || table.equalsIgnoreCase(streams.get(i).getName()))
+					input = i;
+			}
+			else if (streams.get(i).getType(column.getColumnName()) != null) {
+				if (input >= 0)
+					throw new IllegalArgumentException("Ambiguous column " + column);
+				input = i;
+			}
+		}
+		if (input < 0 || streams.get(input).getType(column.getColumnName()) == null)
+			throw new IllegalArgumentException("Unknown column " + column);
+		return input;
+	}
+
+	public TypeConversion typeOf(Column column) {
+		return streams.get(inputOf(column)).getType(column.getColumnName());
+	}
+
+	/*
+	 * Attribute of the column in the tuples of its stream, or in the joined tuples
+	 */
+	public String nameOf(Column column, boolean afterJoin) {
+		final int input = inputOf(column);
+		if (!afterJoin)
+			return column.getColumnName();
+		final String name = joined.get(input).get(column.getColumnName());
+		if (name == null)
+			throw new IllegalArgumentException("Column " + column + " is not an output of the join");
+		return name;
+	}
+
+	/*
+	 * Attributes of the tuples joined from tuples of the first and second
+	 * streams with the given attributes
+	 */
+	public List<String> join(List<String> first, List<String> second) {
+		final List<String> attributes = new ArrayList<>(first);
+		final Set<String> names = new HashSet<>(first);
+		for (String attribute : first)
+			joined.get(0).put(attribute, attribute);
+		for (String attribute : second) {
+			String name = attribute;
+			if (names.contains(name))
+				name = aliases.get(1) + "_" + attribute;
+			names.add(name);
+			attributes.add(name);
+			joined.get(1).put(attribute, name);
+		}
+		return attributes;
+	}
+}
@@ -0,0 +1,55 @@
+package uk.ac.imperial.lsds.streamsql.plan;
+
+import java.util.List;
+
+import uk.ac.imperial.lsds.seep.operator.Connectable;
+import uk.ac.imperial.lsds.streamsql.conversion.TypeConversion;
+
+/*
+ * Stream that queries can read from: its name, the attributes of its tuples
+ * with their types, and the operator that produces it. Tuples of streams
+ * carry a timestamp attribute (see Constants.TIMESTAMP), which windows and
+ * projections rely on.
+ */
+public class StreamDefinition {
+
+	private final String name;
+	private final List<String> attributes;
+	private final List<TypeConversion> types;
+	private final Connectable source;
+
+	public StreamDefinition(String name, List<String> attributes, List<TypeConversion> types, Connectable source) {
+		if (attributes.size() != types.size())
+			throw new IllegalArgumentException("Stream " + name + " has " + attributes.size() + " attributes but "
+					+ types.size() + " types");
+		this.name = name;
+		this.attributes = attributes;
+		this.types = types;
+		this.source = source;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public List<String> getAttributes() {
+		return attributes;
+	}
+
+	/*
+	 * Type of the attribute, null if the stream has no such attribute
+	 */
+	public TypeConversion getType(String attribute) {
+		final int i = attributes.indexOf(attribute);
+		return (i < 0) ? null : types.get(i);
+	}
+
+	public Connectable getSource() {
+		return source;
+	}
+
+	@Override
+	public String toString() {
+		return name + attributes;
+	}
+}
@@ -0,0 +1,90 @@
+package uk.ac.imperial.lsds.streamsql.plan;
+
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import uk.ac.imperial.lsds.streamsql.windows.JoinWindow;
+import uk.ac.imperial.lsds.streamsql.windows.RangeWindow;
+import uk.ac.imperial.lsds.streamsql.windows.RowWindow;
+import uk.ac.imperial.lsds.streamsql.windows.Window;
+
+/*
+ * Window of a stream in the FROM clause of a query, written after the name
+ * of the stream as in CQL:
+ *
+ *   FROM plugs [RANGE 60 SLIDE 10] p, houses [ROWS 100] h
+ *
+ * The slide defaults to the size. JSqlParser does not know this syntax, so
+ * windows are taken out of the query text before it is parsed, skipping
+ * quoted strings and identifiers. Windows are keyed by their stream and the
+ * alias written after them, so each occurrence of a stream in a self-join has
+ * its own window.
+ */
+public class WindowDefinition {
+
+	/*
+	 * Either quoted text, left as is, or a window with the alias after it, if
+	 * any: the word after a window is an alias unless it is a keyword
+	 */
+	private static final Pattern WINDOW = Pattern.compile("('(?:[^']|'')*'|\"(?:[^\"]|\"\")*\")"
+			+ "|(\\w+)\\s*\\[\\s*(ROWS|RANGE)\\s+(\\d+)(?:\\s+SLIDE\\s+(\\d+))?\\s*\\]"
+			+ "(\\s+(?:AS\\s+)?(?!(?:WHERE|GROUP|HAVING|ORDER|LIMIT|JOIN|INNER|LEFT|RIGHT|FULL|OUTER|CROSS|NATURAL"
+			+ "|ON|USING|UNION|EXCEPT|MINUS|INTERSECT)\\b)(\\w+))?", Pattern.CASE_INSENSITIVE);
+
+	private final boolean range;
+	private final int size;
+	private final int slide;
+
+	public WindowDefinition(boolean range, int size, int slide) {
+		if (size < 1 || slide < 1 || slide > size)
+			throw new IllegalArgumentException("Invalid window of size " + size + " and slide " + slide);
+		this.range = range;
+		this.size = size;
+		this.slide = slide;
+	}
+
+	/*
+	 * Removes the windows from the query, adding them to windows by key of
+	 * their stream and alias
+	 */
+	public static String extract(String sql, Map<String, WindowDefinition> windows) {
+		final Matcher m = WINDOW.matcher(sql);
+		final StringBuffer sb = new StringBuffer();
+		while (m.find()) {
+			if (m.group(1) != null) {
+				m.appendReplacement(sb, Matcher.quoteReplacement(m.group(1)));
+				continue;
+			}
+			final int size = Integer.parseInt(m.group(4));
+			final int slide = (m.group(5) == null) ? size : Integer.parseInt(m.group(5));
+			final String key = key(m.group(2), m.group(7));
+			if (windows.put(key, new WindowDefinition(m.group(3).equalsIgnoreCase("RANGE"), size, slide)) != null)
+				throw new IllegalArgumentException("More than one window for stream " + m.group(2)
+						+ ((m.group(7) == null) ? "" : " " + m.group(7)) + ", give each an alias");
+			m.appendReplacement(sb, Matcher.quoteReplacement(m.group(2) + ((m.group(6) == null) ? "" : m.group(6))));
+		}
+		m.appendTail(sb);
+		return sb.toString();
+	}
+
+	/*
+	 * Key of the window of a stream in the FROM clause, with its alias or null
+	 */
+	public static String key(String stream, String alias) {
+		return (alias == null) ? stream.toLowerCase() : stream.toLowerCase() + " " + alias.toLowerCase();
+	}
+
+	public Window toWindow() {
+		return range ? new RangeWindow(size, slide) : new RowWindow(size, slide);
+	}
+
+	public JoinWindow toJoinWindow() {
+		return range ? JoinWindow.range(size) : JoinWindow.rows(size);
+	}
+
+	@Override
+	public String toString() {
+		return "[" + (range ? "RANGE " : "ROWS ") + size + " SLIDE " + slide + "]";
+	}
+}
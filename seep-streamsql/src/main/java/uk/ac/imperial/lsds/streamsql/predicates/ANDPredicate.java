@@ -2,12 +2,16 @@ package uk.ac.imperial.lsds.streamsql.predicates;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.List;
 
 import uk.ac.imperial.lsds.seep.comm.serialization.DataTuple;
+import uk.ac.imperial.lsds.streamsql.util.ColumnBatch;
 import uk.ac.imperial.lsds.streamsql.visitors.PredicateVisitor;
 
 public class ANDPredicate implements IPredicate {
+
+	private static final long serialVersionUID = 1L;
 	
 	List<IPredicate> predicates = new ArrayList<IPredicate>();
 
@@ -33,6 +37,15 @@ public class ANDPredicate implements IPredicate {
 		return true;
 	}
 
+	@Override
+	public void satisfied(ColumnBatch batch, BitSet selection) {
+		for (IPredicate pred : predicates) {
+			if (selection.isEmpty())
+				return;
+			pred.satisfied(batch, selection);
+		}
+	}
+
 	@Override
 	public String toString() {
 		final StringBuilder sb = new StringBuilder();
@@ -1,13 +1,15 @@
 package uk.ac.imperial.lsds.streamsql.predicates;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import uk.ac.imperial.lsds.seep.comm.serialization.DataTuple;
-import uk.ac.imperial.lsds.streamsql.expressions.ValueExpression;
+import uk.ac.imperial.lsds.streamsql.util.ColumnBatch;
+import uk.ac.imperial.lsds.streamsql.expressions.IValueExpression;
 import uk.ac.imperial.lsds.streamsql.visitors.PredicateVisitor;
 import uk.ac.imperial.lsds.streamsql.visitors.SeepSQLVisitor;
 
@@ -24,8 +26,8 @@ public class BetweenPredicate<T extends Comparable<T>> implements IPredicate {
 
 	private final IPredicate _and;
 
-	public BetweenPredicate(ValueExpression<T> ve, boolean includeLower,
-			ValueExpression<T> veLower, boolean includeUpper, ValueExpression<T> veUpper) {
+	public BetweenPredicate(IValueExpression<T> ve, boolean includeLower,
+			IValueExpression<T> veLower, boolean includeUpper, IValueExpression<T> veUpper) {
 
 		// set up boundaries correctly
 		int opLower = ComparisonPredicate.GREATER_OP;
@@ -63,6 +65,11 @@ public class BetweenPredicate<T extends Comparable<T>> implements IPredicate {
 		return _and.satisfied(firstTupleValues, secondTupleValues);
 	}
 
+	@Override
+	public void satisfied(ColumnBatch batch, BitSet selection) {
+		_and.satisfied(batch, selection);
+	}
+
 	@Override
 	public String toString() {
 		final StringBuilder sb = new StringBuilder();
@@ -1,14 +1,20 @@
 package uk.ac.imperial.lsds.streamsql.predicates;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
 
 import uk.ac.imperial.lsds.seep.comm.serialization.DataTuple;
+import uk.ac.imperial.lsds.streamsql.expressions.ColumnReference;
 import uk.ac.imperial.lsds.streamsql.expressions.IValueExpression;
+import uk.ac.imperial.lsds.streamsql.expressions.NumericEvaluator;
+import uk.ac.imperial.lsds.streamsql.util.ColumnBatch;
 import uk.ac.imperial.lsds.streamsql.visitors.PredicateVisitor;
 
 public class ComparisonPredicate<T extends Comparable<T>> implements IPredicate {
 
+	private static final long serialVersionUID = 1L;
+
 	/*
 	 * Values compared by this predicate
 	 */
@@ -20,6 +26,17 @@ public class ComparisonPredicate<T extends Comparable<T>> implements IPredicate
 	 */
 	int comparisonOperation;
 
+	/*
+	 * Primitive evaluators of v1 and v2, null unless both are numeric
+	 */
+	private final NumericEvaluator e1;
+	private final NumericEvaluator e2;
+
+	/*
+	 * Whether both values are integral and compared as longs
+	 */
+	private final boolean integral;
+
 	/*
 	 * Codes of available comparison operator
 	 */
@@ -34,6 +51,11 @@ public class ComparisonPredicate<T extends Comparable<T>> implements IPredicate
 		this.comparisonOperation = comparisonOperation;
 		this.v1 = v1;
 		this.v2 = v2;
+		final NumericEvaluator c1 = NumericEvaluator.compile(v1);
+		final NumericEvaluator c2 = (c1 == null) ? null : NumericEvaluator.compile(v2);
+		this.e1 = (c2 == null) ? null : c1;
+		this.e2 = c2;
+		this.integral = (c2 != null) && c1.isIntegral() && c2.isIntegral();
 	}
 
 	public ComparisonPredicate(IValueExpression<T> v1, IValueExpression<T> v2) {
@@ -70,6 +92,15 @@ public class ComparisonPredicate<T extends Comparable<T>> implements IPredicate
 
 	@Override
 	public boolean satisfied(DataTuple tuple) {
+		if (e1 != null) {
+			/*
+			 * Numeric values are compared unboxed
+			 */
+			final int compared = integral ? Long.compare(e1.evalLong(tuple), e2.evalLong(tuple))
+					: Double.compare(e1.evalDouble(tuple), e2.evalDouble(tuple));
+			return matches(compared);
+		}
+
 		Comparable val1 = v1.eval(tuple);
 		Comparable val2 = v2.eval(tuple);
 
@@ -108,8 +139,29 @@ public class ComparisonPredicate<T extends Comparable<T>> implements IPredicate
 		return result;
 	}
 
+	public IValueExpression<T> getFirstExpression() {
+		return v1;
+	}
+
+	public IValueExpression<T> getSecondExpression() {
+		return v2;
+	}
+
+	/*
+	 * Whether both values are numeric, and compared unboxed
+	 */
+	public boolean isNumeric() {
+		return e1 != null;
+	}
+
 	@Override
 	public boolean satisfied(DataTuple firstTuple, DataTuple secondTuple) {
+		if (e1 != null) {
+			final int compared = integral ? Long.compare(e1.evalLong(firstTuple), e2.evalLong(secondTuple))
+					: Double.compare(e1.evalDouble(firstTuple), e2.evalDouble(secondTuple));
+			return matches(compared);
+		}
+
 		final Comparable val1 = v1.eval(firstTuple);
 		final Comparable val2 = v2.eval(secondTuple);
 		final int compared = val1.compareTo(val2);
@@ -140,6 +192,106 @@ public class ComparisonPredicate<T extends Comparable<T>> implements IPredicate
 		return result;
 	}
 	
+	@Override
+	public void satisfied(ColumnBatch batch, BitSet selection) {
+		if (e1 == null) {
+			/*
+			 * Not a comparison of numeric values, evaluate tuple at a time
+			 */
+			for (int row = selection.nextSetBit(0); row >= 0; row = selection.nextSetBit(row + 1))
+				if (!satisfied(batch.get(row)))
+					selection.clear(row);
+			return;
+		}
+		/*
+		 * Rows with values the columns of the batch could not hold are
+		 * evaluated tuple at a time
+		 */
+		final BitSet irregulars = irregulars(batch);
+		if (integral) {
+			final long[] values1 = longColumn(e1, v1, batch, selection);
+			final long[] values2 = longColumn(e2, v2, batch, selection);
+			for (int row = selection.nextSetBit(0); row >= 0; row = selection.nextSetBit(row + 1))
+				if ((irregulars != null && irregulars.get(row)) ? !satisfied(batch.get(row))
+						: !matches(Long.compare(values1[row], values2[row])))
+					selection.clear(row);
+		}
+		else {
+			final double[] values1 = doubleColumn(e1, v1, batch, selection);
+			final double[] values2 = doubleColumn(e2, v2, batch, selection);
+			for (int row = selection.nextSetBit(0); row >= 0; row = selection.nextSetBit(row + 1))
+				if ((irregulars != null && irregulars.get(row)) ? !satisfied(batch.get(row))
+						: !matches(Double.compare(values1[row], values2[row])))
+					selection.clear(row);
+		}
+	}
+
+	/*
+	 * Irregular rows of the columns of the batch read for v1 and v2, null if
+	 * there are none
+	 */
+	private BitSet irregulars(ColumnBatch batch) {
+		final BitSet irregulars1 = irregulars(e1, v1, batch);
+		final BitSet irregulars2 = irregulars(e2, v2, batch);
+		if (irregulars1 == null || irregulars2 == null)
+			return (irregulars1 == null) ? irregulars2 : irregulars1;
+		final BitSet both = (BitSet) irregulars1.clone();
+		both.or(irregulars2);
+		return both;
+	}
+
+	private BitSet irregulars(NumericEvaluator e, IValueExpression<?> ve, ColumnBatch batch) {
+		if (!(ve instanceof ColumnReference))
+			return null;
+		final String column = ((ColumnReference<?>) ve).getColumn();
+		if (integral && e.isIntegral())
+			return batch.longIrregulars(column);
+		if (!integral && !e.isIntegral())
+			return batch.doubleIrregulars(column);
+		return null;
+	}
+
+	/*
+	 * Values of the expression for the selected rows of the batch. Column
+	 * references are read from the (cached) columns of the batch.
+	 */
+	private static long[] longColumn(NumericEvaluator e, IValueExpression<?> ve, ColumnBatch batch, BitSet selection) {
+		if (ve instanceof ColumnReference && e.isIntegral())
+			return batch.longColumn(((ColumnReference<?>) ve).getColumn());
+		final long[] values = new long[batch.size()];
+		for (int row = selection.nextSetBit(0); row >= 0; row = selection.nextSetBit(row + 1))
+			values[row] = e.isConstant() ? e.evalLong(null) : e.evalLong(batch.get(row));
+		return values;
+	}
+
+	private static double[] doubleColumn(NumericEvaluator e, IValueExpression<?> ve, ColumnBatch batch, BitSet selection) {
+		if (ve instanceof ColumnReference && !e.isIntegral())
+			return batch.doubleColumn(((ColumnReference<?>) ve).getColumn());
+		final double[] values = new double[batch.size()];
+		for (int row = selection.nextSetBit(0); row >= 0; row = selection.nextSetBit(row + 1))
+			values[row] = e.isConstant() ? e.evalDouble(null) : e.evalDouble(batch.get(row));
+		return values;
+	}
+
+	private boolean matches(int compared) {
+		switch (this.comparisonOperation) {
+		case EQUAL_OP:
+			return (compared == 0);
+		case NONEQUAL_OP:
+			return (compared != 0);
+		case LESS_OP:
+			return (compared < 0);
+		case NONLESS_OP:
+			return (compared >= 0);
+		case GREATER_OP:
+			return (compared > 0);
+		case NONGREATER_OP:
+			return (compared <= 0);
+		default:
+			throw new RuntimeException("Unsupported operation " + this.comparisonOperation);
+		}
+	}
+	
 	// used for direct key comparison
 	public boolean test(T key1, T key2){
 		final int compared = key1.compareTo(key2);
@@ -1,16 +1,25 @@
 package uk.ac.imperial.lsds.streamsql.predicates;
 
+import java.io.Serializable;
+import java.util.BitSet;
 import java.util.List;
 
 import uk.ac.imperial.lsds.seep.comm.serialization.DataTuple;
+import uk.ac.imperial.lsds.streamsql.util.ColumnBatch;
 import uk.ac.imperial.lsds.streamsql.visitors.PredicateVisitor;
 
-public interface IPredicate {
+public interface IPredicate extends Serializable {
 	
 	public boolean satisfied(DataTuple tuple);
 
 	public boolean satisfied(DataTuple firstTuple, DataTuple secondTuple);
 
+	/*
+	 * Batch evaluation: clears the bits of the rows in selection that do not
+	 * satisfy the predicate. Rows not set in selection are not evaluated.
+	 */
+	public void satisfied(ColumnBatch batch, BitSet selection);
+
 	public void accept(PredicateVisitor pv);
 
 	public List<IPredicate> getInnerPredicates();
@@ -1,12 +1,14 @@
 package uk.ac.imperial.lsds.streamsql.predicates;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
 
 import uk.ac.imperial.lsds.seep.comm.serialization.DataTuple;
 import uk.ac.imperial.lsds.streamsql.conversion.StringConversion;
 import uk.ac.imperial.lsds.streamsql.expressions.IValueExpression;
 import uk.ac.imperial.lsds.streamsql.expressions.ValueExpression;
+import uk.ac.imperial.lsds.streamsql.util.ColumnBatch;
 import uk.ac.imperial.lsds.streamsql.visitors.PredicateVisitor;
 
 /*
@@ -20,7 +22,7 @@ public class LikePredicate implements IPredicate {
 	private final IValueExpression<String> _ve1;
 	private IValueExpression<String> _ve2;
 
-	public LikePredicate(ValueExpression<String> ve1, ValueExpression<String> ve2) {
+	public LikePredicate(IValueExpression<String> ve1, IValueExpression<String> ve2) {
 		_ve1 = ve1;
 		_ve2 = ve2;
 		// WORKS ONLY for pattern '%value%'
@@ -62,6 +64,13 @@ public class LikePredicate implements IPredicate {
 		return val1.contains(val2);
 	}
 
+	@Override
+	public void satisfied(ColumnBatch batch, BitSet selection) {
+		for (int row = selection.nextSetBit(0); row >= 0; row = selection.nextSetBit(row + 1))
+			if (!satisfied(batch.get(row)))
+				selection.clear(row);
+	}
+
 	@Override
 	public String toString() {
 		final StringBuilder sb = new StringBuilder();
@@ -2,12 +2,16 @@ package uk.ac.imperial.lsds.streamsql.predicates;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.List;
 
 import uk.ac.imperial.lsds.seep.comm.serialization.DataTuple;
+import uk.ac.imperial.lsds.streamsql.util.ColumnBatch;
 import uk.ac.imperial.lsds.streamsql.visitors.PredicateVisitor;
 
 public class ORPredicate implements IPredicate {
+
+	private static final long serialVersionUID = 1L;
 	
 	List<IPredicate> predicates = new ArrayList<IPredicate>();
 
@@ -33,6 +37,23 @@ public class ORPredicate implements IPredicate {
 		return false;
 	}
 
+	@Override
+	public void satisfied(ColumnBatch batch, BitSet selection) {
+		BitSet remaining = (BitSet) selection.clone();
+		selection.clear();
+		for (IPredicate pred : predicates) {
+			if (remaining.isEmpty())
+				return;
+			BitSet satisfying = (BitSet) remaining.clone();
+			pred.satisfied(batch, satisfying);
+			selection.or(satisfying);
+			/*
+			 * Rows already satisfying need not be evaluated again
+			 */
+			remaining.andNot(satisfying);
+		}
+	}
+
 	@Override
 	public String toString() {
 		final StringBuilder sb = new StringBuilder();
@@ -0,0 +1,156 @@
+package uk.ac.imperial.lsds.streamsql.util;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import uk.ac.imperial.lsds.seep.comm.serialization.DataTuple;
+
+/*
+ * Columnar view of a batch of tuples. The values of a column are extracted
+ * once per batch into a primitive array, so predicates can be
+ * evaluated over whole columns instead of resolving and parsing the
+ * attribute for every tuple. Columns are extracted on first use and cached
+ * for the lifetime of the batch.
+ *
+ * A column is extracted for all rows, also those already filtered out, so
+ * values that are null or not numbers do not fail the extraction: they are
+ * left as 0 and their rows reported as irregular, to be evaluated tuple at a
+ * time like the rest of the rows would be.
+ */
+public class ColumnBatch {
+
+	private final List<DataTuple> tuples;
+
+	private final Map<String, double[]> doubleColumns = new HashMap<>();
+	private final Map<String, long[]> longColumns = new HashMap<>();
+
+	/*
+	 * Irregular rows of the columns extracted, for columns that have any
+	 */
+	private final Map<String, BitSet> doubleIrregulars = new HashMap<>();
+	private final Map<String, BitSet> longIrregulars = new HashMap<>();
+
+	public ColumnBatch(List<DataTuple> tuples) {
+		this.tuples = tuples;
+	}
+
+	public int size() {
+		return tuples.size();
+	}
+
+	public DataTuple get(int row) {
+		return tuples.get(row);
+	}
+
+	/*
+	 * Selection with all rows of the batch set
+	 */
+	public BitSet selectAll() {
+		BitSet selection = new BitSet(tuples.size());
+		selection.set(0, tuples.size());
+		return selection;
+	}
+
+	/*
+	 * Values of a numeric column as doubles. Values stored as strings are parsed.
+	 */
+	public double[] doubleColumn(String column) {
+		double[] values = doubleColumns.get(column);
+		if (values == null) {
+			values = new double[tuples.size()];
+			DataTuple first = null;
+			int firstIdx = -1;
+			for (int row = 0; row < values.length; row++) {
+				DataTuple tuple = tuples.get(row);
+				if (first == null) {
+					first = tuple;
+					firstIdx = tuple.indexOf(column);
+				}
+				int idx = tuple.hasLayoutOf(first) ? firstIdx : tuple.indexOf(column);
+				try {
+					values[row] = doubleAt(tuple, idx);
+				}
+				catch (RuntimeException e) {
+					irregular(doubleIrregulars, column, row);
+				}
+			}
+			doubleColumns.put(column, values);
+		}
+		return values;
+	}
+
+	/*
+	 * Values of an integral column as longs. Values stored as strings are parsed.
+	 */
+	public long[] longColumn(String column) {
+		long[] values = longColumns.get(column);
+		if (values == null) {
+			values = new long[tuples.size()];
+			DataTuple first = null;
+			int firstIdx = -1;
+			for (int row = 0; row < values.length; row++) {
+				DataTuple tuple = tuples.get(row);
+				if (first == null) {
+					first = tuple;
+					firstIdx = tuple.indexOf(column);
+				}
+				int idx = tuple.hasLayoutOf(first) ? firstIdx : tuple.indexOf(column);
+				try {
+					values[row] = longAt(tuple, idx);
+				}
+				catch (RuntimeException e) {
+					irregular(longIrregulars, column, row);
+				}
+			}
+			longColumns.put(column, values);
+		}
+		return values;
+	}
+
+	/*
+	 * Rows of the column extracted as doubles whose value is null or not a
+	 * number, null if there are none
+	 */
+	public BitSet doubleIrregulars(String column) {
+		doubleColumn(column);
+		return doubleIrregulars.get(column);
+	}
+
+	/*
+	 * Rows of the column extracted as longs whose value is null or not an
+	 * integral number, null if there are none
+	 */
+	public BitSet longIrregulars(String column) {
+		longColumn(column);
+		return longIrregulars.get(column);
+	}
+
+	private static void irregular(Map<String, BitSet> irregulars, String column, int row) {
+		BitSet rows = irregulars.get(column);
+		if (rows == null) {
+			rows = new BitSet();
+			irregulars.put(column, rows);
+		}
+		rows.set(row);
+	}
+
+	private static long longAt(DataTuple tuple, int idx) {
+		if (tuple.isCompact() && tuple.getSchema().isFixedWidth(idx))
+			return tuple.getLongAt(idx);
+		Object value = tuple.getValueAt(idx);
+		if (value instanceof Number)
+			return ((Number) value).longValue();
+		return Long.parseLong(value.toString());
+	}
+
+	private static double doubleAt(DataTuple tuple, int idx) {
+		if (tuple.isCompact() && tuple.getSchema().isFixedWidth(idx))
+			return tuple.getDoubleAt(idx);
+		Object value = tuple.getValueAt(idx);
+		if (value instanceof Number)
+			return ((Number) value).doubleValue();
+		return Double.parseDouble(value.toString());
+	}
+}
@@ -1,19 +1,26 @@
 package uk.ac.imperial.lsds.streamsql.visitors;
 
+import uk.ac.imperial.lsds.streamsql.operator.Aggregation;
 import uk.ac.imperial.lsds.streamsql.operator.Distinct;
+import uk.ac.imperial.lsds.streamsql.operator.Join;
 import uk.ac.imperial.lsds.streamsql.operator.Projection;
 import uk.ac.imperial.lsds.streamsql.operator.Selection;
+import uk.ac.imperial.lsds.streamsql.operator.SelectionProjection;
 
 public interface OperatorVisitor {
 
-//	public void visit(AggregateOperator aggregation);
-//
+	public void visit(Aggregation aggregation);
+
 //	public void visit(ChainOperator chain);
 
 	public void visit(Distinct distinct);
 
+	public void visit(Join join);
+
 	public void visit(Projection projection);
 
 	public void visit(Selection selection);
 
+	public void visit(SelectionProjection selectionProjection);
+
 }
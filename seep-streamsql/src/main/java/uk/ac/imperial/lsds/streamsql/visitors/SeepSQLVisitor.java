@@ -1,5 +1,8 @@
 package uk.ac.imperial.lsds.streamsql.visitors;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 
 import net.sf.jsqlparser.statement.Statement;
 import net.sf.jsqlparser.statement.StatementVisitor;
@@ -19,17 +22,38 @@ import net.sf.jsqlparser.statement.update.Update;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import uk.ac.imperial.lsds.streamsql.plan.PlanNode;
+import uk.ac.imperial.lsds.streamsql.plan.StreamDefinition;
+import uk.ac.imperial.lsds.streamsql.plan.WindowDefinition;
+
 public class SeepSQLVisitor implements StatementVisitor {
 	
 	private static Logger LOG = LoggerFactory.getLogger(SeepSQLVisitor.class);
 
+	private final Map<String, StreamDefinition> catalog;
+	private final Map<String, WindowDefinition> windows;
+
+	/*
+	 * Logical plans of the SELECT statements visited, in order
+	 */
+	private final List<PlanNode> plans = new ArrayList<>();
+
+	public SeepSQLVisitor(Map<String, StreamDefinition> catalog, Map<String, WindowDefinition> windows) {
+		this.catalog = catalog;
+		this.windows = windows;
+	}
+
+	public List<PlanNode> getPlans() {
+		return plans;
+	}
+
 	@Override
 	public void visit(Select select) {
 		LOG.debug("Visit SELECT statement: {}", select);
-		SeepSelectVisitor selectVisitor = new SeepSelectVisitor();
+		SeepSelectVisitor selectVisitor = new SeepSelectVisitor(catalog, windows);
 		selectVisitor.visit(select);
 		selectVisitor.map();
-		selectVisitor.generate();
+		plans.add(selectVisitor.getPlan());
 	}
 	
 	@Override
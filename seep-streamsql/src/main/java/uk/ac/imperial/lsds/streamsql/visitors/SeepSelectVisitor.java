@@ -1,10 +1,23 @@
 package uk.ac.imperial.lsds.streamsql.visitors;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import net.sf.jsqlparser.expression.Expression;
+import net.sf.jsqlparser.schema.Column;
 import net.sf.jsqlparser.schema.Table;
+import net.sf.jsqlparser.statement.select.AllColumns;
+import net.sf.jsqlparser.statement.select.AllTableColumns;
 import net.sf.jsqlparser.statement.select.FromItemVisitor;
 import net.sf.jsqlparser.statement.select.LateralSubSelect;
 import net.sf.jsqlparser.statement.select.PlainSelect;
 import net.sf.jsqlparser.statement.select.Select;
+import net.sf.jsqlparser.statement.select.SelectExpressionItem;
+import net.sf.jsqlparser.statement.select.SelectItem;
 import net.sf.jsqlparser.statement.select.SelectVisitor;
 import net.sf.jsqlparser.statement.select.SetOperationList;
 import net.sf.jsqlparser.statement.select.SubJoin;
@@ -15,89 +28,465 @@ import net.sf.jsqlparser.statement.select.WithItem;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import uk.ac.imperial.lsds.seep.operator.OperatorCode;
+import uk.ac.imperial.lsds.streamsql.expressions.ColumnReference;
+import uk.ac.imperial.lsds.streamsql.expressions.Constants;
+import uk.ac.imperial.lsds.streamsql.expressions.IValueExpression;
+import uk.ac.imperial.lsds.streamsql.operator.Aggregation;
+import uk.ac.imperial.lsds.streamsql.operator.Join;
+import uk.ac.imperial.lsds.streamsql.operator.Projection;
+import uk.ac.imperial.lsds.streamsql.operator.SelectionProjection;
+import uk.ac.imperial.lsds.streamsql.plan.ExpressionTranslator;
+import uk.ac.imperial.lsds.streamsql.plan.PlanNode;
+import uk.ac.imperial.lsds.streamsql.plan.Scope;
+import uk.ac.imperial.lsds.streamsql.plan.StreamDefinition;
+import uk.ac.imperial.lsds.streamsql.plan.WindowDefinition;
+import uk.ac.imperial.lsds.streamsql.predicates.ANDPredicate;
+import uk.ac.imperial.lsds.streamsql.predicates.ComparisonPredicate;
+import uk.ac.imperial.lsds.streamsql.predicates.IPredicate;
+import uk.ac.imperial.lsds.streamsql.windows.WindowAggregate;
+
+/*
+ * Maps a SELECT statement over the streams of a catalog to a logical plan of
+ * streamsql operators. Supported queries are
+ *
+ * - SELECT-FROM-WHERE over one stream, as a single SelectionProjection
+ * - SELECT-FROM-WHERE-GROUP BY with aggregates over one windowed stream, as
+ *   an Aggregation after a SelectionProjection that applies the WHERE clause
+ *   and prunes the attributes the aggregation does not need
+ * - SELECT-FROM-WHERE over two windowed streams, as a Join of the two after
+ *   SelectionProjections that apply the conjuncts of the WHERE clause over a
+ *   single stream and prune the attributes not needed after the join
+ *
+ * Selections and projections are always fused, so no plan sends a tuple
+ * between a selection and a projection.
+ */
 public class SeepSelectVisitor implements SelectVisitor, FromItemVisitor {
 
 	private static Logger LOG = LoggerFactory.getLogger(SeepSelectVisitor.class);
 
+	private final Map<String, StreamDefinition> catalog;
+	private final Map<String, WindowDefinition> windows;
+
+	private final Scope scope = new Scope();
+	private final List<SelectItem> selectItems = new ArrayList<>();
+	private final List<Expression> conjuncts = new ArrayList<>();
+	private final List<Expression> groupBy = new ArrayList<>();
+
+	/*
+	 * Expressions of the SELECT clause, and the attributes they are output as
+	 */
+	private final List<Expression> outputs = new ArrayList<>();
+	private final List<String> outputNames = new ArrayList<>();
+
+	private PlanNode plan;
+
+	/*
+	 * catalog is keyed by the lower case name of the streams, windows as in
+	 * WindowDefinition.key
+	 */
+	public SeepSelectVisitor(Map<String, StreamDefinition> catalog, Map<String, WindowDefinition> windows) {
+		this.catalog = catalog;
+		this.windows = windows;
+	}
+
 	public void map() {
-		
+		expandSelectItems();
+
+		boolean aggregate = !groupBy.isEmpty();
+		for (Expression output : outputs)
+			aggregate |= ExpressionTranslator.isAggregate(output);
+
+		if (scope.size() == 1 && !aggregate)
+			plan = mapSelection();
+		else if (scope.size() == 1)
+			plan = mapAggregation();
+		else if (scope.size() == 2 && !aggregate)
+			plan = mapJoin();
+		else if (scope.size() == 2)
+			throw new UnsupportedOperationException("Aggregation over a join is not supported");
+		else
+			throw new UnsupportedOperationException("Queries over more than two streams are not supported");
+
+		LOG.debug("Plan of query:\n{}", plan.explain());
+	}
+
+	public PlanNode getPlan() {
+		return plan;
+	}
+
+	/*
+	 * SELECT-FROM-WHERE over one stream
+	 */
+	private PlanNode mapSelection() {
+		final ExpressionTranslator translator = new ExpressionTranslator(scope, false);
+		final List<IValueExpression> expressions = new ArrayList<>();
+		for (Expression output : outputs)
+			expressions.add(translator.value(output));
+		return new PlanNode(new SelectionProjection(predicate(translator, conjuncts), expressions),
+				withTimestamp(outputNames), new PlanNode(scope.getStream(0)));
+	}
+
+	/*
+	 * SELECT-FROM-WHERE-GROUP BY over one stream
+	 */
+	private PlanNode mapAggregation() {
+		final WindowDefinition window = scope.getWindow(0);
+		if (window == null)
+			throw new IllegalArgumentException("Aggregation over stream " + scope.getStream(0).getName()
+					+ " without window");
+		final ExpressionTranslator translator = new ExpressionTranslator(scope, false);
+
+		/*
+		 * Attributes the aggregation outputs: the GROUP BY columns followed by
+		 * the aggregates
+		 */
+		final List<String> groupNames = new ArrayList<>();
+		final List<IValueExpression> groupValues = new ArrayList<>();
+		final List<Column> needed = new ArrayList<>();
+		for (Expression e : groupBy) {
+			if (!(e instanceof Column))
+				throw new UnsupportedOperationException("Unsupported GROUP BY expression " + e);
+			groupNames.add(scope.nameOf((Column) e, false));
+			groupValues.add(translator.value(e));
+			needed.add((Column) e);
+		}
+		final List<String> aggregateNames = new ArrayList<>();
+		final List<WindowAggregate> aggregates = new ArrayList<>();
+		final List<String> projected = new ArrayList<>();
+		for (int i = 0; i < outputs.size(); i++) {
+			final Expression output = outputs.get(i);
+			if (ExpressionTranslator.isAggregate(output)) {
+				aggregateNames.add(outputNames.get(i));
+				aggregates.add(translator.aggregate(output));
+				ExpressionTranslator.columns(output, needed);
+				projected.add(outputNames.get(i));
+			}
+			else if (output instanceof Column && groupNames.contains(scope.nameOf((Column) output, false)))
+				projected.add(scope.nameOf((Column) output, false));
+			else
+				throw new IllegalArgumentException("Output " + output + " is neither grouped nor aggregated");
+		}
+
+		/*
+		 * Apply the WHERE clause and prune the attributes not aggregated
+		 * before the aggregation, if any of the two drops something
+		 */
+		PlanNode input = new PlanNode(scope.getStream(0));
+		final List<String> pruned = distinctNames(0, needed);
+		if (!conjuncts.isEmpty() || pruned.size() < attributesOf(0).size())
+			input = new PlanNode(new SelectionProjection(predicate(translator, conjuncts), references(0, pruned)),
+					withTimestamp(pruned), input);
+
+		final List<String> aggregated = new ArrayList<>(groupNames);
+		aggregated.addAll(aggregateNames);
+		PlanNode node = new PlanNode(new Aggregation(window.toWindow(), groupValues, aggregates),
+				withTimestamp(aggregated), input);
+		if (groupNames.size() == 1)
+			node.setKeyAttribute(groupNames.get(0));
+
+		/*
+		 * Reorder, drop or rename the attributes of the aggregation if the
+		 * SELECT clause asks for other ones
+		 */
+		if (!projected.equals(aggregated) || !outputNames.equals(aggregated))
+			node = new PlanNode(new Projection(projected), withTimestamp(outputNames), node);
+		return node;
+	}
+
+	/*
+	 * SELECT-FROM-WHERE over two streams
+	 */
+	private PlanNode mapJoin() {
+		final WindowDefinition[] joinWindows = new WindowDefinition[] { scope.getWindow(0), scope.getWindow(1) };
+		for (int i = 0; i < 2; i++)
+			if (joinWindows[i] == null)
+				throw new IllegalArgumentException("Join of stream " + scope.getStream(i).getName()
+						+ " without window");
+		final ExpressionTranslator before = new ExpressionTranslator(scope, false);
+
+		/*
+		 * Conjuncts over a single stream are pushed down to it, comparisons
+		 * of one stream with the other are the join predicate, and anything
+		 * else is checked after the join
+		 */
+		final List<List<Expression>> pushed = Arrays.asList((List<Expression>) new ArrayList<Expression>(),
+				new ArrayList<Expression>());
+		final List<IPredicate> joinPredicates = new ArrayList<>();
+		final List<Expression> residual = new ArrayList<>();
+		final List<List<Column>> needed = Arrays.asList((List<Column>) new ArrayList<Column>(),
+				new ArrayList<Column>());
+		for (Expression conjunct : conjuncts) {
+			final Set<Integer> inputs = inputsOf(conjunct);
+			if (inputs.size() < 2) {
+				pushed.get(inputs.isEmpty() ? 0 : inputs.iterator().next()).add(conjunct);
+				continue;
+			}
+			addColumns(conjunct, needed);
+			final int operator = ExpressionTranslator.operator(conjunct);
+			final Set<Integer> leftInputs = (operator < 0) ? null
+					: inputsOf(((net.sf.jsqlparser.expression.BinaryExpression) conjunct).getLeftExpression());
+			if (operator < 0 || leftInputs.size() != 1) {
+				residual.add(conjunct);
+				continue;
+			}
+			final ComparisonPredicate<?> comparison = (ComparisonPredicate<?>) before.predicate(conjunct);
+			/*
+			 * The first expression of the comparison has to be the one over
+			 * the first stream
+			 */
+			final Set<Integer> rightInputs = inputsOf(((net.sf.jsqlparser.expression.BinaryExpression) conjunct)
+					.getRightExpression());
+			if (rightInputs.size() != 1)
+				residual.add(conjunct);
+			else if (leftInputs.contains(0))
+				joinPredicates.add(comparison);
+			else
+				joinPredicates.add(new ComparisonPredicate(comparison.getOperator(true),
+						comparison.getSecondExpression(), comparison.getFirstExpression()));
+		}
+		if (joinPredicates.isEmpty())
+			throw new UnsupportedOperationException("Join of " + scope.getStream(0).getName() + " and "
+					+ scope.getStream(1).getName() + " without a comparison of the two");
+		for (Expression output : outputs)
+			addColumns(output, needed);
+
+		/*
+		 * The join tells its inputs apart by upstream operator, so the second
+		 * occurrence of a stream joined with itself is read through an operator
+		 * of its own even if there is nothing to select or prune
+		 */
+		final boolean selfJoin = scope.getStream(0).getName().equals(scope.getStream(1).getName());
+		final PlanNode[] inputs = new PlanNode[2];
+		for (int i = 0; i < 2; i++) {
+			inputs[i] = new PlanNode(scope.getStream(i));
+			final List<String> pruned = distinctNames(i, needed.get(i));
+			if (!pushed.get(i).isEmpty() || pruned.size() < attributesOf(i).size() || (selfJoin && i == 1))
+				inputs[i] = new PlanNode(new SelectionProjection(predicate(before, pushed.get(i)), references(i, pruned)),
+						withTimestamp(pruned), inputs[i]);
+		}
+
+		final IPredicate joinPredicate = and(joinPredicates);
+		final PlanNode join = new PlanNode(null, scope.join(inputs[0].getAttributes(), inputs[1].getAttributes()),
+				inputs) {
+
+			@Override
+			public OperatorCode instantiate(int[] inputOpIds) {
+				return new Join(inputOpIds[0], joinWindows[0].toJoinWindow(), inputOpIds[1],
+						joinWindows[1].toJoinWindow(), joinPredicate);
+			}
+
+			@Override
+			public String toString() {
+				return "Join (" + joinWindows[0] + ", " + joinWindows[1] + " ON " + joinPredicate + ")";
+			}
+		};
+
+		final ExpressionTranslator after = new ExpressionTranslator(scope, true);
+		final List<IValueExpression> expressions = new ArrayList<>();
+		for (Expression output : outputs)
+			expressions.add(after.value(output));
+		return new PlanNode(new SelectionProjection(predicate(after, residual), expressions),
+				withTimestamp(outputNames), join);
+	}
+
+	/*
+	 * Expressions and names of the outputs of the SELECT clause, with * and
+	 * stream.* expanded to all the attributes of the streams but timestamps
+	 */
+	private void expandSelectItems() {
+		final Set<String> names = new HashSet<>();
+		names.add(Constants.TIMESTAMP);
+		for (SelectItem item : selectItems) {
+			if (item instanceof AllColumns) {
+				for (int i = 0; i < scope.size(); i++)
+					addStreamColumns(i, names);
+			}
+			else if (item instanceof AllTableColumns) {
+				final String table = ((AllTableColumns) item).getTable().getName();
+				int input = -1;
+				for (int i = 0; i < scope.size(); i++)
+					if (table.equalsIgnoreCase(scope.getAlias(i)) || table.equalsIgnoreCase(scope.getStream(i).getName()))
+						input = i;
+				if (input < 0)
+					throw new IllegalArgumentException("Unknown stream " + table);
+				addStreamColumns(input, names);
+			}
+			else {
+				final SelectExpressionItem expressionItem = (SelectExpressionItem) item;
+				final Expression e = expressionItem.getExpression();
+				if (expressionItem.getAlias() != null)
+					addOutput(e, expressionItem.getAlias().getName(), null, names);
+				else if (e instanceof Column)
+					addOutput(e, ((Column) e).getColumnName(), scope.getAlias(scope.inputOf((Column) e)), names);
+				else
+					addOutput(e, e.toString(), null, names);
+			}
+		}
+	}
+
+	private void addStreamColumns(int input, Set<String> names) {
+		for (String attribute : attributesOf(input))
+			addOutput(new Column(new Table(scope.getAlias(input)), attribute), attribute, scope.getAlias(input), names);
+	}
+
+	/*
+	 * Columns with the name of another output are prefixed with the alias
+	 * of their stream, as in the tuples of a join
+	 */
+	private void addOutput(Expression e, String name, String alias, Set<String> names) {
+		if (names.contains(name) && alias != null)
+			name = alias + "_" + name;
+		if (!names.add(name))
+			throw new IllegalArgumentException("Duplicate output " + name);
+		outputs.add(e);
+		outputNames.add(name);
+	}
+
+	/*
+	 * Attributes of the stream but its timestamp
+	 */
+	private List<String> attributesOf(int input) {
+		final List<String> attributes = new ArrayList<>(scope.getStream(input).getAttributes());
+		attributes.remove(Constants.TIMESTAMP);
+		return attributes;
+	}
+
+	private Set<Integer> inputsOf(Expression e) {
+		final List<Column> columns = new ArrayList<>();
+		ExpressionTranslator.columns(e, columns);
+		final Set<Integer> inputs = new HashSet<>();
+		for (Column column : columns)
+			inputs.add(scope.inputOf(column));
+		return inputs;
+	}
+
+	private void addColumns(Expression e, List<List<Column>> needed) {
+		final List<Column> columns = new ArrayList<>();
+		ExpressionTranslator.columns(e, columns);
+		for (Column column : columns)
+			needed.get(scope.inputOf(column)).add(column);
+	}
+
+	/*
+	 * Names of the columns in the tuples of their stream, without repetitions
+	 * and in the order of the stream
+	 */
+	private List<String> distinctNames(int input, List<Column> columns) {
+		final Set<String> names = new HashSet<>();
+		for (Column column : columns)
+			names.add(scope.nameOf(column, false));
+		final List<String> ordered = new ArrayList<>();
+		for (String attribute : attributesOf(input))
+			if (names.contains(attribute))
+				ordered.add(attribute);
+		return ordered;
+	}
+
+	private List<IValueExpression> references(int input, List<String> attributes) {
+		final List<IValueExpression> references = new ArrayList<>();
+		for (String attribute : attributes)
+			references.add(new ColumnReference(scope.getStream(input).getType(attribute), attribute));
+		return references;
 	}
-	
-	public void generate() {
-		
+
+	private static List<String> withTimestamp(List<String> attributes) {
+		final List<String> result = new ArrayList<>();
+		result.add(Constants.TIMESTAMP);
+		result.addAll(attributes);
+		return result;
+	}
+
+	/*
+	 * Conjunction of the conjuncts, null if there are none
+	 */
+	private static IPredicate predicate(ExpressionTranslator translator, List<Expression> conjuncts) {
+		if (conjuncts.isEmpty())
+			return null;
+		final List<IPredicate> predicates = new ArrayList<>();
+		for (Expression conjunct : conjuncts)
+			predicates.add(translator.predicate(conjunct));
+		return and(predicates);
+	}
+
+	private static IPredicate and(List<IPredicate> predicates) {
+		if (predicates.size() == 1)
+			return predicates.get(0);
+		return new ANDPredicate(predicates.get(0), predicates.get(1),
+				predicates.subList(2, predicates.size()).toArray(new IPredicate[predicates.size() - 2]));
 	}
-	
+
 	@Override
 	public void visit(PlainSelect plainSelect) {
-		
+
 		LOG.debug("plain select: {}", plainSelect);
-		
-//		plainSelect.getFromItem().accept(this);
-//
-//		_selectItems.addAll(plainSelect.getSelectItems());
-//
-//		if (plainSelect.getJoins() != null)
-//			for (final Iterator joinsIt = plainSelect.getJoins().iterator(); joinsIt.hasNext();) {
-//				final Join join = (Join) joinsIt.next();
-//				visit(join);
-//				join.getRightItem().accept(this);
-//			}
-//		_whereExpr = plainSelect.getWhere();
-//		if (_whereExpr != null)
-//			_whereExpr.accept(this);
+
+		if (plainSelect.getDistinct() != null || plainSelect.getHaving() != null
+				|| plainSelect.getOrderByElements() != null || plainSelect.getLimit() != null
+				|| plainSelect.getTop() != null || plainSelect.getInto() != null)
+			throw new UnsupportedOperationException("Only SELECT-FROM-WHERE-GROUP BY queries are supported: "
+					+ plainSelect);
+
+		plainSelect.getFromItem().accept(this);
+
+		if (plainSelect.getJoins() != null)
+			for (net.sf.jsqlparser.statement.select.Join join : plainSelect.getJoins()) {
+				if (join.isOuter() || join.isLeft() || join.isRight() || join.isFull() || join.isNatural()
+						|| join.getUsingColumns() != null)
+					throw new UnsupportedOperationException("Unsupported join " + join);
+				join.getRightItem().accept(this);
+				ExpressionTranslator.conjuncts(join.getOnExpression(), conjuncts);
+			}
+
+		selectItems.addAll(plainSelect.getSelectItems());
+		ExpressionTranslator.conjuncts(plainSelect.getWhere(), conjuncts);
+		if (plainSelect.getGroupByColumnReferences() != null)
+			groupBy.addAll(plainSelect.getGroupByColumnReferences());
 	}
 
 	public void visit(Select select) {
-//		_tableList = new ArrayList<Table>();
-//		_joinList = new ArrayList<Join>();
-//		_selectItems = new ArrayList<SelectItem>();
-//		_whereExpr = null;
+		if (select.getWithItemsList() != null)
+			throw new UnsupportedOperationException("WITH is not supported");
 		select.getSelectBody().accept(this);
 	}
-	
+
 	@Override
 	public void visit(Table tableName) {
-		// TODO Auto-generated method stub
-		
+		final StreamDefinition stream = catalog.get(tableName.getName().toLowerCase());
+		if (stream == null)
+			throw new IllegalArgumentException("Unknown stream " + tableName.getName());
+		final String alias = (tableName.getAlias() == null) ? null : tableName.getAlias().getName();
+		scope.add(stream, alias, windows.get(WindowDefinition.key(tableName.getName(), alias)));
 	}
 
 	@Override
 	public void visit(SubSelect subSelect) {
-		// TODO Auto-generated method stub
-		
+		throw new UnsupportedOperationException("Subqueries are not supported");
 	}
 
 	@Override
 	public void visit(SubJoin subjoin) {
-		// TODO Auto-generated method stub
-		
+		throw new UnsupportedOperationException("Nested joins are not supported");
 	}
 
 	@Override
 	public void visit(LateralSubSelect lateralSubSelect) {
-		// TODO Auto-generated method stub
-		
+		throw new UnsupportedOperationException("Subqueries are not supported");
 	}
 
 	@Override
 	public void visit(ValuesList valuesList) {
-		// TODO Auto-generated method stub
-		
+		throw new UnsupportedOperationException("VALUES is not supported");
 	}
 
 	@Override
 	public void visit(SetOperationList setOpList) {
-		// TODO Auto-generated method stub
-		
+		throw new UnsupportedOperationException("Set operations are not supported");
 	}
 
 	@Override
 	public void visit(WithItem withItem) {
-		// TODO Auto-generated method stub
-		
+		throw new UnsupportedOperationException("WITH is not supported");
 	}
 
-
-
-
 }
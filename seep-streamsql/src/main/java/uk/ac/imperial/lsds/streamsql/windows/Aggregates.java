@@ -0,0 +1,225 @@
+package uk.ac.imperial.lsds.streamsql.windows;
+
+import java.io.Serializable;
+
+import uk.ac.imperial.lsds.seep.comm.serialization.DataTuple;
+import uk.ac.imperial.lsds.streamsql.conversion.SumCount;
+import uk.ac.imperial.lsds.streamsql.expressions.IValueExpression;
+import uk.ac.imperial.lsds.streamsql.expressions.NumericEvaluator;
+
+/*
+ * Built-in window aggregates over numeric expressions. SUM, COUNT and AVG
+ * keep a SumCount per pane and are invertible, MIN and MAX are not.
+ */
+public class Aggregates {
+
+	public static WindowAggregate<SumCount> count() {
+		return new Count();
+	}
+
+	public static WindowAggregate<SumCount> sum(IValueExpression<?> ve) {
+		return new Sum(compile(ve));
+	}
+
+	public static WindowAggregate<SumCount> avg(IValueExpression<?> ve) {
+		return new Avg(compile(ve));
+	}
+
+	public static WindowAggregate<Extreme> min(IValueExpression<?> ve) {
+		return new Min(compile(ve));
+	}
+
+	public static WindowAggregate<Extreme> max(IValueExpression<?> ve) {
+		return new Max(compile(ve));
+	}
+
+	private static NumericEvaluator compile(IValueExpression<?> ve) {
+		final NumericEvaluator evaluator = NumericEvaluator.compile(ve);
+		if (evaluator == null)
+			throw new IllegalArgumentException("Cannot aggregate non-numeric expression " + ve);
+		return evaluator;
+	}
+
+	/*
+	 * Partial aggregate of MIN and MAX, the extreme of count values
+	 */
+	public static class Extreme implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		private double value;
+		private long count;
+
+		public double getValue() {
+			return value;
+		}
+
+		public long getCount() {
+			return count;
+		}
+	}
+
+	private static abstract class SumCountAggregate implements WindowAggregate<SumCount> {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		public SumCount createPartial() {
+			return new SumCount();
+		}
+
+		@Override
+		public SumCount combine(SumCount first, SumCount second) {
+			final SumCount result = first.copy();
+			result.add(second);
+			return result;
+		}
+
+		@Override
+		public boolean isInvertible() {
+			return true;
+		}
+
+		@Override
+		public SumCount subtract(SumCount total, SumCount evicted) {
+			final SumCount result = total.copy();
+			result.subtract(evicted);
+			return result;
+		}
+	}
+
+	private static class Count extends SumCountAggregate {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		public void accumulate(SumCount partial, DataTuple tuple) {
+			partial.add(0);
+		}
+
+		@Override
+		public Object result(SumCount partial) {
+			return partial.getCount();
+		}
+	}
+
+	private static class Sum extends SumCountAggregate {
+
+		private static final long serialVersionUID = 1L;
+
+		private final NumericEvaluator evaluator;
+
+		Sum(NumericEvaluator evaluator) {
+			this.evaluator = evaluator;
+		}
+
+		@Override
+		public void accumulate(SumCount partial, DataTuple tuple) {
+			partial.add(evaluator.evalDouble(tuple));
+		}
+
+		@Override
+		public Object result(SumCount partial) {
+			return partial.getSum();
+		}
+	}
+
+	private static class Avg extends Sum {
+
+		private static final long serialVersionUID = 1L;
+
+		Avg(NumericEvaluator evaluator) {
+			super(evaluator);
+		}
+
+		@Override
+		public Object result(SumCount partial) {
+			return (partial.getCount() == 0) ? null : partial.getAvg();
+		}
+	}
+
+	private static abstract class ExtremeAggregate implements WindowAggregate<Extreme> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final NumericEvaluator evaluator;
+
+		ExtremeAggregate(NumericEvaluator evaluator) {
+			this.evaluator = evaluator;
+		}
+
+		/*
+		 * Whether a is more extreme than b
+		 */
+		protected abstract boolean exceeds(double a, double b);
+
+		@Override
+		public Extreme createPartial() {
+			return new Extreme();
+		}
+
+		@Override
+		public void accumulate(Extreme partial, DataTuple tuple) {
+			final double value = evaluator.evalDouble(tuple);
+			if (partial.count == 0 || exceeds(value, partial.value))
+				partial.value = value;
+			partial.count++;
+		}
+
+		@Override
+		public Extreme combine(Extreme first, Extreme second) {
+			final Extreme result = new Extreme();
+			result.count = first.count + second.count;
+			if (first.count == 0)
+				result.value = second.value;
+			else if (second.count == 0)
+				result.value = first.value;
+			else
+				result.value = exceeds(second.value, first.value) ? second.value : first.value;
+			return result;
+		}
+
+		@Override
+		public boolean isInvertible() {
+			return false;
+		}
+
+		@Override
+		public Extreme subtract(Extreme total, Extreme evicted) {
+			throw new UnsupportedOperationException("MIN and MAX are not invertible");
+		}
+
+		@Override
+		public Object result(Extreme partial) {
+			return (partial.count == 0) ? null : partial.value;
+		}
+	}
+
+	private static class Min extends ExtremeAggregate {
+
+		private static final long serialVersionUID = 1L;
+
+		Min(NumericEvaluator evaluator) {
+			super(evaluator);
+		}
+
+		@Override
+		protected boolean exceeds(double a, double b) {
+			return a < b;
+		}
+	}
+
+	private static class Max extends ExtremeAggregate {
+
+		private static final long serialVersionUID = 1L;
+
+		Max(NumericEvaluator evaluator) {
+			super(evaluator);
+		}
+
+		@Override
+		protected boolean exceeds(double a, double b) {
+			return a > b;
+		}
+	}
+}
@@ -0,0 +1,48 @@
+package uk.ac.imperial.lsds.streamsql.windows;
+
+import java.io.Serializable;
+
+/*
+ * Window over one input of a Join: either the last size tuples of the input
+ * (rows), or its tuples with a timestamp less than size units older than the
+ * latest timestamp seen by the join (range), as in RangeWindow.
+ */
+public class JoinWindow implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private final int size;
+	private final boolean range;
+
+	private JoinWindow(int size, boolean range) {
+		if (size < 1)
+			throw new IllegalArgumentException("A join window needs a positive size: " + size);
+		this.size = size;
+		this.range = range;
+	}
+
+	public static JoinWindow rows(int size) {
+		return new JoinWindow(size, false);
+	}
+
+	public static JoinWindow range(int size) {
+		return new JoinWindow(size, true);
+	}
+
+	public boolean isRange() {
+		return range;
+	}
+
+	/*
+	 * Whether a tuple of the given timestamp, with count tuples in the window
+	 * including itself, is out of the window at time currentTime
+	 */
+	public boolean expired(long timestamp, int count, long currentTime) {
+		return range ? (currentTime - timestamp >= size) : (count > size);
+	}
+
+	@Override
+	public String toString() {
+		return (range ? "RANGE " : "ROWS ") + size;
+	}
+}
@@ -8,10 +8,13 @@ import java.util.Set;
 
 import uk.ac.imperial.lsds.seep.comm.serialization.DataTuple;
 import uk.ac.imperial.lsds.streamsql.expressions.Constants;
+import uk.ac.imperial.lsds.streamsql.operator.IncrementalWindowOperator;
 import uk.ac.imperial.lsds.streamsql.operator.WindowOperator;
 
 public class RangeWindow implements Window {
 
+	private static final long serialVersionUID = 1L;
+
 	/*
 	 * Size of the window in terms of timestamp units, i.e.,
 	 * what is the time span considered for selecting tuples into the window?
@@ -26,9 +29,20 @@ public class RangeWindow implements Window {
 	private long currentTime = 0;
 	private long lastTriggerTime = 0;
 
+	/*
+	 * Panes of gcd(size, slide) timestamp units for incremental operators.
+	 * Panes and slides are aligned to multiples of their length.
+	 */
+	private final int paneSize;
+	private final int panesPerSlide;
+	private long currentPane = NO_PANE;
+	
+	private static final long NO_PANE = Long.MIN_VALUE;
+
 	private Queue<DataTuple> state;
 	
 	private Set<WindowOperator> callBacks;
+	private Set<IncrementalWindowOperator> incrementalCallBacks;
 	
 	public RangeWindow(int size, int slide) {
 		
@@ -37,8 +51,12 @@ public class RangeWindow implements Window {
 		this.size = size;
 		this.slide = slide;
 		
+		this.paneSize = SlidingAggregator.paneSize(size, slide);
+		this.panesPerSlide = slide / paneSize;
+		
 		this.state = new LinkedList<>();
 		this.callBacks = new HashSet<>();
+		this.incrementalCallBacks = new HashSet<>();
 	}
 
 	public RangeWindow(int size) {
@@ -51,22 +69,26 @@ public class RangeWindow implements Window {
 
 	@Override
 	public void updateWindow(DataTuple tuple) {
+		this.currentTime = tuple.getLong(Constants.TIMESTAMP);
+		
+		if (!this.incrementalCallBacks.isEmpty())
+			updatePanes(tuple);
+		
+		if (this.callBacks.isEmpty())
+			return;
+		
 		/*
-		 * Update the window with a new tuple 
+		 * Update the window with a new tuple, and drop the tuples
+		 * that are older than the window. Tuples are retained while
+		 * in the window, as received tuples may be pooled
 		 */
-		this.state.add(tuple);
-		this.currentTime = tuple.getLong(Constants.TIMESTAMP);
+		this.state.add(tuple.retain());
 		
 		DataTuple head = this.state.peek();
-		if (head != null) {
-			long headTime = head.getLong(Constants.TIMESTAMP);
-			
-			while ((head != null) 
-					&& (this.size >= this.currentTime - headTime)) {
-				this.state.remove();
-				head = this.state.peek();
-				headTime = head.getLong(Constants.TIMESTAMP);
-			}
+		while ((head != null) 
+				&& (this.currentTime - head.getLong(Constants.TIMESTAMP) >= this.size)) {
+			this.state.remove().release();
+			head = this.state.peek();
 		}
 
 		/*
@@ -80,6 +102,34 @@ public class RangeWindow implements Window {
 		}
 	}
 
+	private void updatePanes(DataTuple tuple) {
+		final long pane = this.currentTime / paneSize;
+		if (currentPane == NO_PANE)
+			currentPane = pane;
+		
+		/*
+		 * Close the panes up to the one of the tuple, evaluating the windows
+		 * that end on the way. After panesPerWindow panes all previous
+		 * panes are evicted, and the windows in between are empty.
+		 */
+		final long panesToClose = Math.min(pane - currentPane, getPanesPerWindow());
+		for (long i = 1; i <= panesToClose; i++) {
+			for (IncrementalWindowOperator op : this.incrementalCallBacks)
+				op.closePane();
+			if ((currentPane + i) % panesPerSlide == 0)
+				for (IncrementalWindowOperator op : this.incrementalCallBacks)
+					op.evaluateWindow();
+		}
+		if (pane > currentPane)
+			currentPane = pane;
+		
+		/*
+		 * Late tuples are accounted to the open pane
+		 */
+		for (IncrementalWindowOperator op : this.incrementalCallBacks)
+			op.enterPane(tuple);
+	}
+
 	@Override
 	public void updateWindow(List<DataTuple> tuples) {
 		for (DataTuple tuple : tuples)
@@ -91,4 +141,27 @@ public class RangeWindow implements Window {
 		this.callBacks.add(operator);
 	}
 
+	@Override
+	public void registerIncrementalCallback(IncrementalWindowOperator operator) {
+		this.incrementalCallBacks.add(operator);
+	}
+
+	@Override
+	public int getPanesPerWindow() {
+		return this.size / this.paneSize;
+	}
+
+	/*
+	 * The open pane
+	 */
+	@Override
+	public long getPosition() {
+		return this.currentPane;
+	}
+
+	@Override
+	public void setPosition(long position) {
+		this.currentPane = position;
+	}
+
 }
@@ -7,10 +7,13 @@ import java.util.Queue;
 import java.util.Set;
 
 import uk.ac.imperial.lsds.seep.comm.serialization.DataTuple;
+import uk.ac.imperial.lsds.streamsql.operator.IncrementalWindowOperator;
 import uk.ac.imperial.lsds.streamsql.operator.WindowOperator;
 
 public class RowWindow implements Window {
 
+	private static final long serialVersionUID = 1L;
+
 	/*
 	 * Size of the window in terms of tuples, i.e.,
 	 * how many tuples are in a window
@@ -24,9 +27,17 @@ public class RowWindow implements Window {
 	private int slide = 1;
 	private int tuplesSinceLastEvaluation = 0;
 
+	/*
+	 * Panes of gcd(size, slide) tuples for incremental operators
+	 */
+	private final int paneSize;
+	private final int panesPerSlide;
+	private long tuplesEntered = 0;
+
 	private Queue<DataTuple> state;
 	
 	private Set<WindowOperator> callBacks;
+	private Set<IncrementalWindowOperator> incrementalCallBacks;
 	
 	public RowWindow(int size, int slide) {
 		
@@ -35,8 +46,12 @@ public class RowWindow implements Window {
 		this.size = size;
 		this.slide = slide;
 		
+		this.paneSize = SlidingAggregator.paneSize(size, slide);
+		this.panesPerSlide = slide / paneSize;
+		
 		this.state = new LinkedList<>();
 		this.callBacks = new HashSet<>();
+		this.incrementalCallBacks = new HashSet<>();
 	}
 
 	public RowWindow(int size) {
@@ -49,12 +64,19 @@ public class RowWindow implements Window {
 
 	@Override
 	public void updateWindow(DataTuple tuple) {
+		if (!this.incrementalCallBacks.isEmpty())
+			updatePanes(tuple);
+		
+		if (this.callBacks.isEmpty())
+			return;
+		
 		/*
-		 * Update the window with a new tuple 
+		 * Update the window with a new tuple, retained while in the
+		 * window as received tuples may be pooled
 		 */
-		this.state.add(tuple);
+		this.state.add(tuple.retain());
 		if (this.state.size() > this.size)
-			this.state.remove();
+			this.state.remove().release();
 		
 		tuplesSinceLastEvaluation++;
 
@@ -70,6 +92,22 @@ public class RowWindow implements Window {
 		
 	}
 
+	private void updatePanes(DataTuple tuple) {
+		tuplesEntered++;
+		for (IncrementalWindowOperator op : this.incrementalCallBacks)
+			op.enterPane(tuple);
+		
+		if (tuplesEntered % paneSize != 0)
+			return;
+		
+		for (IncrementalWindowOperator op : this.incrementalCallBacks)
+			op.closePane();
+		
+		if ((tuplesEntered / paneSize) % panesPerSlide == 0)
+			for (IncrementalWindowOperator op : this.incrementalCallBacks)
+				op.evaluateWindow();
+	}
+
 	@Override
 	public void updateWindow(List<DataTuple> tuples) {
 		for (DataTuple tuple : tuples)
@@ -81,4 +119,27 @@ public class RowWindow implements Window {
 		this.callBacks.add(operator);
 	}
 
+	@Override
+	public void registerIncrementalCallback(IncrementalWindowOperator operator) {
+		this.incrementalCallBacks.add(operator);
+	}
+
+	@Override
+	public int getPanesPerWindow() {
+		return this.size / this.paneSize;
+	}
+
+	/*
+	 * Number of tuples that entered the panes
+	 */
+	@Override
+	public long getPosition() {
+		return this.tuplesEntered;
+	}
+
+	@Override
+	public void setPosition(long position) {
+		this.tuplesEntered = position;
+	}
+
 }
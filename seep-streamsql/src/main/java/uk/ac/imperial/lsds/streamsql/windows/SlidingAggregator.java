@@ -0,0 +1,191 @@
+package uk.ac.imperial.lsds.streamsql.windows;
+
+import java.io.Serializable;
+import java.util.ArrayDeque;
+
+import uk.ac.imperial.lsds.seep.comm.serialization.DataTuple;
+
+/*
+ * Incremental evaluation of one aggregate over a sliding window, without
+ * keeping the tuples of the window. The window is split into panes of
+ * gcd(size, slide) units: tuples are accumulated into the open pane, and
+ * the window is the last panesPerWindow closed panes, so a slide only
+ * closes and evicts whole panes.
+ *
+ * Invertible aggregates keep a running total of the closed panes and
+ * subtract evicted panes from it. Other aggregates keep the panes in two
+ * stacks: new panes are pushed on the back stack, folded into a running
+ * aggregate, and evicted from the front stack, where each pane holds the
+ * aggregate of itself and all newer panes of the front stack. When the
+ * front stack runs empty the back stack is flipped onto it. Every pane is
+ * combined at most twice, so a slide costs O(1) amortized either way.
+ */
+public class SlidingAggregator<P> implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private final WindowAggregate<P> aggregate;
+	private final int panesPerWindow;
+
+	private Pane<P> open;
+
+	/*
+	 * Closed panes in the window, oldest first, and the number of tuples in them
+	 */
+	private int panes = 0;
+	private long tuples = 0;
+
+	/*
+	 * Invertible aggregates: all closed panes, and their combined partial
+	 */
+	private ArrayDeque<Pane<P>> window;
+	private P total;
+
+	/*
+	 * Other aggregates: the older panes on the front stack (oldest first), newer
+	 * ones on the back stack (newest last) and the combined partial of the back stack
+	 */
+	private ArrayDeque<Pane<P>> front;
+	private ArrayDeque<Pane<P>> back;
+	private P backTotal;
+
+	public SlidingAggregator(WindowAggregate<P> aggregate, int panesPerWindow) {
+		if (panesPerWindow < 1)
+			throw new IllegalArgumentException("A window needs at least one pane: " + panesPerWindow);
+		this.aggregate = aggregate;
+		this.panesPerWindow = panesPerWindow;
+		reset();
+	}
+
+	/*
+	 * Number of panes of windows of the given size and slide, i.e. the size of
+	 * the window in units of gcd(size, slide)
+	 */
+	public static int panesPerWindow(int size, int slide) {
+		return size / paneSize(size, slide);
+	}
+
+	public static int paneSize(int size, int slide) {
+		int a = size, b = slide;
+		while (b != 0) {
+			final int t = a % b;
+			a = b;
+			b = t;
+		}
+		return a;
+	}
+
+	public void reset() {
+		open = new Pane<P>(aggregate.createPartial());
+		panes = 0;
+		tuples = 0;
+		if (aggregate.isInvertible()) {
+			window = new ArrayDeque<>(panesPerWindow);
+			total = aggregate.createPartial();
+		}
+		else {
+			front = new ArrayDeque<>(panesPerWindow);
+			back = new ArrayDeque<>(panesPerWindow);
+			backTotal = aggregate.createPartial();
+		}
+	}
+
+	/*
+	 * Adds the tuple to the open pane
+	 */
+	public void accumulate(DataTuple tuple) {
+		aggregate.accumulate(open.partial, tuple);
+		open.tuples++;
+	}
+
+	/*
+	 * Closes the open pane, moving it into the window, and evicts the oldest
+	 * pane if the window is full
+	 */
+	public void closePane() {
+		final Pane<P> closed = open;
+		open = new Pane<P>(aggregate.createPartial());
+		tuples += closed.tuples;
+		if (aggregate.isInvertible()) {
+			window.addLast(closed);
+			total = aggregate.combine(total, closed.partial);
+			if (++panes > panesPerWindow) {
+				final Pane<P> evicted = window.removeFirst();
+				tuples -= evicted.tuples;
+				panes--;
+				/*
+				 * Start afresh whenever the window runs empty, so errors of
+				 * floating point subtraction do not accumulate forever
+				 */
+				total = (tuples == 0) ? aggregate.createPartial() : aggregate.subtract(total, evicted.partial);
+			}
+		}
+		else {
+			back.addLast(closed);
+			backTotal = aggregate.combine(backTotal, closed.partial);
+			if (++panes > panesPerWindow) {
+				if (front.isEmpty())
+					flip();
+				tuples -= front.removeFirst().tuples;
+				panes--;
+			}
+		}
+	}
+
+	private void flip() {
+		P newer = aggregate.createPartial();
+		while (!back.isEmpty()) {
+			final Pane<P> pane = back.removeLast();
+			newer = aggregate.combine(pane.partial, newer);
+			pane.suffix = newer;
+			front.addFirst(pane);
+		}
+		backTotal = aggregate.createPartial();
+	}
+
+	/*
+	 * Whether there are no tuples in the closed panes of the window
+	 */
+	public boolean isEmpty() {
+		return tuples == 0;
+	}
+
+	/*
+	 * Whether there are no tuples in the window nor in the open pane
+	 */
+	public boolean isIdle() {
+		return tuples == 0 && open.tuples == 0;
+	}
+
+	/*
+	 * Partial aggregate of the closed panes of the window
+	 */
+	public P partial() {
+		if (aggregate.isInvertible())
+			return total;
+		if (front.isEmpty())
+			return backTotal;
+		return aggregate.combine(front.peekFirst().suffix, backTotal);
+	}
+
+	public Object result() {
+		return aggregate.result(partial());
+	}
+
+	private static class Pane<P> implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		private final P partial;
+		private long tuples = 0;
+
+		/*
+		 * On the front stack, the partial of this and all newer panes of the stack
+		 */
+		private P suffix;
+
+		Pane(P partial) {
+			this.partial = partial;
+		}
+	}
+}
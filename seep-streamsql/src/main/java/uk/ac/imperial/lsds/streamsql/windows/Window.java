@@ -1,11 +1,13 @@
 package uk.ac.imperial.lsds.streamsql.windows;
 
+import java.io.Serializable;
 import java.util.List;
 
 import uk.ac.imperial.lsds.seep.comm.serialization.DataTuple;
+import uk.ac.imperial.lsds.streamsql.operator.IncrementalWindowOperator;
 import uk.ac.imperial.lsds.streamsql.operator.WindowOperator;
 
-public interface Window {
+public interface Window extends Serializable {
 
 	public void updateWindow(DataTuple tuple);
 	
@@ -13,4 +15,24 @@ public interface Window {
 	
 	public void registerCallback(WindowOperator operator);
 	
+	/*
+	 * Operators registered this way are driven pane by pane, and the window
+	 * only keeps its tuples if there are also WindowOperator callbacks
+	 */
+	public void registerIncrementalCallback(IncrementalWindowOperator operator);
+	
+	/*
+	 * Number of panes the window is split into for incremental evaluation
+	 */
+	public int getPanesPerWindow();
+	
+	/*
+	 * Position of the window in its input, as far as panes are concerned,
+	 * kept with the state of incremental operators so that a restored state
+	 * resumes at the pane it was in
+	 */
+	public long getPosition();
+	
+	public void setPosition(long position);
+	
 }
@@ -0,0 +1,49 @@
+package uk.ac.imperial.lsds.streamsql.windows;
+
+import java.io.Serializable;
+
+import uk.ac.imperial.lsds.seep.comm.serialization.DataTuple;
+
+/*
+ * Aggregate function evaluated incrementally over a sliding window by a
+ * SlidingAggregator. Tuples are accumulated into the partial aggregate of a
+ * pane, and the partials of panes are combined into the result of the window.
+ *
+ * User-defined aggregates implement this interface. Invertible aggregates
+ * (e.g. SUM, COUNT, AVG) are maintained by subtracting evicted panes from a
+ * running total; the others (e.g. MIN, MAX) only need combine to be
+ * associative.
+ */
+public interface WindowAggregate<P> extends Serializable {
+
+	/*
+	 * New partial aggregate of no tuples
+	 */
+	public P createPartial();
+
+	/*
+	 * Adds the tuple to the partial aggregate of the open pane, in place
+	 */
+	public void accumulate(P partial, DataTuple tuple);
+
+	/*
+	 * Partial aggregate of the tuples of first followed by those of second.
+	 * Must not modify its arguments.
+	 */
+	public P combine(P first, P second);
+
+	public boolean isInvertible();
+
+	/*
+	 * Partial aggregate of total without evicted, which is one of the
+	 * partials combined into total. Only called on invertible aggregates,
+	 * must not modify its arguments.
+	 */
+	public P subtract(P total, P evicted);
+
+	/*
+	 * Final value of the aggregate, as emitted in the output tuple
+	 */
+	public Object result(P partial);
+
+}
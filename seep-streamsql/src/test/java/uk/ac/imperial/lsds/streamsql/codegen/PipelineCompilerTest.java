@@ -0,0 +1,98 @@
+package uk.ac.imperial.lsds.streamsql.codegen;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import junit.framework.TestCase;
+import uk.ac.imperial.lsds.seep.comm.serialization.DataTuple;
+import uk.ac.imperial.lsds.seep.comm.serialization.messages.TuplePayload;
+import uk.ac.imperial.lsds.streamsql.conversion.LongConversion;
+import uk.ac.imperial.lsds.streamsql.expressions.Addition;
+import uk.ac.imperial.lsds.streamsql.expressions.ColumnReference;
+import uk.ac.imperial.lsds.streamsql.expressions.Constants;
+import uk.ac.imperial.lsds.streamsql.expressions.IValueExpression;
+import uk.ac.imperial.lsds.streamsql.expressions.ValueExpression;
+import uk.ac.imperial.lsds.streamsql.predicates.ComparisonPredicate;
+import uk.ac.imperial.lsds.streamsql.predicates.IPredicate;
+
+public class PipelineCompilerTest extends TestCase {
+
+	private static final LongConversion LONG = new LongConversion();
+
+	/*
+	 * SELECT timestamp, a, a + b WHERE a > 5
+	 */
+	private static CompiledSelectionProjection compile() {
+		final ColumnReference<Long> a = new ColumnReference<Long>(LONG, "a");
+		final ColumnReference<Long> b = new ColumnReference<Long>(LONG, "b");
+		final IPredicate predicate = new ComparisonPredicate<Long>(ComparisonPredicate.GREATER_OP, a,
+				new ValueExpression<Long>(LONG, 5L));
+		final List<IValueExpression> expressions = Arrays.<IValueExpression> asList(a, new Addition<Long>(a, b));
+		final CompiledSelectionProjection compiled = PipelineCompiler.compile(predicate, expressions);
+		assertNotNull("needs a JDK", compiled);
+		return compiled;
+	}
+
+	/*
+	 * Template of tuples with the attributes at the offsets given
+	 */
+	private static DataTuple layout(String... attributes) {
+		final Map<String, Integer> idxMapper = new HashMap<String, Integer>();
+		for (int i = 0; i < attributes.length; i++)
+			idxMapper.put(attributes[i], i);
+		return new DataTuple(idxMapper, new TuplePayload());
+	}
+
+	public void testSelectsAndProjects() {
+		final CompiledSelectionProjection compiled = compile();
+		final DataTuple layout = layout(Constants.TIMESTAMP, "a", "b");
+
+		assertNull(compiled.process(layout.setValues(1L, 3L, 4L)));
+		assertTrue(Arrays.equals(new Object[] { 2L, 7L, 11L }, compiled.process(layout.setValues(2L, 7L, 4L))));
+	}
+
+	public void testResolvesOffsetsPerLayout() {
+		final CompiledSelectionProjection compiled = compile();
+		final DataTuple first = layout(Constants.TIMESTAMP, "a", "b");
+		final DataTuple second = layout("b", "a", Constants.TIMESTAMP);
+
+		assertTrue(Arrays.equals(new Object[] { 1L, 6L, 7L }, compiled.process(first.setValues(1L, 6L, 1L))));
+		assertTrue(Arrays.equals(new Object[] { 2L, 8L, 10L }, compiled.process(second.setValues(2L, 8L, 2L))));
+		assertTrue(Arrays.equals(new Object[] { 3L, 9L, 12L }, compiled.process(first.setValues(3L, 9L, 3L))));
+	}
+
+	/*
+	 * Threads with tuples of different layouts must never read the offsets of
+	 * one layout half updated to the other
+	 */
+	public void testConcurrentLayouts() throws Exception {
+		final CompiledSelectionProjection compiled = compile();
+		final DataTuple[] layouts = { layout(Constants.TIMESTAMP, "a", "b"), layout("b", "a", Constants.TIMESTAMP),
+				layout("a", Constants.TIMESTAMP, "b") };
+		final AtomicBoolean failed = new AtomicBoolean();
+		final Thread[] threads = new Thread[layouts.length];
+		for (int t = 0; t < threads.length; t++) {
+			final DataTuple layout = layouts[t];
+			threads[t] = new Thread(new Runnable() {
+				public void run() {
+					for (long i = 0; i < 100000 && !failed.get(); i++) {
+						final long ts = i, a = 10 + i, b = 2 * i;
+						final Object[] values = new Object[3];
+						values[layout.indexOf(Constants.TIMESTAMP)] = ts;
+						values[layout.indexOf("a")] = a;
+						values[layout.indexOf("b")] = b;
+						if (!Arrays.equals(new Object[] { ts, a, a + b }, compiled.process(layout.setValues(values))))
+							failed.set(true);
+					}
+				}
+			});
+			threads[t].start();
+		}
+		for (Thread t : threads)
+			t.join();
+		assertFalse(failed.get());
+	}
+}
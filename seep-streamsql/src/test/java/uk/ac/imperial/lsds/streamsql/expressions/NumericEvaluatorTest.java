@@ -0,0 +1,210 @@
+package uk.ac.imperial.lsds.streamsql.expressions;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import uk.ac.imperial.lsds.seep.comm.serialization.DataTuple;
+import uk.ac.imperial.lsds.seep.comm.serialization.messages.TuplePayload;
+import uk.ac.imperial.lsds.streamsql.conversion.DateConversion;
+import uk.ac.imperial.lsds.streamsql.conversion.DoubleConversion;
+import uk.ac.imperial.lsds.streamsql.conversion.IntegerConversion;
+import uk.ac.imperial.lsds.streamsql.conversion.LongConversion;
+import uk.ac.imperial.lsds.streamsql.conversion.StringConversion;
+
+@SuppressWarnings({ "rawtypes", "unchecked" })
+public class NumericEvaluatorTest extends TestCase {
+
+	private static final IValueExpression A = new ColumnReference<Long>(new LongConversion(), "a");
+	private static final IValueExpression B = new ColumnReference<Long>(new LongConversion(), "b");
+	private static final IValueExpression I = new ColumnReference<Integer>(new IntegerConversion(), "i");
+	private static final IValueExpression X = new ColumnReference<Double>(new DoubleConversion(), "x");
+
+	/*
+	 * The same columns in two orders
+	 */
+	private static final DataTuple LAYOUT = layout("a", "b", "i", "x");
+	private static final DataTuple REVERSED = layout("x", "i", "b", "a");
+
+	private static DataTuple layout(String... columns) {
+		final Map<String, Integer> idxMapper = new HashMap<String, Integer>();
+		for (int i = 0; i < columns.length; i++)
+			idxMapper.put(columns[i], i);
+		return new DataTuple(idxMapper, new TuplePayload());
+	}
+
+	private static DataTuple tuple(long a, long b, int i, double x) {
+		return LAYOUT.setValues(a, b, i, x);
+	}
+
+	private static DataTuple reversed(long a, long b, int i, double x) {
+		return REVERSED.setValues(x, i, b, a);
+	}
+
+	private static IValueExpression constant(long value) {
+		return new ValueExpression<Long>(new LongConversion(), value);
+	}
+
+	private static IValueExpression constant(int value) {
+		return new ValueExpression<Integer>(new IntegerConversion(), value);
+	}
+
+	private static IValueExpression constant(double value) {
+		return new ValueExpression<Double>(new DoubleConversion(), value);
+	}
+
+	/*
+	 * The evaluator gives the value of the boxed expression, as a long and as
+	 * a double
+	 */
+	private static void assertEvaluates(IValueExpression ve, DataTuple tuple) {
+		final NumericEvaluator evaluator = NumericEvaluator.compile(ve);
+		final Number expected = (Number) ve.eval(tuple);
+		final String message = ve + " of " + tuple.getValue("a") + ", " + tuple.getValue("b") + ", "
+				+ tuple.getValue("i") + ", " + tuple.getValue("x");
+		assertEquals(message, !(ve.getType() instanceof DoubleConversion), evaluator.isIntegral());
+		assertEquals(message, expected.longValue(), evaluator.evalLong(tuple));
+		assertEquals(message, expected.doubleValue(), evaluator.evalDouble(tuple), 0);
+	}
+
+	public void testConstant() {
+		NumericEvaluator evaluator = NumericEvaluator.compile(constant(5L));
+		assertTrue(evaluator.isConstant());
+		assertTrue(evaluator.isIntegral());
+		assertEquals(5L, evaluator.evalLong(null));
+		assertEquals(5.0, evaluator.evalDouble(null), 0);
+
+		evaluator = NumericEvaluator.compile(constant(-2.5));
+		assertTrue(evaluator.isConstant());
+		assertFalse(evaluator.isIntegral());
+		assertEquals(-2L, evaluator.evalLong(null));
+		assertEquals(-2.5, evaluator.evalDouble(null), 0);
+
+		assertEquals(7L, NumericEvaluator.compile(constant(7)).evalLong(null));
+	}
+
+	public void testColumn() {
+		final DataTuple tuple = tuple(3L, -4L, 5, 6.5);
+		assertFalse(NumericEvaluator.compile(A).isConstant());
+		assertEquals(3L, NumericEvaluator.compile(A).evalLong(tuple));
+		assertEquals(-4.0, NumericEvaluator.compile(B).evalDouble(tuple), 0);
+		assertEquals(5L, NumericEvaluator.compile(I).evalLong(tuple));
+		assertEquals(6.5, NumericEvaluator.compile(X).evalDouble(tuple), 0);
+		assertEquals(6L, NumericEvaluator.compile(X).evalLong(tuple));
+
+		/*
+		 * Values stored as strings are parsed
+		 */
+		assertEquals(42L, NumericEvaluator.compile(A).evalLong(LAYOUT.setValues("42", 0L, 0, 0.0)));
+		assertEquals(0.25, NumericEvaluator.compile(X).evalDouble(LAYOUT.setValues(0L, 0L, 0, "0.25")), 0);
+	}
+
+	public void testNotNumeric() {
+		assertNull(NumericEvaluator.compile(new ColumnReference<String>(new StringConversion(), "s")));
+		assertNull(NumericEvaluator.compile(new Addition(A, new IntegerYearFromDate(new ColumnReference<Date>(
+				new DateConversion(), "d")))));
+	}
+
+	public void testConstantFolding() {
+		final IValueExpression folded = new Subtraction(new Multiplication(constant(3L), constant(4L)), constant(2L));
+		final NumericEvaluator evaluator = NumericEvaluator.compile(folded);
+		assertTrue(evaluator.isConstant());
+		assertEquals(10L, evaluator.evalLong(null));
+
+		final NumericEvaluator division = NumericEvaluator.compile(new Division(constant(7L), constant(2L)));
+		assertTrue(division.isConstant());
+		assertEquals(3.5, division.evalDouble(null), 0);
+
+		/*
+		 * A folded subtree within an expression on columns
+		 */
+		final IValueExpression ve = new Addition(A, folded);
+		assertFalse(NumericEvaluator.compile(ve).isConstant());
+		assertEvaluates(ve, tuple(5L, 0L, 0, 0.0));
+	}
+
+	public void testPromotion() {
+		final DataTuple tuple = tuple(7L, 2L, 3, 0.5);
+		assertEvaluates(new Addition(A, B), tuple);
+		assertEvaluates(new Addition(A, I), tuple);
+		assertEvaluates(new Addition(I, A), tuple);
+		assertEvaluates(new Addition(A, X), tuple);
+		assertEvaluates(new Multiplication(A, X), tuple);
+		assertEvaluates(new Subtraction(X, A), tuple);
+		assertEvaluates(new Multiplication(A, constant(0.5)), tuple);
+		assertEquals(3L, NumericEvaluator.compile(new Multiplication(A, X)).evalLong(tuple));
+		assertEquals(3.5, NumericEvaluator.compile(new Multiplication(A, X)).evalDouble(tuple), 0);
+	}
+
+	public void testIntegerDivision() {
+		final DataTuple tuple = tuple(7L, 2L, -7, 0.0);
+		final NumericEvaluator evaluator = NumericEvaluator.compile(new Division(A, B));
+		assertFalse(evaluator.isIntegral());
+		assertEquals(3.5, evaluator.evalDouble(tuple), 0);
+		assertEquals(3L, evaluator.evalLong(tuple));
+
+		assertEvaluates(new Division(A, B), tuple);
+		assertEvaluates(new Division(I, B), tuple);
+		assertEvaluates(new Addition(I, new Division(A, B)), tuple);
+		assertEvaluates(new Division(A, X), tuple);
+		assertEvaluates(new Division(X, X), tuple);
+	}
+
+	public void testOverflow() {
+		final List<DataTuple> tuples = new ArrayList<DataTuple>();
+		tuples.add(tuple(Long.MAX_VALUE, 1L, Integer.MAX_VALUE, 1.0));
+		tuples.add(tuple(Long.MIN_VALUE, -1L, Integer.MIN_VALUE, -1.0));
+		tuples.add(tuple(1L << 53, 1L, 1 << 30, 0.5));
+		tuples.add(tuple(Long.MAX_VALUE / 2, 3L, Integer.MAX_VALUE / 2, 1e300));
+
+		for (DataTuple tuple : tuples) {
+			assertEvaluates(new Addition(A, B), tuple);
+			assertEvaluates(new Subtraction(B, A), tuple);
+			assertEvaluates(new Multiplication(A, B), tuple);
+			assertEvaluates(new Multiplication(A, A), tuple);
+			assertEvaluates(new Addition(I, I), tuple);
+			assertEvaluates(new Multiplication(I, constant(3)), tuple);
+			assertEvaluates(new Addition(I, A), tuple);
+			assertEvaluates(new Multiplication(A, X), tuple);
+			assertEvaluates(new Multiplication(X, X), tuple);
+		}
+	}
+
+	public void testRandomExpressions() {
+		final List<IValueExpression> expressions = new ArrayList<IValueExpression>();
+		expressions.add(new Addition(A, B, constant(3L)));
+		expressions.add(new Subtraction(A, new Multiplication(B, I)));
+		expressions.add(new Multiplication(new Addition(A, constant(1L)), new Subtraction(B, constant(2L))));
+		expressions.add(new Addition(new Division(A, B), I));
+		expressions.add(new Subtraction(X, new Division(I, constant(3L))));
+		expressions.add(new Addition(A, new Multiplication(X, constant(1000L))));
+		expressions.add(new Multiplication(I, new Addition(I, constant(1))));
+
+		final Random random = new Random(11);
+		for (int n = 0; n < 500; n++) {
+			final long a = random.nextLong() >> random.nextInt(64);
+			final long b = random.nextLong() >> random.nextInt(64);
+			final int i = random.nextInt() >> random.nextInt(32);
+			final double x = (random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(20));
+			final DataTuple tuple = random.nextBoolean() ? tuple(a, b, i, x) : reversed(a, b, i, x);
+			for (IValueExpression ve : expressions)
+				assertEvaluates(ve, tuple);
+		}
+	}
+
+	/*
+	 * The column offset cached for one layout is not used for another one
+	 */
+	public void testAlternatingLayouts() {
+		final NumericEvaluator evaluator = NumericEvaluator.compile(new Subtraction(A, B));
+		for (long n = 0; n < 10; n++) {
+			assertEquals(n, evaluator.evalLong(tuple(2 * n, n, 0, 0.0)));
+			assertEquals(-n, evaluator.evalLong(reversed(n, 2 * n, 0, 0.0)));
+			assertEquals(n, evaluator.evalLong(layout("b", "a").setValues(n, 2 * n)));
+		}
+	}
+}
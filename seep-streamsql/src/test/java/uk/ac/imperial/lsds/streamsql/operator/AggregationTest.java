@@ -0,0 +1,218 @@
+package uk.ac.imperial.lsds.streamsql.operator;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import uk.ac.imperial.lsds.seep.comm.serialization.DataTuple;
+import uk.ac.imperial.lsds.seep.comm.serialization.messages.TuplePayload;
+import uk.ac.imperial.lsds.seep.state.StateWrapper;
+import uk.ac.imperial.lsds.streamsql.conversion.LongConversion;
+import uk.ac.imperial.lsds.streamsql.expressions.ColumnReference;
+import uk.ac.imperial.lsds.streamsql.expressions.IValueExpression;
+import uk.ac.imperial.lsds.streamsql.windows.Aggregates;
+import uk.ac.imperial.lsds.streamsql.windows.RangeWindow;
+import uk.ac.imperial.lsds.streamsql.windows.RowWindow;
+import uk.ac.imperial.lsds.streamsql.windows.Window;
+import uk.ac.imperial.lsds.streamsql.windows.WindowAggregate;
+
+public class AggregationTest extends TestCase {
+
+	private static final ColumnReference<Long> PLUG = new ColumnReference<Long>(new LongConversion(), "plug");
+	private static final ColumnReference<Long> LOAD = new ColumnReference<Long>(new LongConversion(), "load");
+
+	private static final DataTuple LAYOUT;
+	static {
+		final Map<String, Integer> idxMapper = new HashMap<String, Integer>();
+		idxMapper.put("timestamp", 0);
+		idxMapper.put("plug", 1);
+		idxMapper.put("load", 2);
+		LAYOUT = new DataTuple(idxMapper, new TuplePayload());
+	}
+
+	private static DataTuple tuple(long timestamp, long plug, long load) {
+		return LAYOUT.setValues(timestamp, plug, load);
+	}
+
+	/*
+	 * SUM(load), COUNT(*) GROUP BY plug, collecting the output tuples of each
+	 * evaluation of the window, sorted
+	 */
+	private static class Collector extends Aggregation {
+
+		private static final long serialVersionUID = 1L;
+
+		final List<List<String>> evaluations = new ArrayList<List<String>>();
+
+		Collector(Window window) {
+			super(window, Arrays.<IValueExpression> asList(PLUG),
+					Arrays.<WindowAggregate> asList(Aggregates.sum(LOAD), Aggregates.count()));
+			setUp();
+		}
+
+		@Override
+		public void evaluateWindow() {
+			evaluations.add(new ArrayList<String>());
+			super.evaluateWindow();
+			Collections.sort(evaluations.get(evaluations.size() - 1));
+		}
+
+		@Override
+		void send(DataTuple tuple) {
+			final List<Object> values = new ArrayList<Object>();
+			for (int i = 0; i < 4; i++)
+				values.add(tuple.getValueAt(i));
+			evaluations.get(evaluations.size() - 1).add(values.toString());
+		}
+
+		/*
+		 * Output tuples without their timestamp, sorted
+		 */
+		List<String> groups() {
+			final List<String> groups = new ArrayList<String>();
+			for (List<String> evaluation : evaluations)
+				for (String output : evaluation)
+					groups.add(output.substring(output.indexOf(',') + 2));
+			Collections.sort(groups);
+			return groups;
+		}
+	}
+
+	/*
+	 * Timestamps growing by 0 to 3, plugs 1 to 3
+	 */
+	private static List<DataTuple> tuples(int n, long from, long seed) {
+		final Random random = new Random(seed);
+		final List<DataTuple> tuples = new ArrayList<DataTuple>();
+		long timestamp = from;
+		for (int i = 0; i < n; i++) {
+			timestamp += random.nextInt(4);
+			tuples.add(tuple(timestamp, 1 + random.nextInt(3), random.nextInt(100)));
+		}
+		return tuples;
+	}
+
+	private static void process(Aggregation aggregation, List<DataTuple> tuples) {
+		for (DataTuple tuple : tuples)
+			aggregation.processData(tuple);
+	}
+
+	private static AggregationState copy(StateWrapper state) throws Exception {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(state.getStateImpl());
+		out.close();
+		return (AggregationState) new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+	}
+
+	public void testGroupByAcrossSlides() {
+		/*
+		 * Panes of 2, windows of 2 panes sliding by 1
+		 */
+		final Collector aggregation = new Collector(new RangeWindow(4, 2));
+		process(aggregation, Arrays.asList(tuple(0, 1, 10), tuple(1, 2, 5), tuple(2, 1, 1), tuple(3, 1, 2),
+				tuple(4, 2, 7), tuple(6, 1, 3), tuple(12, 2, 1)));
+
+		assertEquals(Arrays.asList(
+				Arrays.asList("[1, 1, 10.0, 1]", "[1, 2, 5.0, 1]"),
+				Arrays.asList("[3, 1, 13.0, 3]", "[3, 2, 5.0, 1]"),
+				Arrays.asList("[4, 1, 3.0, 2]", "[4, 2, 7.0, 1]"),
+				Arrays.asList("[6, 1, 3.0, 1]", "[6, 2, 7.0, 1]"),
+				Arrays.asList("[6, 1, 3.0, 1]")), aggregation.evaluations);
+	}
+
+	public void testRowWindowGroupByAcrossSlides() {
+		final Collector aggregation = new Collector(new RowWindow(3, 1));
+		process(aggregation, Arrays.asList(tuple(0, 1, 10), tuple(1, 2, 5), tuple(2, 1, 1), tuple(3, 2, 2)));
+
+		assertEquals(Arrays.asList(
+				Arrays.asList("[0, 1, 10.0, 1]"),
+				Arrays.asList("[1, 1, 10.0, 1]", "[1, 2, 5.0, 1]"),
+				Arrays.asList("[2, 1, 11.0, 2]", "[2, 2, 5.0, 1]"),
+				Arrays.asList("[3, 1, 1.0, 1]", "[3, 2, 7.0, 2]")), aggregation.evaluations);
+	}
+
+	/*
+	 * An aggregation restored from a copy of the state of another one after
+	 * the first tuples goes on exactly as the other one, timestamps included
+	 */
+	private void assertRestores(Window original, Window restored, List<DataTuple> tuples, int first)
+			throws Exception {
+		final Collector aggregation = new Collector(original);
+		process(aggregation, tuples.subList(0, first));
+
+		final Collector recovered = new Collector(restored);
+		recovered.replaceState(new StateWrapper(1, 1, copy(aggregation.getState())));
+		aggregation.evaluations.clear();
+		process(aggregation, tuples.subList(first, tuples.size()));
+		process(recovered, tuples.subList(first, tuples.size()));
+
+		assertFalse(aggregation.evaluations.isEmpty());
+		assertEquals(aggregation.evaluations, recovered.evaluations);
+	}
+
+	public void testReplaceStateResumesRangeWindow() throws Exception {
+		/*
+		 * Restored right before a tuple of the next pane (of 2)
+		 */
+		final List<DataTuple> tuples = tuples(400, 0, 42);
+		int first = 200;
+		while (tuples.get(first - 1).getLong("timestamp") / 2 == tuples.get(first).getLong("timestamp") / 2)
+			first++;
+		assertRestores(new RangeWindow(10, 4), new RangeWindow(10, 4), tuples, first);
+	}
+
+	public void testReplaceStateResumesRowWindow() throws Exception {
+		/*
+		 * Restored half way through a pane (of 2)
+		 */
+		assertRestores(new RowWindow(10, 4), new RowWindow(10, 4), tuples(400, 0, 42), 201);
+	}
+
+	public void testSplitState() throws Exception {
+		final Collector aggregation = new Collector(new RangeWindow(10, 4));
+		final List<DataTuple> before = tuples(200, 0, 7);
+		process(aggregation, before);
+
+		/*
+		 * Plug 1 stays, plugs 2 and 3 move
+		 */
+		final StateWrapper[] split = copy(aggregation.getState()).splitState(aggregation.getState(), 1);
+		final AggregationState kept = (AggregationState) split[0].getStateImpl();
+		final AggregationState moved = (AggregationState) split[1].getStateImpl();
+		assertEquals(1, kept.size());
+		assertEquals(2, moved.size());
+
+		final Collector first = new Collector(new RangeWindow(10, 4));
+		final Collector second = new Collector(new RangeWindow(10, 4));
+		first.replaceState(split[0]);
+		second.replaceState(split[1]);
+
+		/*
+		 * The next tuples routed by plug, and the last tuple of each plug at
+		 * the same timestamp so that all windows up to it are evaluated
+		 */
+		final long last = before.get(before.size() - 1).getLong("timestamp");
+		final List<DataTuple> tuples = new ArrayList<DataTuple>(tuples(200, last, 8));
+		for (long plug = 1; plug <= 3; plug++)
+			tuples.add(tuple(last + 1000, plug, 1));
+		aggregation.evaluations.clear();
+		process(aggregation, tuples);
+		for (DataTuple tuple : tuples)
+			(PLUG.eval(tuple) == 1 ? first : second).processData(tuple);
+
+		final List<String> groups = new ArrayList<String>(first.groups());
+		groups.addAll(second.groups());
+		Collections.sort(groups);
+		assertEquals(aggregation.groups(), groups);
+	}
+}
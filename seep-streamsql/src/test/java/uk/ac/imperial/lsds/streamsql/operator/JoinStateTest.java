@@ -0,0 +1,180 @@
+package uk.ac.imperial.lsds.streamsql.operator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import uk.ac.imperial.lsds.seep.comm.serialization.DataTuple;
+import uk.ac.imperial.lsds.seep.comm.serialization.messages.TuplePayload;
+import uk.ac.imperial.lsds.streamsql.conversion.LongConversion;
+import uk.ac.imperial.lsds.streamsql.conversion.StringConversion;
+import uk.ac.imperial.lsds.streamsql.expressions.Addition;
+import uk.ac.imperial.lsds.streamsql.expressions.ColumnReference;
+import uk.ac.imperial.lsds.streamsql.expressions.Constants;
+import uk.ac.imperial.lsds.streamsql.expressions.ValueExpression;
+import uk.ac.imperial.lsds.streamsql.predicates.ANDPredicate;
+import uk.ac.imperial.lsds.streamsql.predicates.ComparisonPredicate;
+import uk.ac.imperial.lsds.streamsql.predicates.IPredicate;
+import uk.ac.imperial.lsds.streamsql.windows.JoinWindow;
+
+public class JoinStateTest extends TestCase {
+
+	private static final ColumnReference<Long> ID = new ColumnReference<Long>(new LongConversion(), "id");
+	private static final ColumnReference<Long> A = new ColumnReference<Long>(new LongConversion(), "a");
+	private static final ColumnReference<Long> B = new ColumnReference<Long>(new LongConversion(), "b");
+	private static final ColumnReference<String> NAME = new ColumnReference<String>(new StringConversion(), "name");
+
+	/*
+	 * Left tuples have columns a and name, right ones b and name
+	 */
+	private static final DataTuple LEFT = layout("a");
+	private static final DataTuple RIGHT = layout("b");
+
+	private static DataTuple layout(String key) {
+		final Map<String, Integer> idxMapper = new HashMap<String, Integer>();
+		idxMapper.put("id", 0);
+		idxMapper.put(Constants.TIMESTAMP, 1);
+		idxMapper.put(key, 2);
+		idxMapper.put("name", 3);
+		return new DataTuple(idxMapper, new TuplePayload());
+	}
+
+	private static DataTuple tuple(boolean left, long id, long timestamp, long key) {
+		return (left ? LEFT : RIGHT).setValues(id, timestamp, key, "k" + key);
+	}
+
+	private static IPredicate equality() {
+		return new ComparisonPredicate<Long>(ComparisonPredicate.EQUAL_OP, A, B);
+	}
+
+	/*
+	 * a < b <= a + 5, indexed by its first bound
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static IPredicate band() {
+		return new ANDPredicate(new ComparisonPredicate<Long>(ComparisonPredicate.LESS_OP, A, B),
+				new ComparisonPredicate<Long>(ComparisonPredicate.NONLESS_OP,
+						new Addition(A, new ValueExpression<Long>(new LongConversion(), 5L)), B));
+	}
+
+	private static List<Long> ids(List<DataTuple> tuples) {
+		final List<Long> ids = new ArrayList<Long>();
+		for (DataTuple tuple : tuples)
+			ids.add(ID.eval(tuple));
+		Collections.sort(ids);
+		return ids;
+	}
+
+	public void testHashJoinMatchesEqualKeysFromBothSides() {
+		final JoinState state = new JoinState(equality(), JoinWindow.rows(10), JoinWindow.rows(10));
+		final List<DataTuple> matches = new ArrayList<DataTuple>();
+
+		state.process(true, tuple(true, 1, 0, 7), matches);
+		state.process(true, tuple(true, 2, 0, 8), matches);
+		state.process(true, tuple(true, 3, 0, 7), matches);
+		assertTrue(matches.isEmpty());
+
+		state.process(false, tuple(false, 4, 0, 7), matches);
+		assertEquals(Arrays.asList(1L, 3L), ids(matches));
+
+		matches.clear();
+		state.process(true, tuple(true, 5, 0, 7), matches);
+		assertEquals(Collections.singletonList(4L), ids(matches));
+
+		matches.clear();
+		state.process(false, tuple(false, 6, 0, 9), matches);
+		assertTrue(matches.isEmpty());
+	}
+
+	public void testBandJoinMatchesBothBounds() {
+		final JoinState state = new JoinState(band(), JoinWindow.rows(10), JoinWindow.rows(10));
+		final List<DataTuple> matches = new ArrayList<DataTuple>();
+
+		for (long b = 0; b < 10; b++)
+			state.process(false, tuple(false, b, 0, b), matches);
+		assertTrue(matches.isEmpty());
+
+		/*
+		 * From the left, b in (3, 8]
+		 */
+		state.process(true, tuple(true, 100, 0, 3), matches);
+		assertEquals(Arrays.asList(4L, 5L, 6L, 7L, 8L), ids(matches));
+
+		/*
+		 * From the right, a in [b - 5, b), only a = 3 is in the window
+		 */
+		matches.clear();
+		state.process(false, tuple(false, 101, 0, 8), matches);
+		assertEquals(Collections.singletonList(100L), ids(matches));
+		matches.clear();
+		state.process(false, tuple(false, 102, 0, 3), matches);
+		assertTrue(matches.isEmpty());
+	}
+
+	/*
+	 * Each arriving tuple joins with the tuples of the other window that
+	 * satisfy the predicate, as evaluated against the whole window
+	 */
+	private void assertJoinsAsNestedLoops(IPredicate predicate, JoinWindow leftWindow, JoinWindow rightWindow,
+			int leftSize, int rightSize, boolean range, long seed) {
+		final JoinState state = new JoinState(predicate, leftWindow, rightWindow);
+		final List<DataTuple> lefts = new ArrayList<DataTuple>();
+		final List<DataTuple> rights = new ArrayList<DataTuple>();
+		final List<DataTuple> matches = new ArrayList<DataTuple>();
+		final Random random = new Random(seed);
+		long time = 0;
+		for (long id = 0; id < 2000; id++) {
+			final boolean fromLeft = random.nextBoolean();
+			time += random.nextInt(3);
+			final DataTuple tuple = tuple(fromLeft, id, time, random.nextInt(40));
+
+			final List<DataTuple> other = fromLeft ? rights : lefts;
+			final int otherSize = fromLeft ? rightSize : leftSize;
+			final List<DataTuple> expected = new ArrayList<DataTuple>();
+			for (DataTuple candidate : window(other, otherSize, range, time))
+				if (fromLeft ? predicate.satisfied(tuple, candidate) : predicate.satisfied(candidate, tuple))
+					expected.add(candidate);
+
+			matches.clear();
+			state.process(fromLeft, tuple, matches);
+			assertEquals("tuple " + id, ids(expected), ids(matches));
+			(fromLeft ? lefts : rights).add(tuple);
+
+			final int inWindows = window(lefts, leftSize, range, time).size()
+					+ window(rights, rightSize, range, time).size();
+			assertEquals(inWindows, state.size());
+		}
+	}
+
+	private static List<DataTuple> window(List<DataTuple> tuples, int size, boolean range, long time) {
+		if (!range)
+			return tuples.subList(Math.max(0, tuples.size() - size), tuples.size());
+		final List<DataTuple> window = new ArrayList<DataTuple>();
+		for (DataTuple tuple : tuples)
+			if (time - tuple.getLong(Constants.TIMESTAMP) < size)
+				window.add(tuple);
+		return window;
+	}
+
+	public void testHashJoinOverRowWindows() {
+		assertJoinsAsNestedLoops(equality(), JoinWindow.rows(50), JoinWindow.rows(20), 50, 20, false, 1);
+	}
+
+	public void testBandJoinOverRowWindows() {
+		assertJoinsAsNestedLoops(band(), JoinWindow.rows(30), JoinWindow.rows(60), 30, 60, false, 2);
+	}
+
+	public void testBandJoinOverRangeWindows() {
+		assertJoinsAsNestedLoops(band(), JoinWindow.range(25), JoinWindow.range(25), 25, 25, true, 3);
+	}
+
+	public void testObjectHashJoinOverRangeWindows() {
+		final IPredicate names = new ComparisonPredicate<String>(ComparisonPredicate.EQUAL_OP, NAME, NAME);
+		assertJoinsAsNestedLoops(names, JoinWindow.range(40), JoinWindow.range(40), 40, 40, true, 4);
+	}
+}
@@ -0,0 +1,92 @@
+package uk.ac.imperial.lsds.streamsql.operator;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import uk.ac.imperial.lsds.seep.comm.serialization.DataTuple;
+import uk.ac.imperial.lsds.seep.comm.serialization.messages.TuplePayload;
+import uk.ac.imperial.lsds.streamsql.conversion.DoubleConversion;
+import uk.ac.imperial.lsds.streamsql.conversion.LongConversion;
+import uk.ac.imperial.lsds.streamsql.conversion.StringConversion;
+import uk.ac.imperial.lsds.streamsql.expressions.ColumnReference;
+import uk.ac.imperial.lsds.streamsql.expressions.ValueExpression;
+import uk.ac.imperial.lsds.streamsql.predicates.ANDPredicate;
+import uk.ac.imperial.lsds.streamsql.predicates.ComparisonPredicate;
+import uk.ac.imperial.lsds.streamsql.predicates.IPredicate;
+import uk.ac.imperial.lsds.streamsql.predicates.LikePredicate;
+import uk.ac.imperial.lsds.streamsql.predicates.ORPredicate;
+
+public class SelectionTest extends TestCase {
+
+	private static final DataTuple LAYOUT;
+	static {
+		final Map<String, Integer> idxMapper = new HashMap<String, Integer>();
+		idxMapper.put("timestamp", 0);
+		idxMapper.put("value", 1);
+		idxMapper.put("load", 2);
+		idxMapper.put("name", 3);
+		LAYOUT = new DataTuple(idxMapper, new TuplePayload());
+	}
+
+	/*
+	 * Collects the tuples sent
+	 */
+	private static class Collector extends Selection {
+
+		private static final long serialVersionUID = 1L;
+
+		final List<DataTuple> sent = new ArrayList<DataTuple>();
+
+		Collector(IPredicate predicate) {
+			super(predicate);
+		}
+
+		@Override
+		void send(DataTuple data) {
+			sent.add(data);
+		}
+	}
+
+	/*
+	 * Values of mixed types, and null loads where value < 30
+	 */
+	private static List<DataTuple> tuples(int n, long seed) {
+		final Random random = new Random(seed);
+		final List<DataTuple> tuples = new ArrayList<DataTuple>();
+		for (int i = 0; i < n; i++) {
+			final long value = random.nextInt(100);
+			final Object load = (value < 30) ? null : (Object) (random.nextDouble() * 10);
+			tuples.add(LAYOUT.setValues((long) i, random.nextBoolean() ? (Object) value : String.valueOf(value), load,
+					"plug" + random.nextInt(20)));
+		}
+		return tuples;
+	}
+
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	public void testBatchSelectsAsTupleAtATime() {
+		final IPredicate predicate = new ORPredicate(new LikePredicate(new ColumnReference<String>(
+				new StringConversion(), "name"), new ValueExpression<String>(new StringConversion(), "%1%")),
+				new ANDPredicate(new ComparisonPredicate(ComparisonPredicate.NONLESS_OP, new ColumnReference<Long>(
+						new LongConversion(), "value"), new ValueExpression<Long>(new LongConversion(), 30L)),
+						new ComparisonPredicate(ComparisonPredicate.LESS_OP, new ColumnReference<Double>(
+								new DoubleConversion(), "load"), new ValueExpression<Double>(new DoubleConversion(),
+								5.0))));
+
+		for (long seed = 0; seed < 4; seed++) {
+			final List<DataTuple> tuples = tuples(500, seed);
+			final Collector perTuple = new Collector(predicate);
+			for (DataTuple tuple : tuples)
+				perTuple.processData(tuple);
+			final Collector batch = new Collector(predicate);
+			batch.processData(tuples);
+
+			assertFalse(perTuple.sent.isEmpty());
+			assertTrue(perTuple.sent.size() < tuples.size());
+			assertEquals(perTuple.sent, batch.sent);
+		}
+	}
+}
@@ -0,0 +1,204 @@
+package uk.ac.imperial.lsds.streamsql.plan;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+import uk.ac.imperial.lsds.seep.api.QueryBuilder;
+import uk.ac.imperial.lsds.seep.comm.serialization.DataTuple;
+import uk.ac.imperial.lsds.seep.operator.Connectable;
+import uk.ac.imperial.lsds.seep.operator.OperatorCode;
+import uk.ac.imperial.lsds.streamsql.conversion.DoubleConversion;
+import uk.ac.imperial.lsds.streamsql.conversion.IntegerConversion;
+import uk.ac.imperial.lsds.streamsql.conversion.LongConversion;
+import uk.ac.imperial.lsds.streamsql.conversion.StringConversion;
+import uk.ac.imperial.lsds.streamsql.conversion.TypeConversion;
+import uk.ac.imperial.lsds.streamsql.operator.Aggregation;
+import uk.ac.imperial.lsds.streamsql.operator.SelectionProjection;
+
+public class SQLQueryComposerTest extends TestCase {
+
+	private static SQLQueryComposer composer(String sql) {
+		final SQLQueryComposer composer = new SQLQueryComposer(sql);
+		composer.addStream(new StreamDefinition("plugs", Arrays.asList("timestamp", "plug", "house", "load"),
+				Arrays.<TypeConversion> asList(new LongConversion(), new IntegerConversion(), new IntegerConversion(),
+						new DoubleConversion()), null));
+		composer.addStream(new StreamDefinition("houses", Arrays.asList("timestamp", "house", "name"),
+				Arrays.<TypeConversion> asList(new LongConversion(), new IntegerConversion(), new StringConversion()),
+				null));
+		return composer;
+	}
+
+	private static class Noop implements OperatorCode {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		public void setUp() {
+		}
+
+		@Override
+		public void processData(DataTuple data) {
+		}
+
+		@Override
+		public void processData(List<DataTuple> dataList) {
+		}
+	}
+
+	private static PlanNode plan(String sql) {
+		return composer(sql).getPlan();
+	}
+
+	private static void assertFails(String sql) {
+		try {
+			plan(sql);
+			fail("Planned " + sql);
+		}
+		catch (IllegalArgumentException | UnsupportedOperationException e) {
+		}
+	}
+
+	public void testWindowsAreTakenOutOfTheQuery() {
+		final Map<String, WindowDefinition> windows = new HashMap<>();
+		final String query = WindowDefinition.extract(
+				"SELECT * FROM plugs [RANGE 60 SLIDE 10] p, houses[rows 5] WHERE p.house = houses.house", windows);
+		assertEquals("SELECT * FROM plugs p, houses WHERE p.house = houses.house", query);
+		assertEquals(2, windows.size());
+		assertEquals("[RANGE 60 SLIDE 10]", windows.get(WindowDefinition.key("PLUGS", "P")).toString());
+		assertEquals("[ROWS 5 SLIDE 5]", windows.get("houses").toString());
+	}
+
+	public void testWindowsAreNotTakenOutOfQuotedText() {
+		final Map<String, WindowDefinition> windows = new HashMap<>();
+		final String sql = "SELECT * FROM houses [ROWS 5] AS h "
+				+ "WHERE name = 'x [ROWS 10] y' OR \"houses [ROWS 2]\" = 'it''s [ROWS 3]'";
+		assertEquals("SELECT * FROM houses AS h WHERE name = 'x [ROWS 10] y' OR \"houses [ROWS 2]\" = 'it''s [ROWS 3]'",
+				WindowDefinition.extract(sql, windows));
+		assertEquals(1, windows.size());
+		assertEquals("[ROWS 5 SLIDE 5]", windows.get(WindowDefinition.key("houses", "h")).toString());
+	}
+
+	public void testKeywordAfterWindowIsNoAlias() {
+		final Map<String, WindowDefinition> windows = new HashMap<>();
+		assertEquals("SELECT * FROM plugs WHERE load > 0",
+				WindowDefinition.extract("SELECT * FROM plugs [ROWS 5] WHERE load > 0", windows));
+		assertNotNull(windows.get(WindowDefinition.key("plugs", null)));
+	}
+
+	public void testOneWindowPerStreamAndAlias() {
+		try {
+			WindowDefinition.extract("SELECT * FROM plugs [ROWS 5], plugs [ROWS 10]",
+					new HashMap<String, WindowDefinition>());
+			fail();
+		}
+		catch (IllegalArgumentException e) {
+		}
+	}
+
+	public void testInvalidWindow() {
+		try {
+			WindowDefinition.extract("SELECT * FROM plugs [ROWS 5 SLIDE 10]", new HashMap<String, WindowDefinition>());
+			fail();
+		}
+		catch (IllegalArgumentException e) {
+		}
+	}
+
+	public void testSelectionIsOneFusedOperator() {
+		final PlanNode plan = plan("SELECT plug, load FROM plugs WHERE load > 10");
+		assertFalse(plan.isStream());
+		assertTrue(plan.instantiate(new int[] { 0 }) instanceof SelectionProjection);
+		assertEquals(Arrays.asList("timestamp", "plug", "load"), plan.getAttributes());
+		assertEquals(1, plan.getInputs().size());
+		assertTrue(plan.getInputs().get(0).isStream());
+		assertEquals("plugs", plan.getInputs().get(0).getStream().getName());
+	}
+
+	public void testAggregationOverWindow() {
+		final PlanNode plan = plan("SELECT plug, AVG(load) FROM plugs [RANGE 60 SLIDE 10] GROUP BY plug");
+		assertTrue(plan.instantiate(new int[] { 0 }) instanceof Aggregation);
+		assertEquals(Arrays.asList("timestamp", "plug", "AVG(load)"), plan.getAttributes());
+
+		/*
+		 * Only the attributes the aggregation needs reach it
+		 */
+		final PlanNode input = plan.getInputs().get(0);
+		assertTrue(input.instantiate(new int[] { 0 }) instanceof SelectionProjection);
+		assertEquals(Arrays.asList("timestamp", "plug", "load"), input.getAttributes());
+		assertTrue(input.getInputs().get(0).isStream());
+	}
+
+	public void testAggregationWithoutWindow() {
+		assertFails("SELECT plug, COUNT(*) FROM plugs GROUP BY plug");
+	}
+
+	public void testJoinPushesSelectionsDown() {
+		final PlanNode plan = plan("SELECT p.plug, h.name FROM plugs [ROWS 100] p, houses [RANGE 30] h "
+				+ "WHERE p.house = h.house AND p.load > 5");
+		assertEquals(Arrays.asList("timestamp", "plug", "name"), plan.getAttributes());
+
+		final PlanNode join = plan.getInputs().get(0);
+		assertTrue(join.toString(), join.toString().startsWith("Join ([ROWS 100 SLIDE 100], [RANGE 30 SLIDE 30]"));
+		assertEquals(Arrays.asList("timestamp", "plug", "house", "h_timestamp", "h_house", "name"),
+				join.getAttributes());
+
+		/*
+		 * The selection over plugs is below the join, houses is read as is
+		 */
+		final PlanNode plugs = join.getInputs().get(0);
+		assertTrue(plugs.toString(), plugs.toString().startsWith("SelectionProjection (\"load\" > Constant 5"));
+		assertEquals(Arrays.asList("timestamp", "plug", "house"), plugs.getAttributes());
+		assertTrue(join.getInputs().get(1).isStream());
+		assertEquals("houses", join.getInputs().get(1).getStream().getName());
+	}
+
+	public void testSelfJoinWithTwoWindows() {
+		final PlanNode plan = plan("SELECT a.plug, b.plug FROM plugs [ROWS 10] a, plugs [RANGE 20] b "
+				+ "WHERE a.house = b.house");
+		final PlanNode join = plan.getInputs().get(0);
+		assertTrue(join.toString(), join.toString().startsWith("Join ([ROWS 10 SLIDE 10], [RANGE 20 SLIDE 20]"));
+		assertEquals(Arrays.asList("timestamp", "plug", "b_plug"), plan.getAttributes());
+
+		assertFails("SELECT a.plug, b.plug FROM plugs [ROWS 10] a, plugs b WHERE a.house = b.house");
+	}
+
+	public void testSelfJoinReadsEachOccurrenceThroughItsOwnOperator() {
+		final List<String> fields = Arrays.asList("timestamp", "plug", "house", "load");
+		final Connectable source = QueryBuilder.newStatelessSource(new Noop(), -1, fields);
+		final SQLQueryComposer composer = new SQLQueryComposer("SELECT * FROM plugs [ROWS 10] a, plugs [RANGE 20] b "
+				+ "WHERE a.house = b.house");
+		composer.addStream(new StreamDefinition("plugs", fields, Arrays.<TypeConversion> asList(new LongConversion(),
+				new IntegerConversion(), new IntegerConversion(), new DoubleConversion()), source));
+		composer.setSink(QueryBuilder.newStatelessSink(new Noop(), -2, fields));
+
+		final PlanNode join = composer.getPlan().getInputs().get(0);
+		assertTrue(join.getInputs().get(0).isStream());
+		assertFalse(join.getInputs().get(1).isStream());
+
+		/*
+		 * The source feeds the join (operator 1) directly and through the
+		 * projection of the second occurrence (operator 0)
+		 */
+		composer.compose();
+		assertEquals(new HashSet<Integer>(Arrays.asList(0, 1)),
+				new HashSet<Integer>(source.getOpContext().getDownstreamOpIdList()));
+	}
+
+	public void testJoinWithoutWindow() {
+		assertFails("SELECT p.plug, h.name FROM plugs [ROWS 100] p, houses h WHERE p.house = h.house");
+	}
+
+	public void testJoinWithoutComparison() {
+		assertFails("SELECT p.plug, h.name FROM plugs [ROWS 100] p, houses [ROWS 10] h WHERE p.load > 5");
+	}
+
+	public void testUnknownStreamsAndColumns() {
+		assertFails("SELECT plug FROM sockets");
+		assertFails("SELECT socket FROM plugs");
+		assertFails("SELECT house FROM plugs [ROWS 10] p, houses [ROWS 10] h WHERE p.house = h.house");
+	}
+}
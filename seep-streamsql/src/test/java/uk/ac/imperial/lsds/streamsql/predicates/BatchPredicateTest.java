@@ -0,0 +1,230 @@
+package uk.ac.imperial.lsds.streamsql.predicates;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import uk.ac.imperial.lsds.seep.comm.serialization.DataTuple;
+import uk.ac.imperial.lsds.seep.comm.serialization.messages.TuplePayload;
+import uk.ac.imperial.lsds.streamsql.conversion.DoubleConversion;
+import uk.ac.imperial.lsds.streamsql.conversion.IntegerConversion;
+import uk.ac.imperial.lsds.streamsql.conversion.LongConversion;
+import uk.ac.imperial.lsds.streamsql.conversion.StringConversion;
+import uk.ac.imperial.lsds.streamsql.expressions.Addition;
+import uk.ac.imperial.lsds.streamsql.expressions.ColumnReference;
+import uk.ac.imperial.lsds.streamsql.expressions.IValueExpression;
+import uk.ac.imperial.lsds.streamsql.expressions.Multiplication;
+import uk.ac.imperial.lsds.streamsql.expressions.ValueExpression;
+import uk.ac.imperial.lsds.streamsql.util.ColumnBatch;
+
+/*
+ * The selection of a batch evaluated over its columns has to be the one of
+ * the tuples evaluated one at a time
+ */
+@SuppressWarnings({ "rawtypes", "unchecked" })
+public class BatchPredicateTest extends TestCase {
+
+	private static final IValueExpression A = new ColumnReference<Long>(new LongConversion(), "a");
+	private static final IValueExpression B = new ColumnReference<Integer>(new IntegerConversion(), "b");
+	private static final IValueExpression X = new ColumnReference<Double>(new DoubleConversion(), "x");
+	private static final IValueExpression S = new ColumnReference<String>(new StringConversion(), "s");
+	private static final IValueExpression M_LONG = new ColumnReference<Long>(new LongConversion(), "m");
+	private static final IValueExpression M_DOUBLE = new ColumnReference<Double>(new DoubleConversion(), "m");
+	private static final IValueExpression N = new ColumnReference<Long>(new LongConversion(), "n");
+
+	/*
+	 * The same columns in two orders
+	 */
+	private static final DataTuple LAYOUT = layout("timestamp", "a", "b", "x", "s", "m", "n");
+	private static final DataTuple REVERSED = layout("n", "m", "s", "x", "b", "a", "timestamp");
+
+	private static DataTuple layout(String... columns) {
+		final Map<String, Integer> idxMapper = new HashMap<String, Integer>();
+		for (int i = 0; i < columns.length; i++)
+			idxMapper.put(columns[i], i);
+		return new DataTuple(idxMapper, new TuplePayload());
+	}
+
+	private static IValueExpression constant(long value) {
+		return new ValueExpression<Long>(new LongConversion(), value);
+	}
+
+	private static IValueExpression constant(double value) {
+		return new ValueExpression<Double>(new DoubleConversion(), value);
+	}
+
+	private static IValueExpression constant(String value) {
+		return new ValueExpression<String>(new StringConversion(), value);
+	}
+
+	private static IPredicate compare(int op, IValueExpression v1, IValueExpression v2) {
+		return new ComparisonPredicate(op, v1, v2);
+	}
+
+	/*
+	 * Tuples of both layouts. Column m holds longs, ints, doubles and integral
+	 * strings. Column n is null or not a number where a < 50.
+	 */
+	private static List<DataTuple> tuples(int n, long seed) {
+		final Random random = new Random(seed);
+		final List<DataTuple> tuples = new ArrayList<DataTuple>();
+		for (int i = 0; i < n; i++) {
+			final long a = random.nextInt(100);
+			final int b = random.nextInt(100);
+			final double x = random.nextDouble();
+			final String s = "k" + random.nextInt(10);
+			final Object m;
+			switch (random.nextInt(4)) {
+			case 0:
+				m = (long) random.nextInt(100);
+				break;
+			case 1:
+				m = random.nextInt(100);
+				break;
+			case 2:
+				m = random.nextDouble() * 100;
+				break;
+			default:
+				m = String.valueOf(random.nextInt(100));
+			}
+			final Object nullable = (a < 20) ? null : (a < 50) ? "abc" : (Object) (long) random.nextInt(100);
+			tuples.add(random.nextBoolean() ? LAYOUT.setValues((long) i, a, b, x, s, m, nullable)
+					: REVERSED.setValues(nullable, m, s, x, b, a, (long) i));
+		}
+		return tuples;
+	}
+
+	private static BitSet perTuple(IPredicate predicate, List<DataTuple> tuples) {
+		final BitSet selection = new BitSet();
+		for (int row = 0; row < tuples.size(); row++)
+			if (predicate.satisfied(tuples.get(row)))
+				selection.set(row);
+		return selection;
+	}
+
+	private static BitSet batch(IPredicate predicate, List<DataTuple> tuples) {
+		final ColumnBatch batch = new ColumnBatch(tuples);
+		final BitSet selection = batch.selectAll();
+		predicate.satisfied(batch, selection);
+		return selection;
+	}
+
+	private static void assertSelects(IPredicate predicate, List<DataTuple> tuples) {
+		final BitSet expected = perTuple(predicate, tuples);
+		assertEquals(predicate.toString(), expected, batch(predicate, tuples));
+	}
+
+	private static void assertSelects(IPredicate predicate) {
+		for (long seed = 0; seed < 4; seed++)
+			assertSelects(predicate, tuples(200, seed));
+	}
+
+	public void testIntegralComparison() {
+		for (int op = ComparisonPredicate.EQUAL_OP; op <= ComparisonPredicate.NONGREATER_OP; op++) {
+			assertSelects(compare(op, A, constant(50L)));
+			assertSelects(compare(op, constant(50L), B));
+			assertSelects(compare(op, A, B));
+			assertSelects(compare(op, M_LONG, constant(40L)));
+			assertSelects(compare(op, new Addition(A, B), new Multiplication(B, constant(2L))));
+		}
+	}
+
+	public void testDoubleComparison() {
+		for (int op = ComparisonPredicate.EQUAL_OP; op <= ComparisonPredicate.NONGREATER_OP; op++) {
+			assertSelects(compare(op, X, constant(0.5)));
+			assertSelects(compare(op, A, X));
+			assertSelects(compare(op, M_DOUBLE, constant(40.5)));
+			assertSelects(compare(op, M_DOUBLE, A));
+			assertSelects(compare(op, new Multiplication(X, constant(100L)), B));
+		}
+	}
+
+	public void testStringComparison() {
+		for (int op = ComparisonPredicate.EQUAL_OP; op <= ComparisonPredicate.NONGREATER_OP; op++)
+			assertSelects(compare(op, S, constant("k5")));
+	}
+
+	public void testAnd() {
+		assertSelects(new ANDPredicate(compare(ComparisonPredicate.NONLESS_OP, A, constant(50L)),
+				compare(ComparisonPredicate.LESS_OP, N, constant(70L))));
+		assertSelects(new ANDPredicate(compare(ComparisonPredicate.GREATER_OP, X, constant(0.2)),
+				compare(ComparisonPredicate.NONEQUAL_OP, S, constant("k3")),
+				compare(ComparisonPredicate.LESS_OP, B, constant(60L))));
+	}
+
+	public void testOr() {
+		assertSelects(new ORPredicate(compare(ComparisonPredicate.LESS_OP, A, constant(50L)),
+				compare(ComparisonPredicate.NONLESS_OP, N, constant(70L))));
+		assertSelects(new ORPredicate(compare(ComparisonPredicate.GREATER_OP, X, constant(0.8)),
+				compare(ComparisonPredicate.EQUAL_OP, S, constant("k3")),
+				compare(ComparisonPredicate.LESS_OP, M_LONG, constant(10L))));
+	}
+
+	public void testBetween() {
+		assertSelects(new BetweenPredicate(A, true, constant(20L), false, constant(60L)));
+		assertSelects(new BetweenPredicate(A, false, constant(20L), true, constant(60L)));
+		assertSelects(new BetweenPredicate(X, true, constant(0.25), true, constant(0.75)));
+		assertSelects(new BetweenPredicate(M_DOUBLE, false, constant(10.5), false, constant(90.5)));
+	}
+
+	public void testLike() {
+		assertSelects(new LikePredicate(S, constant("%3%")));
+		assertSelects(new ANDPredicate(new LikePredicate(S, constant("%k%")),
+				compare(ComparisonPredicate.NONGREATER_OP, A, constant(30L))));
+	}
+
+	public void testNested() {
+		assertSelects(new ANDPredicate(new ORPredicate(compare(ComparisonPredicate.LESS_OP, B, constant(30L)),
+				new LikePredicate(S, constant("%7%"))), new BetweenPredicate(X, true, constant(0.1), true,
+				constant(0.9))));
+		assertSelects(new ORPredicate(new ANDPredicate(compare(ComparisonPredicate.NONLESS_OP, A, constant(50L)),
+				compare(ComparisonPredicate.GREATER_OP, N, constant(50L))), compare(ComparisonPredicate.EQUAL_OP, B,
+				constant(5L))));
+	}
+
+	/*
+	 * A null or unparsable value in a row that is evaluated fails the batch as
+	 * it fails the tuple
+	 */
+	public void testIrregularValueOfSelectedRow() {
+		final List<DataTuple> tuples = tuples(200, 0);
+		final IPredicate predicate = new ANDPredicate(compare(ComparisonPredicate.NONLESS_OP, A, constant(20L)),
+				compare(ComparisonPredicate.LESS_OP, N, constant(70L)));
+		try {
+			perTuple(predicate, tuples);
+			fail();
+		}
+		catch (NumberFormatException e) {
+		}
+		try {
+			batch(predicate, tuples);
+			fail();
+		}
+		catch (NumberFormatException e) {
+		}
+	}
+
+	/*
+	 * Rows selected before the batch is evaluated are the only ones evaluated
+	 */
+	public void testPartialSelection() {
+		final List<DataTuple> tuples = tuples(200, 1);
+		final IPredicate predicate = compare(ComparisonPredicate.LESS_OP, N, constant(70L));
+
+		final ColumnBatch batch = new ColumnBatch(tuples);
+		final BitSet selection = new BitSet();
+		final BitSet expected = new BitSet();
+		for (int row = 0; row < tuples.size(); row++)
+			if (tuples.get(row).getLong("a") >= 50) {
+				selection.set(row);
+				if (predicate.satisfied(tuples.get(row)))
+					expected.set(row);
+			}
+		predicate.satisfied(batch, selection);
+		assertEquals(expected, selection);
+	}
+}
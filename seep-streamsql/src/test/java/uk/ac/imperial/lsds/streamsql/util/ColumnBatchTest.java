@@ -0,0 +1,82 @@
+package uk.ac.imperial.lsds.streamsql.util;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+import uk.ac.imperial.lsds.seep.comm.serialization.DataTuple;
+import uk.ac.imperial.lsds.seep.comm.serialization.messages.TuplePayload;
+
+public class ColumnBatchTest extends TestCase {
+
+	private static final DataTuple LAYOUT = layout("timestamp", "value");
+	private static final DataTuple SWAPPED = layout("value", "timestamp");
+
+	private static DataTuple layout(String... columns) {
+		final Map<String, Integer> idxMapper = new HashMap<String, Integer>();
+		for (int i = 0; i < columns.length; i++)
+			idxMapper.put(columns[i], i);
+		return new DataTuple(idxMapper, new TuplePayload());
+	}
+
+	public void testSelectAll() {
+		final ColumnBatch batch = new ColumnBatch(Arrays.asList(LAYOUT.setValues(1L, 1L), LAYOUT.setValues(2L, 2L)));
+		final BitSet expected = new BitSet();
+		expected.set(0, 2);
+		assertEquals(2, batch.size());
+		assertEquals(expected, batch.selectAll());
+		assertTrue(new ColumnBatch(Arrays.<DataTuple> asList()).selectAll().isEmpty());
+	}
+
+	public void testMixedValues() {
+		final ColumnBatch batch = new ColumnBatch(Arrays.asList(LAYOUT.setValues(1L, 7L), LAYOUT.setValues(2L, 8),
+				LAYOUT.setValues(3L, 9.5), LAYOUT.setValues(4L, "10"), LAYOUT.setValues(5L, "-11.25")));
+
+		assertTrue(Arrays.equals(new double[] { 7, 8, 9.5, 10, -11.25 }, batch.doubleColumn("value")));
+		assertNull(batch.doubleIrregulars("value"));
+
+		/*
+		 * Doubles are truncated as by Number.longValue, strings have to be
+		 * integral
+		 */
+		final BitSet irregulars = new BitSet();
+		irregulars.set(4);
+		assertEquals(7L, batch.longColumn("value")[0]);
+		assertEquals(8L, batch.longColumn("value")[1]);
+		assertEquals(9L, batch.longColumn("value")[2]);
+		assertEquals(10L, batch.longColumn("value")[3]);
+		assertEquals(irregulars, batch.longIrregulars("value"));
+	}
+
+	public void testLayouts() {
+		final ColumnBatch batch = new ColumnBatch(Arrays.asList(LAYOUT.setValues(1L, 10L), SWAPPED.setValues(20L, 2L),
+				SWAPPED.setValues(30L, 3L), LAYOUT.setValues(4L, 40L)));
+
+		assertTrue(Arrays.equals(new long[] { 10, 20, 30, 40 }, batch.longColumn("value")));
+		assertTrue(Arrays.equals(new long[] { 1, 2, 3, 4 }, batch.longColumn("timestamp")));
+	}
+
+	public void testColumnsAreCached() {
+		final ColumnBatch batch = new ColumnBatch(Arrays.asList(LAYOUT.setValues(1L, 10L)));
+
+		assertSame(batch.longColumn("value"), batch.longColumn("value"));
+		assertSame(batch.doubleColumn("value"), batch.doubleColumn("value"));
+		assertNotSame(batch.longColumn("value"), batch.longColumn("timestamp"));
+	}
+
+	public void testIrregularRows() {
+		final ColumnBatch batch = new ColumnBatch(Arrays.asList(LAYOUT.setValues(1L, null), LAYOUT.setValues(2L, 2L),
+				LAYOUT.setValues(3L, "abc"), LAYOUT.setValues(4L, 4L)));
+
+		final BitSet irregulars = new BitSet();
+		irregulars.set(0);
+		irregulars.set(2);
+		assertTrue(Arrays.equals(new long[] { 0, 2, 0, 4 }, batch.longColumn("value")));
+		assertEquals(irregulars, batch.longIrregulars("value"));
+		assertTrue(Arrays.equals(new double[] { 0, 2, 0, 4 }, batch.doubleColumn("value")));
+		assertEquals(irregulars, batch.doubleIrregulars("value"));
+		assertNull(batch.longIrregulars("timestamp"));
+	}
+}
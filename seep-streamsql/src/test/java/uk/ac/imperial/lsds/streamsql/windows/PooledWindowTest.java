@@ -0,0 +1,158 @@
+package uk.ac.imperial.lsds.streamsql.windows;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+
+import junit.framework.TestCase;
+import uk.ac.imperial.lsds.seep.comm.serialization.DataTuple;
+import uk.ac.imperial.lsds.seep.comm.serialization.TuplePool;
+import uk.ac.imperial.lsds.seep.comm.serialization.TupleSchema;
+import uk.ac.imperial.lsds.seep.comm.serialization.TupleSchema.Type;
+import uk.ac.imperial.lsds.seep.comm.serialization.messages.BatchTuplePayload;
+import uk.ac.imperial.lsds.seep.comm.serialization.messages.Payload;
+import uk.ac.imperial.lsds.seep.comm.serialization.messages.TuplePayload;
+import uk.ac.imperial.lsds.seep.comm.serialization.serializers.ArrayListSerializer;
+import uk.ac.imperial.lsds.seep.comm.serialization.serializers.BatchTuplePayloadSerializer;
+import uk.ac.imperial.lsds.seep.comm.serialization.serializers.TuplePayloadSerializer;
+import uk.ac.imperial.lsds.streamsql.conversion.LongConversion;
+import uk.ac.imperial.lsds.streamsql.expressions.ColumnReference;
+import uk.ac.imperial.lsds.streamsql.expressions.Constants;
+import uk.ac.imperial.lsds.streamsql.operator.JoinState;
+import uk.ac.imperial.lsds.streamsql.operator.WindowOperator;
+import uk.ac.imperial.lsds.streamsql.predicates.ComparisonPredicate;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+/*
+ * Windows fed with tuples of a pooled connection (poolReceivedTuples), each
+ * released once processed as the data consumer does
+ */
+public class PooledWindowTest extends TestCase {
+
+	private static final TupleSchema SCHEMA = TupleSchema.fromAttributes(Arrays.asList(Constants.TIMESTAMP, "value"),
+			Arrays.asList(Type.LONG, Type.LONG));
+
+	private static final ColumnReference<Long> VALUE = new ColumnReference<Long>(new LongConversion(), "value");
+
+	/*
+	 * Values of the window each time it is evaluated
+	 */
+	private static class Recorder implements WindowOperator {
+
+		private final List<List<Long>> values = new ArrayList<List<Long>>();
+
+		@Override
+		public void evaluateWindow(Queue<DataTuple> dataList) {
+			final List<Long> v = new ArrayList<Long>();
+			for (DataTuple tuple : dataList)
+				v.add(tuple.getLong("value"));
+			values.add(v);
+		}
+	}
+
+	private final TuplePool pool = new TuplePool(SCHEMA, 16);
+	private final Kryo kryo = kryo(pool);
+	private final Kryo writer = kryo(null);
+
+	private static Kryo kryo(TuplePool pool) {
+		final Kryo k = new Kryo();
+		k.register(ArrayList.class, new ArrayListSerializer());
+		k.register(Payload.class);
+		k.register(TuplePayload.class, new TuplePayloadSerializer(SCHEMA));
+		k.register(BatchTuplePayload.class, new BatchTuplePayloadSerializer(SCHEMA, pool));
+		return k;
+	}
+
+	/*
+	 * Receives a batch of tuples with the given timestamps, the value of each
+	 * being 10 times its timestamp
+	 */
+	private List<DataTuple> receive(long... timestamps) {
+		final BatchTuplePayload msg = new BatchTuplePayload();
+		for (long ts : timestamps) {
+			final TuplePayload tp = new TuplePayload();
+			tp.attrValues = new Payload(ts, ts * 10);
+			msg.addTuple(tp);
+		}
+		final Output output = new Output(4096, -1);
+		writer.writeObject(output, msg);
+		kryo.readObject(new Input(output.toBytes()), BatchTuplePayload.class);
+		final List<DataTuple> tuples = new ArrayList<DataTuple>();
+		for (int i = 0; i < timestamps.length; i++)
+			tuples.add(pool.getBatchTuple(i));
+		return tuples;
+	}
+
+	private void process(Window window, long... timestamps) {
+		for (DataTuple tuple : receive(timestamps)) {
+			window.updateWindow(tuple);
+			tuple.release();
+		}
+	}
+
+	private static List<Long> list(Long... values) {
+		return Arrays.asList(values);
+	}
+
+	public void testRowWindowKeepsItsTuples() {
+		final RowWindow window = new RowWindow(3, 1);
+		final Recorder recorder = new Recorder();
+		window.registerCallback(recorder);
+
+		for (long ts = 1; ts <= 6; ts += 2)
+			process(window, ts, ts + 1);
+
+		assertEquals(Arrays.asList(list(10L), list(10L, 20L), list(10L, 20L, 30L), list(20L, 30L, 40L),
+				list(30L, 40L, 50L), list(40L, 50L, 60L)), recorder.values);
+	}
+
+	public void testRangeWindowKeepsItsTuples() {
+		final RangeWindow window = new RangeWindow(4, 2);
+		final Recorder recorder = new Recorder();
+		window.registerCallback(recorder);
+
+		for (long ts = 2; ts <= 10; ts += 2)
+			process(window, ts, ts + 1);
+
+		assertEquals(Arrays.asList(list(20L), list(20L, 30L, 40L), list(30L, 40L, 50L, 60L), list(50L, 60L, 70L, 80L),
+				list(70L, 80L, 90L, 100L)), recorder.values);
+	}
+
+	public void testEvictedTuplesGoBackToPool() {
+		final RowWindow window = new RowWindow(1, 1);
+		window.registerCallback(new Recorder());
+
+		final DataTuple first = receive(1).get(0);
+		window.updateWindow(first);
+		first.release();
+		assertNotSame(first, receive(2).get(0));
+
+		final DataTuple second = pool.getBatchTuple(0);
+		window.updateWindow(second);
+		second.release();
+		assertSame(first, receive(3).get(0));
+	}
+
+	public void testJoinStateKeepsItsTuples() {
+		final JoinState state = new JoinState(new ComparisonPredicate<Long>(ComparisonPredicate.EQUAL_OP, VALUE,
+				VALUE), JoinWindow.rows(4), JoinWindow.rows(4));
+		for (DataTuple tuple : receive(1, 2)) {
+			state.process(true, tuple, new ArrayList<DataTuple>());
+			tuple.release();
+		}
+		receive(3, 4);
+
+		final List<DataTuple> matches = new ArrayList<DataTuple>();
+		for (DataTuple tuple : receive(2, 1)) {
+			state.process(false, tuple, matches);
+			tuple.release();
+		}
+		assertEquals(2, matches.size());
+		assertEquals(20L, (long) matches.get(0).getLong("value"));
+		assertEquals(10L, (long) matches.get(1).getLong("value"));
+	}
+}
@@ -0,0 +1,163 @@
+package uk.ac.imperial.lsds.streamsql.windows;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import uk.ac.imperial.lsds.seep.comm.serialization.DataTuple;
+import uk.ac.imperial.lsds.seep.comm.serialization.messages.TuplePayload;
+import uk.ac.imperial.lsds.streamsql.conversion.LongConversion;
+import uk.ac.imperial.lsds.streamsql.expressions.ColumnReference;
+
+public class SlidingAggregatorTest extends TestCase {
+
+	private static final ColumnReference<Long> VALUE = new ColumnReference<Long>(new LongConversion(), "value");
+
+	private static final DataTuple LAYOUT;
+	static {
+		final Map<String, Integer> idxMapper = new HashMap<String, Integer>();
+		idxMapper.put("value", 0);
+		LAYOUT = new DataTuple(idxMapper, new TuplePayload());
+	}
+
+	private static DataTuple tuple(long value) {
+		return LAYOUT.setValues(value);
+	}
+
+	/*
+	 * Random panes of up to 3 values, some of them empty
+	 */
+	private static List<long[]> panes(int n, long seed) {
+		final Random random = new Random(seed);
+		final List<long[]> panes = new ArrayList<long[]>();
+		for (int i = 0; i < n; i++) {
+			final long[] pane = new long[random.nextInt(4)];
+			for (int j = 0; j < pane.length; j++)
+				pane[j] = random.nextInt(1000) - 500;
+			panes.add(pane);
+		}
+		return panes;
+	}
+
+	public void testPanesOfWindow() {
+		assertEquals(2, SlidingAggregator.paneSize(6, 4));
+		assertEquals(3, SlidingAggregator.panesPerWindow(6, 4));
+		assertEquals(5, SlidingAggregator.paneSize(10, 5));
+		assertEquals(2, SlidingAggregator.panesPerWindow(10, 5));
+		assertEquals(1, SlidingAggregator.panesPerWindow(7, 7));
+	}
+
+	/*
+	 * Each slide, the aggregate of the last panesPerWindow closed panes is the
+	 * one computed from scratch
+	 */
+	private void assertSlides(WindowAggregate<?> aggregate, int panesPerWindow, boolean max) {
+		final SlidingAggregator<?> aggregator = new SlidingAggregator<>(aggregate, panesPerWindow);
+		final List<long[]> panes = panes(200, panesPerWindow);
+		for (int i = 0; i < panes.size(); i++) {
+			for (long value : panes.get(i))
+				aggregator.accumulate(tuple(value));
+			aggregator.closePane();
+
+			long sum = 0, count = 0;
+			Long extreme = null;
+			for (int p = Math.max(0, i - panesPerWindow + 1); p <= i; p++) {
+				for (long value : panes.get(p)) {
+					sum += value;
+					count++;
+					if (extreme == null || (max ? value > extreme : value < extreme))
+						extreme = value;
+				}
+			}
+			assertEquals(count == 0, aggregator.isEmpty());
+			final Object result = aggregator.result();
+			if (aggregate.isInvertible())
+				assertEquals("pane " + i, (double) sum, (Double) result, 1e-9);
+			else if (extreme == null)
+				assertNull(result);
+			else
+				assertEquals("pane " + i, (double) extreme, (Double) result, 0);
+		}
+	}
+
+	public void testInvertibleAggregateSubtractsEvictedPanes() {
+		assertSlides(Aggregates.sum(VALUE), 1, false);
+		assertSlides(Aggregates.sum(VALUE), 4, false);
+	}
+
+	public void testTwoStacksEvictOldestPanes() {
+		assertSlides(Aggregates.max(VALUE), 1, true);
+		assertSlides(Aggregates.max(VALUE), 5, true);
+		assertSlides(Aggregates.min(VALUE), 3, false);
+	}
+
+	public void testCountAndAvg() {
+		final SlidingAggregator<?> count = new SlidingAggregator<>(Aggregates.count(), 2);
+		final SlidingAggregator<?> avg = new SlidingAggregator<>(Aggregates.avg(VALUE), 2);
+		final long[][] panes = { { 1, 2, 3 }, { 5 }, {}, {} };
+		final Object[][] expected = { { 3L, 2.0 }, { 4L, 2.75 }, { 1L, 5.0 }, { 0L, null } };
+		for (int i = 0; i < panes.length; i++) {
+			for (long value : panes[i]) {
+				count.accumulate(tuple(value));
+				avg.accumulate(tuple(value));
+			}
+			count.closePane();
+			avg.closePane();
+			assertEquals(expected[i][0], count.result());
+			assertEquals(expected[i][1], avg.result());
+		}
+		assertTrue(avg.isIdle());
+		avg.accumulate(tuple(1));
+		assertFalse(avg.isIdle());
+		assertTrue(avg.isEmpty());
+	}
+
+	/*
+	 * Panes are combined a bounded number of times however long the stream,
+	 * i.e. a slide is O(1) amortized
+	 */
+	public void testNonInvertibleSlideIsConstantAmortized() {
+		final int[] combines = new int[1];
+		final WindowAggregate<Aggregates.Extreme> max = Aggregates.max(VALUE);
+		final WindowAggregate<Aggregates.Extreme> counting = new WindowAggregate<Aggregates.Extreme>() {
+			private static final long serialVersionUID = 1L;
+
+			public Aggregates.Extreme createPartial() {
+				return max.createPartial();
+			}
+
+			public void accumulate(Aggregates.Extreme partial, DataTuple tuple) {
+				max.accumulate(partial, tuple);
+			}
+
+			public Aggregates.Extreme combine(Aggregates.Extreme first, Aggregates.Extreme second) {
+				combines[0]++;
+				return max.combine(first, second);
+			}
+
+			public boolean isInvertible() {
+				return false;
+			}
+
+			public Aggregates.Extreme subtract(Aggregates.Extreme total, Aggregates.Extreme evicted) {
+				throw new UnsupportedOperationException();
+			}
+
+			public Object result(Aggregates.Extreme partial) {
+				return max.result(partial);
+			}
+		};
+		final SlidingAggregator<Aggregates.Extreme> aggregator = new SlidingAggregator<>(counting, 50);
+		final int n = 10000;
+		for (int i = 0; i < n; i++) {
+			aggregator.accumulate(tuple(i % 97));
+			aggregator.closePane();
+		}
+		// One combine into the back stack and at most one on the flip, per pane
+		assertTrue("combines=" + combines[0], combines[0] <= 2 * n);
+		assertEquals(96.0, aggregator.result());
+	}
+}
@@ -0,0 +1,140 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Imperial College London.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Raul Castro Fernandez - initial design and implementation
+ ******************************************************************************/
+package uk.ac.imperial.lsds.seep.api.customstateimpls;
+
+import java.util.AbstractMap;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import uk.ac.imperial.lsds.seep.state.CustomState;
+import uk.ac.imperial.lsds.seep.state.Incremental;
+import uk.ac.imperial.lsds.seep.state.StateDelta;
+
+/**
+ * IncrementalMap is a java HashMap that records the entries put and removed through it, so that it can be checkpointed
+ * incrementally (see {@link Incremental}). Values put in the map must not be modified afterwards, put a new value instead.
+ * The views of the map (entrySet, keySet, values) are read only, as changes made through them would not be recorded.
+ * @author raulcf
+ *
+ * @param <K>
+ * @param <V>
+ */
+public class IncrementalMap<K, V> extends HashMap<K, V> implements CustomState, Incremental{
+
+	private static final long serialVersionUID = 1L;
+	
+	private StateDelta delta = new StateDelta();
+	
+	private transient Map<K, V> readOnlyView = null;
+	
+	public IncrementalMap(){
+		super();
+	}
+	
+	public IncrementalMap(int initialSize){
+		super(initialSize);
+	}
+	
+	@Override
+	public V put(K key, V value){
+		delta.update(key, value);
+		return super.put(key, value);
+	}
+	
+	@Override
+	public void putAll(Map<? extends K, ? extends V> m){
+		for(Map.Entry<? extends K, ? extends V> entry : m.entrySet()){
+			put(entry.getKey(), entry.getValue());
+		}
+	}
+	
+	@Override
+	public V remove(Object key){
+		delta.remove(key);
+		return super.remove(key);
+	}
+	
+	@Override
+	public void clear(){
+		delta.clear();
+		super.clear();
+	}
+	
+	@Override
+	public Set<Map.Entry<K, V>> entrySet(){
+		return readOnlyView().entrySet();
+	}
+	
+	@Override
+	public Set<K> keySet(){
+		return readOnlyView().keySet();
+	}
+	
+	@Override
+	public Collection<V> values(){
+		return readOnlyView().values();
+	}
+	
+	private Map<K, V> readOnlyView(){
+		if(readOnlyView == null){
+			readOnlyView = Collections.unmodifiableMap(new AbstractMap<K, V>(){
+				@Override
+				public Set<Map.Entry<K, V>> entrySet(){
+					return IncrementalMap.super.entrySet();
+				}
+				@Override
+				public int size(){
+					return IncrementalMap.this.size();
+				}
+				@Override
+				public boolean containsKey(Object key){
+					return IncrementalMap.this.containsKey(key);
+				}
+				@Override
+				public V get(Object key){
+					return IncrementalMap.this.get(key);
+				}
+			});
+		}
+		return readOnlyView;
+	}
+	
+	/**
+	 * Methods implementing the Incremental interface
+	 */
+	
+	@Override
+	public StateDelta takeDelta(){
+		StateDelta taken = delta;
+		delta = new StateDelta();
+		return taken;
+	}
+	
+	@SuppressWarnings("unchecked")
+	@Override
+	public void applyDelta(StateDelta delta){
+		// Straight to the map, this copy does not record changes of its own
+		if(delta.isCleared()){
+			super.clear();
+		}
+		else{
+			for(Object key : delta.getRemoves()){
+				super.remove(key);
+			}
+		}
+		for(Map.Entry<Object, Object> entry : delta.getUpdates().entrySet()){
+			super.put((K)entry.getKey(), (V)entry.getValue());
+		}
+	}
+}
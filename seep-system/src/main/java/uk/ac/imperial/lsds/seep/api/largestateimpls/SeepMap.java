@@ -25,6 +25,7 @@ import org.slf4j.LoggerFactory;
 import uk.ac.imperial.lsds.seep.state.EmptyStateException;
 import uk.ac.imperial.lsds.seep.state.LargeState;
 import uk.ac.imperial.lsds.seep.state.MalformedStateChunk;
+import uk.ac.imperial.lsds.seep.state.Mergeable;
 import uk.ac.imperial.lsds.seep.state.NullChunkWhileMerging;
 import uk.ac.imperial.lsds.seep.state.Streamable;
 import uk.ac.imperial.lsds.seep.state.Versionable;
@@ -44,7 +45,7 @@ import uk.ac.imperial.lsds.seep.state.annotations.WriteAccess;
  * @param <V>
  */
 @OperatorState(partitionable=true)
-public class SeepMap<K, V> extends HashMap<Object, Object> implements Versionable, Streamable, LargeState{
+public class SeepMap<K, V> extends HashMap<Object, Object> implements Versionable, Streamable, LargeState, Mergeable{
 	
 	final Logger LOG = LoggerFactory.getLogger(SeepMap.class);
 
@@ -61,6 +62,8 @@ public class SeepMap<K, V> extends HashMap<Object, Object> implements Versionabl
 	
 	// For internal use only
 	private Iterator<Object> iterator = null;
+	// Partitions being merged while recovering the state
+	private HashMap<Object, Object>[] merging = null;
 	
 	public SeepMap(){
 		super();
@@ -301,6 +304,7 @@ public class SeepMap<K, V> extends HashMap<Object, Object> implements Versionabl
 		dirtyUpdates.clear();
 		dirtyRemoves.clear();
 		clearInVersion = false;
+		merging = null;
 	}
 	
 	@Override
@@ -323,6 +327,54 @@ public class SeepMap<K, V> extends HashMap<Object, Object> implements Versionabl
 		}
 	}
 	
+	/**
+	 * Methods implementing the Mergeable interface
+	 */
+	
+	@Override
+	@SuppressWarnings("unchecked")
+	public void prepareMerge(int partitions, int expectedSize){
+		merging = new HashMap[partitions];
+		// Sized so that the partitions do not rehash while merging, up to the largest table a HashMap has
+		long capacity = Math.min((long)(Math.max(0, expectedSize) / partitions / 0.75) + 1, 1 << 30);
+		for(int i = 0; i < partitions; i++){
+			merging[i] = new HashMap<Object, Object>((int)capacity);
+		}
+	}
+	
+	@Override
+	public void appendChunk(int partition, ArrayList<Object> chunk) throws NullChunkWhileMerging, MalformedStateChunk {
+		if(chunk == null){
+			throw new NullChunkWhileMerging("Received a null chunk");
+		}
+		int chunkSize = chunk.size();
+		if(chunkSize % 2 != 0 || chunkSize == 0){
+			throw new MalformedStateChunk("Does not contain an even number of object or size is 0. Size->"+chunkSize);
+		}
+		// Only this thread merges into the partition, and it is not visible until finished
+		HashMap<Object, Object> target = merging[partition];
+		for(int i = 0; i < chunkSize; i += 2){
+			target.put(chunk.get(i), chunk.get(i+1));
+		}
+	}
+	
+	@Override
+	public void finishPartition(int partition){
+		HashMap<Object, Object> merged = merging[partition];
+		merging[partition] = null;
+		this.lock();
+		// Not putAll, which goes through our own put()
+		for(Map.Entry<Object, Object> entry : merged.entrySet()){
+			if(snapshotMode.get()){
+				dirtyUpdates.put(entry.getKey(), entry.getValue());
+			}
+			else{
+				super.put(entry.getKey(), entry.getValue());
+			}
+		}
+		this.release();
+	}
+	
 	@Override
 	public Object getFromBackup(Object key){
 		return super.get(key);
@@ -49,7 +49,7 @@ public class OutOfOrderBuffer implements IBuffer {
 			while (iter.hasNext())
 			{
 				Long ts = iter.next();
-				if (fctrl.lw() >= ts || fctrl.acks().contains(ts)) 
+				if (fctrl.isAcked(ts)) 
 				{ 
 					logger.trace("Trimmed batch "+ts);
 					iter.remove(); 
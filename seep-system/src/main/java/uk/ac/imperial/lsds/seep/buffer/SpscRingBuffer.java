@@ -0,0 +1,212 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Imperial College London.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Raul Castro Fernandez - initial design and implementation
+ ******************************************************************************/
+package uk.ac.imperial.lsds.seep.buffer;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded ring buffer for exactly one producer thread and one consumer thread. Neither side takes a lock: each owns
+ * its index and is the only one writing it. A side that has to wait (producer on a full buffer, consumer on
+ * an empty one) spins, yields or parks depending on the WaitStrategy. Parked threads are unparked by the other side.
+ */
+public class SpscRingBuffer<T> {
+
+	public enum WaitStrategy {
+		/** Lowest latency, burns a core per waiting thread **/
+		SPIN,
+		YIELD,
+		/** Parks until the other side makes progress **/
+		PARK;
+
+		public static WaitStrategy parse(String name){
+			return name == null ? PARK : valueOf(name.trim().toUpperCase());
+		}
+	}
+
+	private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+	private final AtomicReferenceArray<T> slots;
+	private final int mask;
+	private final WaitStrategy waitStrategy;
+	// Next slot to read, written by the consumer only
+	private final AtomicLong head = new AtomicLong(0);
+	// Next slot to write, written by the producer only
+	private final AtomicLong tail = new AtomicLong(0);
+	private volatile Thread parkedProducer = null;
+	private volatile Thread parkedConsumer = null;
+
+	public SpscRingBuffer(int capacity, WaitStrategy waitStrategy){
+		if(capacity < 1){
+			throw new IllegalArgumentException("Capacity must be positive: "+capacity);
+		}
+		int size = Integer.highestOneBit(capacity);
+		if(size < capacity){
+			size <<= 1;
+		}
+		this.slots = new AtomicReferenceArray<T>(size);
+		this.mask = size - 1;
+		this.waitStrategy = waitStrategy;
+	}
+
+	public int capacity(){
+		return slots.length();
+	}
+
+	public int size(){
+		return (int) (tail.get() - head.get());
+	}
+
+	public boolean isEmpty(){
+		return tail.get() == head.get();
+	}
+
+	/** Producer only. Adds item if there is room, without waiting **/
+	public boolean offer(T item){
+		long t = tail.get();
+		if(t - head.get() >= slots.length()){
+			return false;
+		}
+		slots.lazySet((int) t & mask, item);
+		// Volatile rather than ordered write, so a consumer about to park either sees it or is seen below
+		tail.set(t + 1);
+		unpark(parkedConsumer);
+		return true;
+	}
+
+	/** Producer only. Adds item, waiting up to timeout ms for room **/
+	public boolean offer(T item, long timeout){
+		if(offer(item)){
+			return true;
+		}
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+		while(true){
+			long remaining = deadline - System.nanoTime();
+			if(remaining <= 0){
+				return false;
+			}
+			if(waitStrategy == WaitStrategy.PARK){
+				parkedProducer = Thread.currentThread();
+				if(isFull()){
+					LockSupport.parkNanos(this, Math.min(remaining, MAX_PARK_NANOS));
+				}
+				parkedProducer = null;
+			}
+			else{
+				idle();
+			}
+			if(Thread.interrupted()){
+				return false;
+			}
+			if(offer(item)){
+				return true;
+			}
+		}
+	}
+
+	/** Consumer only. The next item, or null if empty **/
+	public T poll(){
+		long h = head.get();
+		if(h == tail.get()){
+			return null;
+		}
+		int index = (int) h & mask;
+		T item = slots.get(index);
+		slots.lazySet(index, null);
+		head.set(h + 1);
+		unpark(parkedProducer);
+		return item;
+	}
+
+	/** Consumer only. Waits until there is an item **/
+	public T take() throws InterruptedException {
+		T item = awaitHead();
+		poll();
+		return item;
+	}
+
+	/** Consumer only. Waits until there is an item and returns it, leaving it in the buffer until polled **/
+	public T awaitHead() throws InterruptedException {
+		T item;
+		while((item = peek(0)) == null){
+			if(waitStrategy == WaitStrategy.PARK){
+				parkedConsumer = Thread.currentThread();
+				if(isEmpty()){
+					LockSupport.parkNanos(this, MAX_PARK_NANOS);
+				}
+				parkedConsumer = null;
+			}
+			else{
+				idle();
+			}
+			if(Thread.interrupted()){
+				throw new InterruptedException();
+			}
+		}
+		return item;
+	}
+
+	/** Consumer only. Moves up to max items to sink without waiting, returns how many **/
+	public int drainTo(Collection<? super T> sink, int max){
+		int drained = 0;
+		T item;
+		while(drained < max && (item = poll()) != null){
+			sink.add(item);
+			drained++;
+		}
+		return drained;
+	}
+
+	/**
+	 * Any thread. The i-th item from the head, or null. Not a consistent snapshot: the consumer may be taking the item
+	 * concurrently.
+	 */
+	public T peek(int i){
+		return peekAt(head.get() + i);
+	}
+
+	/** Any thread. Sequence number of the next item to read, items keep their sequence number until polled **/
+	public long headSequence(){
+		return head.get();
+	}
+
+	/** Any thread. Sequence number of the next item to write **/
+	public long tailSequence(){
+		return tail.get();
+	}
+
+	/** Any thread. The item with the sequence number, or null if it was polled already or is not written yet **/
+	public T peekAt(long sequence){
+		if(sequence < head.get() || sequence >= tail.get()){
+			return null;
+		}
+		return slots.get((int) sequence & mask);
+	}
+
+	private boolean isFull(){
+		return tail.get() - head.get() >= slots.length();
+	}
+
+	private void idle(){
+		if(waitStrategy == WaitStrategy.YIELD){
+			Thread.yield();
+		}
+	}
+
+	private static void unpark(Thread t){
+		if(t != null){
+			LockSupport.unpark(t);
+		}
+	}
+}
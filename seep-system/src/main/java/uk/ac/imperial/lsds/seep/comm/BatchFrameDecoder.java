@@ -0,0 +1,134 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Imperial College London.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Raul Castro Fernandez - initial design and implementation
+ ******************************************************************************/
+package uk.ac.imperial.lsds.seep.comm;
+
+import java.nio.ByteBuffer;
+
+import uk.ac.imperial.lsds.seep.comm.serialization.messages.BatchTuplePayload;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+
+/**
+ * BatchFrameDecoder. Decodes the BatchTuplePayloads of a byte stream that arrives in arbitrary chunks. Received bytes
+ * are appended to a staging buffer. The length prefix BatchTuplePayloadSerializer writes is read first, and a batch is
+ * only decoded once all of it is staged, so the stream is the same one the blocking workers read.
+ */
+class BatchFrameDecoder {
+
+	private static final int INITIAL_STAGING_SIZE = 64 * 1024;
+
+	private final Kryo k;
+	private final StagingInput in = new StagingInput();
+	// Kryo writes a reference marker before the length prefix, when references are on for batches
+	private final boolean skipReference;
+
+	// Received bytes not decoded yet are staging[start, end)
+	private byte[] staging = new byte[INITIAL_STAGING_SIZE];
+	private int start = 0;
+	private int end = 0;
+	// Bytes of the next batch, from start and including its prefixes, -1 until its length prefix is staged
+	private int frameLength = -1;
+	// Time the first byte of the next batch arrived
+	private long frameStartTs = -1;
+
+	BatchFrameDecoder(Kryo k){
+		this.k = k;
+		this.skipReference = k.getReferences() && k.getReferenceResolver().useReferences(BatchTuplePayload.class);
+	}
+
+	void append(ByteBuffer bytes, long now){
+		if(frameStartTs < 0){
+			frameStartTs = now;
+		}
+		int length = bytes.remaining();
+		if(end + length > staging.length){
+			int pending = end - start;
+			if(pending + length > staging.length){
+				byte[] larger = new byte[Math.max(staging.length * 2, pending + length)];
+				System.arraycopy(staging, start, larger, 0, pending);
+				staging = larger;
+			}
+			else{
+				System.arraycopy(staging, start, staging, 0, pending);
+			}
+			start = 0;
+			end = pending;
+		}
+		bytes.get(staging, end, length);
+		end += length;
+	}
+
+	/**
+	 * @return the next complete batch, or null if more bytes are needed
+	 */
+	BatchTuplePayload poll(long now){
+		if(start == end){
+			return null;
+		}
+		if(frameLength < 0){
+			in.setBuffer(staging, start, end - start);
+			in.underflow = false;
+			try{
+				if(skipReference){
+					in.readVarInt(true);
+				}
+				int length = in.readInt(true);
+				frameLength = in.position() - start + length;
+			}
+			catch(RuntimeException e){
+				// Not all of the prefix arrived yet
+				if(in.underflow){ return null; }
+				throw e;
+			}
+		}
+		if(end - start < frameLength){
+			return null;
+		}
+		in.setBuffer(staging, start, frameLength);
+		BatchTuplePayload batch = k.readObject(in, BatchTuplePayload.class);
+		start += frameLength;
+		frameLength = -1;
+		if(start == end){
+			start = 0;
+			end = 0;
+			frameStartTs = -1;
+			if(staging.length > INITIAL_STAGING_SIZE){
+				// Do not hold on to the buffer of an unusually large batch
+				staging = new byte[INITIAL_STAGING_SIZE];
+			}
+		}
+		else{
+			frameStartTs = now;
+		}
+		return batch;
+	}
+
+	/** Time the first byte of the batch being received arrived, -1 if no bytes are pending **/
+	long getFrameStartTs(){
+		return frameStartTs;
+	}
+
+	int pendingBytes(){
+		return end - start;
+	}
+
+	/** Input over the staging buffer that remembers when a decode attempt ran out of bytes **/
+	private static class StagingInput extends Input {
+		boolean underflow = false;
+
+		@Override
+		protected int fill(byte[] buffer, int offset, int count){
+			underflow = true;
+			return -1;
+		}
+	}
+}
@@ -0,0 +1,66 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Imperial College London.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Raul Castro Fernandez - initial design and implementation
+ ******************************************************************************/
+package uk.ac.imperial.lsds.seep.comm;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * ChannelOutputStream. Blocking output stream over a socket channel in non-blocking mode. Upstream data connections
+ * read by NioIngress are non-blocking, but with piggybacked control traffic the same sockets are used to send control
+ * tuples upstream, and the stream of such sockets rejects writes.
+ */
+public class ChannelOutputStream extends OutputStream {
+
+	private static final long FULL_BUFFER_BACKOFF = 1;
+
+	private final SocketChannel channel;
+	private final byte[] single = new byte[1];
+
+	private ChannelOutputStream(SocketChannel channel){
+		this.channel = channel;
+	}
+
+	/** The stream to write to socket, whether or not its channel is in non-blocking mode **/
+	public static OutputStream of(Socket socket) throws IOException {
+		SocketChannel channel = socket.getChannel();
+		if(channel != null && !channel.isBlocking()){
+			return new ChannelOutputStream(channel);
+		}
+		return socket.getOutputStream();
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		single[0] = (byte) b;
+		write(single, 0, 1);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		ByteBuffer buf = ByteBuffer.wrap(b, off, len);
+		while(buf.hasRemaining()){
+			if(channel.write(buf) == 0){
+				// Socket buffer full, control tuples are small so this should be rare
+				try { Thread.sleep(FULL_BUFFER_BACKOFF); }
+				catch(InterruptedException e) { throw new IOException("Interrupted while writing", e); }
+			}
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+}
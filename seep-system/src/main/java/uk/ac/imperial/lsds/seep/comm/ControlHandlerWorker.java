@@ -45,6 +45,7 @@ import uk.ac.imperial.lsds.seep.comm.serialization.controlhelpers.ScaleOutInfo;
 import uk.ac.imperial.lsds.seep.comm.serialization.controlhelpers.StateAck;
 import uk.ac.imperial.lsds.seep.comm.serialization.controlhelpers.StateChunk;
 import uk.ac.imperial.lsds.seep.comm.serialization.controlhelpers.UpDownRCtrl;
+import uk.ac.imperial.lsds.seep.comm.serialization.serializers.OpFailureCtrlSerializer;
 import uk.ac.imperial.lsds.seep.infrastructure.NodeManager;
 import uk.ac.imperial.lsds.seep.reliable.MemoryChunk;
 import uk.ac.imperial.lsds.seep.runtimeengine.CoreRE;
@@ -119,7 +120,7 @@ public class ControlHandlerWorker implements Runnable{
 		k.register(ReconfigureConnection.class);
 		//k.register(BitSet.class);
 		k.register(BitSet.class, new BitSetSerializer());
-		k.register(OpFailureCtrl.class);
+		k.register(OpFailureCtrl.class, new OpFailureCtrlSerializer());
 		k.register(FailureCtrl.class);
 		k.register(UpDownRCtrl.class);
 		k.register(DownUpRCtrl.class);
@@ -15,6 +15,8 @@ import java.net.BindException;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.util.Map;
 import java.util.Vector;
 import java.util.concurrent.BlockingQueue;
@@ -23,7 +25,9 @@ import org.slf4j.LoggerFactory;
 import uk.ac.imperial.lsds.seep.runtimeengine.CoreRE;
 import uk.ac.imperial.lsds.seep.runtimeengine.DataStructureAdapter;
 import uk.ac.imperial.lsds.seep.comm.serialization.ControlTuple;
+import uk.ac.imperial.lsds.seep.comm.serialization.TupleSchema;
 import uk.ac.imperial.lsds.seep.GLOBALS;
+import uk.ac.imperial.lsds.seep.manet.LinkEmulator;
 import uk.ac.imperial.lsds.seep.operator.EndPoint;
 import uk.ac.imperial.lsds.seep.operator.OperatorContext;
 import uk.ac.imperial.lsds.seep.runtimeengine.SynchronousCommunicationChannel;
@@ -40,9 +44,10 @@ public class IncomingDataHandler implements Runnable{
 	private CoreRE owner;
 	private int connPort;
 	private boolean goOn;
-	private Map<String, Integer> idxMapper;
+	private TupleSchema schema;
 	private DataStructureAdapter dsa;
 	private final Map<Integer, BlockingQueue<ControlTuple>> ctrlQueues;
+	private final boolean nioIngress = Boolean.parseBoolean(GLOBALS.valueFor("nioIngress"));
 
 	public int getConnPort(){
 		return connPort;
@@ -52,18 +57,22 @@ public class IncomingDataHandler implements Runnable{
 		this.connPort = connPort;
 	}
 
-	public IncomingDataHandler(CoreRE owner, int connPort, Map<String, Integer> idxMapper, DataStructureAdapter dsa, Map<Integer, BlockingQueue<ControlTuple>> ctrlQueues){
+	public IncomingDataHandler(CoreRE owner, int connPort, TupleSchema schema, DataStructureAdapter dsa, Map<Integer, BlockingQueue<ControlTuple>> ctrlQueues){
 		this.owner = owner;
 		this.connPort = connPort;
 		//this.selector = initSelector();
 		this.goOn = true;
-		this.idxMapper = idxMapper;
+		this.schema = schema;
 		this.dsa = dsa;
 		this.ctrlQueues = ctrlQueues;
 		LOG.info(" -> ctrl queues = "+ctrlQueues);
+		if (nioIngress && LinkEmulator.emulatesLinks()) {
+			throw new IllegalStateException("nioIngress does not emulate linkDelay and linkLossRate, disable one of them");
+		}
 	}
 
 	public void run(){
+		if (nioIngress) { runNio(); return; }
 		ServerSocket incDataServerSocket = null;
 		int socketCount=0;
 		try{
@@ -77,38 +86,10 @@ public class IncomingDataHandler implements Runnable{
 			while(goOn){
 				Socket incomingConn = incDataServerSocket.accept();
 				String threadName = incomingConn.getInetAddress().toString();
-				Thread newConn = null;
-				//int upstreamOpId = owner.getOpIdFromInetAddress(((InetSocketAddress)incomingConn.getRemoteSocketAddress()).getAddress());
-				InetSocketAddress inSocketAddr = (InetSocketAddress)incomingConn.getRemoteSocketAddress();
-				int upstreamOpId = owner.getOpIdFromInetAddressAndPort(inSocketAddr.getAddress(), inSocketAddr.getPort());
-				LOG.info("-> Creating worker for upstream: "+upstreamOpId);
-				if (ctrlQueues == null)
-				{
-					newConn = new Thread(new IncomingDataHandlerWorker(incomingConn, owner, idxMapper, dsa),  "idhw-"+threadName+"-T-"+socketCount++);
-				}
-				else
-				{
-					LOG.info("-> ctrl queue:"+ctrlQueues.get(upstreamOpId));
-					OperatorContext opCtx = owner.getProcessingUnit().getOperator().getOpContext();
-					int index = opCtx.getUpOpIndexFromOpId(upstreamOpId);
-					LOG.info("-> index:"+index+", upOpIds="+opCtx.getUpstreamOpIdList()+",indexes="+opCtx.getListOfUpstreamIndexes());
-					if (owner.getProcessingUnit().getPUContext().isConfigured())
-					{
-						Vector<EndPoint> upstreamConnections = owner.getProcessingUnit().getPUContext().getUpstreamTypeConnection();
-						//TODO: Thread safety wrt PUContext here?
-						EndPoint obj = upstreamConnections.elementAt(index);
-						newConn = new Thread(new IncomingDataHandlerWorker(incomingConn, owner, idxMapper, dsa, ctrlQueues.get(upstreamOpId)),  "idhjw-"+threadName+"-T-"+socketCount++);
-						SynchronousCommunicationChannel channel = ((SynchronousCommunicationChannel) obj);
-						channel.updateDownstreamControlSocket(incomingConn); 
-					}
-					else
-					{
-						LOG.warn("Received incoming data conn but pu ctxt not created yet. Closing.");
-						incomingConn.close();	
-						continue;
-					}
-				}
-				newConn.start();
+				IncomingDataHandlerWorker worker = createWorker(incomingConn);
+				if (worker == null) { continue; }
+				String prefix = ctrlQueues == null ? "idhw-" : "idhjw-";
+				new Thread(worker, prefix+threadName+"-T-"+socketCount++).start();
 			}
 			incDataServerSocket.close();
 		}
@@ -122,4 +103,81 @@ public class IncomingDataHandler implements Runnable{
 			io.printStackTrace();
 		}
 	}
+	
+	/**
+	 * Accepts upstream connections as socket channels and hands them over to a NioIngress, so that all of them are
+	 * read from a few selector threads.
+	 */
+	private void runNio(){
+		ServerSocketChannel incDataServerChannel = null;
+		try{
+			//Establish listening port
+			incDataServerChannel = ServerSocketChannel.open();
+			ServerSocket incDataServerSocket = incDataServerChannel.socket();
+			incDataServerSocket.setReuseAddress(true);
+			incDataServerSocket.setReceiveBufferSize(Integer.parseInt(GLOBALS.valueFor("socketBufferSize")));
+			incDataServerSocket.bind(new InetSocketAddress(connPort));
+			LOG.info("-> IncomingDataHandler listening with nio ingress in port: {}", connPort);
+			LOG.info("idh socket receiver buffer size = "+incDataServerSocket.getReceiveBufferSize());
+			NioIngress ingress = new NioIngress("idh-"+connPort);
+			while(goOn){
+				SocketChannel incomingConn = incDataServerChannel.accept();
+				try { LinkEmulator.register(incomingConn.socket()); }
+				catch (IOException e) {
+					LOG.warn("-> Refused upstream connection "+e.getMessage());
+					continue;
+				}
+				// Before the socket is published for sending control upstream, so that writers see its final mode
+				incomingConn.configureBlocking(false);
+				IncomingDataHandlerWorker worker = createWorker(incomingConn.socket());
+				if (worker == null) { continue; }
+				ingress.register(incomingConn, worker);
+			}
+			incDataServerChannel.close();
+		}
+		catch(BindException be){
+			LOG.error("-> BIND EXC IO Error "+be.getMessage());
+			LOG.error("-> Was trying to connect to: "+connPort);
+			be.printStackTrace();
+		}
+		catch(IOException io){
+			LOG.error("-> IncomingDataHandler. While listening incoming conns "+io.getMessage());
+			io.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Creates the worker that processes the data received on an upstream connection.
+	 * @return null if the connection was refused and closed
+	 */
+	private IncomingDataHandlerWorker createWorker(Socket incomingConn) throws IOException {
+		//int upstreamOpId = owner.getOpIdFromInetAddress(((InetSocketAddress)incomingConn.getRemoteSocketAddress()).getAddress());
+		InetSocketAddress inSocketAddr = (InetSocketAddress)incomingConn.getRemoteSocketAddress();
+		int upstreamOpId = owner.getOpIdFromInetAddressAndPort(inSocketAddr.getAddress(), inSocketAddr.getPort());
+		LOG.info("-> Creating worker for upstream: "+upstreamOpId);
+		if (ctrlQueues == null)
+		{
+			return new IncomingDataHandlerWorker(incomingConn, owner, schema, dsa);
+		}
+		LOG.info("-> ctrl queue:"+ctrlQueues.get(upstreamOpId));
+		OperatorContext opCtx = owner.getProcessingUnit().getOperator().getOpContext();
+		int index = opCtx.getUpOpIndexFromOpId(upstreamOpId);
+		LOG.info("-> index:"+index+", upOpIds="+opCtx.getUpstreamOpIdList()+",indexes="+opCtx.getListOfUpstreamIndexes());
+		if (owner.getProcessingUnit().getPUContext().isConfigured())
+		{
+			Vector<EndPoint> upstreamConnections = owner.getProcessingUnit().getPUContext().getUpstreamTypeConnection();
+			//TODO: Thread safety wrt PUContext here?
+			EndPoint obj = upstreamConnections.elementAt(index);
+			IncomingDataHandlerWorker worker = new IncomingDataHandlerWorker(incomingConn, owner, schema, dsa, ctrlQueues.get(upstreamOpId));
+			SynchronousCommunicationChannel channel = ((SynchronousCommunicationChannel) obj);
+			channel.updateDownstreamControlSocket(incomingConn); 
+			return worker;
+		}
+		else
+		{
+			LOG.warn("Received incoming data conn but pu ctxt not created yet. Closing.");
+			incomingConn.close();	
+			return null;
+		}
+	}
 }
@@ -23,12 +23,18 @@ import java.util.concurrent.BlockingQueue;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import uk.ac.imperial.lsds.seep.GLOBALS;
 import uk.ac.imperial.lsds.seep.comm.serialization.DataTuple;
 import uk.ac.imperial.lsds.seep.comm.serialization.ControlTuple;
+import uk.ac.imperial.lsds.seep.comm.serialization.TuplePool;
+import uk.ac.imperial.lsds.seep.comm.serialization.TupleSchema;
 import uk.ac.imperial.lsds.seep.comm.serialization.messages.BatchTuplePayload;
 import uk.ac.imperial.lsds.seep.comm.serialization.messages.Payload;
 import uk.ac.imperial.lsds.seep.comm.serialization.messages.TuplePayload;
 import uk.ac.imperial.lsds.seep.comm.serialization.serializers.ArrayListSerializer;
+import uk.ac.imperial.lsds.seep.comm.serialization.serializers.BatchTuplePayloadSerializer;
+import uk.ac.imperial.lsds.seep.comm.serialization.serializers.TuplePayloadSerializer;
+import uk.ac.imperial.lsds.seep.comm.serialization.serializers.OpFailureCtrlSerializer;
 import uk.ac.imperial.lsds.seep.comm.serialization.controlhelpers.Ack;
 import uk.ac.imperial.lsds.seep.comm.serialization.controlhelpers.BackupNodeState;
 import uk.ac.imperial.lsds.seep.comm.serialization.controlhelpers.BackupOperatorState;
@@ -48,12 +54,16 @@ import uk.ac.imperial.lsds.seep.comm.serialization.controlhelpers.StateAck;
 import uk.ac.imperial.lsds.seep.comm.serialization.controlhelpers.StateChunk;
 import uk.ac.imperial.lsds.seep.comm.serialization.controlhelpers.UpDownRCtrl;
 import uk.ac.imperial.lsds.seep.infrastructure.NodeManager;
+import uk.ac.imperial.lsds.seep.infrastructure.monitor.latency.LatencyHistogram;
+import uk.ac.imperial.lsds.seep.infrastructure.monitor.latency.LatencyStage;
+import uk.ac.imperial.lsds.seep.infrastructure.monitor.latency.StageLatencies;
 import uk.ac.imperial.lsds.seep.runtimeengine.CoreRE;
 import uk.ac.imperial.lsds.seep.runtimeengine.CoreRE.ControlTupleType;
 import uk.ac.imperial.lsds.seep.runtimeengine.DataStructureAdapter;
 import uk.ac.imperial.lsds.seep.runtimeengine.DataStructureI;
 import uk.ac.imperial.lsds.seep.runtimeengine.OutOfOrderBufferedBarrier;
 import uk.ac.imperial.lsds.seep.runtimeengine.OutOfOrderFairBufferedBarrier;
+import uk.ac.imperial.lsds.seep.manet.LinkEmulator;
 import uk.ac.imperial.lsds.seep.manet.stats.Stats;
 import uk.ac.imperial.lsds.seep.reliable.MemoryChunk;
 
@@ -70,19 +80,31 @@ public class IncomingDataHandlerWorker implements Runnable{
 	private Socket upstreamSocket = null;
 	private CoreRE owner = null;
 	private boolean goOn;
-	private Map<String, Integer> idxMapper;
+	private TupleSchema schema;
 	private DataStructureAdapter dsa;
 	private Kryo k = null;
 	private Stats stats;
 	private final BlockingQueue<ControlTuple> ctrlQueue;
+	// Tuples of this connection are recycled when set, see TuplePool
+	private final TuplePool pool;
 	
-	public IncomingDataHandlerWorker(Socket upstreamSocket, CoreRE owner, Map<String, Integer> idxMapper, DataStructureAdapter dsa){
+	//Upstream state, resolved by init()
+	private int opId;
+	private DataStructureI dso = null;
+	private long lastIncomingTs = -1;
+	private boolean allowOutOfOrderTuples;
+	private int valueIdx;
+	private int latencyBreakdownIdx;
+	private LatencyHistogram networkLatency;
+	
+	public IncomingDataHandlerWorker(Socket upstreamSocket, CoreRE owner, TupleSchema schema, DataStructureAdapter dsa){
 		//upstream id
 		this.upstreamSocket = upstreamSocket;
 		this.owner = owner;
 		this.goOn = true;
-		this.idxMapper = idxMapper;
+		this.schema = schema;
 		this.dsa = dsa;
+		this.pool = createPool();
 		this.k = initializeKryo();
 		InetSocketAddress inSocketAddr = (InetSocketAddress)upstreamSocket.getRemoteSocketAddress();
 		this.stats = new Stats(owner.getProcessingUnit().getOperator().getOperatorId(), owner.getOpIdFromInetAddressAndPort(inSocketAddr.getAddress(), inSocketAddr.getPort()));
@@ -90,13 +112,14 @@ public class IncomingDataHandlerWorker implements Runnable{
 		LOG.info("Created icdhw with ctrlQueue = "+ctrlQueue);
 	}
 
-	public IncomingDataHandlerWorker(Socket upstreamSocket, CoreRE owner, Map<String, Integer> idxMapper, DataStructureAdapter dsa, BlockingQueue<ControlTuple> ctrlQueue){
+	public IncomingDataHandlerWorker(Socket upstreamSocket, CoreRE owner, TupleSchema schema, DataStructureAdapter dsa, BlockingQueue<ControlTuple> ctrlQueue){
 		//upstream id
 		this.upstreamSocket = upstreamSocket;
 		this.owner = owner;
 		this.goOn = true;
-		this.idxMapper = idxMapper;
+		this.schema = schema;
 		this.dsa = dsa;
+		this.pool = createPool();
 		this.k = initializeKryo();
 		InetSocketAddress inSocketAddr = (InetSocketAddress)upstreamSocket.getRemoteSocketAddress();
 		this.stats = new Stats(owner.getProcessingUnit().getOperator().getOperatorId(), owner.getOpIdFromInetAddressAndPort(inSocketAddr.getAddress(), inSocketAddr.getPort()));
@@ -104,6 +127,13 @@ public class IncomingDataHandlerWorker implements Runnable{
 		LOG.info("Created icdhw with ctrlQueue = "+ctrlQueue);
 	}
 	
+	private TuplePool createPool(){
+		if(!Boolean.parseBoolean(GLOBALS.valueFor("poolReceivedTuples"))){
+			return null;
+		}
+		return new TuplePool(schema, Integer.parseInt(GLOBALS.valueFor("tuplePoolSize")));
+	}
+	
 	private Kryo initializeKryo(){
 		//optimize here kryo
 		Kryo k = new Kryo();
@@ -111,8 +141,8 @@ public class IncomingDataHandlerWorker implements Runnable{
 		
 		k.register(ArrayList.class, new ArrayListSerializer());
 		k.register(Payload.class);
-		k.register(TuplePayload.class);
-		k.register(BatchTuplePayload.class);
+		k.register(TuplePayload.class, new TuplePayloadSerializer(schema));
+		k.register(BatchTuplePayload.class, new BatchTuplePayloadSerializer(schema, pool));
 
 		k.register(ControlTuple.class);
 		k.register(MemoryChunk.class);
@@ -135,7 +165,7 @@ public class IncomingDataHandlerWorker implements Runnable{
 		k.register(ReconfigureConnection.class);
 		//k.register(BitSet.class);
 		k.register(BitSet.class, new BitSetSerializer());
-		k.register(OpFailureCtrl.class);
+		k.register(OpFailureCtrl.class, new OpFailureCtrlSerializer());
 		k.register(FailureCtrl.class);
 		k.register(UpDownRCtrl.class);
 		k.register(DownUpRCtrl.class);
@@ -168,109 +198,18 @@ public class IncomingDataHandlerWorker implements Runnable{
 		
 		/** experimental sync **/
 		try{
-			// Get incomingOp id
-			//int opId = owner.getOpIdFromInetAddress(((InetSocketAddress)upstreamSocket.getRemoteSocketAddress()).getAddress());
-			InetSocketAddress inSocketAddr = (InetSocketAddress)upstreamSocket.getRemoteSocketAddress();
-			int opId = owner.getOpIdFromInetAddressAndPort(inSocketAddr.getAddress(), inSocketAddr.getPort());
-
-			int originalOpId = owner.getOriginalUpstreamFromOpId(opId);
-			
-			DataStructureI dso = null;
-			if(dsa.getUniqueDso() != null){
-				dso = dsa.getUniqueDso();
-				LOG.info("-> Unique data adapter in this node: "+dso);
-			}
-			else{
-				dso = dsa.getDataStructureIForOp(originalOpId);
-				LOG.info("-> Multiple data adapters in this node");
-			}
-			//Get inputStream of incoming connection
-			InputStream is = upstreamSocket.getInputStream();
+			init();
+			//Get inputStream of incoming connection, through the emulated link if any
+			InputStream is = LinkEmulator.input(upstreamSocket);
 			BufferedInputStream bis = new BufferedInputStream(is);
 			Input in = new Input(bis);
 			BatchTuplePayload batchTuplePayload = null;
-
-			long lastIncomingTs = -1;
-			final boolean allowOutOfOrderTuples = owner.getProcessingUnit().getOperator().getOpContext().getFrontierQuery() != null;
 			
 			while(goOn){
 				long receiveStartTs = System.currentTimeMillis();
 				batchTuplePayload = k.readObject(in, BatchTuplePayload.class);
 				long receiveTs = System.currentTimeMillis();
-				long readTime = (receiveTs-receiveStartTs);
-				LOG.debug("Received new batch from "+opId+ ",btpayload="+ batchTuplePayload+",readTime="+readTime);
-				ArrayList<TuplePayload> batch = batchTuplePayload.batch;
-				for(TuplePayload t_payload : batch)
-				{
-					
-					if (!allowOutOfOrderTuples)
-					{
-						long incomingTs = t_payload.timestamp;
-						// Check for already processed data
-						/// \todo{should be <= but the problem is that logical clock in java has ms granularity. This means that once you
-						/// send more than 1000 events per second, some events are discarded here, since their ts is the same...}
-						if(incomingTs < lastIncomingTs){
-							System.out.println("Duplicate");
-							continue;
-						}
-						owner.setTsData(opId, incomingTs);
-						lastIncomingTs = incomingTs;
-					}
-					
-					//Put data in inputQueue
-					if(owner.checkSystemStatus()){
-						long latency = receiveTs - t_payload.instrumentation_ts;
-						long socketLatency = receiveTs - t_payload.local_ts;
-						t_payload.local_ts = receiveTs;
-						LOG.debug("icdhw for "+opId+",ts="+t_payload.timestamp+",its="+t_payload.instrumentation_ts+",rx latency="+latency+", socket latency="+socketLatency+", readTime="+readTime);
-						DataTuple reg = new DataTuple(idxMapper, t_payload);
-						if (reg.getMap().containsKey("value"))
-						{
-							int length = reg.getValue("value") instanceof String ?  reg.getPayload().toString().length() : reg.getByteArray("value").length;
-							Stats.IntervalTput tput = stats.add(System.currentTimeMillis(), length);
-
-							if (tput != null && owner.getRoutingController() != null) { owner.getRoutingController().handleIntervalTputUpdate(tput); } 
-						}
-						if (reg.getMap().containsKey("latencyBreakdown"))
-						{
-							long[] latencies = reg.getLongArray("latencyBreakdown");
-							long[] newLatencies = new long[latencies.length+2];
-							for (int i=0; i < latencies.length; i++) { newLatencies[i] = latencies[i]; }
-							newLatencies[latencies.length] = socketLatency;
-							newLatencies[latencies.length+1] = readTime;
-							reg.getPayload().attrValues.set(reg.getMap().get("latencyBreakdown"), newLatencies);
-						}
-
-						LOG.debug("Adding batch to dso, local latency="+(System.currentTimeMillis()-receiveTs));
-						if (dso instanceof OutOfOrderBufferedBarrier)
-						{
-							LOG.debug("Pushing to ooo buffered barrier.");
-							((OutOfOrderBufferedBarrier)dso).push(reg, opId);
-						}
-						else if (dso instanceof OutOfOrderFairBufferedBarrier)
-						{
-							LOG.debug("Pushing to ooo buffered barrier.");
-							((OutOfOrderFairBufferedBarrier)dso).push(reg, opId);
-						}
-						else
-						{
-							LOG.debug("Pushing to dso.");
-							dso.push(reg);
-						}
-						LOG.debug("Finished pushing to dso, ts="+t_payload.timestamp+", local latency="+(System.currentTimeMillis()-receiveTs));
-					}
-					else{
-						///\todo{check for garbage in the tcp buffers}
-						LOG.warn("Discarding batch as system status not normal.");
-					}
-				}
-				LOG.debug("ichw rctrl="+batchTuplePayload.rctrl + ", fctrl="+batchTuplePayload.fctrl);				
-				if (batchTuplePayload.rctrl != null) 
-				{ 
-					ControlTuple ct = new ControlTuple(ControlTupleType.UP_DOWN_RCTRL, opId, batchTuplePayload.rctrl.intValue());
-					ctrlQueue.offer(ct); }
-				if (batchTuplePayload.fctrl != null) 
-				{ ctrlQueue.offer(batchTuplePayload.fctrl); }
+				handleBatch(batchTuplePayload, receiveTs, receiveTs-receiveStartTs);
 			}
 			LOG.error("-> Data connection closing...");
 			upstreamSocket.close();
@@ -280,4 +219,123 @@ public class IncomingDataHandlerWorker implements Runnable{
 			io.printStackTrace();
 		}
 	}
+	
+	/**
+	 * Resolves the upstream and the data structure its tuples are pushed to. Called once, before the first batch.
+	 */
+	void init(){
+		// Get incomingOp id
+		//int opId = owner.getOpIdFromInetAddress(((InetSocketAddress)upstreamSocket.getRemoteSocketAddress()).getAddress());
+		InetSocketAddress inSocketAddr = (InetSocketAddress)upstreamSocket.getRemoteSocketAddress();
+		opId = owner.getOpIdFromInetAddressAndPort(inSocketAddr.getAddress(), inSocketAddr.getPort());
+
+		int originalOpId = owner.getOriginalUpstreamFromOpId(opId);
+		
+		if(dsa.getUniqueDso() != null){
+			dso = dsa.getUniqueDso();
+			LOG.info("-> Unique data adapter in this node: "+dso);
+		}
+		else{
+			dso = dsa.getDataStructureIForOp(originalOpId);
+			LOG.info("-> Multiple data adapters in this node");
+		}
+		lastIncomingTs = -1;
+		allowOutOfOrderTuples = owner.getProcessingUnit().getOperator().getOpContext().getFrontierQuery() != null;
+		// Resolve the attributes inspected per tuple once, rather than hashing the names for every tuple
+		valueIdx = schema.indexOf("value");
+		latencyBreakdownIdx = schema.indexOf("latencyBreakdown");
+		networkLatency = StageLatencies.histogram(LatencyStage.NETWORK, opId);
+	}
+	
+	Kryo getKryo(){
+		return k;
+	}
+	
+	Socket getUpstreamSocket(){
+		return upstreamSocket;
+	}
+	
+	/**
+	 * Pushes the tuples of a batch received from this upstream to the data structure, and forwards its piggybacked
+	 * control to the control queue.
+	 */
+	void handleBatch(BatchTuplePayload batchTuplePayload, long receiveTs, long readTime){
+		if (LOG.isDebugEnabled()) { LOG.debug("Received new batch from "+opId+ ",btpayload="+ batchTuplePayload+",readTime="+readTime); }
+		ArrayList<TuplePayload> batch = batchTuplePayload.batch;
+		for(int i = 0; i < batch.size(); i++)
+		{
+			TuplePayload t_payload = batch.get(i);
+			
+			if (!allowOutOfOrderTuples)
+			{
+				long incomingTs = t_payload.timestamp;
+				// Check for already processed data
+				/// \todo{should be <= but the problem is that logical clock in java has ms granularity. This means that once you
+				/// send more than 1000 events per second, some events are discarded here, since their ts is the same...}
+				if(incomingTs < lastIncomingTs){
+					System.out.println("Duplicate");
+					if (pool != null) { pool.getBatchTuple(i).release(); }
+					continue;
+				}
+				owner.setTsData(opId, incomingTs);
+				lastIncomingTs = incomingTs;
+			}
+			
+			//Put data in inputQueue
+			if(owner.checkSystemStatus()){
+				long socketLatency = receiveTs - t_payload.local_ts;
+				t_payload.local_ts = receiveTs;
+				networkLatency.recordMillis(socketLatency);
+				if (LOG.isDebugEnabled()) { LOG.debug("icdhw for "+opId+",ts="+t_payload.timestamp+",its="+t_payload.instrumentation_ts+",rx latency="+(receiveTs - t_payload.instrumentation_ts)+", socket latency="+socketLatency+", readTime="+readTime); }
+				DataTuple reg = (pool != null) ? pool.getBatchTuple(i) : new DataTuple(schema, t_payload);
+				if (valueIdx >= 0)
+				{
+					Object value = reg.getValueAt(valueIdx);
+					int length = value instanceof String ?  reg.getPayload().toString().length() : ((byte[])value).length;
+					Stats.IntervalTput tput = stats.add(System.currentTimeMillis(), length);
+
+					if (tput != null && owner.getRoutingController() != null) { owner.getRoutingController().handleIntervalTputUpdate(tput); } 
+				}
+				if (latencyBreakdownIdx >= 0)
+				{
+					long[] latencies = (long[])reg.getValueAt(latencyBreakdownIdx);
+					long[] newLatencies = new long[latencies.length+2];
+					for (int j=0; j < latencies.length; j++) { newLatencies[j] = latencies[j]; }
+					newLatencies[latencies.length] = socketLatency;
+					newLatencies[latencies.length+1] = readTime;
+					reg.getPayload().attrValues.set(latencyBreakdownIdx, newLatencies);
+				}
+
+				if (LOG.isDebugEnabled()) { LOG.debug("Adding batch to dso, local latency="+(System.currentTimeMillis()-receiveTs)); }
+				if (dso instanceof OutOfOrderBufferedBarrier)
+				{
+					LOG.debug("Pushing to ooo buffered barrier.");
+					((OutOfOrderBufferedBarrier)dso).push(reg, opId);
+				}
+				else if (dso instanceof OutOfOrderFairBufferedBarrier)
+				{
+					LOG.debug("Pushing to ooo buffered barrier.");
+					((OutOfOrderFairBufferedBarrier)dso).push(reg, opId);
+				}
+				else
+				{
+					LOG.debug("Pushing to dso.");
+					dso.push(reg);
+				}
+				if (LOG.isDebugEnabled()) { LOG.debug("Finished pushing to dso, ts="+t_payload.timestamp+", local latency="+(System.currentTimeMillis()-receiveTs)); }
+			}
+			else{
+				///\todo{check for garbage in the tcp buffers}
+				LOG.warn("Discarding batch as system status not normal.");
+				if (pool != null) { pool.getBatchTuple(i).release(); }
+			}
+		}
+		if (LOG.isDebugEnabled()) { LOG.debug("ichw rctrl="+batchTuplePayload.rctrl + ", fctrl="+batchTuplePayload.fctrl); }				
+		if (batchTuplePayload.rctrl != null) 
+		{ 
+			ControlTuple ct = new ControlTuple(ControlTupleType.UP_DOWN_RCTRL, opId, batchTuplePayload.rctrl.intValue());
+			ctrlQueue.offer(ct); }
+		if (batchTuplePayload.fctrl != null) 
+		{ ctrlQueue.offer(batchTuplePayload.fctrl); }
+	}
 }
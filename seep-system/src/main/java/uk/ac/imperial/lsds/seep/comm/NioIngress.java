@@ -0,0 +1,136 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Imperial College London.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Raul Castro Fernandez - initial design and implementation
+ ******************************************************************************/
+package uk.ac.imperial.lsds.seep.comm;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import uk.ac.imperial.lsds.seep.GLOBALS;
+
+/**
+ * NioIngress. Reads all the upstream data connections of a node from a small, fixed pool of selector threads, instead
+ * of one blocking IncomingDataHandlerWorker thread per connection. Connections are assigned round robin. Decoded
+ * batches are pushed to the data structures from the selector thread, so a full input queue stalls every connection
+ * served by that selector, as it would stall a blocking worker.
+ */
+public class NioIngress {
+
+	final private Logger LOG = LoggerFactory.getLogger(NioIngress.class);
+
+	private final SelectorLoop[] loops;
+	private int next = 0;
+
+	public NioIngress(String name){
+		this(name, Integer.parseInt(GLOBALS.valueFor("nioIngressSelectors")), Integer.parseInt(GLOBALS.valueFor("socketBufferSize")));
+	}
+
+	public NioIngress(String name, int numSelectors, int readBufferSize){
+		loops = new SelectorLoop[Math.max(1, numSelectors)];
+		for(int i = 0; i < loops.length; i++){
+			try{
+				loops[i] = new SelectorLoop(Selector.open(), ByteBuffer.allocateDirect(readBufferSize));
+			}
+			catch(IOException e){
+				throw new RuntimeException("Could not open selector for "+name, e);
+			}
+			Thread t = new Thread(loops[i], name+"-sel-"+i);
+			t.setDaemon(true);
+			t.start();
+		}
+		LOG.info("-> Started "+loops.length+" ingress selectors, read buffer size = "+readBufferSize);
+	}
+
+	/**
+	 * Hands an accepted upstream connection over to one of the selectors. The worker is used to process the batches
+	 * received, but it is not run as a thread.
+	 */
+	public synchronized void register(SocketChannel channel, IncomingDataHandlerWorker worker) throws IOException {
+		if(channel.isBlocking()){
+			channel.configureBlocking(false);
+		}
+		worker.init();
+		SelectorLoop loop = loops[next];
+		next = (next + 1) % loops.length;
+		loop.add(new NioUpstreamConnection(channel, worker, loop.readBuffer));
+	}
+
+	private class SelectorLoop implements Runnable {
+
+		private final Selector selector;
+		// Shared by the connections of this selector, they only use it within onReadable()
+		private final ByteBuffer readBuffer;
+		private final ConcurrentLinkedQueue<NioUpstreamConnection> pending = new ConcurrentLinkedQueue<NioUpstreamConnection>();
+
+		SelectorLoop(Selector selector, ByteBuffer readBuffer){
+			this.selector = selector;
+			this.readBuffer = readBuffer;
+		}
+
+		void add(NioUpstreamConnection conn){
+			pending.add(conn);
+			selector.wakeup();
+		}
+
+		public void run(){
+			while(true){
+				try{
+					selector.select();
+					registerPending();
+					Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+					while(keys.hasNext()){
+						SelectionKey key = keys.next();
+						keys.remove();
+						NioUpstreamConnection conn = (NioUpstreamConnection) key.attachment();
+						if(!key.isValid()){
+							conn.close();
+							continue;
+						}
+						boolean open = false;
+						try{
+							open = conn.onReadable();
+						}
+						catch(IOException | RuntimeException e){
+							LOG.error("-> IncDataHandlerWorker. IO Error "+e.getMessage());
+						}
+						if(!open){
+							key.cancel();
+							conn.close();
+						}
+					}
+				}
+				catch(IOException e){
+					LOG.error("-> Ingress selector failed "+e.getMessage());
+				}
+			}
+		}
+
+		private void registerPending(){
+			NioUpstreamConnection conn;
+			while((conn = pending.poll()) != null){
+				try{
+					conn.getChannel().register(selector, SelectionKey.OP_READ, conn);
+				}
+				catch(IOException e){
+					LOG.error("-> Could not register upstream connection "+e.getMessage());
+					conn.close();
+				}
+			}
+		}
+	}
+}
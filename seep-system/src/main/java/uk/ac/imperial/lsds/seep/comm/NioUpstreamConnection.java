@@ -0,0 +1,87 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Imperial College London.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Raul Castro Fernandez - initial design and implementation
+ ******************************************************************************/
+package uk.ac.imperial.lsds.seep.comm;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import uk.ac.imperial.lsds.seep.comm.serialization.messages.BatchTuplePayload;
+
+/**
+ * NioUpstreamConnection. Non-blocking read side of one upstream data connection. Whatever is available on the socket
+ * is read into the direct buffer of the selector, and every complete batch is handed to the IncomingDataHandlerWorker
+ * of the connection.
+ */
+class NioUpstreamConnection {
+
+	final private Logger LOG = LoggerFactory.getLogger(NioUpstreamConnection.class);
+
+	private final SocketChannel channel;
+	private final IncomingDataHandlerWorker worker;
+	private final ByteBuffer readBuffer;
+	private final BatchFrameDecoder decoder;
+
+	NioUpstreamConnection(SocketChannel channel, IncomingDataHandlerWorker worker, ByteBuffer readBuffer){
+		this.channel = channel;
+		this.worker = worker;
+		this.readBuffer = readBuffer;
+		this.decoder = new BatchFrameDecoder(worker.getKryo());
+	}
+
+	SocketChannel getChannel(){
+		return channel;
+	}
+
+	/**
+	 * Reads what is available on the socket and processes every complete batch.
+	 * @return false if the upstream closed the connection
+	 */
+	boolean onReadable() throws IOException {
+		boolean open = true;
+		while(true){
+			readBuffer.clear();
+			int read = channel.read(readBuffer);
+			if(read < 0){
+				open = false;
+				break;
+			}
+			if(read == 0){
+				break;
+			}
+			readBuffer.flip();
+			decoder.append(readBuffer, System.currentTimeMillis());
+			if(read < readBuffer.capacity()){
+				// Socket drained
+				break;
+			}
+		}
+		while(true){
+			long frameStartTs = decoder.getFrameStartTs();
+			long receiveTs = System.currentTimeMillis();
+			BatchTuplePayload batch = decoder.poll(receiveTs);
+			if(batch == null){
+				break;
+			}
+			worker.handleBatch(batch, receiveTs, receiveTs - frameStartTs);
+		}
+		return open;
+	}
+
+	void close(){
+		LOG.error("-> Data connection closing...");
+		try { channel.close(); }
+		catch(IOException e) { LOG.error("-> Closing upstream data connection "+e.getMessage()); }
+	}
+}
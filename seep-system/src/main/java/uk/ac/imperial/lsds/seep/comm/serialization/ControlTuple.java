@@ -90,6 +90,12 @@ public class ControlTuple {
 		this.opFctrl = new OpFailureCtrl(opId, fctrl.lw(), fctrl.acks(), fctrl.alives());
 	}
 	
+	public ControlTuple(CoreRE.ControlTupleType type, OpFailureCtrl opFctrl)
+	{
+		this.type = type;
+		this.opFctrl = opFctrl;
+	}
+	
 	public ControlTuple(CoreRE.ControlTupleType type, int opId, int qLen)
 	{
 		if (!type.equals(CoreRE.ControlTupleType.UP_DOWN_RCTRL)) { throw new RuntimeException("Logic error."); }
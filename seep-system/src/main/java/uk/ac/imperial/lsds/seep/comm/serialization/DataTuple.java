@@ -13,6 +13,7 @@ package uk.ac.imperial.lsds.seep.comm.serialization;
 import java.io.Serializable;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 import uk.ac.imperial.lsds.seep.comm.serialization.messages.Payload;
 import uk.ac.imperial.lsds.seep.comm.serialization.messages.TuplePayload;
@@ -22,11 +23,29 @@ public class DataTuple implements DataTupleI, Serializable{
 	private static final long serialVersionUID = 1L;
 	private TuplePayload payload;
 	private final Map<String, Integer> idxMapper;
+	private final TupleSchema schema;
+	// Pool of the connection the tuple was received on while it can be recycled, see TuplePool
+	private transient TuplePool pool;
+	private transient volatile int refs;
+	private static final AtomicIntegerFieldUpdater<DataTuple> REFS = AtomicIntegerFieldUpdater.newUpdater(DataTuple.class, "refs");
 
 	public DataTuple(Map<String, Integer> idxMapper, TuplePayload payload){
 		this.payload = payload;
 		//this.attrValues = payload.attrValues;
 		this.idxMapper = idxMapper;
+		this.schema = null;
+	}
+	
+	public DataTuple(TupleSchema schema, TuplePayload payload){
+		this.payload = payload;
+		this.idxMapper = schema.getIdxMapper();
+		this.schema = schema;
+	}
+	
+	private DataTuple(Map<String, Integer> idxMapper, TupleSchema schema, TuplePayload payload){
+		this.payload = payload;
+		this.idxMapper = idxMapper;
+		this.schema = schema;
 	}
 	
 	/** DEBUG METHODS */
@@ -44,12 +63,46 @@ public class DataTuple implements DataTupleI, Serializable{
 	
 	public DataTuple(){
 		idxMapper = new HashMap<String, Integer>();
+		schema = null;
 	}
 	
 	public static DataTuple getNoopDataTuple(){
 		return new DataTuple();
 	}
 	
+	/**
+	 * Keeps a pooled tuple from being recycled until a matching release(). Operators that hold on to input tuples
+	 * after processData returns must retain them when received tuples are pooled. No-op for other tuples.
+	 */
+	public DataTuple retain(){
+		if(pool != null){
+			REFS.incrementAndGet(this);
+		}
+		return this;
+	}
+	
+	/**
+	 * Gives a pooled tuple back to its pool once every owner released it. No-op for other tuples.
+	 */
+	public void release(){
+		TuplePool p = pool;
+		if(p != null && REFS.decrementAndGet(this) == 0){
+			p.recycle(this);
+		}
+	}
+	
+	/**
+	 * Takes the tuple out of its pool for good, e.g. when it is sent downstream and kept in the output log.
+	 */
+	public void detach(){
+		pool = null;
+	}
+	
+	void pooledBy(TuplePool pool){
+		this.pool = pool;
+		this.refs = 1;
+	}
+	
 	public TuplePayload getPayload(){
 		return payload;
 	}
@@ -60,6 +113,11 @@ public class DataTuple implements DataTupleI, Serializable{
 	
 	public void setValuesMutable(Object...objects){
 		payload.attrValues = new Payload(objects);
+		payload.fixedSlots = null;
+	}
+	
+	public TupleSchema getSchema(){
+		return schema;
 	}
 	
 	/** EXPERIMENTAL **/
@@ -69,7 +127,7 @@ public class DataTuple implements DataTupleI, Serializable{
 		tp.timestamp = this.payload.timestamp;
 		tp.instrumentation_ts = this.payload.instrumentation_ts;
 		tp.local_ts = this.payload.local_ts;
-		DataTuple dt = new DataTuple(idxMapper, tp);
+		DataTuple dt = new DataTuple(idxMapper, schema, tp);
 		return dt;
 	}
 	
@@ -81,7 +139,7 @@ public class DataTuple implements DataTupleI, Serializable{
 		tp.timestamp = this.payload.timestamp;
 		tp.instrumentation_ts = this.payload.instrumentation_ts;
 		tp.local_ts = this.payload.local_ts;
-		DataTuple dt = new DataTuple(idxMapper, tp);
+		DataTuple dt = new DataTuple(idxMapper, schema, tp);
 		return dt;
 	}
 	
@@ -91,7 +149,7 @@ public class DataTuple implements DataTupleI, Serializable{
 		tp.timestamp = System.currentTimeMillis();
 		tp.instrumentation_ts =  tp.timestamp;
 		tp.local_ts = tp.instrumentation_ts;
-		DataTuple dt = new DataTuple(idxMapper, tp);
+		DataTuple dt = new DataTuple(idxMapper, schema, tp);
 		return dt;
 	}
 	
@@ -103,95 +161,211 @@ public class DataTuple implements DataTupleI, Serializable{
 		tp.timestamp = System.currentTimeMillis();
 		tp.instrumentation_ts =  tp.timestamp;
 		tp.local_ts = tp.instrumentation_ts;
-		DataTuple dt = new DataTuple(idxMapper, tp);
+		DataTuple dt = new DataTuple(idxMapper, schema, tp);
 		return dt;
 	}
 	
 	@Override
 	public Byte getByte(String attribute) {
-		return (Byte)payload.attrValues.get(idxMapper.get(attribute));
+		return (Byte)valueAt(idxMapper.get(attribute));
 	}
 
 	@Override
 	public byte[] getByteArray(String attribute) {
-		return (byte[])payload.attrValues.get(idxMapper.get(attribute));
+		return (byte[])valueAt(idxMapper.get(attribute));
 	}
 
 	@Override
 	public Character getChar(String attribute) {
-		return (Character)payload.attrValues.get(idxMapper.get(attribute));
+		return (Character)valueAt(idxMapper.get(attribute));
 	}
 
 	@Override
 	public Double getDouble(String attribute) {
-		return (Double)payload.attrValues.get(idxMapper.get(attribute));
+		return (Double)valueAt(idxMapper.get(attribute));
 	}
 
 	@Override
 	public double[] getDoubleArray(String attribute) {
-		return (double[])payload.attrValues.get(idxMapper.get(attribute));
+		return (double[])valueAt(idxMapper.get(attribute));
 	}
 
 	@Override
 	public Float getFloat(String attribute) {
-		return (Float)payload.attrValues.get(idxMapper.get(attribute));
+		return (Float)valueAt(idxMapper.get(attribute));
 	}
 
 	@Override
 	public Integer getInt(String attribute) {
-		return (Integer)payload.attrValues.get(idxMapper.get(attribute));
+		return (Integer)valueAt(idxMapper.get(attribute));
 	}
 
 	@Override
 	public int[] getIntArray(String attribute) {
-		return (int[])payload.attrValues.get(idxMapper.get(attribute));
+		return (int[])valueAt(idxMapper.get(attribute));
 	}
 
 	@Override
 	public float[] getFloatArray(String attribute) {
-		return (float[])payload.attrValues.get(idxMapper.get(attribute));
+		return (float[])valueAt(idxMapper.get(attribute));
 	}
 
 	@Override
 	public Long getLong(String attribute) {
-		return (Long)payload.attrValues.get(idxMapper.get(attribute));
+		return (Long)valueAt(idxMapper.get(attribute));
 	}
 
 	@Override
 	public long[] getLongArray(String attribute) {
-		return (long[])payload.attrValues.get(idxMapper.get(attribute));
+		return (long[])valueAt(idxMapper.get(attribute));
 	}
 
 	@Override
 	public Short getShort(String attribute) {
-		return (Short)payload.attrValues.get(idxMapper.get(attribute));
+		return (Short)valueAt(idxMapper.get(attribute));
 	}
 
 	@Override
 	public String getString(String attribute) {
-		return (String)payload.attrValues.get(idxMapper.get(attribute));
+		return (String)valueAt(idxMapper.get(attribute));
 	}
 
 	@Override
 	public String[] getStringArray(String attribute) {
-		return (String[])payload.attrValues.get(idxMapper.get(attribute));
+		return (String[])valueAt(idxMapper.get(attribute));
 	}
 
 	@Override
 	public Object getValue(String attribute) {
 //		System.out.println("getValue = attrValues.size -> "+payload.attrValues.size()+" accessed in "+idxMapper.get(attribute));
-		return (Object)payload.attrValues.get(idxMapper.get(attribute));
+		return (Object)valueAt(idxMapper.get(attribute));
 	}
 	
 	@Override
 	public boolean getBoolean(String attribute){
 //		System.out.println("getBoolean = attrValues.size -> "+payload.attrValues.size()+" accessed in "+idxMapper.get(attribute));
-		return (Boolean)payload.attrValues.get(idxMapper.get(attribute));
+		return (Boolean)valueAt(idxMapper.get(attribute));
+	}
+	
+	/** Index based access, offsets are resolved once with indexOf (or TupleSchema.indexOf) at deploy time **/
+	
+	public int indexOf(String attribute){
+		if(schema != null) return schema.indexOf(attribute);
+		Integer idx = idxMapper.get(attribute);
+		return idx == null ? -1 : idx;
+	}
+	
+	/** True if attributes are at the same offsets in both tuples, so an offset resolved on one is valid for the other **/
+	public boolean hasLayoutOf(DataTuple other){
+		return idxMapper == other.idxMapper;
+	}
+
+	public Object getValueAt(int idx){
+		return valueAt(idx);
+	}
+	
+	public long getLongAt(int idx){
+		int slot = compactSlotOf(idx);
+		if(slot < 0){
+			return ((Number)payload.attrValues.get(idx)).longValue();
+		}
+		long raw = payload.fixedSlots[slot];
+		TupleSchema.Type type = schema.getType(idx);
+		if(type == TupleSchema.Type.DOUBLE || type == TupleSchema.Type.FLOAT){
+			return (long)Double.longBitsToDouble(raw);
+		}
+		return raw;
+	}
+	
+	public int getIntAt(int idx){
+		return (int)getLongAt(idx);
+	}
+	
+	public double getDoubleAt(int idx){
+		int slot = compactSlotOf(idx);
+		if(slot < 0){
+			return ((Number)payload.attrValues.get(idx)).doubleValue();
+		}
+		long raw = payload.fixedSlots[slot];
+		TupleSchema.Type type = schema.getType(idx);
+		if(type == TupleSchema.Type.DOUBLE || type == TupleSchema.Type.FLOAT){
+			return Double.longBitsToDouble(raw);
+		}
+		return raw;
+	}
+	
+	public void setLongAt(int idx, long value){
+		if(schema != null && schema.isFixedWidth(idx)){
+			compact();
+			TupleSchema.Type type = schema.getType(idx);
+			payload.fixedSlots[schema.slotOf(idx)] = (type == TupleSchema.Type.DOUBLE || type == TupleSchema.Type.FLOAT) ?
+					Double.doubleToRawLongBits(value) : value;
+		}
+		else{
+			payload.attrValues.set(idx, value);
+		}
+	}
+	
+	public void setDoubleAt(int idx, double value){
+		if(schema != null && schema.isFixedWidth(idx)){
+			compact();
+			TupleSchema.Type type = schema.getType(idx);
+			payload.fixedSlots[schema.slotOf(idx)] = (type == TupleSchema.Type.DOUBLE || type == TupleSchema.Type.FLOAT) ?
+					Double.doubleToRawLongBits(value) : (long)value;
+		}
+		else{
+			payload.attrValues.set(idx, value);
+		}
+	}
+	
+	public boolean isCompact(){
+		return payload.fixedSlots != null;
+	}
+	
+	/**
+	 * Moves the fixed-width attributes of this tuple out of the boxed Payload into primitive slots. The
+	 * corresponding Payload entries are left null, all DataTupleI accessors keep working through the schema.
+	 */
+	public void compact(){
+		if(payload.fixedSlots != null || schema == null || !schema.hasFixedWidthAttributes()){
+			return;
+		}
+		long[] slots = new long[schema.getNumSlots()];
+		Payload values = payload.attrValues;
+		for(int i = 0; i < schema.size() && i < values.size(); i++){
+			int slot = schema.slotOf(i);
+			if(slot >= 0 && values.get(i) != null){
+				slots[slot] = schema.toSlot(i, values.get(i));
+				values.set(i, null);
+			}
+		}
+		payload.fixedSlots = slots;
+	}
+	
+	private int compactSlotOf(int idx){
+		if(payload.fixedSlots == null || schema == null) return -1;
+		return schema.slotOf(idx);
+	}
+	
+	private Object valueAt(int idx){
+		int slot = compactSlotOf(idx);
+		if(slot < 0){
+			return payload.attrValues.get(idx);
+		}
+		return schema.fromSlot(idx, payload.fixedSlots[slot]);
 	}
 	
 	@Override
 	public String toString(){
-		return payload.toString();
+		if(payload.fixedSlots == null){
+			return payload.toString();
+		}
+		StringBuffer sb = new StringBuffer();
+		sb.append("VAL ");
+		for(int i = 0; i < payload.attrValues.size(); i++){
+			sb.append(valueAt(i)+" ");
+		}
+		return sb.toString();
 	}
 	
 }
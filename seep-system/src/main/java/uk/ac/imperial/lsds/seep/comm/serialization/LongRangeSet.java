@@ -0,0 +1,462 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Imperial College London.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Raul Castro Fernandez - initial design and implementation
+ ******************************************************************************/
+package uk.ac.imperial.lsds.seep.comm.serialization;
+
+import it.unimi.dsi.fastutil.longs.AbstractLongIterator;
+import it.unimi.dsi.fastutil.longs.AbstractLongSet;
+import it.unimi.dsi.fastutil.longs.LongIterator;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.NoSuchElementException;
+
+/**
+ * Immutable set of longs stored as sorted, disjoint and non-adjacent closed ranges [starts[i], ends[i]]. Tuple ids
+ * acked or alive downstream are mostly consecutive, so they take a few ranges regardless of how many ids they cover.
+ * Membership is a binary search over the ranges, and the ids before each range are counted once when the set is
+ * built. Operations that change the set return a new one, which lets FailureCtrl hand out its sets without copying
+ * them.
+ */
+public final class LongRangeSet extends AbstractLongSet implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	public static final LongRangeSet EMPTY = new LongRangeSet(new long[0], new long[0], 0, 0);
+
+	private final long[] starts;
+	private final long[] ends;
+	private final int numRanges;
+	private final long count;
+	/** Number of ids in the ranges before each range **/
+	private final long[] before;
+	/** Hash of the set, 0 until computed **/
+	private transient int hash;
+
+	private LongRangeSet(long[] starts, long[] ends, int numRanges, long count){
+		this.starts = starts;
+		this.ends = ends;
+		this.numRanges = numRanges;
+		this.count = count;
+		this.before = new long[numRanges];
+		for(int i = 1; i < numRanges; i++){
+			before[i] = before[i - 1] + ends[i - 1] - starts[i - 1] + 1;
+		}
+	}
+
+	/** Builds a set from any collection of longs, reusing it if it already is a LongRangeSet **/
+	public static LongRangeSet copyOf(Collection<Long> ids){
+		if(ids == null || ids.isEmpty()){
+			return EMPTY;
+		}
+		if(ids instanceof LongRangeSet){
+			return (LongRangeSet) ids;
+		}
+		long[] sorted = new long[ids.size()];
+		int i = 0;
+		for(Long id : ids){
+			sorted[i++] = id;
+		}
+		return of(sorted);
+	}
+
+	public static LongRangeSet of(long... ids){
+		if(ids.length == 0){
+			return EMPTY;
+		}
+		long[] sorted = ids.clone();
+		Arrays.sort(sorted);
+		Builder b = new Builder(sorted.length);
+		for(long id : sorted){
+			b.add(id, id);
+		}
+		return b.build();
+	}
+
+	/** Builds a set from closed ranges [starts[i], ends[i]], which may overlap or be out of order **/
+	public static LongRangeSet ofRanges(long[] starts, long[] ends, int n){
+		boolean sorted = true;
+		for(int i = 1; i < n && sorted; i++){
+			sorted = starts[i - 1] <= starts[i];
+		}
+		Builder b = new Builder(n);
+		for(int i = 0; i < n; i++){
+			if(ends[i] < starts[i]){ continue; }
+			if(sorted){ b.add(starts[i], ends[i]); }
+			else{ b.addUnordered(starts[i], ends[i]); }
+		}
+		return b.build();
+	}
+
+	public static LongRangeSet range(long start, long end){
+		if(end < start){
+			return EMPTY;
+		}
+		return new LongRangeSet(new long[]{start}, new long[]{end}, 1, end - start + 1);
+	}
+
+	/**
+	 * Parses the range set format of RangeUtil, e.g. "[1:4),[7:8)". Returns the empty set for null or "".
+	 */
+	public static LongRangeSet parse(String rsStr){
+		if(rsStr == null || rsStr.isEmpty()){
+			return EMPTY;
+		}
+		Builder b = new Builder(4);
+		int from = 0;
+		while(from < rsStr.length()){
+			int to = rsStr.indexOf(',', from);
+			if(to < 0){ to = rsStr.length(); }
+			String range = rsStr.substring(from, to).trim();
+			from = to + 1;
+			if(range.isEmpty()){ continue; }
+			int colon = range.indexOf(':');
+			long lower = Long.parseLong(range.substring(1, colon));
+			long upper = Long.parseLong(range.substring(colon + 1, range.length() - 1));
+			if(range.charAt(0) == '('){ lower++; }
+			if(range.charAt(range.length() - 1) == ')'){ upper--; }
+			if(lower <= upper){
+				b.addUnordered(lower, upper);
+			}
+		}
+		return b.build();
+	}
+
+	/**
+	 * Same format as RangeUtil.toRangeSetStr, closed-open ranges separated by commas, or null if empty.
+	 */
+	public String toRangeString(){
+		if(numRanges == 0){
+			return null;
+		}
+		StringBuilder sb = new StringBuilder(numRanges * 16);
+		for(int i = 0; i < numRanges; i++){
+			if(i > 0){ sb.append(','); }
+			sb.append('[').append(starts[i]).append(':').append(ends[i] + 1).append(')');
+		}
+		return sb.toString();
+	}
+
+	public int numRanges(){
+		return numRanges;
+	}
+
+	public long rangeStart(int i){
+		return starts[i];
+	}
+
+	public long rangeEnd(int i){
+		return ends[i];
+	}
+
+	/** Number of ids in the set, which may exceed Integer.MAX_VALUE **/
+	public long count(){
+		return count;
+	}
+
+	@Override
+	public int size(){
+		return count > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) count;
+	}
+
+	@Override
+	public boolean isEmpty(){
+		return numRanges == 0;
+	}
+
+	public long first(){
+		if(numRanges == 0){ throw new NoSuchElementException(); }
+		return starts[0];
+	}
+
+	public long last(){
+		if(numRanges == 0){ throw new NoSuchElementException(); }
+		return ends[numRanges - 1];
+	}
+
+	@Override
+	public boolean contains(long id){
+		int i = rangeAtOrBefore(id);
+		return i >= 0 && id <= ends[i];
+	}
+
+	/** Number of ids in the set that are <= id **/
+	public long countAtMost(long id){
+		int i = rangeAtOrBefore(id);
+		if(i < 0){
+			return 0;
+		}
+		return before[i] + Math.min(id, ends[i]) - starts[i] + 1;
+	}
+
+	/** Index of the last range starting at or before id, -1 if none **/
+	private int rangeAtOrBefore(long id){
+		int lo = 0, hi = numRanges - 1;
+		while(lo <= hi){
+			int mid = (lo + hi) >>> 1;
+			if(starts[mid] <= id){ lo = mid + 1; }
+			else{ hi = mid - 1; }
+		}
+		return hi;
+	}
+
+	public LongRangeSet with(long id){
+		if(contains(id)){
+			return this;
+		}
+		return union(range(id, id));
+	}
+
+	public LongRangeSet union(LongRangeSet other){
+		if(other.numRanges == 0){ return this; }
+		if(numRanges == 0){ return other; }
+		Builder b = new Builder(numRanges + other.numRanges);
+		int i = 0, j = 0;
+		while(i < numRanges || j < other.numRanges){
+			if(j == other.numRanges || (i < numRanges && starts[i] <= other.starts[j])){
+				b.add(starts[i], ends[i]);
+				i++;
+			}
+			else{
+				b.add(other.starts[j], other.ends[j]);
+				j++;
+			}
+		}
+		return b.build();
+	}
+
+	/** The ids of this set greater than lw **/
+	public LongRangeSet above(long lw){
+		if(numRanges == 0 || starts[0] > lw){
+			return this;
+		}
+		if(ends[numRanges - 1] <= lw){
+			return EMPTY;
+		}
+		int i = rangeAtOrBefore(lw);
+		Builder b = new Builder(numRanges - i);
+		if(ends[i] > lw){
+			b.add(lw + 1, ends[i]);
+		}
+		for(int j = i + 1; j < numRanges; j++){
+			b.add(starts[j], ends[j]);
+		}
+		return b.build();
+	}
+
+	/** The ids of this set that are not in other **/
+	public LongRangeSet minus(LongRangeSet other){
+		if(numRanges == 0 || other.numRanges == 0){
+			return this;
+		}
+		Builder b = new Builder(numRanges + other.numRanges);
+		int j = 0;
+		for(int i = 0; i < numRanges; i++){
+			long start = starts[i];
+			long end = ends[i];
+			while(j < other.numRanges && other.ends[j] < start){ j++; }
+			int k = j;
+			while(start <= end && k < other.numRanges && other.starts[k] <= end){
+				if(other.starts[k] > start){
+					b.add(start, other.starts[k] - 1);
+				}
+				if(other.ends[k] >= end){
+					start = end + 1;
+				}
+				else{
+					start = other.ends[k] + 1;
+					k++;
+				}
+			}
+			if(start <= end){
+				b.add(start, end);
+			}
+		}
+		LongRangeSet result = b.build();
+		return result.count == count ? this : result;
+	}
+
+	@Override
+	public LongIterator iterator(){
+		return new AbstractLongIterator(){
+			private int range = 0;
+			private long next = numRanges > 0 ? starts[0] : 0;
+
+			public boolean hasNext(){
+				return range < numRanges;
+			}
+
+			public long nextLong(){
+				if(range >= numRanges){ throw new NoSuchElementException(); }
+				long result = next;
+				if(next == ends[range]){
+					range++;
+					if(range < numRanges){ next = starts[range]; }
+				}
+				else{
+					next++;
+				}
+				return result;
+			}
+		};
+	}
+
+	@Override
+	public boolean equals(Object o){
+		if(o == this){
+			return true;
+		}
+		if(o instanceof LongRangeSet){
+			LongRangeSet other = (LongRangeSet) o;
+			if(other.numRanges != numRanges || other.count != count){
+				return false;
+			}
+			for(int i = 0; i < numRanges; i++){
+				if(starts[i] != other.starts[i] || ends[i] != other.ends[i]){
+					return false;
+				}
+			}
+			return true;
+		}
+		return super.equals(o);
+	}
+
+	/**
+	 * Same hash as any other set of the same longs, the sum of (int) (id ^ (id >>> 32)) over its ids, but summed a
+	 * range at a time.
+	 */
+	@Override
+	public int hashCode(){
+		int h = hash;
+		if(h == 0 && numRanges > 0){
+			for(int i = 0; i < numRanges; i++){
+				h += rangeHash(starts[i], ends[i]);
+			}
+			hash = h;
+		}
+		return h;
+	}
+
+	/** Sum of the hashes of the ids in [start, end] **/
+	private static int rangeHash(long start, long end){
+		int high = (int) (start >> 32);
+		int lastHigh = (int) (end >> 32);
+		if(high == lastHigh){
+			return blockHash(high, start & 0xFFFFFFFFL, end & 0xFFFFFFFFL);
+		}
+		int h = blockHash(high, start & 0xFFFFFFFFL, 0xFFFFFFFFL) + blockHash(lastHigh, 0, end & 0xFFFFFFFFL);
+		// The ids of a whole block of 2^32 hash to every int once, which sum to 2^31
+		if((((long) lastHigh - high - 1) & 1) != 0){
+			h += Integer.MIN_VALUE;
+		}
+		return h;
+	}
+
+	/** Sum of (low ^ high) over the lows in [from, to], the ids of a block sharing their high 32 bits **/
+	private static int blockHash(int high, long from, long to){
+		long n = to - from + 1;
+		long h = 0;
+		for(int bit = 0; bit < 32; bit++){
+			long ones = onesUpTo(to, bit) - (from == 0 ? 0 : onesUpTo(from - 1, bit));
+			h += (((high >>> bit) & 1) == 0 ? ones : n - ones) << bit;
+		}
+		return (int) h;
+	}
+
+	/** Number of values in [0, x] with the bit set **/
+	private static long onesUpTo(long x, int bit){
+		long period = 1L << (bit + 1);
+		long half = 1L << bit;
+		return ((x + 1) / period) * half + Math.max(0, (x + 1) % period - half);
+	}
+
+	@Override
+	public String toString(){
+		String str = toRangeString();
+		return str == null ? "[]" : str;
+	}
+
+	/** Accumulates ranges, coalescing overlapping and adjacent ones **/
+	private static class Builder {
+		private long[] starts;
+		private long[] ends;
+		private int n = 0;
+		private long count = 0;
+		private boolean unordered = false;
+
+		Builder(int capacity){
+			starts = new long[Math.max(1, capacity)];
+			ends = new long[Math.max(1, capacity)];
+		}
+
+		/** Ranges must be added in order of their start **/
+		void add(long start, long end){
+			if(n > 0){
+				long last = ends[n - 1];
+				if(last == Long.MAX_VALUE){
+					return;
+				}
+				if(start <= last + 1){
+					if(end > last){
+						count += end - last;
+						ends[n - 1] = end;
+					}
+					return;
+				}
+			}
+			append(start, end);
+			count += end - start + 1;
+		}
+
+		/** Ranges in any order, coalesced by build() **/
+		void addUnordered(long start, long end){
+			unordered = true;
+			append(start, end);
+		}
+
+		private void append(long start, long end){
+			if(n == starts.length){
+				starts = Arrays.copyOf(starts, n * 2);
+				ends = Arrays.copyOf(ends, n * 2);
+			}
+			starts[n] = start;
+			ends[n] = end;
+			n++;
+		}
+
+		LongRangeSet build(){
+			if(n == 0){
+				return EMPTY;
+			}
+			if(unordered){
+				return rebuild();
+			}
+			return new LongRangeSet(starts, ends, n, count);
+		}
+
+		private LongRangeSet rebuild(){
+			Integer[] order = new Integer[n];
+			for(int i = 0; i < n; i++){ order[i] = i; }
+			final long[] s = starts;
+			Arrays.sort(order, new Comparator<Integer>(){
+				public int compare(Integer a, Integer b){
+					return Long.compare(s[a], s[b]);
+				}
+			});
+			Builder b = new Builder(n);
+			for(int i = 0; i < n; i++){
+				b.add(starts[order[i]], ends[order[i]]);
+			}
+			return b.build();
+		}
+	}
+}
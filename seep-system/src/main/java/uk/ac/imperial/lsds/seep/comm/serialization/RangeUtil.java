@@ -25,6 +25,9 @@ public class RangeUtil
 
 	public static String toRangeSetStr(Set<Long> ids)
 	{
+		// Already stored as ranges, no need to rebuild and verify them
+		if (ids instanceof LongRangeSet) { return ((LongRangeSet)ids).toRangeString(); }
+
 		RangeSet<Long> rsIds = toRangeSet(ids);
 		if (rsIds == null || rsIds.isEmpty()) { return null; }
 
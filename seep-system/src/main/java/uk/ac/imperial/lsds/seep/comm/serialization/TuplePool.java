@@ -0,0 +1,92 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Imperial College London.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Raul Castro Fernandez - initial design and implementation
+ ******************************************************************************/
+package uk.ac.imperial.lsds.seep.comm.serialization;
+
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+
+import uk.ac.imperial.lsds.seep.comm.serialization.messages.BatchTuplePayload;
+import uk.ac.imperial.lsds.seep.comm.serialization.messages.TuplePayload;
+
+/**
+ * Tuples received on an upstream connection, recycled rather than allocated for every batch (enabled with
+ * poolReceivedTuples). Batches are read into the same BatchTuplePayload, and each tuple is a DataTuple of the
+ * pool filled in place.
+ * 
+ * A tuple goes back to the pool when its last owner releases it: the data consumer once the operator processed
+ * it, or whoever retained it on top of that. A tuple sent downstream as is leaves the pool for good, since the
+ * output log keeps it until it is acked.
+ */
+public class TuplePool {
+
+	private final TupleSchema schema;
+	private final ArrayBlockingQueue<DataTuple> free;
+	
+	// Used by the receiving thread only
+	private final BatchTuplePayload batch = new BatchTuplePayload();
+	private final ArrayList<DataTuple> batchTuples = new ArrayList<DataTuple>();
+	private boolean batchComplete = true;
+
+	public TuplePool(TupleSchema schema, int capacity){
+		this.schema = schema;
+		this.free = new ArrayBlockingQueue<DataTuple>(capacity);
+	}
+	
+	/**
+	 * @return the batch to read the next one into, emptied
+	 */
+	public BatchTuplePayload nextBatch(){
+		if(!batchComplete){
+			// The previous read ran out of bytes half way, its tuples never left the pool
+			for(DataTuple dt : batchTuples){
+				recycle(dt);
+			}
+		}
+		batchTuples.clear();
+		batchComplete = false;
+		batch.batch.clear();
+		batch.batchSize = 0;
+		batch.outputTs = -1;
+		batch.rctrl = null;
+		batch.fctrl = null;
+		return batch;
+	}
+	
+	/**
+	 * @return the payload of a pooled tuple to read the next tuple of the batch into
+	 */
+	public TuplePayload acquire(){
+		DataTuple dt = free.poll();
+		if(dt == null){
+			dt = new DataTuple(schema, new TuplePayload());
+		}
+		dt.pooledBy(this);
+		batchTuples.add(dt);
+		return dt.getPayload();
+	}
+	
+	public void batchRead(){
+		batchComplete = true;
+	}
+	
+	/**
+	 * @return the tuple holding the payload at index i of the batch last read
+	 */
+	public DataTuple getBatchTuple(int i){
+		return batchTuples.get(i);
+	}
+	
+	void recycle(DataTuple dt){
+		dt.getPayload().dispatch_ts = 0;
+		// Beyond the capacity of the pool, leave it to the GC
+		free.offer(dt);
+	}
+}
@@ -0,0 +1,169 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Imperial College London.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Raul Castro Fernandez - initial design and implementation
+ ******************************************************************************/
+package uk.ac.imperial.lsds.seep.comm.serialization;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Compiled layout of the attributes an operator declares through _declareWorkingAttributes. Attribute names are
+ * resolved to integer offsets once, when the query is deployed, so the tuple hot path can use index based accessors.
+ * Attributes declared with a fixed-width type are additionally assigned a primitive slot, which lets a
+ * TuplePayload keep them unboxed in a long[] instead of the boxed Payload list.
+ */
+public class TupleSchema implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	public enum Type {
+		LONG, DOUBLE, INT, FLOAT, SHORT, BYTE, BOOLEAN, CHAR, OBJECT;
+
+		public boolean isFixedWidth(){
+			return this != OBJECT;
+		}
+	}
+
+	private static final TupleSchema EMPTY = new TupleSchema(new String[0], new Type[0]);
+
+	private final String[] names;
+	private final Type[] types;
+	private final int[] slots;
+	private final int numSlots;
+	private final HashMap<String, Integer> idxMapper;
+
+	private TupleSchema(String[] names, Type[] types){
+		this.names = names;
+		this.types = types;
+		this.slots = new int[names.length];
+		this.idxMapper = new HashMap<String, Integer>();
+		int nextSlot = 0;
+		for(int i = 0; i < names.length; i++){
+			idxMapper.put(names[i], i);
+			slots[i] = types[i].isFixedWidth() ? nextSlot++ : -1;
+		}
+		this.numSlots = nextSlot;
+	}
+
+	public static TupleSchema empty(){
+		return EMPTY;
+	}
+
+	/** Untyped schema, all attributes are kept boxed in the payload as before **/
+	public static TupleSchema fromAttributes(List<String> attributes){
+		return fromAttributes(attributes, null);
+	}
+
+	public static TupleSchema fromAttributes(List<String> attributes, List<Type> attributeTypes){
+		if(attributes == null){
+			return EMPTY;
+		}
+		if(attributeTypes != null && attributeTypes.size() != attributes.size()){
+			throw new IllegalArgumentException("Declared "+attributes.size()+" attributes but "+attributeTypes.size()+" types");
+		}
+		String[] names = attributes.toArray(new String[attributes.size()]);
+		Type[] types = new Type[names.length];
+		for(int i = 0; i < names.length; i++){
+			types[i] = (attributeTypes == null || attributeTypes.get(i) == null) ? Type.OBJECT : attributeTypes.get(i);
+		}
+		return new TupleSchema(names, types);
+	}
+
+	/** Offset of the attribute in the tuple, or -1 if it is not part of the schema **/
+	public int indexOf(String attribute){
+		Integer idx = idxMapper.get(attribute);
+		return idx == null ? -1 : idx;
+	}
+
+	public int size(){
+		return names.length;
+	}
+
+	public String getName(int idx){
+		return names[idx];
+	}
+
+	public Type getType(int idx){
+		return types[idx];
+	}
+
+	public boolean isFixedWidth(int idx){
+		return slots[idx] >= 0;
+	}
+
+	/** Primitive slot of a fixed-width attribute, or -1 for attributes kept boxed **/
+	public int slotOf(int idx){
+		return slots[idx];
+	}
+
+	public int getNumSlots(){
+		return numSlots;
+	}
+
+	public boolean hasFixedWidthAttributes(){
+		return numSlots > 0;
+	}
+
+	/** Name to offset mapping, kept for the DataTupleI accessors and legacy callers **/
+	public HashMap<String, Integer> getIdxMapper(){
+		return idxMapper;
+	}
+
+	/** Raw long encoding used for fixed-width attributes stored in TuplePayload.fixedSlots **/
+	public long toSlot(int idx, Object value){
+		switch(types[idx]){
+		case DOUBLE:
+			return Double.doubleToRawLongBits(((Number)value).doubleValue());
+		case FLOAT:
+			return Double.doubleToRawLongBits(((Number)value).floatValue());
+		case BOOLEAN:
+			return ((Boolean)value) ? 1L : 0L;
+		case CHAR:
+			return (Character)value;
+		default:
+			return ((Number)value).longValue();
+		}
+	}
+
+	/** Boxes a slot value back into the type declared for the attribute **/
+	public Object fromSlot(int idx, long raw){
+		switch(types[idx]){
+		case LONG:
+			return raw;
+		case DOUBLE:
+			return Double.longBitsToDouble(raw);
+		case INT:
+			return (int)raw;
+		case FLOAT:
+			return (float)Double.longBitsToDouble(raw);
+		case SHORT:
+			return (short)raw;
+		case BYTE:
+			return (byte)raw;
+		case BOOLEAN:
+			return raw != 0;
+		case CHAR:
+			return (char)raw;
+		default:
+			throw new IllegalStateException("Attribute "+names[idx]+" has no primitive slot");
+		}
+	}
+
+	@Override
+	public String toString(){
+		StringBuilder sb = new StringBuilder("TupleSchema[");
+		for(int i = 0; i < names.length; i++){
+			if(i > 0) sb.append(", ");
+			sb.append(names[i]).append(':').append(types[i]);
+		}
+		return sb.append(']').toString();
+	}
+}
@@ -1,121 +1,78 @@
 package uk.ac.imperial.lsds.seep.comm.serialization.controlhelpers;
 
-import java.util.HashSet;
-import java.util.Iterator;
 import java.util.Set;
 
-import uk.ac.imperial.lsds.seep.comm.serialization.RangeUtil;
+import uk.ac.imperial.lsds.seep.comm.serialization.LongRangeSet;
 
+/**
+ * Low watermark, acks above it and alives of a stream. The three are held in one immutable snapshot that is replaced
+ * under the lock on every change, so acks() and alives() hand out the current sets without copying them and the
+ * per-tuple isAcked/isAlive checks do not lock.
+ */
 public class FailureCtrl {
 
-	private volatile long lw;
-	private final Set<Long> acks;	//Change to linked set
-	private final Set<Long> alives;
+	private volatile State state;
 	private final Object lock = new Object(){};
 	
 	public FailureCtrl()
 	{
-		this(-1, new HashSet<Long>(), new HashSet<Long>());
+		this(-1, null, null);
 	}
 	
 	public FailureCtrl(long lw, Set<Long> acks, Set<Long> alives)
 	{
-		this.lw = lw;
-		this.acks = (acks == null ? new HashSet<Long>() : acks);
-		this.alives = (alives == null ? new HashSet<Long>() : alives);
-		//checkAcks();
-	}
-	
-	private FailureCtrl(FailureCtrl other)
-	{
-		//other.checkAcks();
-		this.lw = other.lw;
-		this.acks = new HashSet<>(other.acks());
-		this.alives = new HashSet<>(other.alives());
-		//checkAcks();
+		this.state = new State(lw, LongRangeSet.copyOf(acks), LongRangeSet.copyOf(alives));
 	}
 
 	public FailureCtrl copy() { return copy(true); }
 	public FailureCtrl copy(boolean keepAlives)
 	{
-		synchronized(lock)
-		{
-			return new FailureCtrl(this.lw(), this.acks(), keepAlives ? this.alives() : null); 
-		}
+		State s = state;
+		return new FailureCtrl(s.lw, s.acks, keepAlives ? s.alives : null); 
 	}
 
 	public FailureCtrl(String fctrl)
 	{
 		String[] splits = fctrl.split(":");
-		lw = Long.parseLong(splits[0]);
-		if (splits.length == 1)
-		{
-			acks = new HashSet<Long>();
-			alives = new HashSet<Long>();
-			return;
-		}
-		if (splits.length == 2)
-		{
-			acks = parseLongs(splits[1]);
-			alives = new HashSet<Long>();
-			return;
-		}
-		acks = parseLongs(splits[1]);
-		alives = parseLongs(splits[2]);
 		if (splits.length > 3) { throw new RuntimeException("Logic error - parsing bug: "+fctrl); }
-		//checkAcks();
+		long lw = Long.parseLong(splits[0]);
+		LongRangeSet acks = splits.length > 1 ? parseLongs(splits[1]) : LongRangeSet.EMPTY;
+		LongRangeSet alives = splits.length > 2 ? parseLongs(splits[2]) : LongRangeSet.EMPTY;
+		this.state = new State(lw, acks, alives);
 	}
 	
 	public String toString()
 	{
-		synchronized(lock)
-		{
-			//return lw + ":" + joinLongs(acks) + ":" + joinLongs(alives);
-			String ackStr = RangeUtil.toRangeSetStr(acks);
-			String aliveStr = RangeUtil.toRangeSetStr(alives);
-			return lw + ":" + (ackStr == null ? "" : ackStr) + ":" + (aliveStr == null ? "" : aliveStr);
-		}
-	}
-	
-	private String joinLongs(Set<Long> longs)
-	{
-		String longStr = "";
-		Iterator iter = longs.iterator();
-		while (iter.hasNext())
-		{
-			longStr += iter.next();
-			if (iter.hasNext()) { longStr += ","; }
-		}
-		return longStr;
+		State s = state;
+		String ackStr = s.acks.toRangeString();
+		String aliveStr = s.alives.toRangeString();
+		return s.lw + ":" + (ackStr == null ? "" : ackStr) + ":" + (aliveStr == null ? "" : aliveStr);
 	}
 	
-	private Set<Long> parseLongs(String longStr)
+	private LongRangeSet parseLongs(String longStr)
 	{
-		Set<Long> longs = new HashSet<Long>();
-		if ("".equals(longStr)) { return longs; }
+		if ("".equals(longStr)) { return LongRangeSet.EMPTY; }
 		String longSplits[] = longStr.split(",");
+		long[] longs = new long[longSplits.length];
 		for (int i = 0; i < longSplits.length; i++)
 		{
-			longs.add(Long.parseLong(longSplits[i]));
+			longs[i] = Long.parseLong(longSplits[i]);
 		}
-		return longs;
+		return LongRangeSet.of(longs);
 	}
 	
-	public long lw() { return lw;	}
+	public long lw() { return state.lw;	}
 	
-	public Set<Long> acks() { 
-		synchronized(lock) { return new HashSet<>(acks); }
-	}
-	public Set<Long> alives() { 
-		synchronized(lock) { return new HashSet<>(alives); }
-	}
+	/** Immutable, callers must not try to modify it **/
+	public LongRangeSet acks() { return state.acks; }
+	/** Immutable, callers must not try to modify it **/
+	public LongRangeSet alives() { return state.alives; }
 	
 	public boolean update(FailureCtrl other) { return update(other, true); }
-	public boolean update(FailureCtrl origOther, boolean updateAlives)
+	public boolean update(FailureCtrl other, boolean updateAlives)
 	{
-			FailureCtrl other = origOther.copy();
-			//other.checkAcks();
-			return update(other.lw(), other.acks(), updateAlives ? other.alives() : null);
+		State s = other.state;
+		return update(s.lw, s.acks, updateAlives ? s.alives : null);
 	}
 
 	/*	
@@ -173,78 +130,28 @@ public class FailureCtrl {
 	{
 		synchronized(lock)
 		{
-			//checkAcks();
-			if (!alives.isEmpty()) 
+			State s = state;
+			if (!s.alives.isEmpty()) 
 			{ 
 				throw new RuntimeException("Tmp: Logic error - only for sink."); 
 			}
 		
-			if (ts > lw && !acks().contains(ts))
+			if (ts > s.lw && !s.acks.contains(ts))
 			{
-				acks.add(ts);
-				for (long i = lw + 1; acks.contains(i); i++)
-				{
-					lw++;
-					acks.remove(lw);
-				}
+				state = State.normalize(s.lw, s.acks.with(ts), s.alives);
 			}
-
-			//checkAcks();
 		}
 	}
 	
 	public boolean update(long newLw, Set<Long> newAcks, Set<Long> newAlives)
 	{
-		boolean changed = false;
 		synchronized(lock)
 		{
-			//checkAcks();
-			long oldLw = lw;
-			if (newLw > lw) { changed = true; }
-			lw = Math.max(lw, newLw);
-			
-			int prevAcksSize = acks.size();
-			acks.addAll(newAcks);
-			
-			Iterator<Long> iter = acks.iterator();
-			while (iter.hasNext())
-			{
-				long nxtAck = iter.next();
-				if (nxtAck <= lw) 
-				{ 
-					iter.remove();
-					if (! newAcks.contains(nxtAck)) { changed = true; }
-				}
-			}
-		
-			//At this point, can assert everything in acks > lw.	
-			while(acks.contains(lw+1))
-			{
-				//if (acks.contains(lw)) { throw new RuntimeException("Logic error - off by one: oldLw="+oldLw+",newLw="+newLw+",lw="+lw+",acks="+acks); } 
-				changed = true;
-				acks.remove(lw+1);
-				lw++;
-			}
-			//if (acks.contains(lw)) { throw new RuntimeException("Logic error - off by one: oldLw="+oldLw+",newLw="+newLw+",lw="+lw+",acks="+acks); } 
-			//checkAcks();
-			
-			int prevAlivesSize = alives.size();
-			if (newAlives != null) {  
-				alives.addAll(newAlives);
-			}
-			
-			iter =  alives.iterator();
-			while (iter.hasNext())
-			{
-				long nxtAlive = iter.next();
-				if (nxtAlive <= lw || acks.contains(nxtAlive)) 
-				{ 
-					iter.remove(); 
-					if (newAlives == null || !newAlives.contains(nxtAlive)) { changed = true; }
-				}
-			}
-			//checkAcks();
-			return changed || prevAcksSize != acks.size() || prevAlivesSize != alives.size();
+			State s = state;
+			LongRangeSet alives = newAlives == null ? s.alives : s.alives.union(LongRangeSet.copyOf(newAlives));
+			State updated = State.normalize(Math.max(s.lw, newLw), s.acks.union(LongRangeSet.copyOf(newAcks)), alives);
+			state = updated;
+			return updated.lw != s.lw || !updated.acks.equals(s.acks) || !updated.alives.equals(s.alives);
 		}
 	}
 	
@@ -288,13 +195,14 @@ public class FailureCtrl {
 	{
 		synchronized(lock)
 		{
-			if (newAlive <= lw || acks.contains(newAlive) || alives.contains(newAlive))
+			State s = state;
+			if (newAlive <= s.lw || s.acks.contains(newAlive) || s.alives.contains(newAlive))
 			{
 				return false;
 			}
 			else
 			{
-				alives.add(newAlive);
+				state = new State(s.lw, s.acks, s.alives.with(newAlive));
 				return true;
 			}
 		}
@@ -304,16 +212,8 @@ public class FailureCtrl {
 	{
 		synchronized(lock)
 		{
-			alives.addAll(newAlives);
-			Iterator<Long> iter = alives.iterator();
-			while (iter.hasNext())
-			{
-				long nxtAlive = iter.next();
-				if (nxtAlive <= lw || acks.contains(nxtAlive))
-				{
-					iter.remove();
-				}
-			}
+			State s = state;
+			state = State.normalize(s.lw, s.acks, s.alives.union(LongRangeSet.copyOf(newAlives)));
 		}
 	}
 	
@@ -321,53 +221,56 @@ public class FailureCtrl {
 	{
 		synchronized(lock)
 		{
-			alives.clear();
-			updateAlives(newAlives);
+			State s = state;
+			state = State.normalize(s.lw, s.acks, LongRangeSet.copyOf(newAlives));
 		}	
 	}
 	
 	
 	public boolean isAcked(long ts)
 	{
-		synchronized(lock)
-		{
-			return ts <= lw || acks.contains(ts);
-		}
+		State s = state;
+		return ts <= s.lw || s.acks.contains(ts);
 	}
 
 	public boolean isAlive(long ts)
 	{
-		synchronized(lock)
-		{
-			return alives.contains(ts) && !isAcked(ts);
-		}
+		State s = state;
+		return s.alives.contains(ts) && !(ts <= s.lw || s.acks.contains(ts));
 	}
 
 	public long unacked(long ts)
 	{
-		synchronized(lock)
-		{
-			if (ts <= lw) { return 0; }
-			long unacked = ts - lw;
-			for (Long ack : acks) 
-			{ 
-				if (ack <= ts && ack > lw) 
-				{ unacked--; }
-			}
-			if (unacked != (ts - lw - acks.size())) { throw new RuntimeException("Logic error: unacked="+unacked+",ts="+ts+",ls="+lw+",acks.size="+acks.size()+",acks="+acks); }
-			return unacked; 
-		}
+		State s = state;
+		if (ts <= s.lw) { return 0; }
+		long unacked = ts - s.lw - s.acks.countAtMost(ts);
+		if (unacked < 0) { throw new RuntimeException("Logic error: unacked="+unacked+",ts="+ts+",ls="+s.lw+",acks.size="+s.acks.size()+",acks="+s.acks); }
+		return unacked; 
 	}
 
-	private void checkAcks()
+	private static class State
 	{
-			synchronized(lock)
+		final long lw;
+		final LongRangeSet acks;
+		final LongRangeSet alives;
+
+		State(long lw, LongRangeSet acks, LongRangeSet alives)
+		{
+			this.lw = lw;
+			this.acks = acks;
+			this.alives = alives;
+		}
+
+		/** Drops acks <= lw, advances lw over consecutive acks and drops alives that are acked. **/
+		static State normalize(long lw, LongRangeSet acks, LongRangeSet alives)
+		{
+			acks = acks.above(lw);
+			if (!acks.isEmpty() && acks.first() == lw + 1)
 			{
-				for (Long ack : acks)
-				{
-					if (ack <= lw) { throw new RuntimeException("Logic error: checkAcks lw="+lw+",acks.size="+acks.size()+",acks="+acks); } 
-				}
+				lw = acks.rangeEnd(0);
+				acks = acks.above(lw);
 			}
+			return new State(lw, acks, alives.above(lw).minus(acks));
+		}
 	}
-
 }
@@ -0,0 +1,52 @@
+package uk.ac.imperial.lsds.seep.comm.serialization.controlhelpers;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import uk.ac.imperial.lsds.seep.GLOBALS;
+
+/**
+ * Tracks the last full failure ctrl sent to each peer, so that in between full ones only the acks that are new since
+ * then are sent. Every delta carries everything since the last full failure ctrl rather than since the previous
+ * delta, so a dropped or overwritten delta loses nothing, and a lost full failure ctrl is made up for by the next one,
+ * fctrlFullEvery failure ctrls later. Lw and alives are always sent whole, receivers replace alives per downstream.
+ */
+public class FailureCtrlDeltas {
+
+	private final int fullEvery;
+	private final Map<Integer, FailureCtrl> lastFull = new HashMap<>();
+	private final Map<Integer, Integer> sinceFull = new HashMap<>();
+
+	public FailureCtrlDeltas()
+	{
+		this(Integer.parseInt(GLOBALS.valueFor("fctrlFullEvery")));
+	}
+
+	public FailureCtrlDeltas(int fullEvery)
+	{
+		this.fullEvery = fullEvery;
+	}
+
+	/** The failure ctrl to send to peer, full or with only the acks sent since the last full one removed. **/
+	public synchronized OpFailureCtrl next(int peer, int opId, FailureCtrl fctrl)
+	{
+		FailureCtrl current = fctrl.copy();
+		FailureCtrl full = lastFull.get(peer);
+		Integer sent = sinceFull.get(peer);
+		if (full == null || sent == null || sent + 1 >= fullEvery)
+		{
+			lastFull.put(peer, current);
+			sinceFull.put(peer, 0);
+			return new OpFailureCtrl(opId, current.lw(), current.acks(), current.alives());
+		}
+		sinceFull.put(peer, sent + 1);
+		return new OpFailureCtrl(opId, current.lw(), current.acks().minus(full.acks()), current.alives());
+	}
+
+	/** Next failure ctrl sent to peer will be a full one, e.g. after it reconnected. **/
+	public synchronized void reset(int peer)
+	{
+		lastFull.remove(peer);
+		sinceFull.remove(peer);
+	}
+}
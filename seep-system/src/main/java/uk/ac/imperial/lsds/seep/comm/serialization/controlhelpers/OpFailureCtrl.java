@@ -1,24 +1,21 @@
 package uk.ac.imperial.lsds.seep.comm.serialization.controlhelpers;
 
 import java.io.Serializable;
-import java.util.BitSet;
-import java.util.HashSet;
 import java.util.Set;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
-import uk.ac.imperial.lsds.seep.comm.serialization.RangeUtil;
+import uk.ac.imperial.lsds.seep.comm.serialization.LongRangeSet;
 
+/**
+ * Failure ctrl as sent to a peer. Serialized by OpFailureCtrlSerializer, with acks and alives delta encoded as ranges
+ * relative to lw. The acks may only be those not yet sent to the peer since its last full failure ctrl, see
+ * FailureCtrlDeltas, which is fine since receivers always merge acks into the failure ctrl they hold.
+ */
 public class OpFailureCtrl implements Serializable {
-	private static final Logger logger = LoggerFactory.getLogger(OpFailureCtrl.class);
+	private static final long serialVersionUID = 1L;
 	private int opId;
 	private long lw;
-	private BitSet acks;
-	private BitSet alives;
-	private String rsAcks;
-	private String rsAlives;
-	private boolean useBitSet = false;
+	private LongRangeSet acks = LongRangeSet.EMPTY;
+	private LongRangeSet alives = LongRangeSet.EMPTY;
 
 	public OpFailureCtrl() {}
 	
@@ -26,21 +23,8 @@ public class OpFailureCtrl implements Serializable {
 	{
 		this.opId = opId;
 		this.lw = lw;
-		if (useBitSet)
-		{
-			this.acks = toBitSet(lw, acks);
-			this.alives = toBitSet(lw, alives);
-			this.rsAcks = null;
-			this.rsAlives = null;
-		}
-		else
-		{
-			this.acks = null;
-			this.alives = null; 
-			this.rsAcks = RangeUtil.toRangeSetStr(acks);
-			this.rsAlives = RangeUtil.toRangeSetStr(alives);
-
-		}
+		this.acks = LongRangeSet.copyOf(acks);
+		this.alives = LongRangeSet.copyOf(alives);
 	}
 	
 	public int getOpId() {
@@ -58,85 +42,43 @@ public class OpFailureCtrl implements Serializable {
 		this.lw = lw;
 	}
 	
-	public Set<Long> getAcks() {
-		if (useBitSet)
-		{
-			return fromBitSet(lw, acks);
-		}
-		else
-		{
-			return RangeUtil.parseRangeSet(rsAcks);
-		}
+	public LongRangeSet getAcks() {
+		return acks;
 	}
 
 	public void setAcks(Set<Long> newAcks) {
-		if (useBitSet)
-		{
-			this.acks = toBitSet(lw, newAcks);
-		}
-		else
-		{
-			this.rsAcks = RangeUtil.toRangeSetStr(newAcks);
-		}
+		this.acks = LongRangeSet.copyOf(newAcks);
 	}
 
-	public Set<Long> getAlives() {
-		if (useBitSet)
-		{
-			return fromBitSet(lw, alives);
-		}
-		else
-		{
-			return RangeUtil.parseRangeSet(rsAlives);
-		}
+	public LongRangeSet getAlives() {
+		return alives;
 	}
 
 	public void setAlives(Set<Long> newAlives) {
-		if (useBitSet)
-		{
-			this.alives = toBitSet(lw, newAlives);
-		}
-		else
-		{
-			this.rsAlives = RangeUtil.toRangeSetStr(newAlives);
-		}
+		this.alives = LongRangeSet.copyOf(newAlives);
 	}
 
-	public FailureCtrl getFailureCtrl() 
+	/**
+	 * Folds in the acks of an older failure ctrl for the same peer that this one replaces before it was sent, so that
+	 * acks only present in the older one are not lost.
+	 */
+	public void coalesce(OpFailureCtrl older)
 	{
-		if (useBitSet)
-		{
-			return new FailureCtrl(lw, fromBitSet(lw, acks), fromBitSet(lw, alives));
-		}
-		else
-		{
-			return new FailureCtrl(lw, RangeUtil.parseRangeSet(rsAcks), RangeUtil.parseRangeSet(rsAlives));
-		}
+		lw = Math.max(lw, older.lw);
+		acks = acks.union(older.acks).above(lw);
+		alives = alives.above(lw).minus(acks);
 	}
-	
-	private BitSet toBitSet(long low, Set<Long> ids)
+
+	public FailureCtrl getFailureCtrl() 
 	{
-		if (ids == null || ids.isEmpty()) { return null; }
-		BitSet bits = new BitSet();
-		for (Long id : ids)
-		{
-			long offset = id - low;
-			if (offset > Integer.MAX_VALUE || offset < 0) { throw new RuntimeException("Logic error"); }
-			bits.set((int)offset);
-		}
-		//logger.trace("Converted "+low+","+ids+" to bitset "+bits);
-		return bits;
+		return new FailureCtrl(lw, acks, alives);
 	}
-	
-	private Set<Long> fromBitSet(long low, BitSet bits)
+
+	@Override
+	public String toString()
 	{
-		Set<Long> ids = new HashSet<>();
-		if (bits == null || bits.isEmpty()) { return ids; }
-		for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i+1))
-		{
-			ids.add(low + i);
-		}
-		//logger.trace("Converted bitset "+low+","+bits+" to ids "+ids);
-		return ids;
+		String ackStr = acks.toRangeString();
+		String aliveStr = alives.toRangeString();
+		return opId + "@" + lw + ":" + (ackStr == null ? "" : ackStr) + ":" + (aliveStr == null ? "" : aliveStr);
 	}
 }
@@ -58,7 +58,7 @@ public class BatchTuplePayload {
 		{
 			long tupleTs = iter.next().timestamp;
 			// Don't remove based on alives here - we're using this log for replay.
-			if (tupleTs <= otherFctrl.lw() || otherFctrl.acks().contains(tupleTs) /*|| otherFctrl.alives().contains(tupleTs)*/)
+			if (otherFctrl.isAcked(tupleTs) /*|| otherFctrl.alives().contains(tupleTs)*/)
 			{
 				iter.remove();
 				batchSize--;
@@ -79,7 +79,7 @@ public class BatchTuplePayload {
 		{
 			long tupleTs = iter.next().timestamp;
 			// Don't remove based on alives here - we're using this log for replay.
-			if (tupleTs <= otherFctrl.lw() || otherFctrl.acks().contains(tupleTs) /*|| otherFctrl.alives().contains(tupleTs)*/)
+			if (otherFctrl.isAcked(tupleTs) /*|| otherFctrl.alives().contains(tupleTs)*/)
 			{
 				return true;	
 			}
@@ -20,6 +20,10 @@ public class TuplePayload implements Serializable{
 	public Payload attrValues;
 	public long instrumentation_ts;
 	public long local_ts;
+	// Local time the tuple was handed to the dispatcher, for the output queue latency. Not sent downstream.
+	public transient long dispatch_ts;
+	// Fixed-width attributes of a compacted tuple (see TupleSchema), null when all values live in attrValues
+	public long[] fixedSlots;
 	
 	public TuplePayload(){
 		
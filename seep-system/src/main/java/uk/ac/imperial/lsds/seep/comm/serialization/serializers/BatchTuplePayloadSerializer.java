@@ -0,0 +1,118 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Imperial College London.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Raul Castro Fernandez - initial design and implementation
+ ******************************************************************************/
+package uk.ac.imperial.lsds.seep.comm.serialization.serializers;
+
+import java.util.ArrayList;
+
+import uk.ac.imperial.lsds.seep.comm.serialization.ControlTuple;
+import uk.ac.imperial.lsds.seep.comm.serialization.TuplePool;
+import uk.ac.imperial.lsds.seep.comm.serialization.TupleSchema;
+import uk.ac.imperial.lsds.seep.comm.serialization.messages.BatchTuplePayload;
+import uk.ac.imperial.lsds.seep.comm.serialization.messages.TuplePayload;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+/**
+ * Hand-written serializer for BatchTuplePayload. The batch header (size, outputTs and the piggybacked control) is
+ * written once, and the timestamp, instrumentation_ts and local_ts of each tuple are written as zig-zag varint deltas
+ * against the previous tuple of the batch, which usually fit in one or two bytes. Attribute values are written by
+ * TuplePayloadSerializer. The batch is prefixed with the length of the rest of it, so that a receiver reading the
+ * stream in chunks (see BatchFrameDecoder) decodes it only once all of it arrived.
+ */
+public class BatchTuplePayloadSerializer extends Serializer<BatchTuplePayload> {
+
+	private final TuplePayloadSerializer tupleSerializer;
+	// Batches are read into the instances of this pool when set, see TuplePool
+	private final TuplePool pool;
+	// Batches are written here first, to prefix them with their length. Kryo instances, and so their serializers,
+	// are not shared between threads
+	private final Output body = new Output(4096, -1);
+
+	public BatchTuplePayloadSerializer(TupleSchema schema){
+		this(schema, null);
+	}
+
+	public BatchTuplePayloadSerializer(TupleSchema schema, TuplePool pool){
+		this.tupleSerializer = new TuplePayloadSerializer(schema);
+		this.pool = pool;
+	}
+
+	@Override
+	public void write(Kryo kryo, Output output, BatchTuplePayload msg) {
+		body.clear();
+		writeBody(kryo, body, msg);
+		output.writeInt(body.position(), true);
+		output.writeBytes(body.getBuffer(), 0, body.position());
+	}
+
+	private void writeBody(Kryo kryo, Output output, BatchTuplePayload msg) {
+		ArrayList<TuplePayload> batch = msg.batch;
+		int size = batch.size();
+		output.writeInt(size, true);
+		output.writeLong(msg.outputTs, false);
+		output.writeBoolean(msg.rctrl != null);
+		if(msg.rctrl != null){
+			output.writeInt(msg.rctrl, false);
+		}
+		output.writeBoolean(msg.fctrl != null);
+		if(msg.fctrl != null){
+			kryo.writeObject(output, msg.fctrl);
+		}
+		long ts = 0, its = 0, lts = 0;
+		for(int i = 0; i < size; i++){
+			TuplePayload tp = batch.get(i);
+			output.writeLong(tp.timestamp - ts, false);
+			output.writeLong(tp.instrumentation_ts - its, false);
+			output.writeLong(tp.local_ts - lts, false);
+			ts = tp.timestamp;
+			its = tp.instrumentation_ts;
+			lts = tp.local_ts;
+			tupleSerializer.writeBody(kryo, output, tp);
+		}
+	}
+
+	@Override
+	public BatchTuplePayload read(Kryo kryo, Input input, Class<BatchTuplePayload> type) {
+		// Length of the batch, only needed by readers that have to know whether all of it arrived
+		input.readInt(true);
+		BatchTuplePayload msg = (pool != null) ? pool.nextBatch() : new BatchTuplePayload();
+		int size = input.readInt(true);
+		msg.outputTs = input.readLong(false);
+		if(input.readBoolean()){
+			msg.rctrl = input.readInt(false);
+		}
+		if(input.readBoolean()){
+			msg.fctrl = kryo.readObject(input, ControlTuple.class);
+		}
+		ArrayList<TuplePayload> batch = (pool != null) ? msg.batch : new ArrayList<TuplePayload>(size);
+		long ts = 0, its = 0, lts = 0;
+		for(int i = 0; i < size; i++){
+			TuplePayload tp = (pool != null) ? pool.acquire() : new TuplePayload();
+			ts += input.readLong(false);
+			its += input.readLong(false);
+			lts += input.readLong(false);
+			tp.timestamp = ts;
+			tp.instrumentation_ts = its;
+			tp.local_ts = lts;
+			tupleSerializer.readBody(kryo, input, tp);
+			batch.add(tp);
+		}
+		msg.batch = batch;
+		msg.batchSize = size;
+		if(pool != null){
+			pool.batchRead();
+		}
+		return msg;
+	}
+}
@@ -0,0 +1,75 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Imperial College London.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Raul Castro Fernandez - initial design and implementation
+ ******************************************************************************/
+package uk.ac.imperial.lsds.seep.comm.serialization.serializers;
+
+import uk.ac.imperial.lsds.seep.comm.serialization.LongRangeSet;
+import uk.ac.imperial.lsds.seep.comm.serialization.controlhelpers.OpFailureCtrl;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+/**
+ * Hand-written serializer for OpFailureCtrl. The op id and lw are varints, and acks and alives are written as a
+ * varint range count followed by, for every range, the distance of its start from the end of the previous range (or
+ * from lw for the first one) and its length. Ids close to lw, the common case, take a byte or two per range however
+ * large the ids are.
+ */
+public class OpFailureCtrlSerializer extends Serializer<OpFailureCtrl> {
+
+	@Override
+	public void write(Kryo kryo, Output output, OpFailureCtrl fctrl) {
+		output.writeInt(fctrl.getOpId(), false);
+		output.writeLong(fctrl.getLw(), false);
+		writeRanges(output, fctrl.getLw(), fctrl.getAcks());
+		writeRanges(output, fctrl.getLw(), fctrl.getAlives());
+	}
+
+	@Override
+	public OpFailureCtrl read(Kryo kryo, Input input, Class<OpFailureCtrl> type) {
+		OpFailureCtrl fctrl = new OpFailureCtrl();
+		fctrl.setOpId(input.readInt(false));
+		long lw = input.readLong(false);
+		fctrl.setLw(lw);
+		fctrl.setAcks(readRanges(input, lw));
+		fctrl.setAlives(readRanges(input, lw));
+		return fctrl;
+	}
+
+	private static void writeRanges(Output output, long lw, LongRangeSet ids){
+		int n = ids.numRanges();
+		output.writeInt(n, true);
+		long prev = lw;
+		for(int i = 0; i < n; i++){
+			// Not necessarily above lw, so signed
+			output.writeLong(ids.rangeStart(i) - prev, false);
+			output.writeLong(ids.rangeEnd(i) - ids.rangeStart(i), true);
+			prev = ids.rangeEnd(i);
+		}
+	}
+
+	private static LongRangeSet readRanges(Input input, long lw){
+		int n = input.readInt(true);
+		if(n == 0){
+			return LongRangeSet.EMPTY;
+		}
+		long[] starts = new long[n];
+		long[] ends = new long[n];
+		long prev = lw;
+		for(int i = 0; i < n; i++){
+			starts[i] = prev + input.readLong(false);
+			ends[i] = starts[i] + input.readLong(true);
+			prev = ends[i];
+		}
+		return LongRangeSet.ofRanges(starts, ends, n);
+	}
+}
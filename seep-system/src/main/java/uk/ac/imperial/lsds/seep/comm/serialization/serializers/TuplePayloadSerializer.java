@@ -0,0 +1,357 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Imperial College London.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Raul Castro Fernandez - initial design and implementation
+ ******************************************************************************/
+package uk.ac.imperial.lsds.seep.comm.serialization.serializers;
+
+import uk.ac.imperial.lsds.seep.comm.serialization.TupleSchema;
+import uk.ac.imperial.lsds.seep.comm.serialization.messages.Payload;
+import uk.ac.imperial.lsds.seep.comm.serialization.messages.TuplePayload;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+/**
+ * Hand-written serializer for TuplePayload. Attribute values are written with a one byte type tag followed by the
+ * raw value (varints for integral types), so no reflection, class ids or reference ids are involved. The wire format
+ * does not depend on schemas: the schema of the writer is only used to expand compacted tuples, and the schema of the
+ * reader is used to decode fixed-width attributes straight into primitive slots without boxing them.
+ */
+public class TuplePayloadSerializer extends Serializer<TuplePayload> {
+
+	static final byte NULL = 0;
+	static final byte LONG = 1;
+	static final byte INT = 2;
+	static final byte DOUBLE = 3;
+	static final byte FLOAT = 4;
+	static final byte SHORT = 5;
+	static final byte BYTE = 6;
+	static final byte FALSE = 7;
+	static final byte TRUE = 8;
+	static final byte CHAR = 9;
+	static final byte STRING = 10;
+	static final byte BYTE_ARRAY = 11;
+	static final byte INT_ARRAY = 12;
+	static final byte LONG_ARRAY = 13;
+	static final byte DOUBLE_ARRAY = 14;
+	static final byte FLOAT_ARRAY = 15;
+	static final byte STRING_ARRAY = 16;
+	static final byte OBJECT = 17;
+
+	private final TupleSchema schema;
+
+	public TuplePayloadSerializer(TupleSchema schema){
+		this.schema = schema;
+	}
+
+	@Override
+	public void write(Kryo kryo, Output output, TuplePayload tp) {
+		output.writeLong(tp.timestamp, false);
+		output.writeLong(tp.instrumentation_ts, false);
+		output.writeLong(tp.local_ts, false);
+		writeBody(kryo, output, tp);
+	}
+
+	@Override
+	public TuplePayload read(Kryo kryo, Input input, Class<TuplePayload> type) {
+		TuplePayload tp = new TuplePayload();
+		tp.timestamp = input.readLong(false);
+		tp.instrumentation_ts = input.readLong(false);
+		tp.local_ts = input.readLong(false);
+		readBody(kryo, input, tp);
+		return tp;
+	}
+
+	/** Schema id and attribute values, shared with BatchTuplePayloadSerializer **/
+	void writeBody(Kryo kryo, Output output, TuplePayload tp){
+		output.writeInt(tp.schemaId, true);
+		Payload values = tp.attrValues;
+		if(values == null){
+			output.writeInt(0, true);
+			return;
+		}
+		int size = values.size();
+		output.writeInt(size + 1, true);
+		if(tp.fixedSlots == null){
+			for(int i = 0; i < size; i++){
+				writeValue(kryo, output, values.get(i));
+			}
+			return;
+		}
+		if(schema == null || schema.getNumSlots() != tp.fixedSlots.length || schema.size() < size){
+			throw new KryoException("Compacted tuple does not match the schema of this serializer: "+schema);
+		}
+		for(int i = 0; i < size; i++){
+			if(schema.isFixedWidth(i)){
+				writeSlot(output, schema.getType(i), tp.fixedSlots[schema.slotOf(i)]);
+			}
+			else{
+				writeValue(kryo, output, values.get(i));
+			}
+		}
+	}
+
+	void readBody(Kryo kryo, Input input, TuplePayload tp){
+		tp.schemaId = input.readInt(true);
+		int size = input.readInt(true) - 1;
+		if(size < 0){
+			tp.attrValues = null;
+			tp.fixedSlots = null;
+			return;
+		}
+		// A pooled payload is read into in place, reusing its values and slots
+		Payload values = tp.attrValues;
+		if(values == null){
+			values = new Payload();
+			tp.attrValues = values;
+		}
+		else{
+			values.clear();
+		}
+		values.ensureCapacity(size);
+		long[] slots = null;
+		if(schema != null && schema.hasFixedWidthAttributes() && schema.size() == size){
+			slots = (tp.fixedSlots != null && tp.fixedSlots.length == schema.getNumSlots()) ? tp.fixedSlots : new long[schema.getNumSlots()];
+		}
+		for(int i = 0; i < size; i++){
+			byte tag = input.readByte();
+			if(slots != null && schema.isFixedWidth(i)){
+				if(isPrimitive(tag)){
+					slots[schema.slotOf(i)] = readSlot(input, tag, schema.getType(i));
+					values.add(null);
+					continue;
+				}
+				// Not what the schema promised, keep this tuple boxed
+				expand(values, slots);
+				slots = null;
+			}
+			values.add(readValue(kryo, input, tag));
+		}
+		tp.fixedSlots = slots;
+	}
+
+	private void expand(Payload values, long[] slots){
+		for(int j = 0; j < values.size(); j++){
+			if(schema.isFixedWidth(j)){
+				values.set(j, schema.fromSlot(j, slots[schema.slotOf(j)]));
+			}
+		}
+	}
+
+	private static boolean isPrimitive(byte tag){
+		return tag >= LONG && tag <= CHAR;
+	}
+
+	private static void writeSlot(Output output, TupleSchema.Type type, long raw){
+		switch(type){
+		case LONG:
+			output.writeByte(LONG);
+			output.writeLong(raw, false);
+			break;
+		case INT:
+			output.writeByte(INT);
+			output.writeInt((int)raw, false);
+			break;
+		case DOUBLE:
+			output.writeByte(DOUBLE);
+			output.writeDouble(Double.longBitsToDouble(raw));
+			break;
+		case FLOAT:
+			output.writeByte(FLOAT);
+			output.writeFloat((float)Double.longBitsToDouble(raw));
+			break;
+		case SHORT:
+			output.writeByte(SHORT);
+			output.writeShort((short)raw);
+			break;
+		case BYTE:
+			output.writeByte(BYTE);
+			output.writeByte((byte)raw);
+			break;
+		case BOOLEAN:
+			output.writeByte(raw != 0 ? TRUE : FALSE);
+			break;
+		case CHAR:
+			output.writeByte(CHAR);
+			output.writeChar((char)raw);
+			break;
+		default:
+			throw new KryoException("No primitive slot for type "+type);
+		}
+	}
+
+	private static long readSlot(Input input, byte tag, TupleSchema.Type type){
+		boolean floating = type == TupleSchema.Type.DOUBLE || type == TupleSchema.Type.FLOAT;
+		switch(tag){
+		case DOUBLE:
+			double d = input.readDouble();
+			return floating ? Double.doubleToRawLongBits(d) : (long)d;
+		case FLOAT:
+			float f = input.readFloat();
+			return floating ? Double.doubleToRawLongBits(f) : (long)f;
+		default:
+			long l = readIntegral(input, tag);
+			return floating ? Double.doubleToRawLongBits(l) : l;
+		}
+	}
+
+	private static long readIntegral(Input input, byte tag){
+		switch(tag){
+		case LONG:
+			return input.readLong(false);
+		case INT:
+			return input.readInt(false);
+		case SHORT:
+			return input.readShort();
+		case BYTE:
+			return input.readByte();
+		case FALSE:
+			return 0L;
+		case TRUE:
+			return 1L;
+		case CHAR:
+			return input.readChar();
+		default:
+			throw new KryoException("Not an integral tag: "+tag);
+		}
+	}
+
+	static void writeValue(Kryo kryo, Output output, Object o){
+		if(o == null){
+			output.writeByte(NULL);
+		}
+		else if(o instanceof Long){
+			output.writeByte(LONG);
+			output.writeLong((Long)o, false);
+		}
+		else if(o instanceof Integer){
+			output.writeByte(INT);
+			output.writeInt((Integer)o, false);
+		}
+		else if(o instanceof Double){
+			output.writeByte(DOUBLE);
+			output.writeDouble((Double)o);
+		}
+		else if(o instanceof Float){
+			output.writeByte(FLOAT);
+			output.writeFloat((Float)o);
+		}
+		else if(o instanceof String){
+			output.writeByte(STRING);
+			output.writeString((String)o);
+		}
+		else if(o instanceof byte[]){
+			byte[] a = (byte[])o;
+			output.writeByte(BYTE_ARRAY);
+			output.writeInt(a.length, true);
+			output.writeBytes(a);
+		}
+		else if(o instanceof Boolean){
+			output.writeByte(((Boolean)o) ? TRUE : FALSE);
+		}
+		else if(o instanceof Short){
+			output.writeByte(SHORT);
+			output.writeShort((Short)o);
+		}
+		else if(o instanceof Byte){
+			output.writeByte(BYTE);
+			output.writeByte((Byte)o);
+		}
+		else if(o instanceof Character){
+			output.writeByte(CHAR);
+			output.writeChar((Character)o);
+		}
+		else if(o instanceof int[]){
+			int[] a = (int[])o;
+			output.writeByte(INT_ARRAY);
+			output.writeInt(a.length, true);
+			output.writeInts(a, false);
+		}
+		else if(o instanceof long[]){
+			long[] a = (long[])o;
+			output.writeByte(LONG_ARRAY);
+			output.writeInt(a.length, true);
+			output.writeLongs(a, false);
+		}
+		else if(o instanceof double[]){
+			double[] a = (double[])o;
+			output.writeByte(DOUBLE_ARRAY);
+			output.writeInt(a.length, true);
+			output.writeDoubles(a);
+		}
+		else if(o instanceof float[]){
+			float[] a = (float[])o;
+			output.writeByte(FLOAT_ARRAY);
+			output.writeInt(a.length, true);
+			output.writeFloats(a);
+		}
+		else if(o instanceof String[]){
+			String[] a = (String[])o;
+			output.writeByte(STRING_ARRAY);
+			output.writeInt(a.length, true);
+			for(String s : a){
+				output.writeString(s);
+			}
+		}
+		else{
+			output.writeByte(OBJECT);
+			kryo.writeClassAndObject(output, o);
+		}
+	}
+
+	static Object readValue(Kryo kryo, Input input, byte tag){
+		switch(tag){
+		case NULL:
+			return null;
+		case LONG:
+			return input.readLong(false);
+		case INT:
+			return input.readInt(false);
+		case DOUBLE:
+			return input.readDouble();
+		case FLOAT:
+			return input.readFloat();
+		case SHORT:
+			return input.readShort();
+		case BYTE:
+			return input.readByte();
+		case FALSE:
+			return Boolean.FALSE;
+		case TRUE:
+			return Boolean.TRUE;
+		case CHAR:
+			return input.readChar();
+		case STRING:
+			return input.readString();
+		case BYTE_ARRAY:
+			return input.readBytes(input.readInt(true));
+		case INT_ARRAY:
+			return input.readInts(input.readInt(true), false);
+		case LONG_ARRAY:
+			return input.readLongs(input.readInt(true), false);
+		case DOUBLE_ARRAY:
+			return input.readDoubles(input.readInt(true));
+		case FLOAT_ARRAY:
+			return input.readFloats(input.readInt(true));
+		case STRING_ARRAY:
+			String[] a = new String[input.readInt(true)];
+			for(int i = 0; i < a.length; i++){
+				a[i] = input.readString();
+			}
+			return a;
+		case OBJECT:
+			return kryo.readClassAndObject(input);
+		default:
+			throw new KryoException("Unknown attribute tag: "+tag);
+		}
+	}
+}
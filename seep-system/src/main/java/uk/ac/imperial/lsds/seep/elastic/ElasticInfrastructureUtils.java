@@ -638,7 +638,7 @@ public class ElasticInfrastructureUtils {
 				//Copy the original operators to the new operatorContext
 				newOp.setOriginalDownstream(op.getOpContext().getOriginalDownstream());
 				//Copy the tuple declaration fields
-				newOp._declareWorkingAttributes(op.getOpContext().getDeclaredWorkingAttributes());
+				newOp._declareWorkingAttributes(op.getOpContext().getDeclaredWorkingAttributes(), op.getOpContext().getDeclaredWorkingAttributeTypes());
 				//Copy inputDataIngestionMode information
 				newOp.initializeInputDataIngestionModePerUpstream(op.getOpContext().getInputDataIngestionModePerUpstream());
                                 
@@ -666,7 +666,7 @@ public class ElasticInfrastructureUtils {
 				//Copy the original operators to the new operatorContext
 				newOp.setOriginalDownstream(op.getOpContext().getOriginalDownstream());
 				//Copy the tuple declaration fields
-				newOp._declareWorkingAttributes(op.getOpContext().getDeclaredWorkingAttributes());
+				newOp._declareWorkingAttributes(op.getOpContext().getDeclaredWorkingAttributes(), op.getOpContext().getDeclaredWorkingAttributeTypes());
 				//Copy inputDataIngestionMode information
 				newOp.initializeInputDataIngestionModePerUpstream(op.getOpContext().getInputDataIngestionModePerUpstream());
 				
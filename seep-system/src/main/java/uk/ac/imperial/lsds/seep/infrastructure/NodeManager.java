@@ -104,6 +104,12 @@ public class NodeManager{
 				LOG.info("Choosing separate control net with control ip="+controlIp); 
 				nodeDescr = new WorkerNodeDescription(InetAddress.getLocalHost(), controlIp, ownPort);
 			}
+			else if (GLOBALS.valueFor("nodeAddr") != null && !GLOBALS.valueFor("nodeAddr").equals(""))
+			{
+				InetAddress nodeIp = InetAddress.getByName(GLOBALS.valueFor("nodeAddr"));
+				LOG.info("Choosing configured data/control ip="+nodeIp);
+				nodeDescr = new WorkerNodeDescription(nodeIp, nodeIp, ownPort);
+			}
 			else
 			{
 				int preferredIndex = -1;
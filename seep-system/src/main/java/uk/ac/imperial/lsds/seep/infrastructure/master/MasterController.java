@@ -139,6 +139,23 @@ public class MasterController {
 		}
 	}
 	
+	/**
+	 * Deploys the submitted query and starts it, as console option 7 does, for running the master without
+	 * the console (e.g. in-process clusters). The query code is only sent to the nodes if it was composed
+	 * from a query jar.
+	 */
+	public void deployAndStart() throws ESFTRuntimeException{
+		deployQueryToNodes();
+		inf.start();
+	}
+
+	/**
+	 * Number of worker nodes attached to the master and not yet running an operator.
+	 */
+	public int getNodePoolSize(){
+		return inf.getNodePoolSize();
+	}
+	
 	public QueryPlan executeComposeFromQuery(String pathToJar, String definitionClass){
 		Class<?> baseI = null;
 		Object baseInstance = null;
@@ -198,8 +215,8 @@ public class MasterController {
 		//Finally deploy the new submitted query (instantiation, etc)
 		try {
 			// The code is previously sent to the nodes (when these attached to the master)
-			//Send code to nodes (query code)
-			inf.deployCodeToAllOperators();
+			//Send code to nodes (query code), unless they already have it (no query jar)
+			if (inf.getPathToQueryDefinition() != null) { inf.deployCodeToAllOperators(); }
 			inf.deployQuery();
 		}
 		catch (CodeDeploymentException e) {
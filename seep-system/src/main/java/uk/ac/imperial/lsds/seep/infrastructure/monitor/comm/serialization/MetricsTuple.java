@@ -12,9 +12,12 @@
 package uk.ac.imperial.lsds.seep.infrastructure.monitor.comm.serialization;
 
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import uk.ac.imperial.lsds.seep.infrastructure.monitor.latency.LatencySnapshot;
 import uk.ac.imperial.lsds.seep.infrastructure.monitor.policy.metric.MetricName;
 import uk.ac.imperial.lsds.seep.infrastructure.monitor.policy.metric.MetricValue;
 
@@ -22,9 +25,11 @@ public class MetricsTuple implements Serializable {
 
 	private int operatorId;
     private Map<MetricName,MetricValue> metrics;
+    private List<LatencySnapshot> latencies;
     
 	public MetricsTuple() {
         metrics = new HashMap<MetricName,MetricValue>();
+        latencies = new ArrayList<LatencySnapshot>();
 	}
 
 	public int getOperatorId() {
@@ -46,6 +51,17 @@ public class MetricsTuple implements Serializable {
     public Set<MetricName> metricNames() {
         return metrics.keySet();
     }
+    
+    /**
+     * @return Per-stage latencies of the operator in the last monitoring interval.
+     */
+    public List<LatencySnapshot> getLatencies() {
+        return latencies;
+    }
+    
+    public void setLatencies(List<LatencySnapshot> latencies) {
+        this.latencies = latencies;
+    }
 
     @Override
     public String toString() {
@@ -67,6 +83,7 @@ public class MetricsTuple implements Serializable {
         sb.deleteCharAt(sb.length() - 1);
         
         return "MetricsTuple{" + "operatorId=" + operatorId 
-                    + ", metrics=(" + sb.toString() + ")}";
+                    + ", metrics=(" + sb.toString() + ")"
+                    + ", latencies=" + latencies + "}";
     }
 }
@@ -10,9 +10,12 @@
  ******************************************************************************/
 package uk.ac.imperial.lsds.seep.infrastructure.monitor.comm.serialization;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import uk.ac.imperial.lsds.seep.infrastructure.monitor.Builder;
+import uk.ac.imperial.lsds.seep.infrastructure.monitor.latency.LatencySnapshot;
 import uk.ac.imperial.lsds.seep.infrastructure.monitor.policy.metric.MetricName;
 import uk.ac.imperial.lsds.seep.infrastructure.monitor.policy.metric.MetricValue;
 
@@ -29,6 +32,7 @@ public class MetricsTupleBuilder implements Builder<MetricsTuple> {
     
     private int operatorId;
     private Map<MetricName, MetricValue> metrics;
+    private List<LatencySnapshot> latencies;
     
     public static MetricsTupleBuilder tuple() {
         return new MetricsTupleBuilder();
@@ -39,6 +43,7 @@ public class MetricsTupleBuilder implements Builder<MetricsTuple> {
      */
     public MetricsTupleBuilder() {
         metrics = new HashMap<MetricName, MetricValue>();
+        latencies = new ArrayList<LatencySnapshot>();
     }
     
     /**
@@ -62,6 +67,16 @@ public class MetricsTupleBuilder implements Builder<MetricsTuple> {
         return this;
     }
     
+    /**
+     * Convenience builder method to add per-stage latencies to the tuple.
+     * @param snapshots Latency snapshots for the monitoring interval
+     * @return Builder instance to allow for chained calls to the builder.
+     */
+    public MetricsTupleBuilder withLatencies(List<LatencySnapshot> snapshots) {
+        latencies.addAll(snapshots);
+        return this;
+    }
+    
     /**
      * Builds tuple with the provided metric names and values.
      * @return Metrics tuple.
@@ -77,6 +92,8 @@ public class MetricsTupleBuilder implements Builder<MetricsTuple> {
             tuple.setMetricValue(name, value);
         }
         
+        tuple.setLatencies(new ArrayList<LatencySnapshot>(latencies));
+        
         return tuple;
     }
 }
@@ -0,0 +1,170 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Imperial College London
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Raul Castro Fernandez - initial API and implementation
+ ******************************************************************************/
+package uk.ac.imperial.lsds.seep.infrastructure.monitor.latency;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Log-linear histogram of latencies in microseconds, in the style of 
+ * HdrHistogram: values are counted in 128 sub-buckets per power of two, so
+ * any value is reported within 1% of what was recorded, with a fixed 
+ * footprint and no allocation when recording.
+ * 
+ * Recording is lock free and can be done from any number of threads. The
+ * histogram is read by interval: each snapshot covers the values recorded
+ * since the previous one. A value racing with a snapshot is counted in the 
+ * next interval instead of being lost.
+ */
+public class LatencyHistogram {
+    
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int SUB_BUCKET_HALF_COUNT = SUB_BUCKET_COUNT >> 1;
+    private static final int SUB_BUCKET_HALF_BITS = SUB_BUCKET_BITS - 1;
+    private static final int SUB_BUCKET_MASK = SUB_BUCKET_HALF_COUNT - 1;
+    
+    private static final int VALUE_BITS = 36;
+    
+    /**
+     * Values above this one (about 19 hours) are recorded as this one.
+     */
+    public static final long HIGHEST_TRACKABLE_VALUE = (1L << VALUE_BITS) - 1;
+    
+    private static final int LENGTH 
+            = (VALUE_BITS - SUB_BUCKET_BITS + 2) * SUB_BUCKET_HALF_COUNT;
+    
+    // Recorders increment the active counts, snapshots swap them with the
+    // inactive ones and drain them.
+    private volatile AtomicLongArray active;
+    private AtomicLongArray inactive;
+    
+    public LatencyHistogram() {
+        this.active = new AtomicLongArray(LENGTH);
+        this.inactive = new AtomicLongArray(LENGTH);
+    }
+    
+    /**
+     * Records a latency. Negative values (e.g. because of the skew between
+     * the clocks of two nodes) are recorded as 0.
+     * @param micros Latency in microseconds.
+     */
+    public void record(long micros) {
+        if(micros < 0) {
+            micros = 0;
+        } else if(micros > HIGHEST_TRACKABLE_VALUE) {
+            micros = HIGHEST_TRACKABLE_VALUE;
+        }
+        
+        active.incrementAndGet(indexOf(micros));
+    }
+    
+    /**
+     * Convenience method to record a latency measured in milliseconds.
+     * @param millis Latency in milliseconds.
+     */
+    public void recordMillis(long millis) {
+        record(millis * 1000);
+    }
+    
+    /**
+     * Takes a snapshot of the values recorded since the previous snapshot, and
+     * starts a new interval.
+     * @param stage Stage the histogram is kept for.
+     * @param peerOpId Upstream or downstream the histogram is kept for.
+     * @return Snapshot of the interval, with a count of 0 if nothing was recorded.
+     */
+    public synchronized LatencySnapshot intervalSnapshot(LatencyStage stage, int peerOpId) {
+        AtomicLongArray interval = active;
+        active = inactive;
+        inactive = interval;
+        
+        long[] counts = new long[LENGTH];
+        long total = 0;
+        double sum = 0;
+        int first = -1;
+        int last = -1;
+        
+        for(int i = 0; i < LENGTH; i++) {
+            long count = interval.getAndSet(i, 0);
+            if(count > 0) {
+                counts[i] = count;
+                total += count;
+                sum += count * (double) medianEquivalentValue(i);
+                
+                if(first < 0) {
+                    first = i;
+                }
+                last = i;
+            }
+        }
+        
+        LatencySnapshot snapshot = new LatencySnapshot(stage.getName(), peerOpId);
+        snapshot.setCount(total);
+        
+        if(total > 0) {
+            snapshot.setMin(lowestEquivalentValue(first));
+            snapshot.setMax(highestEquivalentValue(last));
+            snapshot.setMean(sum / total);
+            snapshot.setP50(valueAtPercentile(counts, total, 50.0));
+            snapshot.setP90(valueAtPercentile(counts, total, 90.0));
+            snapshot.setP99(valueAtPercentile(counts, total, 99.0));
+            snapshot.setP999(valueAtPercentile(counts, total, 99.9));
+        }
+        
+        return snapshot;
+    }
+    
+    private static long valueAtPercentile(long[] counts, long total, double percentile) {
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * total));
+        long seen = 0;
+        
+        for(int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if(seen >= rank) {
+                return highestEquivalentValue(i);
+            }
+        }
+        
+        return 0;
+    }
+    
+    static int indexOf(long value) {
+        int bucket = 64 - Long.numberOfLeadingZeros(value | (SUB_BUCKET_COUNT - 1)) 
+                - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> bucket);
+        
+        return (bucket << SUB_BUCKET_HALF_BITS) + subBucket;
+    }
+    
+    static long lowestEquivalentValue(int index) {
+        if(index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        
+        int bucket = (index >> SUB_BUCKET_HALF_BITS) - 1;
+        long subBucket = (index & SUB_BUCKET_MASK) + SUB_BUCKET_HALF_COUNT;
+        
+        return subBucket << bucket;
+    }
+    
+    static long highestEquivalentValue(int index) {
+        if(index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        
+        int bucket = (index >> SUB_BUCKET_HALF_BITS) - 1;
+        return lowestEquivalentValue(index) + (1L << bucket) - 1;
+    }
+    
+    private static long medianEquivalentValue(int index) {
+        return (lowestEquivalentValue(index) + highestEquivalentValue(index)) / 2;
+    }
+}
@@ -0,0 +1,130 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Imperial College London
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Raul Castro Fernandez - initial API and implementation
+ ******************************************************************************/
+package uk.ac.imperial.lsds.seep.infrastructure.monitor.latency;
+
+import java.io.Serializable;
+
+/**
+ * Summary of the latencies recorded for a stage during a monitoring interval,
+ * as exported to the monitoring master. All latencies are in microseconds.
+ */
+public class LatencySnapshot implements Serializable {
+    
+    private String stage;
+    private int peerOpId;
+    
+    private long count;
+    private long min;
+    private long max;
+    private double mean;
+    
+    private long p50;
+    private long p90;
+    private long p99;
+    private long p999;
+
+    /**
+     * Default constructor. A no-arguments constructor is needed in order to 
+     * support serialisation properly.
+     */
+    public LatencySnapshot() {
+    }
+    
+    public LatencySnapshot(String stage, int peerOpId) {
+        this.stage = stage;
+        this.peerOpId = peerOpId;
+    }
+
+    public String getStage() {
+        return stage;
+    }
+
+    /**
+     * @return Upstream or downstream operator the latencies were recorded for,
+     * or StageLatencies.LOCAL for the stages kept for the operator as a whole.
+     */
+    public int getPeerOpId() {
+        return peerOpId;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public void setCount(long count) {
+        this.count = count;
+    }
+
+    public long getMin() {
+        return min;
+    }
+
+    public void setMin(long min) {
+        this.min = min;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public void setMax(long max) {
+        this.max = max;
+    }
+
+    public double getMean() {
+        return mean;
+    }
+
+    public void setMean(double mean) {
+        this.mean = mean;
+    }
+
+    public long getP50() {
+        return p50;
+    }
+
+    public void setP50(long p50) {
+        this.p50 = p50;
+    }
+
+    public long getP90() {
+        return p90;
+    }
+
+    public void setP90(long p90) {
+        this.p90 = p90;
+    }
+
+    public long getP99() {
+        return p99;
+    }
+
+    public void setP99(long p99) {
+        this.p99 = p99;
+    }
+
+    public long getP999() {
+        return p999;
+    }
+
+    public void setP999(long p999) {
+        this.p999 = p999;
+    }
+
+    @Override
+    public String toString() {
+        String peer = (peerOpId == StageLatencies.LOCAL) ? "" : "@" + peerOpId;
+        
+        return stage + peer + "{count=" + count + ", min=" + min 
+                + ", mean=" + Math.round(mean) + ", p50=" + p50 + ", p90=" + p90 
+                + ", p99=" + p99 + ", p99.9=" + p999 + ", max=" + max + "}";
+    }
+}
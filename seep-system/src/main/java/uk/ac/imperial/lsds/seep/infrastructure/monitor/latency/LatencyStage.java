@@ -0,0 +1,39 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Imperial College London
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Raul Castro Fernandez - initial API and implementation
+ ******************************************************************************/
+package uk.ac.imperial.lsds.seep.infrastructure.monitor.latency;
+
+/**
+ * Stages a tuple goes through on its way through a node, each one with its
+ * own latency histograms (see StageLatencies).
+ */
+public enum LatencyStage {
+    
+    // Wait in the input queue, from reception to being pulled by the consumer
+    INPUT_QUEUE("input-queue"),
+    // Wait in a barrier for the batches of the other inputs with the same timestamp
+    BARRIER("barrier"),
+    // Time spent by the operator processing a tuple (or a barrier batch)
+    PROCESSING("processing"),
+    // Wait from being dispatched to being batched for a downstream
+    OUTPUT_QUEUE("output-queue"),
+    // Time from being batched upstream to being received, across clocks
+    NETWORK("network");
+    
+    private String name;
+    
+    LatencyStage(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+}
@@ -0,0 +1,99 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Imperial College London
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Raul Castro Fernandez - initial API and implementation
+ ******************************************************************************/
+package uk.ac.imperial.lsds.seep.infrastructure.monitor.latency;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Latency histograms of the operator hosted by this node, one per stage and
+ * peer: the upstream for the network, the logical input for the barrier, the
+ * downstream for the output queue, and LOCAL for the stages of the operator
+ * as a whole. The monitoring slave exports a snapshot of all of them every 
+ * monitoring interval.
+ * 
+ * Code recording for a fixed stage and peer should look the histogram up once
+ * and keep it, so that recording a latency costs a single atomic increment.
+ */
+public final class StageLatencies {
+    
+    /**
+     * Peer of the stages kept for the operator as a whole.
+     */
+    public static final int LOCAL = Integer.MIN_VALUE;
+    
+    private static final Map<LatencyStage, ConcurrentMap<Integer, LatencyHistogram>> histograms 
+            = new EnumMap<LatencyStage, ConcurrentMap<Integer, LatencyHistogram>>(LatencyStage.class);
+    
+    static {
+        for(LatencyStage stage : LatencyStage.values()) {
+            histograms.put(stage, new ConcurrentHashMap<Integer, LatencyHistogram>());
+        }
+    }
+    
+    private StageLatencies() {
+    }
+    
+    /**
+     * @param stage Stage to get the histogram for.
+     * @param peerOpId Upstream, logical input or downstream of the stage, or
+     * LOCAL.
+     * @return Histogram of the stage for the peer, created on first use.
+     */
+    public static LatencyHistogram histogram(LatencyStage stage, int peerOpId) {
+        ConcurrentMap<Integer, LatencyHistogram> byPeer = histograms.get(stage);
+        LatencyHistogram histogram = byPeer.get(peerOpId);
+        
+        if(histogram == null) {
+            histogram = new LatencyHistogram();
+            LatencyHistogram existing = byPeer.putIfAbsent(peerOpId, histogram);
+            if(existing != null) {
+                histogram = existing;
+            }
+        }
+        
+        return histogram;
+    }
+    
+    /**
+     * Convenience method for the stages kept for the operator as a whole.
+     */
+    public static LatencyHistogram histogram(LatencyStage stage) {
+        return histogram(stage, LOCAL);
+    }
+    
+    /**
+     * Takes a snapshot of every histogram, starting a new interval for all of
+     * them.
+     * @return Snapshots of the histograms with latencies recorded in the interval.
+     */
+    public static List<LatencySnapshot> intervalSnapshots() {
+        List<LatencySnapshot> snapshots = new ArrayList<LatencySnapshot>();
+        
+        for(Map.Entry<LatencyStage, ConcurrentMap<Integer, LatencyHistogram>> stage 
+                : histograms.entrySet()) {
+            for(Map.Entry<Integer, LatencyHistogram> peer : stage.getValue().entrySet()) {
+                LatencySnapshot snapshot = peer.getValue()
+                        .intervalSnapshot(stage.getKey(), peer.getKey());
+                
+                if(snapshot.getCount() > 0) {
+                    snapshots.add(snapshot);
+                }
+            }
+        }
+        
+        return snapshots;
+    }
+}
@@ -24,6 +24,7 @@ import uk.ac.imperial.lsds.seep.infrastructure.monitor.Observable;
 import uk.ac.imperial.lsds.seep.infrastructure.monitor.Stoppable;
 import uk.ac.imperial.lsds.seep.infrastructure.monitor.comm.serialization.MetricsDeserializer;
 import uk.ac.imperial.lsds.seep.infrastructure.monitor.comm.serialization.MetricsTuple;
+import uk.ac.imperial.lsds.seep.infrastructure.monitor.latency.LatencySnapshot;
 import uk.ac.imperial.lsds.seep.infrastructure.monitor.policy.evaluate.AbstractEvaluator;
 import uk.ac.imperial.lsds.seep.infrastructure.monitor.policy.metric.MetricName;
 import uk.ac.imperial.lsds.seep.infrastructure.monitor.policy.metric.MetricValue;
@@ -81,6 +82,12 @@ public class MonitorMasterWorker
             
             if (tuple != null) {
                 logger.debug("Received tuple from slave " + tuple.toString());
+                
+                // Stage latencies are only reported, policies do not use them
+                for(LatencySnapshot latency : tuple.getLatencies()) {
+                    logger.info("Operator " + tuple.getOperatorId() 
+                            + " latency (us) " + latency.toString());
+                }
 
                 // Use policy evaluator to evaluate the all rules 
                 evaluator.evaluate(new MetricReadingProvider() {
@@ -17,6 +17,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import uk.ac.imperial.lsds.seep.infrastructure.monitor.comm.serialization.MetricsTuple;
 import uk.ac.imperial.lsds.seep.infrastructure.monitor.comm.serialization.MetricsTupleBuilder;
+import uk.ac.imperial.lsds.seep.infrastructure.monitor.latency.StageLatencies;
 import uk.ac.imperial.lsds.seep.infrastructure.monitor.policy.metric.MetricName;
 import uk.ac.imperial.lsds.seep.infrastructure.monitor.policy.metric.MetricValue;
 import uk.ac.imperial.lsds.seep.infrastructure.monitor.slave.reader.MetricsReader;
@@ -85,6 +86,9 @@ public class MonitorSlaveProcessor implements Processor {
             }
         }
         
+        // Latencies per stage recorded since the previous tuple
+        builder.withLatencies(StageLatencies.intervalSnapshots());
+        
         MetricsTuple tuple = builder.build();
         logger.debug("Tuple built by slave " + tuple.toString());
         
@@ -0,0 +1,253 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Imperial College London.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Raul Castro Fernandez - initial design and implementation
+ ******************************************************************************/
+package uk.ac.imperial.lsds.seep.manet;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.Collections;
+import java.util.Random;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import uk.ac.imperial.lsds.seep.GLOBALS;
+
+/**
+ * Emulates the links of the data connections of this node, for running several nodes on one host (e.g. the
+ * in-process cluster of seep-benchmarks). Data received is delayed by linkDelay ms, and a chunk of it is
+ * "lost" with probability linkLossRate, which over TCP shows up as a retransmission after linkLossRto ms that
+ * also holds back the data behind it. {@link #fail()} cuts the node off the data plane: its data connections are
+ * closed and new ones refused, as if it had crashed. Connections read by NioIngress can only be failed, delay and
+ * loss need the blocking reads of {@link #input(Socket)}.
+ */
+public class LinkEmulator {
+	private static final Logger logger = LoggerFactory.getLogger(LinkEmulator.class);
+	private static final int CHUNK_SIZE = 8192;
+
+	private static final long delay = Long.parseLong(GLOBALS.valueFor("linkDelay"));
+	private static final double lossRate = Double.parseDouble(GLOBALS.valueFor("linkLossRate"));
+	private static final long lossRto = Long.parseLong(GLOBALS.valueFor("linkLossRto"));
+	private static final Random random = new Random();
+
+	private static final Set<Socket> sockets = Collections.newSetFromMap(new WeakHashMap<Socket, Boolean>());
+	private static volatile boolean failed = false;
+
+	private LinkEmulator() {}
+
+	/**
+	 * Input stream of an incoming data connection, through the emulated link.
+	 */
+	public static InputStream input(Socket socket) throws IOException {
+		register(socket);
+		if (delay <= 0 && lossRate <= 0) { return new FailableInputStream(socket.getInputStream()); }
+		return new DelayedInputStream(socket.getInputStream());
+	}
+
+	/**
+	 * Output stream of an outgoing data connection. Delay and loss are emulated where the data is received.
+	 */
+	public static OutputStream output(Socket socket) throws IOException {
+		register(socket);
+		return new FailableOutputStream(socket.getOutputStream());
+	}
+
+	/**
+	 * Closes all the data connections of this node and refuses new ones from now on.
+	 */
+	public static void fail() {
+		logger.warn("Failing node, closing its data connections.");
+		failed = true;
+		synchronized(sockets)
+		{
+			for (Socket socket : sockets)
+			{
+				try { socket.close(); } catch (IOException e) {}
+			}
+			sockets.clear();
+		}
+	}
+
+	public static boolean isFailed() {
+		return failed;
+	}
+
+	/**
+	 * Whether data received is delayed or lost, which connections not read through {@link #input(Socket)} miss.
+	 */
+	public static boolean emulatesLinks() {
+		return delay > 0 || lossRate > 0;
+	}
+
+	/**
+	 * Adds a data connection that is not read through {@link #input(Socket)} (e.g. by NioIngress) to those closed
+	 * by {@link #fail()}. Closes it and throws if the node has already failed.
+	 */
+	public static void register(Socket socket) throws IOException {
+		synchronized(sockets)
+		{
+			if (failed)
+			{
+				socket.close();
+				throw new IOException("Node failed");
+			}
+			sockets.add(socket);
+		}
+	}
+
+	private static void checkFailed() throws IOException {
+		if (failed) { throw new IOException("Node failed"); }
+	}
+
+	private static class FailableInputStream extends InputStream {
+		private final InputStream in;
+
+		FailableInputStream(InputStream in) { this.in = in; }
+
+		@Override
+		public int read() throws IOException {
+			checkFailed();
+			return in.read();
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			checkFailed();
+			return in.read(b, off, len);
+		}
+
+		@Override
+		public int available() throws IOException { return in.available(); }
+
+		@Override
+		public void close() throws IOException { in.close(); }
+	}
+
+	private static class FailableOutputStream extends OutputStream {
+		private final OutputStream out;
+
+		FailableOutputStream(OutputStream out) { this.out = out; }
+
+		@Override
+		public void write(int b) throws IOException {
+			checkFailed();
+			out.write(b);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			checkFailed();
+			out.write(b, off, len);
+		}
+
+		@Override
+		public void flush() throws IOException {
+			checkFailed();
+			out.flush();
+		}
+
+		@Override
+		public void close() throws IOException { out.close(); }
+	}
+
+	/**
+	 * Delay line: a pump thread reads the connection as the data arrives and the reader is only handed each chunk
+	 * once its release time has passed. Release times never decrease, so data stays in order, as over TCP.
+	 */
+	private static class DelayedInputStream extends InputStream {
+		private static final Chunk EOF = new Chunk(0, null, 0);
+		private final LinkedBlockingQueue<Chunk> chunks = new LinkedBlockingQueue<>();
+		private volatile IOException error = null;
+		private Chunk current = null;
+		private int pos = 0;
+
+		DelayedInputStream(final InputStream in) {
+			Thread pump = new Thread(new Runnable() {
+				public void run() {
+					long lastRelease = 0;
+					try
+					{
+						while (true)
+						{
+							byte[] buf = new byte[CHUNK_SIZE];
+							int n = in.read(buf);
+							if (n < 0) { break; }
+							long release = System.currentTimeMillis() + delay;
+							if (lossRate > 0 && random.nextDouble() < lossRate) { release += lossRto; }
+							lastRelease = Math.max(lastRelease, release);
+							chunks.add(new Chunk(lastRelease, buf, n));
+						}
+					}
+					catch (IOException e) { error = e; }
+					chunks.add(EOF);
+				}
+			}, "link-emulator");
+			pump.setDaemon(true);
+			pump.start();
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			checkFailed();
+			if (len == 0) { return 0; }
+			if (current == null || pos == current.length)
+			{
+				try { current = chunks.take(); }
+				catch (InterruptedException e) { throw new IOException(e); }
+				pos = 0;
+				if (current == EOF)
+				{
+					chunks.add(EOF);
+					if (error != null) { throw error; }
+					return -1;
+				}
+				long wait = current.release - System.currentTimeMillis();
+				if (wait > 0)
+				{
+					try { Thread.sleep(wait); }
+					catch (InterruptedException e) { throw new IOException(e); }
+				}
+				checkFailed();
+			}
+			int n = Math.min(len, current.length - pos);
+			System.arraycopy(current.data, pos, b, off, n);
+			pos += n;
+			return n;
+		}
+
+		@Override
+		public int available() {
+			return current == null ? 0 : current.length - pos;
+		}
+	}
+
+	private static class Chunk {
+		final long release;
+		final byte[] data;
+		final int length;
+
+		Chunk(long release, byte[] data, int length) {
+			this.release = release;
+			this.data = data;
+			this.length = length;
+		}
+	}
+}
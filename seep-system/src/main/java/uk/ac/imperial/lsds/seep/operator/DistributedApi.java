@@ -11,13 +11,13 @@
 package uk.ac.imperial.lsds.seep.operator;
 
 import java.io.Serializable;
-import java.util.HashMap;
 import java.util.Map;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import uk.ac.imperial.lsds.seep.comm.serialization.DataTuple;
+import uk.ac.imperial.lsds.seep.comm.serialization.TupleSchema;
 
 public class DistributedApi implements API, CommunicationPrimitives, Serializable{
 	private static final Logger logger = LoggerFactory.getLogger(DistributedApi.class);
@@ -129,15 +129,16 @@ public class DistributedApi implements API, CommunicationPrimitives, Serializabl
 	}
 	
 	public Map<String, Integer> getDataMapper(){
-		Map<String, Integer> mapper = new HashMap<String, Integer>();
-		for(int i = 0; i<op.getOpContext().getDeclaredWorkingAttributes().size(); i++){
-			mapper.put(op.getOpContext().getDeclaredWorkingAttributes().get(i), i);
-		}
+		Map<String, Integer> mapper = op.getOpContext().getTupleSchema().getIdxMapper();
 		logger.info("Declared working attributes = "+op.getOpContext().getDeclaredWorkingAttributes());
 		logger.info("Mapper = "+mapper);
 		return mapper;
 	}
 	
+	public TupleSchema getTupleSchema(){
+		return op.getOpContext().getTupleSchema();
+	}
+	
 	// System configuration
 	
 	public void disableCheckpointing(){
@@ -0,0 +1,21 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Imperial College London.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Raul Castro Fernandez - initial design and implementation
+ ******************************************************************************/
+package uk.ac.imperial.lsds.seep.operator;
+
+/**
+ * Implemented by stateful operators whose processData only reads and writes the state of the key of the tuple
+ * being processed, and no fields shared across keys. Only these operators have their input partitioned on the
+ * key among several threads (operatorWorkers), because SPU releases its lock while sending, so the tuples of
+ * different keys may be processed at the same time.
+ */
+public interface KeyLocalProcessing {
+
+}
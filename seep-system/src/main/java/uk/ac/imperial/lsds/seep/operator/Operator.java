@@ -22,6 +22,7 @@ import org.slf4j.LoggerFactory;
 import uk.ac.imperial.lsds.seep.comm.routing.IRoutingObserver;
 import uk.ac.imperial.lsds.seep.comm.routing.Router;
 import uk.ac.imperial.lsds.seep.comm.serialization.DataTuple;
+import uk.ac.imperial.lsds.seep.comm.serialization.TupleSchema;
 import uk.ac.imperial.lsds.seep.processingunit.IProcessingUnit;
 import uk.ac.imperial.lsds.seep.processingunit.StatefulProcessingUnit;
 import uk.ac.imperial.lsds.seep.state.StateWrapper;
@@ -108,11 +109,13 @@ public class Operator implements Serializable, EndPoint, Connectable, Callback {
 	}
 
 	/** Methods used by the developers to send data **/
+	// Tuples sent are owned by the output log from then on, so a pooled input tuple sent as is leaves its pool
 
 	// Send downstream in round robin fashion
 	public synchronized void send(DataTuple dt){
 		// We check the targets with our routers
 		ArrayList<Integer> targets = router.forward(dt);
+		dt.detach();
 		processingUnit.sendData(dt, targets);
 	}
 
@@ -120,6 +123,7 @@ public class Operator implements Serializable, EndPoint, Connectable, Callback {
 	public synchronized void send_lowestCost(DataTuple dt){
 		// We check the targets with our routers
 		ArrayList<Integer> targets = router.forward_lowestCost(dt);
+		dt.detach();
 		processingUnit.sendData(dt, targets);
 	}
 
@@ -145,6 +149,7 @@ public class Operator implements Serializable, EndPoint, Connectable, Callback {
 		
 		processingUnit.sendDataDispatched(dt, targets);
 		*/
+		dt.detach();
 		processingUnit.sendDataDispatched(dt);
 	}
 
@@ -152,6 +157,7 @@ public class Operator implements Serializable, EndPoint, Connectable, Callback {
 	public synchronized void send_toIndex(DataTuple dt, int idx){
 		ArrayList<Integer> targets = new ArrayList<Integer>();
 		targets.add(idx);
+		dt.detach();
 		processingUnit.sendData(dt, targets);
 	}
 
@@ -160,6 +166,9 @@ public class Operator implements Serializable, EndPoint, Connectable, Callback {
 		for(int idx : idxs){
 			targets.add(idx);
 		}
+		for(DataTuple dt : dts){
+			dt.detach();
+		}
 		processingUnit.sendPartitionedData(dts, targets);
 	}
 
@@ -167,24 +176,28 @@ public class Operator implements Serializable, EndPoint, Connectable, Callback {
 	public synchronized void send_splitKey(DataTuple dt, int key){
 		// We check the targets with our routers
 		ArrayList<Integer> targets = router.forward_splitKey(dt, key);
+		dt.detach();
 		processingUnit.sendData(dt, targets);
 	}
 
 	// Send to specific streamId in round robin
 	public synchronized void send_toStreamId(DataTuple dt, int streamId){
 		ArrayList<Integer> targets = router.forward_toOp(dt, streamId);
+		dt.detach();
 		processingUnit.sendData(dt, targets);
 	}
 
 	// Send to stateful partition of a given streamId
 	public synchronized void send_toStreamId_splitKey(DataTuple dt, int streamId, int key){
 		ArrayList<Integer> targets = router.forward_toOp_splitKey(dt, streamId, key);
+		dt.detach();
 		processingUnit.sendData(dt, targets);
 	}
 
 	// Send to all instances of a specific streamId
 	public synchronized void send_toStreamId_toAll(DataTuple dt, int streamId){
 		ArrayList<Integer> targets = router.forwardToAllOpsInStreamId(dt, streamId);
+		dt.detach();
 		processingUnit.sendData(dt, targets);
 	}
 
@@ -192,18 +205,21 @@ public class Operator implements Serializable, EndPoint, Connectable, Callback {
 	public void send_all(DataTuple dt){
 		// When routing to all, targets are all the logical downstreamoperators
 		ArrayList<Integer> targets = router.forwardToAllDownstream(dt);
+		dt.detach();
 		processingUnit.sendData(dt, targets);
 	}
 
 
 	public synchronized void send_toStreamId_toAll_threadPool(DataTuple dt, int streamId){
 		ArrayList<Integer> targets = router.forwardToAllOpsInStreamId(dt, streamId);
+		dt.detach();
 		processingUnit.sendDataByThreadPool(dt, targets);
 	}
 
 	public void send_all_threadPool(DataTuple dt){
 		// When routing to all, targets are all the logical downstreamoperators
 		ArrayList<Integer> targets = router.forwardToAllDownstream(dt);
+		dt.detach();
 		processingUnit.sendDataByThreadPool(dt, targets);
 	}
 
@@ -264,6 +280,18 @@ public class Operator implements Serializable, EndPoint, Connectable, Callback {
 		opContext.setDeclaredWorkingAttributes(attributes);
 	}
 
+	/** Declaring types lets fixed-width attributes be kept in primitive slots, see TupleSchema **/
+	public void _declareWorkingAttributes(List<String> attributes, List<TupleSchema.Type> types){
+		opContext.setDeclaredWorkingAttributes(attributes);
+		opContext.setDeclaredWorkingAttributeTypes(types);
+	}
+
+	public void _declareWorkingAttributes(List<String> attributes, List<TupleSchema.Type> types, String key){
+		opContext.setKeyAttribute(key);
+		opContext.setDeclaredWorkingAttributes(attributes);
+		opContext.setDeclaredWorkingAttributeTypes(types);
+	}
+
 	public void initializeInputDataIngestionModePerUpstream(Map<Integer, InputDataIngestionMode> idim){
 		for(Integer opId : idim.keySet()){
 			this.getOpContext().setInputDataIngestionModePerUpstream(opId, idim.get(opId));
@@ -278,9 +306,37 @@ public class Operator implements Serializable, EndPoint, Connectable, Callback {
 		operatorCode.processData(dataList);
 	}
 
+	public void processData(int upstreamOpId, DataTuple data){
+		if(operatorCode instanceof UpstreamTaggedProcessing){
+			((UpstreamTaggedProcessing)operatorCode).processData(upstreamOpId, data);
+		}
+		else{
+			operatorCode.processData(data);
+		}
+	}
+
 	public void setUp(){
+		if(operatorCode instanceof UpstreamTaggedProcessing){
+			checkTaggedInputs();
+		}
 		operatorCode.setUp();
 	}
+	
+	/**
+	 * Tuples are only delivered tagged with their upstream when each upstream is ingested ONE_AT_A_TIME on its own,
+	 * otherwise an UpstreamTaggedProcessing operator would be fed untagged tuples
+	 */
+	private void checkTaggedInputs(){
+		Map<Integer, InputDataIngestionMode> idim = opContext.getInputDataIngestionModePerUpstream();
+		if(idim.size() < 2){
+			throw new IllegalStateException("Operator "+getOperatorId()+" ("+operatorCode.getClass().getSimpleName()+") tells its inputs apart, but is connected to "+idim.size()+" upstream(s): "+idim.keySet());
+		}
+		for(Map.Entry<Integer, InputDataIngestionMode> entry : idim.entrySet()){
+			if(entry.getValue() != InputDataIngestionMode.ONE_AT_A_TIME){
+				throw new IllegalStateException("Operator "+getOperatorId()+" ("+operatorCode.getClass().getSimpleName()+") tells its inputs apart, but ingests upstream "+entry.getKey()+" with "+entry.getValue()+" instead of ONE_AT_A_TIME");
+			}
+		}
+	}
 
 	@Override
 	public void connectTo(Connectable down, boolean originalQuery) {
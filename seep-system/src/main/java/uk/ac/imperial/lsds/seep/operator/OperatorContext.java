@@ -22,6 +22,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
+import uk.ac.imperial.lsds.seep.comm.serialization.TupleSchema;
 import uk.ac.imperial.lsds.seep.infrastructure.master.Node;
 import uk.ac.imperial.lsds.seep.manet.Query;
 
@@ -50,6 +51,7 @@ public class OperatorContext implements Serializable{
 	
 	/** Tuple dependent information **/
 	private List<String> declaredWorkingAttributes;
+	private List<TupleSchema.Type> declaredWorkingAttributeTypes = null;
 	private String keyAttribute = null;
 	
 	public OperatorContext(){
@@ -96,6 +98,18 @@ public class OperatorContext implements Serializable{
 		return declaredWorkingAttributes;
 	}
 	
+	public void setDeclaredWorkingAttributeTypes(List<TupleSchema.Type> declaredWorkingAttributeTypes){
+		this.declaredWorkingAttributeTypes = declaredWorkingAttributeTypes;
+	}
+	
+	public List<TupleSchema.Type> getDeclaredWorkingAttributeTypes(){
+		return declaredWorkingAttributeTypes;
+	}
+	
+	public TupleSchema getTupleSchema(){
+		return TupleSchema.fromAttributes(declaredWorkingAttributes, declaredWorkingAttributeTypes);
+	}
+	
 	public HashMap<Integer, ArrayList<Integer>> getRouteInfo(){
 		return routeInfo;
 	}
@@ -0,0 +1,26 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Imperial College London.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Raul Castro Fernandez - initial design and implementation
+ ******************************************************************************/
+package uk.ac.imperial.lsds.seep.operator;
+
+import uk.ac.imperial.lsds.seep.comm.serialization.DataTuple;
+
+/**
+ * Implemented by operators with several inputs that need to tell their tuples apart, e.g. joins. When the
+ * operator is fed with more than one InputDataIngestionMode (one input data structure per upstream), tuples
+ * are delivered through this method together with the id of the original upstream operator they come from,
+ * instead of through processData(DataTuple). Operator.setUp() refuses to set up such an operator unless all of its
+ * upstreams are ingested that way.
+ */
+public interface UpstreamTaggedProcessing {
+
+	public void processData(int upstreamOpId, DataTuple data);
+	
+}
@@ -8,6 +8,7 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Vector;
 import java.util.Map;
+import java.util.NavigableMap;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.Timer;
@@ -15,9 +16,9 @@ import java.util.TimerTask;
 import java.util.TreeMap;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.Exchanger;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -26,10 +27,13 @@ import uk.ac.imperial.lsds.seep.GLOBALS;
 import uk.ac.imperial.lsds.seep.buffer.IBuffer;
 import uk.ac.imperial.lsds.seep.buffer.OutOfOrderBuffer;
 import uk.ac.imperial.lsds.seep.buffer.OutputLogEntry;
+import uk.ac.imperial.lsds.seep.buffer.SpscRingBuffer;
 import uk.ac.imperial.lsds.seep.comm.routing.IRoutingObserver;
 import uk.ac.imperial.lsds.seep.comm.serialization.ControlTuple;
 import uk.ac.imperial.lsds.seep.comm.serialization.DataTuple;
+import uk.ac.imperial.lsds.seep.comm.serialization.LongRangeSet;
 import uk.ac.imperial.lsds.seep.comm.serialization.RangeUtil;
+import uk.ac.imperial.lsds.seep.comm.serialization.TupleSchema;
 import uk.ac.imperial.lsds.seep.comm.serialization.controlhelpers.DownUpRCtrl;
 import uk.ac.imperial.lsds.seep.comm.serialization.controlhelpers.FailureCtrl;
 import uk.ac.imperial.lsds.seep.comm.serialization.messages.BatchTuplePayload;
@@ -60,6 +64,8 @@ public class Dispatcher implements IRoutingObserver {
 	private static final long DOWNSTREAMS_UNROUTABLE_TIMEOUT = Long.parseLong(GLOBALS.valueFor("downstreamsUnroutableTimeout"));
 	private static final long ABORT_SESSION_TIMEOUT = 1000 * Long.parseLong(GLOBALS.valueFor("abortSessionTimeoutSec"));
 	private static final long MAX_LOCK_WAIT = 30 * 1000; 
+	private static final int WORKER_QUEUE_SIZE = Integer.parseInt(GLOBALS.valueFor("dispatcherWorkerQueueSize"));
+	private static final SpscRingBuffer.WaitStrategy WORKER_WAIT_STRATEGY = SpscRingBuffer.WaitStrategy.parse(GLOBALS.valueFor("dispatcherWorkerWaitStrategy"));
 	private static final boolean enableDownstreamsUnroutable = Boolean.parseBoolean(GLOBALS.valueFor("enableDownstreamsUnroutable"));
 	private static final boolean enableBatchRetransmitTimeouts = Boolean.parseBoolean(GLOBALS.valueFor("enableBatchRetransmitTimeouts"));
 	private static final boolean piggybackControlTraffic = Boolean.parseBoolean(GLOBALS.valueFor("piggybackControlTraffic"));
@@ -92,7 +98,7 @@ public class Dispatcher implements IRoutingObserver {
 	private final FailureCtrl combinedDownFctrl = new FailureCtrl();
 	private final Map<Integer, Set<Long>> downAlives = new HashMap<>();	//TODO: Concurrency?
 	
-	private final Map<String, Integer> idxMapper = new HashMap<String, Integer>(); //Needed for replay after conn failure
+	private final TupleSchema schema; //Needed for replay after conn failure
 	
 	private final Object lock = new Object(){};
 	private final int numDownstreamReplicas;
@@ -134,9 +140,7 @@ public class Dispatcher implements IRoutingObserver {
 		//Not really an output queue but can reuse code. Possible unnecessary lock contention?
 		sharedReplayLog = new OperatorOutputQueue(Integer.MAX_VALUE);	
 
-		for(int i = 0; i<owner.getOperator().getOpContext().getDeclaredWorkingAttributes().size(); i++){
-			idxMapper.put(owner.getOperator().getOpContext().getDeclaredWorkingAttributes().get(i), i);
-		}
+		schema = owner.getOperator().getOpContext().getTupleSchema();
 		
 		
 		Query frontierQuery = owner.getOperator().getOpContext().getFrontierQuery(); 
@@ -303,8 +307,8 @@ public class Dispatcher implements IRoutingObserver {
 			}
 		}
 
-		long local_ts = dt.getPayload().local_ts;
-		logger.debug("Dispatcher queuing tuple with ts="+ts+",local latency="+(System.currentTimeMillis()-local_ts)); 
+		dt.getPayload().dispatch_ts = System.currentTimeMillis();
+		if (logger.isDebugEnabled()) { logger.debug("Dispatcher queuing tuple with ts="+ts+",local latency="+(dt.getPayload().dispatch_ts-dt.getPayload().local_ts)); }
 		if (!bestEffort)
 		{
 			dispatchReliable(dt); 
@@ -333,15 +337,11 @@ public class Dispatcher implements IRoutingObserver {
 			}
 			if (!(optimizeReplay && ((broadcast && isAllDownAlive(ts)) || (!broadcast && combinedDownFctrl.isAlive(ts)))))
 			{
-				if (owner.getOperator().getOpContext().isSource() || boundedOpQueue)
-				{
-					//Schedule for sending
-					opQueue.add(dt);
-				}
-				else
+				if (!(owner.getOperator().getOpContext().isSource() || boundedOpQueue))
 				{
 					//TODO: Only if bp routing surely?
 					opQueue.forceAdd(dt);
+					return;
 				}
 			}
 			else
@@ -351,8 +351,12 @@ public class Dispatcher implements IRoutingObserver {
 				//detected as a dupe at input.
 				sharedReplayLog.add(dt);
 				logger.info("Dispatcher avoided sending live tuple: "+ts+",srl.size="+sharedReplayLog.size());
+				return;
 			}
 		}
+		//Schedule for sending. Blocks while the queue is full, so not holding the lock or the 
+		//dispatcher couldn't make room. If acked meanwhile it will be trimmed before it is sent.
+		opQueue.add(dt);
 	}
 	
 	public int getTotalQlen()
@@ -548,12 +552,15 @@ public class Dispatcher implements IRoutingObserver {
 			ArrayList<Integer> targets = null; 
 			Set<Long> constraints = null;
 			
+			//Wait for a tuple without holding the lock, so failure ctrls etc. can be handled meanwhile
+			opQueue.awaitHead();
 			synchronized(lock)
 			{
+				long queueVersion = opQueue.version();
 				dt = peekNext();
+				if (dt == null) { return null; }
 				targets = owner.getOperator().getRouter().forward_highestWeight(dt);
-				long localLatency = System.currentTimeMillis() - dt.getPayload().local_ts;
-				logger.debug("Dispatcher peeked at head tuple with ts="+dt.getPayload().timestamp + ", targets "+targets+", local latency="+localLatency);
+				if (logger.isDebugEnabled()) { logger.debug("Dispatcher peeked at head tuple with ts="+dt.getPayload().timestamp + ", targets "+targets+", local latency="+(System.currentTimeMillis() - dt.getPayload().local_ts)); }
 
 				if (targets == null || targets.isEmpty())
 				{
@@ -567,7 +574,7 @@ public class Dispatcher implements IRoutingObserver {
 						{
 							logger.debug("Dispatcher waiting for routing change or constrained tuples.");
 							//If no constraints, wait for some queue/routing change and then loop back
-							try { lock.wait(MAX_LOCK_WAIT); } catch (InterruptedException e) {}
+							opQueue.awaitChange(queueVersion, MAX_LOCK_WAIT);
 						}
 						return null;
 					}
@@ -638,13 +645,14 @@ public class Dispatcher implements IRoutingObserver {
 			}
 		}
 		
-		//Should be holding lock.
+		//Should be holding lock. Null if the queue was emptied.
 		private DataTuple peekNext()
 		{
 			DataTuple dt = null;
 			while (dt == null)
 			{
-				dt = opQueue.peekHead();
+				dt = opQueue.tryPeekHead();
+				if (dt == null) { return null; }
 				long ts = dt.getPayload().timestamp;
 				if (combinedDownFctrl.isAcked(ts))
 				{
@@ -739,27 +747,14 @@ public class Dispatcher implements IRoutingObserver {
 					if (remove) {/* notifyThat(owner.getOperator().getOperatorId()).sendSucceeded();*/ }
 					if (remove || localLatency < TRY_SEND_ALTERNATIVES_TIMEOUT) 
 					{ 
-						if (oqDupeBackoff) 
-						{ 
-								try { Thread.sleep(SEND_TIMEOUT); } catch (InterruptedException e) {}
-							/*
-							synchronized(lock) 
-							{ 
-								//Backoff in cases where we didn't get anywhere.
-								try { lock.wait(SEND_TIMEOUT); } catch (InterruptedException e) {}
-							} 
-							*/
-						}
+						if (oqDupeBackoff) { backoff(); }
 						break; 
 					}
 					else
 					{
 						targetsTried++;
 						if (targetsTried >= targets.size() && localLatency > DOWNSTREAMS_UNROUTABLE_TIMEOUT) { setDownstreamsRoutable(false); } 
-						else if (targetsTried >= targets.size() && oqDupeBackoff) 
-						{ 
-								try { Thread.sleep(SEND_TIMEOUT); } catch (InterruptedException e) {}
-						}
+						else if (targetsTried >= targets.size() && oqDupeBackoff) { backoff(); }
 
 						if (targets.size() > 1)
 						{
@@ -837,6 +832,16 @@ public class Dispatcher implements IRoutingObserver {
 			}
 		}
 	
+		//Backoff in cases where we didn't get anywhere. Woken early by anything that notifies the lock, e.g. a failure ctrl 
+		//that acks the tuple or a routing change, rather than sleeping through them.
+		private void backoff()
+		{
+			synchronized(lock) 
+			{ 
+				try { lock.wait(SEND_TIMEOUT); } catch (InterruptedException e) {}
+			} 
+		}
+
 		//Convention: If the routing is constrained, ignore the first
 		//target and route to all the remaining targets.
 		//TODO: Will probably break once we have multiple logical outputs, but ok
@@ -874,7 +879,8 @@ public class Dispatcher implements IRoutingObserver {
 	
 	public class DispatcherWorker implements Runnable
 	{
-		private final Exchanger<DataTuple> exchanger = new Exchanger<>();
+		//Tuples handed to this worker but not sent yet. Only the dispatcher main thread adds to it.
+		private final SpscRingBuffer<DataTuple> pending = new SpscRingBuffer<>(WORKER_QUEUE_SIZE, WORKER_WAIT_STRATEGY);
 		private final OutputQueue outputQueue;
 		private final EndPoint dest;
 		private boolean dataConnected = false;
@@ -911,8 +917,21 @@ public class Dispatcher implements IRoutingObserver {
 		public boolean inSessionLog(long ts, boolean downIsUnaryOK)
 		{
 			if (!downIsUnaryOK && !downIsMultiInput && !broadcast) { throw new RuntimeException("Logic error."); }
-			return ((OutOfOrderBuffer)(((SynchronousCommunicationChannel)dest).getBuffer())).contains(ts);
+			return ((OutOfOrderBuffer)(((SynchronousCommunicationChannel)dest).getBuffer())).contains(ts) || isPending(ts);
+
+		}
 
+		//Handed to this worker but not sent (and so not in the session log) yet. The worker only removes a tuple once
+		//it has been sent, and tuples keep their sequence while in pending, so none is missed as the worker moves on.
+		private boolean isPending(long ts)
+		{
+			long tail = pending.tailSequence();
+			for (long seq = pending.headSequence(); seq < tail; seq++)
+			{
+				DataTuple dt = pending.peekAt(seq);
+				if (dt != null && dt.getPayload().timestamp == ts) { return true; }
+			}
+			return false;
 		}
 
 		public boolean inSessionLog(long ts)
@@ -927,17 +946,16 @@ public class Dispatcher implements IRoutingObserver {
 			if (b == null) { return null; }
 			else
 			{
-				return new DataTuple(idxMapper,b.getTuple(0));
+				return new DataTuple(schema,b.getTuple(0));
 			}
 		}
 		
 		public boolean trySend(DataTuple dt, long timeout) { return trySend(dt, timeout, true); }
 		public boolean trySend(DataTuple dt, long timeout, boolean removeAndReadd)
 		{
-			try {
-				if (removeAndReadd) { opQueue.remove(dt.getPayload().timestamp); }
-				exchanger.exchange(dt, timeout, TimeUnit.MILLISECONDS);
-			} catch (InterruptedException | TimeoutException e) {
+			if (removeAndReadd) { opQueue.remove(dt.getPayload().timestamp); }
+			if (!pending.offer(dt, timeout))
+			{
 				if (removeAndReadd) { opQueue.forceAdd(dt); }
 				return false;
 			}
@@ -954,50 +972,61 @@ public class Dispatcher implements IRoutingObserver {
 			
 			while (true)
 			{				
-				DataTuple nextTuple = null;
+				DataTuple nextTuple;
 				try {
-					//Use an exchanger instead of a tupleQueue.
-					nextTuple = exchanger.exchange(null);
-					//nextTuple = tupleQueue.take();					
+					nextTuple = pending.awaitHead();
 				} catch (InterruptedException e) {
 					throw new RuntimeException("TODO: Addition and removal of downstreams.");
 				}
-				long localLatency = System.currentTimeMillis() - nextTuple.getPayload().local_ts;
-				logger.debug("Dispatcher worker sending tuple to downstream: "+dest.getOperatorId()+",dt="+nextTuple.getPayload().timestamp+", local latency="+localLatency);
-				
-				rateLimiter.limit();
+				//Left in pending while being sent, so that isPending sees it until it is in the session log
+				send(nextTuple);
+				pending.poll();
+			}
+		}
 
-				//nextTuple.getPayload().instrumentation_ts=System.currentTimeMillis();
-				if (fctrlHandler != null) { fctrlHandler.addBatchRetransmitTimer(dest.getOperatorId(), nextTuple.getPayload().timestamp, System.currentTimeMillis()); }
+		private void send(DataTuple nextTuple)
+		{
+			long ts = nextTuple.getPayload().timestamp;
+			if (!bestEffort && combinedDownFctrl.isAcked(ts))
+			{
+				//Acked while waiting to be sent
+				logger.debug("Dispatcher worker skipping acked tuple to downstream: "+dest.getOperatorId()+",dt="+ts);
+				return;
+			}
+			if (logger.isDebugEnabled()) { logger.debug("Dispatcher worker sending tuple to downstream: "+dest.getOperatorId()+",dt="+ts+", local latency="+(System.currentTimeMillis() - nextTuple.getPayload().local_ts)); }
+			
+			rateLimiter.limit();
 
-				//If there has been a hard timeout since the last send
-				if (clearFctrlHardTimedOut())
-			 	{ 
-					preSendFctrlHardTimeoutCleanup(nextTuple);	
-					continue; 
-				}
+			//nextTuple.getPayload().instrumentation_ts=System.currentTimeMillis();
+			if (fctrlHandler != null) { fctrlHandler.addBatchRetransmitTimer(dest.getOperatorId(), ts, System.currentTimeMillis()); }
 
-				boolean success = outputQueue.sendToDownstream(nextTuple, dest);
+			//If there has been a hard timeout since the last send
+			if (clearFctrlHardTimedOut())
+		 	{ 
+				preSendFctrlHardTimeoutCleanup(nextTuple);	
+				return; 
+			}
 
-				//If there has been a hard timeout since the send started
-				if (clearFctrlHardTimedOut()) 
-				{ 
-					postSendFctrlHardTimeoutCleanup(nextTuple, success); 
-					continue;
-				} 
+			boolean success = outputQueue.sendToDownstream(nextTuple, dest);
 
-				//Otherwise no hard timeout since the last send
-				if (success)
-				{
-					logger.debug("Dispatcher worker sent tuple to downstream: "+dest.getOperatorId()+",dt="+nextTuple.getPayload().timestamp);
+			//If there has been a hard timeout since the send started
+			if (clearFctrlHardTimedOut()) 
+			{ 
+				postSendFctrlHardTimeoutCleanup(nextTuple, success); 
+				return;
+			} 
+
+			//Otherwise no hard timeout since the last send
+			if (success)
+			{
+				logger.debug("Dispatcher worker sent tuple to downstream: "+dest.getOperatorId()+",dt="+ts);
 
-				}
-				else
-				{
-					logger.warn("Dispatcher worker failed to send tuple to downstream: "+dest.getOperatorId()+",dt="+nextTuple.getPayload().timestamp);
-					postConnectionFailureCleanup();
-					logger.warn("Dispatcher worker recovered from failure to send tuple to downstream: "+dest.getOperatorId()+",dt="+nextTuple.getPayload().timestamp);
-				}
+			}
+			else
+			{
+				logger.warn("Dispatcher worker failed to send tuple to downstream: "+dest.getOperatorId()+",dt="+ts);
+				postConnectionFailureCleanup();
+				logger.warn("Dispatcher worker recovered from failure to send tuple to downstream: "+dest.getOperatorId()+",dt="+ts);
 			}
 		}
 	
@@ -1186,7 +1215,7 @@ public class Dispatcher implements IRoutingObserver {
 				if (!combinedDownFctrl.isAcked(ts))
 				{	
 					//TODO: what if acked already?
-					DataTuple dt = new DataTuple(idxMapper, p);
+					DataTuple dt = new DataTuple(schema, p);
 					if (optimizeReplay && !broadcast && combinedDownFctrl.isAlive(ts))
 					{
 						sharedReplayLog.add(dt);
@@ -1240,7 +1269,7 @@ public class Dispatcher implements IRoutingObserver {
 						TuplePayload p = btp.getTuple(0);	//TODO: Proper batches.
 
 						//TODO: what if acked already?
-						DataTuple dt = new DataTuple(idxMapper, p);
+						DataTuple dt = new DataTuple(schema, p);
 						if (optimizeReplay && ((!broadcast && combinedDownFctrl.isAlive(ts)) || (broadcast && isAllDownAlive(ts))))
 						{
 							logger.info("Replay optimization: Dispatcher worker avoided retransmission from sender session log of "+ts);
@@ -1276,7 +1305,8 @@ public class Dispatcher implements IRoutingObserver {
 
 			combinedDownFctrl.setAlives(newAlives);
 			dsOpOldAlives = downAlives.get(dsOpId);
-			downAlives.put(dsOpId, newDownAlives);
+			// Copied, fctrl alives are immutable and the old alives are trimmed during replay
+			downAlives.put(dsOpId, newDownAlives == null ? null : new HashSet<>(newDownAlives));
 		}
 		return dsOpOldAlives;
 	}
@@ -1624,7 +1654,7 @@ public class Dispatcher implements IRoutingObserver {
 								if (otherDownOpId != downOpId) { batchRetransmitTimers.get(otherDownOpId).remove(batchId); }	
 							}  
 
-							DataTuple dt = new DataTuple(idxMapper, btp.getTuple(0));
+							DataTuple dt = new DataTuple(schema, btp.getTuple(0));
 							opQueue.forceAdd(dt);
 							testRoutesTuple = dt;
 							logger.info("Retransmit timeout for ts="+batchId+" to "+downOpId+", delay="+delay+", readded to op queue.");
@@ -1747,7 +1777,7 @@ public class Dispatcher implements IRoutingObserver {
 						if (!combinedDownFctrl.isAcked(ts))
 						{	
 							//TODO: what if acked already?
-							DataTuple dt = new DataTuple(idxMapper, p);
+							DataTuple dt = new DataTuple(schema, p);
 							long latency = now - dt.getPayload().instrumentation_ts;
 							if (!(optimizeReplay && combinedDownFctrl.isAlive(ts)))
 							{
@@ -1861,78 +1891,79 @@ public class Dispatcher implements IRoutingObserver {
 		}
 	}
 	
+	/**
+	 * Output queue ordered by timestamp. Backed by a concurrent skip list so that adds, removals and peeks do not take
+	 * the dispatcher lock. Threads blocked for room or for a tuple wait on a private monitor, which updates only touch
+	 * when someone is waiting. Updates also wake the dispatcher main thread if it waits on the dispatcher lock for a
+	 * queue or routing change, see awaitChange.
+	 */
 	public class OperatorOutputQueue
 	{
-		private SortedMap<Long, DataTuple> queue;
+		private final ConcurrentSkipListMap<Long, DataTuple> queue = new ConcurrentSkipListMap<>();
+		private final AtomicInteger size = new AtomicInteger(0);
+		private final AtomicLong version = new AtomicLong(0);
 		private final int maxSize;
+		private final Object waitLock = new Object(){};
+		private final AtomicInteger waiters = new AtomicInteger(0);
+		private volatile boolean dispatcherWaiting = false;
 		
 		public OperatorOutputQueue(int maxSize)
 		{
 			this.maxSize = maxSize;
-			queue = new TreeMap<>();
 		}
 		
 		public void add(DataTuple dt)
 		{
-			synchronized(lock)
+			while (size.get() > maxSize)
 			{
-				while (queue.size() > maxSize)
-				{
-					try { lock.wait();} 
-					catch (InterruptedException e) {}
-				}
+				waiters.incrementAndGet();
 				try
 				{
-					queue.put(dt.getPayload().timestamp, dt);
-				}
-				catch(RuntimeException e)
-				{
-					logger.error("Cannot put timestamp="+dt.getPayload().timestamp+", map="+queue);
-					throw e;
+					synchronized(waitLock)
+					{
+						if (size.get() > maxSize)
+						{
+							try { waitLock.wait(); } 
+							catch (InterruptedException e) {}
+						}
+					}
 				}
-				lock.notifyAll();
+				finally { waiters.decrementAndGet(); }
 			}
+			forceAdd(dt);
 		}
 		
 		public void forceAdd(DataTuple dt)
 		{
-			synchronized(lock)
-			{
-				queue.put(dt.getPayload().timestamp, dt);
-				lock.notifyAll();
-			}
+			if (queue.put(dt.getPayload().timestamp, dt) == null) { size.incrementAndGet(); }
+			changed();
 		}
 		
 		public DataTuple get(Long ts)
 		{
-			synchronized(lock)
-			{
-				return queue.get(ts);
-			}
+			return queue.get(ts);
 		}
 		
 		public Set<Long> keys()
 		{
-			synchronized(lock)
+			if (queue.isEmpty()) { return null; }
+			else
 			{
-				if (queue.isEmpty()) { return null; }
-				else
-				{
-					Set<Long> result = new HashSet<>();
-					result.addAll(queue.keySet());
-					return result;
-				}
+				Set<Long> result = new HashSet<>();
+				result.addAll(queue.keySet());
+				return result;
 			}
 		}
 		
-		public int size() { synchronized(lock) { return queue.size(); }}
+		public int size() { return size.get(); }
+
 		public DataTuple remove(long ts)
 		{
-			DataTuple dt = null;
-			synchronized(lock)
-			{
-				dt = queue.remove(ts);
-				if (dt != null) { lock.notifyAll() ; }
+			DataTuple dt = queue.remove(ts);
+			if (dt != null) 
+			{ 
+				size.decrementAndGet();
+				changed();
 			}
 			return dt;
 		}
@@ -1940,116 +1971,145 @@ public class Dispatcher implements IRoutingObserver {
 		public Map<Long, DataTuple> removeAll(Set<Long> tsSet)
 		{
 			Map<Long, DataTuple> removed = new TreeMap<>();
-			synchronized(lock)
+			if (tsSet instanceof LongRangeSet)
 			{
-				//Optimization - iterate over the smaller of the q and the tsSet
-				if (tsSet.size() < queue.size())
+				//Acks are ranges, remove each range from the queue in one go
+				LongRangeSet ranges = (LongRangeSet)tsSet;
+				for (int i = 0; i < ranges.numRanges() && !queue.isEmpty(); i++)
 				{
-					for (Long ts : tsSet)
-					{
-						DataTuple dt = queue.remove(ts);
-						if (dt != null) { removed.put(ts,  dt); }
-					}
+					removeEntries(queue.subMap(ranges.rangeStart(i), true, ranges.rangeEnd(i), true), removed);
 				}
-				else
+			}
+			//Optimization - iterate over the smaller of the q and the tsSet
+			else if (tsSet.size() < size.get())
+			{
+				for (Long ts : tsSet)
 				{
-					Iterator<Map.Entry<Long, DataTuple>> iter = queue.entrySet().iterator();
-					while (iter.hasNext())
-					{
-						Map.Entry<Long,DataTuple> qEntry = iter.next();
-						Long qts = qEntry.getKey();
-						if (tsSet.contains(qts))
-						{
-							iter.remove();
-							DataTuple dt = qEntry.getValue();
-							if (dt != null) { removed.put(qts,  dt); }
-						}
+					DataTuple dt = queue.remove(ts);
+					if (dt != null) 
+					{ 
+						size.decrementAndGet();
+						removed.put(ts,  dt); 
 					}
-					/*
-					for (Long qts : queue.keySet())
+				}
+			}
+			else
+			{
+				Iterator<Map.Entry<Long, DataTuple>> iter = queue.entrySet().iterator();
+				while (iter.hasNext())
+				{
+					Map.Entry<Long,DataTuple> qEntry = iter.next();
+					Long qts = qEntry.getKey();
+					if (tsSet.contains(qts) && queue.remove(qts, qEntry.getValue()))
 					{
-						if (tsSet.contains(qts))
-						{
-							DataTuple dt = queue.remove(qts);
-							if (dt != null) { removed.put(qts,  dt); }
-						}
+						size.decrementAndGet();
+						removed.put(qts, qEntry.getValue());
 					}
-					*/
 				}
-				if (!removed.isEmpty()) { lock.notifyAll(); }
 			}
+			if (!removed.isEmpty()) { changed(); }
 			return removed;
 		}
 		
-		//public SortedMap<Long, DataTuple> removeOlderInclusive(long ts)
 		public boolean removeOlderInclusive(long ts)
 		{
-			synchronized(lock)
-			{
-				//SortedMap<Long, DataTuple> removed = new TreeMap<>(queue.headMap(ts+1));
-				SortedMap<Long, DataTuple> removed = queue.headMap(ts+1);
-				boolean removedSome = removed != null && !removed.isEmpty();
-				SortedMap<Long, DataTuple> remainder = queue.tailMap(ts+1);
-				if (remainder == null || remainder.isEmpty()) { queue.clear(); }
-				else 
-				{ 
-					//queue = remainder; Don't do this since queue will have a restricted range
-					//Not necessarily what we want for sharedReplayLog?
-					removed.clear(); //Should be reflected in the backing map.
-				}
-				if (remainder != null && remainder.size() != queue.size()) 
-				{ throw new RuntimeException("Logic error: rsz="+remainder.size()+", qsz="+queue.size()+" - non-backing map?"); }
+			Map<Long, DataTuple> removed = new TreeMap<>();
+			removeEntries(queue.headMap(ts, true), removed);
+			boolean removedSome = !removed.isEmpty();
+			if (removedSome) { changed(); }
+			return removedSome;
+		}
 
-				//if (removed != null && !removed.isEmpty()) { lock.notifyAll(); }
-				if (removedSome) { lock.notifyAll(); }
-				return removedSome;
+		private void removeEntries(NavigableMap<Long, DataTuple> range, Map<Long, DataTuple> removed)
+		{
+			Map.Entry<Long, DataTuple> entry;
+			while ((entry = range.pollFirstEntry()) != null)
+			{
+				size.decrementAndGet();
+				removed.put(entry.getKey(), entry.getValue());
 			}
 		}
 		
 		public boolean contains(long ts)
 		{
-			synchronized(lock) { return queue.containsKey(ts); }
+			return queue.containsKey(ts);
 		}
 		
 		public boolean isEmpty()
 		{
-			synchronized(lock) { return queue.isEmpty(); }
+			return queue.isEmpty();
 		}
 		
 		public DataTuple tryRemoveHead()
 		{
-			synchronized(lock)
+			Map.Entry<Long, DataTuple> head = queue.pollFirstEntry();
+			if (head == null) { return null; }
+			size.decrementAndGet();
+			changed();
+			return head.getValue();
+		}
+		
+		public DataTuple peekHead()
+		{
+			DataTuple dt;
+			while ((dt = tryPeekHead()) == null) { awaitHead(); }
+			return dt;
+		}
+		
+		public DataTuple tryPeekHead()
+		{
+			Map.Entry<Long, DataTuple> head = queue.firstEntry();
+			return head == null ? null : head.getValue();
+		}
+
+		/** Blocks until the queue is not empty, must not be called holding the dispatcher lock **/
+		public void awaitHead()
+		{
+			waiters.incrementAndGet();
+			try
 			{
-				if (queue.isEmpty()) { return null; }
-				else 
-				{ 
-					DataTuple dt = queue.remove(queue.firstKey());
-					lock.notifyAll();
-					return dt;
+				synchronized(waitLock)
+				{
+					while (queue.isEmpty())
+					{
+						try { waitLock.wait(); } catch (InterruptedException e) {}
+					}
 				}
 			}
+			finally { waiters.decrementAndGet(); }
 		}
-		
-		public DataTuple peekHead()
+
+		/** Changes with every update, to tell whether awaitChange needs to wait **/
+		public long version() { return version.get(); }
+
+		/**
+		 * Waits on the dispatcher lock, which must be held, until the queue changes from version or the lock is
+		 * otherwise notified, e.g. on a routing change.
+		 */
+		public void awaitChange(long fromVersion, long timeout)
 		{
-			synchronized(lock)
-			{				
-				while (queue.isEmpty()) 
+			dispatcherWaiting = true;
+			try
+			{
+				if (version.get() == fromVersion)
 				{
-					try { lock.wait(); } catch (InterruptedException e) {}
+					try { lock.wait(timeout); } catch (InterruptedException e) {}
 				}
-				return queue.get(queue.firstKey());
 			}
+			finally { dispatcherWaiting = false; }
 		}
-		
-		public DataTuple tryPeekHead()
+
+		private void changed()
 		{
-			synchronized(lock)
+			version.incrementAndGet();
+			if (waiters.get() > 0)
+			{
+				synchronized(waitLock) { waitLock.notifyAll(); }
+			}
+			if (dispatcherWaiting)
 			{
-				if (queue.isEmpty()) { return null; }
-				else { return queue.get(queue.firstKey()); }
+				synchronized(lock) { lock.notifyAll(); }
 			}
 		}
-		
 	}
 }
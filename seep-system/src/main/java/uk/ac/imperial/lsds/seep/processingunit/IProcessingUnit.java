@@ -17,6 +17,7 @@ import java.util.ArrayList;
 import java.util.Map;
 
 import uk.ac.imperial.lsds.seep.comm.serialization.DataTuple;
+import uk.ac.imperial.lsds.seep.comm.serialization.TupleSchema;
 import uk.ac.imperial.lsds.seep.comm.serialization.controlhelpers.FailureCtrl;
 import uk.ac.imperial.lsds.seep.manet.BackpressureRouter;
 import uk.ac.imperial.lsds.seep.operator.Operator;
@@ -61,12 +62,16 @@ public interface IProcessingUnit {
 
 	public void initOperator();
 
+	public TupleSchema createTupleSchema();
+
 	public Map<String, Integer> createTupleAttributeMapper();
 
 	public void processData(DataTuple data);
 
 	public void processData(ArrayList<DataTuple> data);
 
+	public void processData(int upstreamOpId, DataTuple data);
+
 	public void sendData(DataTuple dt, ArrayList<Integer> targets);
 
 	public void sendPartitionedData(DataTuple[] dt, ArrayList<Integer> targets);
@@ -27,10 +27,12 @@ import java.util.logging.Level;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import uk.ac.imperial.lsds.seep.GLOBALS;
 import uk.ac.imperial.lsds.seep.buffer.IBuffer;
 import uk.ac.imperial.lsds.seep.buffer.OutputBuffer;
 import uk.ac.imperial.lsds.seep.comm.serialization.ControlTuple;
 import uk.ac.imperial.lsds.seep.comm.serialization.DataTuple;
+import uk.ac.imperial.lsds.seep.comm.serialization.TupleSchema;
 import uk.ac.imperial.lsds.seep.comm.serialization.controlhelpers.BackupOperatorState;
 import uk.ac.imperial.lsds.seep.comm.serialization.controlhelpers.FailureCtrl;
 import uk.ac.imperial.lsds.seep.comm.serialization.controlhelpers.InitOperatorState;
@@ -43,6 +45,8 @@ import uk.ac.imperial.lsds.seep.operator.OperatorContext;
 import uk.ac.imperial.lsds.seep.operator.OperatorStaticInformation;
 import uk.ac.imperial.lsds.seep.operator.StatefulOperator;
 import uk.ac.imperial.lsds.seep.reliable.ACKWorker;
+import uk.ac.imperial.lsds.seep.reliable.CheckpointProgress;
+import uk.ac.imperial.lsds.seep.reliable.ChunkEncoder;
 import uk.ac.imperial.lsds.seep.reliable.FailureCtrlWriter;
 import uk.ac.imperial.lsds.seep.reliable.MemoryChunk;
 import uk.ac.imperial.lsds.seep.reliable.SerialiserWorker;
@@ -57,10 +61,12 @@ import uk.ac.imperial.lsds.seep.runtimeengine.JobBean;
 import uk.ac.imperial.lsds.seep.runtimeengine.OutputQueue;
 import uk.ac.imperial.lsds.seep.runtimeengine.SynchronousCommunicationChannel;
 import uk.ac.imperial.lsds.seep.runtimeengine.TimestampTracker;
+import uk.ac.imperial.lsds.seep.state.Incremental;
 import uk.ac.imperial.lsds.seep.state.LargeState;
 import uk.ac.imperial.lsds.seep.state.MalformedStateChunk;
 import uk.ac.imperial.lsds.seep.state.NullChunkWhileMerging;
 import uk.ac.imperial.lsds.seep.state.Partitionable;
+import uk.ac.imperial.lsds.seep.state.StateDelta;
 import uk.ac.imperial.lsds.seep.state.StateWrapper;
 import uk.ac.imperial.lsds.seep.state.Streamable;
 import uk.ac.imperial.lsds.seep.state.Versionable;
@@ -136,6 +142,13 @@ public class StatefulProcessingUnit implements IProcessingUnit{
 	private Semaphore mutex = new Semaphore(1);
 	
 	private Semaphore executorMutex;
+	
+	// Incremental states are checkpointed by applying their changes to this copy, outside the mutex
+	private final boolean incrementalCheckpoints = "true".equals(GLOBALS.valueFor("incrementalCheckpoints"));
+	// Copy and generation guarded by checkpointLock, installing a state starts a new generation without copy
+	private final Object checkpointLock = new Object();
+	private StateWrapper checkpointCopy = null;
+	private int checkpointGeneration = 0;
 
 	//Operator and state managed by this processingUnit
 	private Operator runningOp = null;
@@ -150,7 +163,7 @@ public class StatefulProcessingUnit implements IProcessingUnit{
 	private boolean isCheckpointEnabled = true;
 	private ArrayList<Integer> listOfManagedStates = new ArrayList<Integer>();
         
-        protected ExecutorService poolOfThreads = Executors.newFixedThreadPool( Runtime.getRuntime().availableProcessors()-1 );
+        protected ExecutorService poolOfThreads = Executors.newFixedThreadPool( Math.max(1,Runtime.getRuntime().availableProcessors()-1) );
 	
 	//Multi-core support
 	private Executor pool;
@@ -292,99 +305,47 @@ public class StatefulProcessingUnit implements IProcessingUnit{
 	}
 	
 	@Override
-	public Map<String, Integer> createTupleAttributeMapper(){
-		Map<String, Integer> idxMapper = new HashMap<String, Integer>();
-		List<String> declaredWorkingAttributes = runningOp.getOpContext().getDeclaredWorkingAttributes();
-		if(declaredWorkingAttributes != null){
-			for(int i = 0; i<declaredWorkingAttributes.size(); i++){
-				idxMapper.put(declaredWorkingAttributes.get(i), i);
-			}
-		}
-		else{
+	public TupleSchema createTupleSchema(){
+		if(runningOp.getOpContext().getDeclaredWorkingAttributes() == null){
 			LOG.warn("-> No tuple MAPPER. This is fine as far as I am a SRC");
 		}
-		return idxMapper;
+		return runningOp.getOpContext().getTupleSchema();
+	}
+	
+	@Override
+	public Map<String, Integer> createTupleAttributeMapper(){
+		return createTupleSchema().getIdxMapper();
 	}
 	
 	/** Runtime methods **/
 	
 	@Override
 	public void processData(DataTuple data){
-		// Get the mutex		
-		if(multiCoreEnabled){
-			try {
-				executorMutex.acquire(numberOfWorkerThreads);
-			}
-			catch (InterruptedException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			}
-		}
-		// Mutex for data processing
-		else{
-			try {
-				mutex.acquire();
-			}
-			catch (InterruptedException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			}
-		}
-		
+		acquireStateMutex();
 		// TODO: Adjust timestamp of state
 		runningOp.processData(data);
-		// Release the mutex
-		if(multiCoreEnabled){
-			executorMutex.release(numberOfWorkerThreads);
-		}
-		else{
-			mutex.release();
-		}
+		releaseStateMutex();
 	}
 	
 	@Override
 	public void processData(ArrayList<DataTuple> data){
-		// Get the mutex
-		if(multiCoreEnabled){
-			try {
-				executorMutex.acquire(numberOfWorkerThreads);
-			}
-			catch (InterruptedException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			}
-		}
-		// Mutex for data processing
-		else{
-			try {
-				mutex.acquire();
-			}
-			catch (InterruptedException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			}
-		}
-	
+		acquireStateMutex();
 		// TODO: Adjust timestamp of state
 		runningOp.processData(data);
-		// Release the mutex		
-		if(multiCoreEnabled){
-			executorMutex.release(numberOfWorkerThreads);
-		}
-		else{
-			mutex.release();
-		}
+		releaseStateMutex();
+	}
+
+	@Override
+	public void processData(int upstreamOpId, DataTuple data){
+		acquireStateMutex();
+		runningOp.processData(upstreamOpId, data);
+		releaseStateMutex();
 	}
 
 	@Override
 	public void sendData(DataTuple dt, ArrayList<Integer> targets){
-		// Here user code (operator) returns from execution, so release mutex		
-		if(multiCoreEnabled){
-			executorMutex.release(numberOfWorkerThreads);
-		}
-		else{
-			mutex.release();
-		}
+		// Here user code (operator) returns from execution, so release mutex
+		releaseStateMutex();
 		
 		for(int i = 0; i<targets.size(); i++){
 			int target = targets.get(i);
@@ -412,24 +373,7 @@ public class StatefulProcessingUnit implements IProcessingUnit{
 		}
 		// Here, user code can potentially keep modifying state, acquire the mutex
 		// Note that if user code finishes after this call, the mutex will be released after processData anyway, so it is safe to get the mutex here.
-		if(multiCoreEnabled){
-			try {
-				executorMutex.acquire(numberOfWorkerThreads);
-			}
-			catch (InterruptedException e) {
-				e.printStackTrace();
-			}
-		}
-		// Mutex for data processing
-		else{
-			try {
-				mutex.acquire();
-			}
-			catch (InterruptedException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			}
-		}
+		acquireStateMutex();
 	}
         
         @Override
@@ -642,16 +586,23 @@ public class StatefulProcessingUnit implements IProcessingUnit{
 //		}
 		
 		/** Worker pool **/
-		ArrayBlockingQueue<JobBean> jobQueue = new ArrayBlockingQueue<JobBean>(4);
-		SerialiserWorker s1 = new SerialiserWorker(jobQueue);
-		SerialiserWorker s2 = new SerialiserWorker(jobQueue);
-		Thread t1 = new Thread(s1);
-		t1.setName("S1");
-		Thread t2 = new Thread(s2);
-		t2.setName("S2");
-		t1.start();
-		t2.start();
-		int counter = 0;
+		// Chunks are encoded and sent by the serialisers, with at most checkpointChunksInFlight of them queued or being
+		// sent to each destination, so that a slow one holds back the chunks for it only while the others take theirs
+		int numSerialisers = checkpointSerialisers();
+		int chunksInFlight = Integer.parseInt(GLOBALS.valueFor("checkpointChunksInFlight"));
+		boolean compress = "true".equals(GLOBALS.valueFor("checkpointCompression"));
+		Semaphore[] inFlight = new Semaphore[sizeST];
+		for(int i = 0; i < sizeST; i++){
+			inFlight[i] = new Semaphore(chunksInFlight);
+		}
+		CheckpointProgress progress = new CheckpointProgress(opId, ssm.getTotalNumberChunks(), sizeST);
+		ArrayBlockingQueue<JobBean> jobQueue = new ArrayBlockingQueue<JobBean>(sizeST * chunksInFlight + 1);
+		Thread[] serialisers = new Thread[numSerialisers];
+		for(int i = 0; i < numSerialisers; i++){
+			serialisers[i] = new Thread(new SerialiserWorker(jobQueue, new ChunkEncoder(compress), progress));
+			serialisers[i].setName("S"+(i+1));
+			serialisers[i].start();
+		}
 		while((mc = ssm.getChunk()) != null){
 			if(mc.chunk == null){ // -> rather make sure state chunks are small enough
 				System.out.println("mc.chunk is null. Continuing... %%");
@@ -659,20 +610,16 @@ public class StatefulProcessingUnit implements IProcessingUnit{
 			}
 			ControlTuple chunkMessage = new ControlTuple().makeStateChunk(opId, keeperOpId, sequenceNumber, ssm.getTotalNumberChunks(), mc, splittingKey);
 			sequenceNumber++;
-			int idx = index % sizeST;
-			InetAddress ip_endpoint = ((DisposableCommunicationChannel)ctx.getStarTopology().get(idx)).getIp();
-			JobBean jb = new JobBean(ip_endpoint, chunkMessage);
-			System.out.println("chunk: "+counter);
-			counter++;
-//			jobQueue.offer(jb);
 			try {
-				jobQueue.put(jb);
+				int idx = nextDestination(inFlight, index);
+				InetAddress ip_endpoint = ((DisposableCommunicationChannel)ctx.getStarTopology().get(idx)).getIp();
+				jobQueue.put(new JobBean(ip_endpoint, chunkMessage, idx, inFlight[idx]));
+				index = idx + 1;
 			} 
 			catch (InterruptedException e) {
 				// TODO Auto-generated catch block
 				e.printStackTrace();
 			}
-			index++;
 		}
 		JobBean jb = new JobBean(null, null);
 		try {
@@ -682,18 +629,16 @@ public class StatefulProcessingUnit implements IProcessingUnit{
 			// TODO Auto-generated catch block
 			e1.printStackTrace();
 		}
-//		while(jobQueue.size() > 0);
-//		s1.killThread();
-//		s2.killThread();
 		try {
-			t1.join();
-			t2.join();
+			for(Thread serialiser : serialisers){
+				serialiser.join();
+			}
 		}
 		catch (InterruptedException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
 		}
-		
+		progress.finished();
 		
 		long startR = System.currentTimeMillis();
 		//((Versionable)runningOpState).reconcile();
@@ -707,7 +652,35 @@ public class StatefulProcessingUnit implements IProcessingUnit{
 		return incomingTT;
 	}
 	
+	/**
+	 * Destination of the next chunk: the first one from index on, round robin, that can take another chunk, or the one
+	 * at index once it can if none can now. Takes one of its chunks in flight
+	 */
+	private int nextDestination(Semaphore[] inFlight, int index) throws InterruptedException{
+		for(int i = 0; i < inFlight.length; i++){
+			int idx = (index + i) % inFlight.length;
+			if(inFlight[idx].tryAcquire()){
+				return idx;
+			}
+		}
+		int idx = index % inFlight.length;
+		inFlight[idx].acquire();
+		return idx;
+	}
+	
+	private int checkpointSerialisers(){
+		int serialisers = Integer.parseInt(GLOBALS.valueFor("checkpointSerialisers"));
+		if(serialisers <= 0){
+			// One per core, but the one producing the chunks
+			serialisers = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+		}
+		return serialisers;
+	}
+	
 	private TimestampTracker backupState(){
+		if(incrementalCheckpoints && runningOpState != null && runningOpState.getStateImpl() instanceof Incremental){
+			return incrementalBackupState();
+		}
 		TimestampTracker incomingTT = null;
 		if(runningOpState != null){
 			BackupOperatorState bs = new BackupOperatorState();
@@ -718,27 +691,7 @@ public class StatefulProcessingUnit implements IProcessingUnit{
 			String stateTag = runningOpState.getStateTag();
 			long startmutex = System.currentTimeMillis();
 			
-			// Mutex for executor (in case multicore)
-			if(multiCoreEnabled){
-				try {
-					executorMutex.acquire(numberOfWorkerThreads);
-				}
-				catch (InterruptedException e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
-				}
-			}
-			// Mutex for data processing
-			else{
-				
-				try {
-					mutex.acquire();
-				}
-				catch (InterruptedException e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
-				}
-			}
+			acquireStateMutex();
 			incomingTT = owner.getIncomingTT();
 			
 			long startcopy = System.currentTimeMillis();
@@ -748,12 +701,7 @@ public class StatefulProcessingUnit implements IProcessingUnit{
 			
 			long stopcopy = System.currentTimeMillis();
 			System.out.println("% Deep COPY: "+(stopcopy-startcopy));
-			if(multiCoreEnabled){
-				executorMutex.release(numberOfWorkerThreads);
-			}
-			else{
-				mutex.release();
-			}
+			releaseStateMutex();
 			
 			long stopmutex = System.currentTimeMillis();
 			System.out.println("% mutex: "+(stopmutex-startmutex));
@@ -774,14 +722,99 @@ public class StatefulProcessingUnit implements IProcessingUnit{
 		return incomingTT;
 	}
 	
+	/**
+	 * Processing only stops to take the changes made to the state since the last checkpoint, which are then applied to the
+	 * copy of the state kept since the first one, and the copy sent as the backup. Only the first checkpoint deep copies the
+	 * state with processing stopped.
+	 */
+	private TimestampTracker incrementalBackupState(){
+		TimestampTracker incomingTT = null;
+		StateDelta delta = null;
+		StateWrapper toBackup;
+		StateWrapper state;
+		int generation;
+		long startmutex = System.currentTimeMillis();
+		acquireStateMutex();
+		synchronized(checkpointLock){
+			// The copy, if any, is of this state unless a state is installed meanwhile
+			toBackup = checkpointCopy;
+			state = runningOpState;
+			generation = checkpointGeneration;
+		}
+		incomingTT = owner.getIncomingTT();
+		if(toBackup == null){
+			toBackup = StateWrapper.deepCopy(state, owner.getRuntimeClassLoader());
+			// The changes so far are in the copy already
+			((Incremental)state.getStateImpl()).takeDelta();
+			((Incremental)toBackup.getStateImpl()).takeDelta();
+		}
+		else{
+			delta = ((Incremental)state.getStateImpl()).takeDelta();
+		}
+		ArrayList<OutputBuffer> outputBuffers = ctx.getOutputBuffers();
+		releaseStateMutex();
+		long stopmutex = System.currentTimeMillis();
+		
+		if(delta != null){
+			((Incremental)toBackup.getStateImpl()).applyDelta(delta);
+		}
+		synchronized(checkpointLock){
+			// Else a state was installed meanwhile, and the next checkpoint must copy it rather than this one
+			if(generation == checkpointGeneration){
+				checkpointCopy = toBackup;
+			}
+		}
+		LOG.debug("Incremental checkpoint, mutex: {} ms, changes: {}", (stopmutex-startmutex), delta == null ? "all" : delta.size());
+		toBackup.setOwnerId(state.getOwnerId());
+		toBackup.setCheckpointInterval(state.getCheckpointInterval());
+		toBackup.setData_ts(incomingTT);
+		toBackup.setStateTag(state.getStateTag());
+		
+		BackupOperatorState bs = new BackupOperatorState();
+		bs.setOpId(toBackup.getOwnerId());
+		bs.setState(toBackup);
+		bs.setOutputBuffers(outputBuffers);
+		bs.setStateClass(toBackup.getStateTag());
+		
+		ControlTuple ctB = new ControlTuple().makeBackupState(bs);
+		owner.sendBackupState(ctB);
+		return incomingTT;
+	}
+	
+	/**
+	 * Takes the mutex guarding the state (all the permits of the executor mutex when multicore), for processing or
+	 * copying it. Uninterruptible, so that a caller never goes on to release a mutex it did not get.
+	 */
+	private void acquireStateMutex(){
+		if(multiCoreEnabled){
+			executorMutex.acquireUninterruptibly(numberOfWorkerThreads);
+		}
+		else{
+			mutex.acquireUninterruptibly();
+		}
+	}
+	
+	private void releaseStateMutex(){
+		if(multiCoreEnabled){
+			executorMutex.release(numberOfWorkerThreads);
+		}
+		else{
+			mutex.release();
+		}
+	}
+	
 	public void installState(InitOperatorState initOperatorState){
 //		System.out.println("Installing state: inputqueue size: "+MetricsReader.eventsInputQueue.getCount());
 		// Simply replace the state and update operator references
 		int stateOwnerId = initOperatorState.getState().getOwnerId();
 		LOG.info("Installing state (whom owner is {}) in the operator");
 		StateWrapper state = initOperatorState.getState();
-		// Replace state
-		this.runningOpState = state;
+		// Replace state, the next incremental checkpoint copies it
+		synchronized(checkpointLock){
+			this.runningOpState = state;
+			checkpointCopy = null;
+			checkpointGeneration++;
+		}
 		// And reference in operator
 		((StatefulOperator)runningOp).replaceState(state);
 //		System.out.println("END INSTALL state: inputqueue size: "+MetricsReader.eventsInputQueue.getCount());
@@ -806,6 +839,11 @@ public class StatefulProcessingUnit implements IProcessingUnit{
 		}
 	}
 	
+	/** The state rebuilt from the chunks streamed by peers on recovery (see StateRestorer) **/
+	public Streamable getStreamableState(){
+		return (Streamable)runningOpState.getStateImpl();
+	}
+	
 		/** Who manages which state? **/
 	@Override
 	public synchronized void invalidateState(int opId) {
@@ -31,6 +31,7 @@ import org.slf4j.LoggerFactory;
 import uk.ac.imperial.lsds.seep.GLOBALS;
 import uk.ac.imperial.lsds.seep.buffer.IBuffer;
 import uk.ac.imperial.lsds.seep.comm.serialization.DataTuple;
+import uk.ac.imperial.lsds.seep.comm.serialization.TupleSchema;
 import uk.ac.imperial.lsds.seep.comm.serialization.controlhelpers.FailureCtrl;
 import uk.ac.imperial.lsds.seep.infrastructure.NodeManager;
 import static uk.ac.imperial.lsds.seep.infrastructure.monitor.slave.reader.DefaultMetricsNotifier.notifyThat;
@@ -119,18 +120,16 @@ public class StatelessProcessingUnit implements IProcessingUnit {
     }
     
 	@Override
-	public Map<String, Integer> createTupleAttributeMapper() {
-		Map<String, Integer> idxMapper = new HashMap<String, Integer>();
-		List<String> declaredWorkingAttributes = runningOp.getOpContext().getDeclaredWorkingAttributes();
-		if(declaredWorkingAttributes != null){
-			for(int i = 0; i<declaredWorkingAttributes.size(); i++){
-				idxMapper.put(declaredWorkingAttributes.get(i), i);
-			}
-		}
-		else{
+	public TupleSchema createTupleSchema(){
+		if(runningOp.getOpContext().getDeclaredWorkingAttributes() == null){
 			LOG.warn("-> No tuple MAPPER. This is fine as far as I am a SRC");
 		}
-		return idxMapper;
+		return runningOp.getOpContext().getTupleSchema();
+	}
+	
+	@Override
+	public Map<String, Integer> createTupleAttributeMapper(){
+		return createTupleSchema().getIdxMapper();
 	}
 
 	@Override
@@ -263,6 +262,19 @@ public class StatelessProcessingUnit implements IProcessingUnit {
         notifyThat(operatorId).operatorEnd(context);
 	}
 
+	@Override
+	public void processData(int upstreamOpId, DataTuple data) {
+        // Seep monitoring: notify start of data tuple processing
+        int operatorId = runningOp.getOperatorId();
+        
+        Timer.Context context = notifyThat(operatorId).operatorStart();
+        
+		runningOp.processData(upstreamOpId, data);
+        
+        // Seep monitoring: notify end of data tuple processing
+        notifyThat(operatorId).operatorEnd(context);
+	}
+
 	@Override
 	public void reconfigureOperatorConnection(int opId, InetAddress ip) {
 		ctx.updateConnection(opId, runningOp, ip);
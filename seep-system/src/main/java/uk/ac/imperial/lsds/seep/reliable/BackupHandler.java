@@ -14,9 +14,11 @@ import java.io.File;
 import java.io.IOException;
 import java.net.BindException;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -24,6 +26,7 @@ import java.util.concurrent.atomic.AtomicBoolean;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import uk.ac.imperial.lsds.seep.GLOBALS;
 import uk.ac.imperial.lsds.seep.runtimeengine.CoreRE;
 
 public class BackupHandler implements Runnable{
@@ -47,13 +50,8 @@ public class BackupHandler implements Runnable{
 	private long s_sessiontime = 0;
 
 	private HashMap<InetAddress, BackupSessionInfo> openSessions = new HashMap<InetAddress, BackupSessionInfo>();
-	private HashMap<Integer, ArrayList<FileChannel>> sessionHandlers = new HashMap<Integer, ArrayList<FileChannel>>();
-	// To access rw files with backups
-	private HashMap<Integer, ArrayList<FileChannel>> backupSessionHandlers = new HashMap<Integer, ArrayList<FileChannel>>();
-	// To access the same files as above, with the possibility of removing them from the OS file system
-	private HashMap<Integer, ArrayList<File>> sessionHandlersGCFiles = new HashMap<Integer, ArrayList<File>>();
-	private HashMap<Integer, ArrayList<File>> backupSessionHandlersGCFiles = new HashMap<Integer, ArrayList<File>>();
-	private HashMap<Integer, String> lastSessionNames = new HashMap<Integer, String>();
+	// Chunks of the sessions, on disk
+	private BackupStore store;
 	
 //	//Variables to keep the backup handler
 //	private ArrayList<MappedByteBuffer> lastBackupHandlers = new ArrayList<MappedByteBuffer>();
@@ -76,15 +74,19 @@ public class BackupHandler implements Runnable{
 	}
 	
 	public String getLastBackupSessionName(int opId){
-		return lastSessionNames.get(opId);
+		return store.getLastSessionName(opId);
+	}
+	
+	public BackupStore getStore(){
+		return store;
 	}
 	
 	public BackupHandler(CoreRE owner, int port) {
 		this.owner = owner;
 		this.connPort = port;
 		this.goOn = true;
-		File newFile = new File("backup/");
-		newFile.mkdirs();
+		String segmentSize = GLOBALS.valueFor("backupSegmentSize");
+		this.store = new BackupStore(new File("backup/"), segmentSize == null ? 64 << 20 : Integer.parseInt(segmentSize));
 	}
 	
 	public void openSession(int opId, InetAddress remoteAddress){
@@ -94,16 +96,9 @@ public class BackupHandler implements Runnable{
 		sessionName = new Long(System.currentTimeMillis()).toString();
 		transNumber = -1;
 		
+		// The previous session is kept until this one closes
+		store.openSession(opId, sessionName);
 		ArrayList<FileChannel> lastBackupHandlers = new ArrayList<FileChannel>();
-		ArrayList<File> lastBackupHandlersGCFiles = new ArrayList<File>();
-		// We backup the previous handlers if there are any, keeping association with the operator establishing the connection
-		if(sessionHandlers.containsKey(opId)){
-			backupSessionHandlers.put(opId, sessionHandlers.get(opId));
-			backupSessionHandlersGCFiles.put(opId, sessionHandlersGCFiles.get(opId));
-		}
-		// And we put the new ones here
-		sessionHandlers.put(opId, lastBackupHandlers);
-		sessionHandlersGCFiles.put(opId, lastBackupHandlersGCFiles);
 		BackupSessionInfo bsi = new BackupSessionInfo(opId, lastBackupHandlers, this, sessionName, transNumber);
 		// We log the open session, identifying it with the IP
 		openSessions.put(remoteAddress, bsi);
@@ -111,36 +106,15 @@ public class BackupHandler implements Runnable{
 	}
 	
 	public void closeSession(int opId, InetAddress remoteAddress){
-		lastSessionNames.put(opId, openSessions.get(remoteAddress).getSessionName());
 		openSessions.remove(remoteAddress);
 		System.out.println("TOTAL SESSION TIME: "+(System.currentTimeMillis() - s_sessiontime));
 		
 		// If the session went well, then we get rid of the old files
-		if(backupSessionHandlers.containsKey(opId)){
-			ArrayList<FileChannel> oldFiles = backupSessionHandlers.get(opId);
-			for(FileChannel f : oldFiles){
-				try {
-					f.close();
-				} 
-				catch (IOException e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
-				}
-			}
-			ArrayList<File> toRemove = backupSessionHandlersGCFiles.get(opId);
-			for(File f : toRemove){
-				f.delete();
-			}
-		}
-	}
-
-	public void addBackupHandler(int opId, FileChannel fc, File f){
-		sessionHandlers.get(opId).add(fc);
-		sessionHandlersGCFiles.get(opId).add(f);
+		store.closeSession(opId);
 	}
 	
 	public ArrayList<File> getSessionFileHandlers(int opId){
-		return backupSessionHandlersGCFiles.get(opId);
+		return store.getSegmentFiles(opId);
 	}
 
 	@Override
@@ -148,11 +122,14 @@ public class BackupHandler implements Runnable{
 		ServerSocket backupServerSocket = null;
 		try{
 			//Establish listening port
-    		backupServerSocket = new ServerSocket(connPort);
+			// Through a channel, so that chunks are read straight into the store
+			ServerSocketChannel backupServerChannel = ServerSocketChannel.open();
+			backupServerSocket = backupServerChannel.socket();
+			backupServerSocket.bind(new InetSocketAddress(connPort));
 			LOG.info("-> BackupHandler listens on port: {} for connections", connPort);
 			//while goOn is active
 			while(goOn){
-				Socket incomingConn = backupServerSocket.accept();
+				Socket incomingConn = backupServerChannel.accept().socket();
 				InetAddress incomingAddr = incomingConn.getInetAddress();
 				// If session was previously opened
 				if(openSessions.containsKey(incomingAddr)){
@@ -10,13 +10,10 @@
  ******************************************************************************/
 package uk.ac.imperial.lsds.seep.reliable;
 
-import java.io.BufferedInputStream;
-import java.io.File;
 import java.io.IOException;
-import java.io.RandomAccessFile;
 import java.net.Socket;
-import java.nio.MappedByteBuffer;
-import java.nio.channels.FileChannel;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -31,8 +28,6 @@ public class BackupHandlerWorker implements Runnable{
 	private String sessionName = null;
 	private int transNumber = -1;
 	
-	private MappedByteBuffer mbb1;
-	
 	public BackupHandlerWorker(int opId, Socket incomingSocket, BackupHandler owner, String sessionName, int transNumber) {
 		this.opId = opId;
 		this.incomingSocket = incomingSocket;
@@ -47,39 +42,26 @@ public class BackupHandlerWorker implements Runnable{
 	}
 	
 	public void memoryMappedFile(){
-		BufferedInputStream bis;
-		try {		
-			bis = new BufferedInputStream(incomingSocket.getInputStream());
-			// Create the memory map file and store the channels to manage these files later
-			RandomAccessFile raf = null;
-			String fileName = null;
-			try {
-				// file format: OP_X_Y_Z.bk, where X is the opId, Y the sessionName and Z the sequence number
-				// so, OP_1_a_0.bk and OP_1_a_1.bk are consecutive files but OP_1_a_1.bk and OP_2_a_2.bk are not (different ops).
-				fileName = "backup/OP_"+opId+"_"+sessionName+"_"+this.transNumber+".bk";
-				raf = new RandomAccessFile(fileName, "rw");
-				
-				FileChannel fc = raf.getChannel();
-				File f = new File(fileName);
-				
-				mbb1 = fc.map(FileChannel.MapMode.READ_WRITE, 0, 10000000);
-				owner.addBackupHandler(opId, fc, f);
+		try {
+			// Straight from the socket into the mapped segments of the store, if the socket has a channel
+			ReadableByteChannel in = incomingSocket.getChannel();
+			if(in == null){
+				in = Channels.newChannel(incomingSocket.getInputStream());
 			}
-			catch(Exception e){
-				LOG.error("-> While writing bk: "+fileName+" to disk: "+e.getMessage());
-				e.printStackTrace();
-			}
-			// Read the raw data and map to file
-			int bytesRead = 0;
-			byte[] buffer = new byte[10000];
-			
-			while ((bytesRead = bis.read(buffer)) != -1) {
-        		mbb1.put(buffer, 0, bytesRead);
-       	 	}
+			long read = owner.getStore().receive(opId, sessionName, transNumber, in);
+			LOG.debug("Stored chunk {} of session {} of op {}: {} bytes", transNumber, sessionName, opId, read);
 		}
 		catch (IOException e) {
 			LOG.error("-> While managing backup chunk = "+e.getMessage());
 			e.printStackTrace();
 		}
+		finally {
+			try {
+				incomingSocket.close();
+			}
+			catch (IOException e) {
+				LOG.warn("-> While closing backup connection: "+e.getMessage());
+			}
+		}
 	}
 }
@@ -0,0 +1,380 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Imperial College London.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Raul Castro Fernandez - initial design and implementation
+ ******************************************************************************/
+package uk.ac.imperial.lsds.seep.reliable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * BackupStore keeps on disk the chunks of state backed up by the operators downstream, in memory mapped segment files of
+ * segmentSize bytes, backup/OP_X_Y_Z.seg for the Z-th segment of session Y of operator X. Chunks are read from their
+ * connection straight into the mapped segments, rolling over to a new segment when one fills up, so a chunk may span
+ * several of them. Connections received concurrently append to different segments, and a segment partially filled by
+ * one is appended to by the next one.
+ * Each operator has at most an open session, being received, and the last closed one, which recovery reads. Once a
+ * session is closed the previous one is superseded, and its segments deleted as soon as none of its chunks is being
+ * read.
+ */
+public class BackupStore {
+
+	final private Logger LOG = LoggerFactory.getLogger(BackupStore.class);
+
+	private final File folder;
+	private final int segmentSize;
+	
+	private final Map<Integer, Session> openSessions = new HashMap<Integer, Session>();
+	private final Map<Integer, Session> lastSessions = new HashMap<Integer, Session>();
+	
+	public BackupStore(File folder, int segmentSize){
+		this.folder = folder;
+		this.segmentSize = segmentSize;
+		folder.mkdirs();
+	}
+	
+	/** Opens a new session for opId, dropping the one open for it if it was never closed **/
+	public synchronized void openSession(int opId, String sessionName){
+		Session abandoned = openSessions.put(opId, new Session(opId, sessionName));
+		if(abandoned != null){
+			LOG.warn("Dropping session {} of op {}, never closed", abandoned.name, opId);
+			abandoned.delete();
+		}
+	}
+	
+	/** Makes the open session of opId its last one, deleting the one it supersedes **/
+	public synchronized void closeSession(int opId){
+		Session closed = openSessions.remove(opId);
+		if(closed == null){
+			LOG.warn("No open session for op {}", opId);
+			return;
+		}
+		Session superseded = lastSessions.put(opId, closed);
+		if(superseded != null){
+			superseded.supersede();
+		}
+	}
+	
+	public synchronized String getLastSessionName(int opId){
+		Session s = lastSessions.get(opId);
+		return s == null ? null : s.name;
+	}
+	
+	/**
+	 * Reads chunk number transNumber of the open session sessionName of opId from in, until the end of the stream.
+	 * Returns the bytes read, or -1 if the session is no longer open
+	 */
+	public long receive(int opId, String sessionName, int transNumber, ReadableByteChannel in) throws IOException{
+		Session session;
+		synchronized(this){
+			session = openSessions.get(opId);
+		}
+		if(session == null || !session.name.equals(sessionName)){
+			LOG.warn("Chunk {} of session {} of op {} received out of its session", transNumber, sessionName, opId);
+			return -1;
+		}
+		Chunk chunk = new Chunk();
+		Segment segment = session.acquireSegment();
+		try{
+			int start = segment.used;
+			while(true){
+				ByteBuffer dst = segment.writeBuffer();
+				int read = in.read(dst);
+				if(read < 0){
+					break;
+				}
+				segment.used = dst.position();
+				if(segment.used == segmentSize){
+					chunk.extents.add(new Extent(segment, start, segment.used - start));
+					session.releaseSegment(segment);
+					segment = session.acquireSegment();
+					start = segment.used;
+				}
+			}
+			if(segment.used > start){
+				chunk.extents.add(new Extent(segment, start, segment.used - start));
+			}
+		}
+		finally{
+			session.releaseSegment(segment);
+		}
+		session.addChunk(transNumber, chunk);
+		return chunk.length();
+	}
+	
+	/** Number of chunks of the last session of opId **/
+	public synchronized int getNumberOfChunks(int opId){
+		Session s = lastSessions.get(opId);
+		return s == null ? 0 : s.chunks.size();
+	}
+	
+	/**
+	 * Chunks of the last session of opId, in the order they were sent. The session is kept until each stream is read to
+	 * its end or closed, even if superseded meanwhile
+	 */
+	public synchronized List<InputStream> openChunks(int opId){
+		List<InputStream> streams = new ArrayList<InputStream>();
+		Session s = lastSessions.get(opId);
+		if(s != null){
+			for(Chunk c : s.chunks.values()){
+				streams.add(new ChunkInputStream(s, c));
+			}
+		}
+		return streams;
+	}
+	
+	/**
+	 * Writes the idx-th chunk of the last session of opId to out, with no copies through the heap. Returns the bytes
+	 * written, or -1 if there is no such chunk
+	 */
+	public long transferChunk(int opId, int idx, WritableByteChannel out) throws IOException{
+		Session session;
+		Chunk chunk;
+		synchronized(this){
+			session = lastSessions.get(opId);
+			if(session == null || idx < 0 || idx >= session.chunks.size()){
+				LOG.warn("No chunk {} in the last session of op {}", idx, opId);
+				return -1;
+			}
+			chunk = new ArrayList<Chunk>(session.chunks.values()).get(idx);
+			session.retain();
+		}
+		try{
+			for(Extent e : chunk.extents){
+				long position = e.offset;
+				long end = e.offset + e.length;
+				while(position < end){
+					position += e.segment.channel.transferTo(position, end - position, out);
+				}
+			}
+		}
+		finally{
+			session.release();
+		}
+		return chunk.length();
+	}
+	
+	/** Segment files of the last session of opId **/
+	public synchronized ArrayList<File> getSegmentFiles(int opId){
+		ArrayList<File> files = new ArrayList<File>();
+		Session s = lastSessions.get(opId);
+		if(s != null){
+			for(Segment segment : s.segments){
+				files.add(segment.file);
+			}
+		}
+		return files;
+	}
+	
+	private class Session{
+		
+		private final int opId;
+		private final String name;
+		private final List<Segment> segments = new ArrayList<Segment>();
+		// Segments with room left and no connection appending to them
+		private final ArrayDeque<Segment> available = new ArrayDeque<Segment>();
+		private final TreeMap<Integer, Chunk> chunks = new TreeMap<Integer, Chunk>();
+		// Chunks being read, the segments of a superseded session are deleted once there are none
+		private int readers = 0;
+		private boolean superseded = false;
+		
+		Session(int opId, String name){
+			this.opId = opId;
+			this.name = name;
+		}
+		
+		synchronized Segment acquireSegment() throws IOException{
+			Segment segment = available.poll();
+			if(segment == null){
+				segment = new Segment(new File(folder, "OP_"+opId+"_"+name+"_"+segments.size()+".seg"), segmentSize);
+				segments.add(segment);
+			}
+			return segment;
+		}
+		
+		synchronized void releaseSegment(Segment segment){
+			if(segment.used < segmentSize){
+				available.push(segment);
+			}
+		}
+		
+		synchronized void addChunk(int transNumber, Chunk chunk){
+			chunks.put(transNumber, chunk);
+		}
+		
+		synchronized void retain(){
+			readers++;
+		}
+		
+		synchronized void release(){
+			readers--;
+			if(readers == 0 && superseded){
+				delete();
+			}
+		}
+		
+		synchronized void supersede(){
+			superseded = true;
+			if(readers == 0){
+				delete();
+			}
+		}
+		
+		synchronized void delete(){
+			for(Segment segment : segments){
+				segment.delete();
+			}
+			segments.clear();
+			available.clear();
+			chunks.clear();
+		}
+	}
+	
+	private static class Segment{
+		
+		private final File file;
+		private final FileChannel channel;
+		private final MappedByteBuffer buffer;
+		private int used = 0;
+		
+		Segment(File file, int size) throws IOException{
+			this.file = file;
+			RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			this.channel = raf.getChannel();
+			this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+		}
+		
+		/** View of the mapped segment after the bytes used **/
+		ByteBuffer writeBuffer(){
+			ByteBuffer dst = buffer.duplicate();
+			dst.position(used);
+			return dst;
+		}
+		
+		ByteBuffer readBuffer(int offset, int length){
+			ByteBuffer src = buffer.duplicate();
+			src.limit(offset + length);
+			src.position(offset);
+			return src;
+		}
+		
+		void delete(){
+			try {
+				channel.close();
+			}
+			catch (IOException e) {
+				e.printStackTrace();
+			}
+			// The mapping itself goes away once the buffer is collected
+			file.delete();
+		}
+	}
+	
+	private static class Extent{
+		
+		private final Segment segment;
+		private final int offset;
+		private final int length;
+		
+		Extent(Segment segment, int offset, int length){
+			this.segment = segment;
+			this.offset = offset;
+			this.length = length;
+		}
+	}
+	
+	private static class Chunk{
+		
+		private final List<Extent> extents = new ArrayList<Extent>(1);
+		
+		long length(){
+			long length = 0;
+			for(Extent e : extents){
+				length += e.length;
+			}
+			return length;
+		}
+	}
+	
+	/**
+	 * Reads a chunk from its mapped segments, keeping its session until read to the end or closed
+	 */
+	private static class ChunkInputStream extends InputStream{
+		
+		private final List<Extent> extents;
+		private int next = 0;
+		private ByteBuffer current = null;
+		private Session session;
+		
+		ChunkInputStream(Session session, Chunk chunk){
+			this.extents = chunk.extents;
+			this.session = session;
+			session.retain();
+		}
+		
+		private boolean advance(){
+			while(current == null || !current.hasRemaining()){
+				if(next == extents.size()){
+					close();
+					return false;
+				}
+				Extent e = extents.get(next++);
+				current = e.segment.readBuffer(e.offset, e.length);
+			}
+			return true;
+		}
+		
+		@Override
+		public int read(){
+			return advance() ? current.get() & 0xff : -1;
+		}
+		
+		@Override
+		public int read(byte[] b, int off, int len){
+			if(len == 0){
+				return 0;
+			}
+			if(!advance()){
+				return -1;
+			}
+			int n = Math.min(len, current.remaining());
+			current.get(b, off, n);
+			return n;
+		}
+		
+		@Override
+		public int available(){
+			return current == null ? 0 : current.remaining();
+		}
+		
+		@Override
+		public void close(){
+			if(session != null){
+				session.release();
+				session = null;
+			}
+		}
+	}
+}
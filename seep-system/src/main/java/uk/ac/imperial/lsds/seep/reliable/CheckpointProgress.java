@@ -0,0 +1,73 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Imperial College London.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Raul Castro Fernandez - initial design and implementation
+ ******************************************************************************/
+package uk.ac.imperial.lsds.seep.reliable;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Progress of a large-state checkpoint stream: chunks and bytes sent, in total and per destination of the star topology.
+ * It is logged every reportInterval ms while the stream goes on, and when it finishes.
+ */
+public class CheckpointProgress {
+
+	final private Logger LOG = LoggerFactory.getLogger(CheckpointProgress.class);
+	private static final long reportInterval = 5000;
+
+	private final int opId;
+	private final int totalChunks;
+	private final long start = System.currentTimeMillis();
+	private final AtomicLong chunks = new AtomicLong();
+	private final AtomicLong rawBytes = new AtomicLong();
+	private final AtomicLong sentBytes = new AtomicLong();
+	private final AtomicLongArray destinationBytes;
+	private final AtomicLong nextReport = new AtomicLong(start + reportInterval);
+	
+	public CheckpointProgress(int opId, int totalChunks, int destinations){
+		this.opId = opId;
+		this.totalChunks = totalChunks;
+		this.destinationBytes = new AtomicLongArray(destinations);
+	}
+	
+	public void chunkSent(int destination, MemoryChunk mc){
+		chunks.incrementAndGet();
+		rawBytes.addAndGet(mc.getRawLength());
+		sentBytes.addAndGet(mc.getEncodedLength());
+		destinationBytes.addAndGet(destination, mc.getEncodedLength());
+		long now = System.currentTimeMillis();
+		long next = nextReport.get();
+		if(now >= next && nextReport.compareAndSet(next, now + reportInterval)){
+			LOG.info("Streaming checkpoint of op {}: {}", opId, this);
+		}
+	}
+	
+	public void finished(){
+		LOG.info("Streamed checkpoint of op {}: {}", opId, this);
+	}
+	
+	public long getSentBytes(){
+		return sentBytes.get();
+	}
+	
+	@Override
+	public String toString(){
+		long elapsed = Math.max(1, System.currentTimeMillis() - start);
+		StringBuilder sb = new StringBuilder();
+		sb.append(chunks.get()+"/"+totalChunks+" chunks, "+(rawBytes.get() >> 10)+" KB encoded, "+(sentBytes.get() >> 10)+" KB sent in "+elapsed+" ms ("+(sentBytes.get() / elapsed)+" KB/s), per destination KB:");
+		for(int i = 0; i < destinationBytes.length(); i++){
+			sb.append(" "+(destinationBytes.get(i) >> 10));
+		}
+		return sb.toString();
+	}
+}
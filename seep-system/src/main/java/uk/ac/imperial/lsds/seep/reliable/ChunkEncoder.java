@@ -0,0 +1,116 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Imperial College London.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Raul Castro Fernandez - initial design and implementation
+ ******************************************************************************/
+package uk.ac.imperial.lsds.seep.reliable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+/**
+ * Encodes the objects of state chunks into bytes, compressed or not. Each SerialiserWorker has its own encoder, and the
+ * chunks it encodes refer to the buffers of the encoder, which are reused for the next chunk once the chunk is sent.
+ * Objects are written with a Kryo of their own, without registrations, so that any Kryo reading a chunk decodes them.
+ */
+public class ChunkEncoder {
+
+	private static final ThreadLocal<Kryo> decoders = new ThreadLocal<Kryo>(){
+		@Override
+		protected Kryo initialValue(){
+			return new Kryo();
+		}
+	};
+	
+	private final Kryo k = new Kryo();
+	private final Output out = new Output(1 << 16, -1);
+	private final Deflater deflater;
+	private byte[] compressedBuffer;
+	
+	public ChunkEncoder(boolean compress){
+		if(compress){
+			deflater = new Deflater(Deflater.BEST_SPEED);
+			compressedBuffer = new byte[1 << 16];
+		}
+		else{
+			deflater = null;
+		}
+	}
+	
+	public void encode(MemoryChunk mc){
+		out.clear();
+		out.writeInt(mc.chunk.size(), true);
+		for(Object o : mc.chunk){
+			k.writeClassAndObject(out, o);
+		}
+		int rawLength = out.position();
+		if(deflater == null){
+			mc.setEncoded(out.getBuffer(), rawLength, rawLength, false);
+			return;
+		}
+		deflater.reset();
+		deflater.setInput(out.getBuffer(), 0, rawLength);
+		deflater.finish();
+		int length = 0;
+		while(!deflater.finished()){
+			if(length == compressedBuffer.length){
+				compressedBuffer = Arrays.copyOf(compressedBuffer, 2 * compressedBuffer.length);
+			}
+			length += deflater.deflate(compressedBuffer, length, compressedBuffer.length - length);
+		}
+		mc.setEncoded(compressedBuffer, length, rawLength, true);
+	}
+	
+	public void close(){
+		if(deflater != null){
+			deflater.end();
+		}
+	}
+	
+	public static ArrayList<Object> decode(byte[] data, int length, int rawLength, boolean compressed, ClassLoader cl){
+		byte[] raw = data;
+		if(compressed){
+			raw = new byte[rawLength];
+			Inflater inflater = new Inflater();
+			try {
+				inflater.setInput(data, 0, length);
+				int n = 0;
+				while(n < rawLength && !inflater.finished()){
+					int inflated = inflater.inflate(raw, n, rawLength - n);
+					if(inflated == 0 && inflater.needsInput()){
+						throw new KryoException("Truncated state chunk");
+					}
+					n += inflated;
+				}
+			}
+			catch (DataFormatException e) {
+				throw new KryoException("Corrupt state chunk", e);
+			}
+			finally {
+				inflater.end();
+			}
+		}
+		Kryo kryo = decoders.get();
+		kryo.setClassLoader(cl);
+		Input in = new Input(raw, 0, rawLength);
+		int size = in.readInt(true);
+		ArrayList<Object> chunk = new ArrayList<Object>(size);
+		for(int i = 0; i < size; i++){
+			chunk.add(kryo.readClassAndObject(in));
+		}
+		return chunk;
+	}
+}
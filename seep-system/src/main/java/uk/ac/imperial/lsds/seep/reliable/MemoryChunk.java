@@ -12,10 +12,25 @@ package uk.ac.imperial.lsds.seep.reliable;
 
 import java.util.ArrayList;
 
-public class MemoryChunk {
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoSerializable;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+/**
+ * A chunk of streamed state. Chunks are either the list of objects of the state, or those objects encoded by a
+ * ChunkEncoder, which is what is sent and stored; readers always get the list back.
+ */
+public class MemoryChunk implements KryoSerializable{
 
 	public ArrayList<Object> chunk;
 	
+	// Encoded chunk, the first length bytes of data
+	private byte[] data = null;
+	private int length;
+	private int rawLength;
+	private boolean compressed;
+	
 	public MemoryChunk(){
 		
 	}
@@ -24,4 +39,55 @@ public class MemoryChunk {
 		this.chunk = chunk;
 	}
 	
+	/** Replaces the objects of this chunk with their encoding, data is not copied **/
+	public void setEncoded(byte[] data, int length, int rawLength, boolean compressed){
+		this.chunk = null;
+		this.data = data;
+		this.length = length;
+		this.rawLength = rawLength;
+		this.compressed = compressed;
+	}
+	
+	public boolean isEncoded(){
+		return data != null;
+	}
+	
+	/** Bytes this chunk takes when sent **/
+	public int getEncodedLength(){
+		return length;
+	}
+	
+	/** Bytes the objects of this chunk take encoded but not compressed **/
+	public int getRawLength(){
+		return rawLength;
+	}
+
+	@Override
+	public void write(Kryo kryo, Output output){
+		output.writeBoolean(data != null);
+		if(data != null){
+			output.writeBoolean(compressed);
+			output.writeInt(length, true);
+			output.writeInt(rawLength, true);
+			output.writeBytes(data, 0, length);
+		}
+		else{
+			kryo.writeObjectOrNull(output, chunk, ArrayList.class);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public void read(Kryo kryo, Input input){
+		if(input.readBoolean()){
+			boolean compressed = input.readBoolean();
+			int length = input.readInt(true);
+			int rawLength = input.readInt(true);
+			chunk = ChunkEncoder.decode(input.readBytes(length), length, rawLength, compressed, kryo.getClassLoader());
+		}
+		else{
+			chunk = kryo.readObjectOrNull(input, ArrayList.class);
+		}
+	}
+	
 }
@@ -10,19 +10,20 @@
  ******************************************************************************/
 package uk.ac.imperial.lsds.seep.reliable;
 
-import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
-import uk.ac.imperial.lsds.seep.comm.serialization.controlhelpers.StateChunk;
-import uk.ac.imperial.lsds.seep.processingunit.IProcessingUnit;
-import uk.ac.imperial.lsds.seep.processingunit.StatefulProcessingUnit;
+import uk.ac.imperial.lsds.seep.reliable.StateRestorer.Merge;
 
+/**
+ * Merges the recovered chunks of the partitions assigned to it, until the state is restored
+ */
 public class MergerWorker implements Runnable{
 
-	private StatefulProcessingUnit pu;
-	private ArrayBlockingQueue<StateChunk> jobQueue;
+	private StateRestorer restorer;
+	private BlockingQueue<Merge> jobQueue;
 	
-	public MergerWorker(IProcessingUnit pu, ArrayBlockingQueue<StateChunk> jobQueue){
-		this.pu = (StatefulProcessingUnit)pu;
+	public MergerWorker(StateRestorer restorer, BlockingQueue<Merge> jobQueue){
+		this.restorer = restorer;
 		this.jobQueue = jobQueue;
 	}
 	
@@ -30,19 +31,20 @@ public class MergerWorker implements Runnable{
 	public void run() {
 		boolean goOn = true;
 		while(goOn){
-			StateChunk sc = null;
+			Merge job = null;
 			try {
-				sc = jobQueue.take();
+				job = jobQueue.take();
 			} 
 			catch (InterruptedException e) {
 				// TODO Auto-generated catch block
 				e.printStackTrace();
+				return;
 			}
-			if(sc.getTotalChunks() == -1){
+			if(job == Merge.END){
 				goOn = false;
 			}
 			else{
-				pu.mergeChunkToState(sc);
+				restorer.merge(job);
 			}
 		}
 	}
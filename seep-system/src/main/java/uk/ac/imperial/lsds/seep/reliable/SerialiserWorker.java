@@ -15,7 +15,7 @@ import java.net.InetAddress;
 import java.net.Socket;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -49,15 +49,24 @@ public class SerialiserWorker implements Runnable{
 
 	private Kryo k;
 	private final int BLIND_SOCKET;
-	private ArrayBlockingQueue<JobBean> jobQueue;
+	private BlockingQueue<JobBean> jobQueue;
 	private boolean goOn = true;
+	// Encodes the chunks of the jobs before sending them, if any
+	private ChunkEncoder encoder = null;
+	private CheckpointProgress progress = null;
 	
-	public SerialiserWorker(ArrayBlockingQueue<JobBean> jobQueue){
+	public SerialiserWorker(BlockingQueue<JobBean> jobQueue){
 		this.k = initializeKryo();
 		this.BLIND_SOCKET = new Integer(GLOBALS.valueFor("blindSocket"));
 		this.jobQueue = jobQueue;
 	}
 	
+	public SerialiserWorker(BlockingQueue<JobBean> jobQueue, ChunkEncoder encoder, CheckpointProgress progress){
+		this(jobQueue);
+		this.encoder = encoder;
+		this.progress = progress;
+	}
+	
 	public void killThread(){
 		this.goOn = false;
 	}
@@ -94,7 +103,7 @@ public class SerialiserWorker implements Runnable{
 				jb = jobQueue.take();
 			
 				if(jb.msg != null){
-					serialiseAndSend(jb.msg, jb.ip);
+					send(jb);
 				}
 				else{
 					jobQueue.put(jb);
@@ -106,6 +115,32 @@ public class SerialiserWorker implements Runnable{
 				e.printStackTrace();
 			}
 		}
+		close();
+	}
+	
+	private void send(JobBean jb){
+		MemoryChunk mc = jb.msg.getStateChunk() != null ? jb.msg.getStateChunk().getMemoryChunk() : null;
+		try{
+			if(encoder != null && mc != null && mc.chunk != null){
+				encoder.encode(mc);
+			}
+			serialiseAndSend(jb.msg, jb.ip);
+			if(progress != null && mc != null){
+				progress.chunkSent(jb.destination, mc);
+			}
+		}
+		finally{
+			// The buffers of the encoder are reused for the next chunk, and the destination can take another one
+			if(jb.inFlight != null){
+				jb.inFlight.release();
+			}
+		}
+	}
+	
+	private void close(){
+		if(encoder != null){
+			encoder.close();
+		}
 	}
 	
 	private Output largeOutput = new Output(1000000);
@@ -118,7 +153,7 @@ public class SerialiserWorker implements Runnable{
 				synchronized(socket){
 					synchronized (largeOutput){
 						long startWrite = System.currentTimeMillis();
-						System.out.println(Thread.currentThread().getName()+": Send chunk to: "+socket.toString());
+						LOG.debug("{}: Send chunk to: {}", Thread.currentThread().getName(), socket);
 						k.writeObject(largeOutput, ct);
 //						System.out.println("%*% SER SIZE: "+largeOutput.toBytes().length+" bytes");
 						largeOutput.flush();
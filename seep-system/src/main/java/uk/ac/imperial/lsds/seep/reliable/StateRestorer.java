@@ -0,0 +1,224 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Imperial College London.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Raul Castro Fernandez - initial design and implementation
+ ******************************************************************************/
+package uk.ac.imperial.lsds.seep.reliable;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import uk.ac.imperial.lsds.seep.comm.serialization.controlhelpers.StateChunk;
+import uk.ac.imperial.lsds.seep.state.MalformedStateChunk;
+import uk.ac.imperial.lsds.seep.state.Mergeable;
+import uk.ac.imperial.lsds.seep.state.NullChunkWhileMerging;
+import uk.ac.imperial.lsds.seep.state.Streamable;
+
+/**
+ * Rebuilds the state of an operator from the chunks its peers stream to it after a failure. Chunks are split by key into
+ * partitions as they arrive, on the threads receiving them, and each partition is merged by one of the mergers, so the
+ * chunks of several senders are merged concurrently. Once every sender has finished, each partition is made part of the
+ * state as soon as its merge is done. States that are not Mergeable are merged one chunk at a time as before.
+ * The node discards its input until the state is restored and acked, upstreams then replay it from the checkpoint.
+ */
+public class StateRestorer {
+
+	final private Logger LOG = LoggerFactory.getLogger(StateRestorer.class);
+	
+	private static final int MERGING = 0, FINISHING = 1, RESTORED = 2;
+	// Finer than the mergers, so that partitions are finished in smaller steps
+	private static final int PARTITIONS_PER_MERGER = 4;
+	
+	private final Streamable state;
+	private final Runnable onRestored;
+	private final boolean mergeable;
+	private final int partitions;
+	private final List<BlockingQueue<Merge>> mergers;
+	private final AtomicIntegerArray pending;
+	private final AtomicIntegerArray status;
+	private final AtomicInteger restoredPartitions = new AtomicInteger();
+	
+	private final Set<Integer> streaming = new HashSet<Integer>();
+	private boolean prepared = false;
+	private volatile boolean allReceived = false;
+	
+	private final long tStart = System.currentTimeMillis();
+	private final AtomicLong chunks = new AtomicLong();
+	private final AtomicLong entries = new AtomicLong();
+	
+	/** Resets the state, to be rebuilt from the chunks added **/
+	public StateRestorer(Streamable state, int numMergers, Runnable onRestored){
+		this.state = state;
+		this.onRestored = onRestored;
+		this.mergeable = state instanceof Mergeable;
+		int n = mergeable ? numMergers : 1;
+		this.partitions = mergeable ? n * PARTITIONS_PER_MERGER : 1;
+		this.pending = new AtomicIntegerArray(partitions);
+		this.status = new AtomicIntegerArray(partitions);
+		state.reset();
+		this.mergers = new ArrayList<BlockingQueue<Merge>>(n);
+		for(int i = 0; i < n; i++){
+			BlockingQueue<Merge> jobQueue = new LinkedBlockingQueue<Merge>();
+			mergers.add(jobQueue);
+			new Thread(new MergerWorker(this, jobQueue), "stateMerger-"+i).start();
+		}
+		LOG.info("Restoring state with {} mergers into {} partitions", n, partitions);
+	}
+	
+	/** Splits a chunk streamed by a peer and queues its partitions to be merged **/
+	public void add(StateChunk chunk){
+		ArrayList<Object> chunkEntries = chunk.getMemoryChunk().chunk;
+		synchronized(this){
+			streaming.add(chunk.getKeeperOpId());
+			if(!prepared && mergeable){
+				// Peers hold about as much state as the first one that streams it
+				long expected = Math.max(0, (long)chunk.getTotalChunks()) * (chunkEntries.size() / 2);
+				((Mergeable)state).prepareMerge(partitions, (int)Math.min(expected, Integer.MAX_VALUE));
+			}
+			prepared = true;
+		}
+		chunks.incrementAndGet();
+		if(!mergeable){
+			enqueue(new Merge(0, chunkEntries));
+			return;
+		}
+		ArrayList<ArrayList<Object>> split = new ArrayList<ArrayList<Object>>(partitions);
+		for(int i = 0; i < partitions; i++){
+			split.add(null);
+		}
+		for(int i = 0; i + 1 < chunkEntries.size(); i += 2){
+			int p = partitionOf(chunkEntries.get(i));
+			ArrayList<Object> part = split.get(p);
+			if(part == null){
+				part = new ArrayList<Object>(2 * chunkEntries.size() / partitions + 2);
+				split.set(p, part);
+			}
+			part.add(chunkEntries.get(i));
+			part.add(chunkEntries.get(i+1));
+		}
+		for(int p = 0; p < partitions; p++){
+			if(split.get(p) != null){
+				enqueue(new Merge(p, split.get(p)));
+			}
+		}
+	}
+	
+	/** A peer has streamed all its chunks. Returns true if it was the last one **/
+	public boolean finish(int keeperOpId){
+		synchronized(this){
+			streaming.remove(keeperOpId);
+			if(!streaming.isEmpty()){
+				return false;
+			}
+			// No peer had any state to stream, the partitions are merged empty
+			if(!prepared && mergeable){
+				((Mergeable)state).prepareMerge(partitions, 0);
+			}
+			prepared = true;
+		}
+		LOG.debug("All peers finished streaming state, {} chunks", chunks.get());
+		allReceived = true;
+		for(int p = 0; p < partitions; p++){
+			if(pending.get(p) == 0){
+				restore(p);
+			}
+		}
+		return true;
+	}
+	
+	/** Whether all the partitions are merged into the state **/
+	public boolean isRestored(){
+		return restoredPartitions.get() == partitions;
+	}
+	
+	/** Entries merged per second since the first chunk arrived **/
+	public double getRestoreRate(){
+		long elapsed = Math.max(1, System.currentTimeMillis() - tStart);
+		return 1000.0 * entries.get() / elapsed;
+	}
+	
+	void merge(Merge job){
+		try{
+			if(mergeable){
+				((Mergeable)state).appendChunk(job.partition, job.chunk);
+			}
+			else{
+				state.appendChunk(job.chunk);
+			}
+		}
+		catch(NullChunkWhileMerging ncwm){
+			ncwm.printStackTrace();
+		}
+		catch (MalformedStateChunk e) {
+			e.printStackTrace();
+		}
+		entries.addAndGet(job.chunk.size() / 2);
+		if(pending.decrementAndGet(job.partition) == 0 && allReceived){
+			restore(job.partition);
+		}
+	}
+	
+	private void enqueue(Merge job){
+		pending.incrementAndGet(job.partition);
+		try {
+			mergers.get(job.partition % mergers.size()).put(job);
+		}
+		catch (InterruptedException e) {
+			LOG.error("Interrupted queueing chunk of partition {}", job.partition);
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	private void restore(int partition){
+		if(!status.compareAndSet(partition, MERGING, FINISHING)){
+			return;
+		}
+		if(mergeable){
+			((Mergeable)state).finishPartition(partition);
+		}
+		status.set(partition, RESTORED);
+		int restored = restoredPartitions.incrementAndGet();
+		LOG.debug("Restored partition {}, {}/{}", partition, restored, partitions);
+		if(restored < partitions){
+			return;
+		}
+		long elapsed = System.currentTimeMillis() - tStart;
+		LOG.info("Restored {} entries from {} chunks in {} ms, {} entries/s", entries.get(), chunks.get(), elapsed, (long)getRestoreRate());
+		for(BlockingQueue<Merge> jobQueue : mergers){
+			jobQueue.add(Merge.END);
+		}
+		onRestored.run();
+	}
+	
+	private int partitionOf(Object key){
+		return key == null ? 0 : (key.hashCode() & Integer.MAX_VALUE) % partitions;
+	}
+	
+	static class Merge {
+		
+		static final Merge END = new Merge(-1, null);
+		
+		final int partition;
+		final ArrayList<Object> chunk;
+		
+		Merge(int partition, ArrayList<Object> chunk){
+			this.partition = partition;
+			this.chunk = chunk;
+		}
+	}
+}
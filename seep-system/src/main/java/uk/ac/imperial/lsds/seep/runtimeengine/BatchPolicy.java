@@ -0,0 +1,143 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Imperial College London.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Raul Castro Fernandez - initial design and implementation
+ ******************************************************************************/
+package uk.ac.imperial.lsds.seep.runtimeengine;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import uk.ac.imperial.lsds.seep.GLOBALS;
+import uk.ac.imperial.lsds.seep.manet.stats.Stats;
+
+/**
+ * Decides when the output batch of a SynchronousCommunicationChannel must be closed: when it holds batchLimit
+ * tuples, when its estimated size reaches packetSize bytes or when its oldest tuple has waited maxLatencyAllowed ms,
+ * whichever comes first. The size of a batch is estimated from the bytes actually written for previous batches.
+ * With adaptiveBatching the tuple limit follows the throughput observed on the link, so that a batch can be written
+ * in a fraction of the latency budget.
+ */
+public class BatchPolicy {
+
+	private static final Logger LOG = LoggerFactory.getLogger(BatchPolicy.class);
+	// Share of maxLatencyAllowed that writing one batch at the observed link rate may take
+	private static final double LATENCY_SHARE = 0.25;
+	// Weight of the last batch in the moving average of bytes per tuple
+	private static final double EWMA_WEIGHT = 0.2;
+
+	private final int maxTuples;
+	private final int maxBytes;
+	private final long maxLatency;
+	private final boolean adaptive;
+	private final Stats stats;
+
+	private int tupleLimit;
+	private int tuples = 0;
+	private long openTs = -1;
+	private boolean forced = false;
+	private double avgTupleBytes = -1;
+
+	public BatchPolicy(int targetOpId){
+		this(Integer.parseInt(GLOBALS.valueFor("batchLimit")),
+				Integer.parseInt(GLOBALS.valueFor("packetSize")),
+				Long.parseLong(GLOBALS.valueFor("maxLatencyAllowed")),
+				Boolean.parseBoolean(GLOBALS.valueFor("adaptiveBatching")),
+				new Stats(targetOpId, -1));
+	}
+
+	public BatchPolicy(int tupleLimit, int maxBytes, long maxLatency, boolean adaptive, Stats stats){
+		this.tupleLimit = Math.max(1, tupleLimit);
+		this.maxBytes = maxBytes;
+		this.maxLatency = maxLatency;
+		this.adaptive = adaptive;
+		this.stats = stats;
+		// When adapting, the tuple limit may grow as far as a full packet of one byte tuples
+		this.maxTuples = adaptive ? Math.max(this.tupleLimit, maxBytes) : this.tupleLimit;
+	}
+
+	/** Whether batches can hold more than one tuple, i.e. whether partial batches can ever be pending **/
+	public boolean isBatching(){
+		return adaptive || tupleLimit > 1;
+	}
+
+	public synchronized void tupleAdded(long now){
+		if(tuples == 0){
+			openTs = now;
+		}
+		tuples++;
+	}
+
+	public synchronized boolean isFull(){
+		return forced || tuples >= tupleLimit || (avgTupleBytes > 0 && tuples * avgTupleBytes >= maxBytes);
+	}
+
+	public synchronized boolean isExpired(long now){
+		return tuples > 0 && now - openTs >= maxLatency;
+	}
+
+	public synchronized boolean isReady(long now){
+		return isFull() || isExpired(now);
+	}
+
+	/** Milliseconds until the pending batch must be flushed, Long.MAX_VALUE if nothing is pending **/
+	public synchronized long timeToDeadline(long now){
+		if(tuples == 0){
+			return Long.MAX_VALUE;
+		}
+		return Math.max(0, openTs + maxLatency - now);
+	}
+
+	public synchronized int remaining(){
+		return forced ? 0 : tupleLimit - tuples;
+	}
+
+	/** Closes the pending batch so that it is sent with the next check regardless of its size **/
+	public synchronized void close(){
+		forced = true;
+	}
+
+	public synchronized int getTupleLimit(){
+		return tupleLimit;
+	}
+
+	/** Records a batch written to the socket, feeding the size estimate and the throughput statistics **/
+	public synchronized void batchSent(long now, int batchTuples, long bytes){
+		if(batchTuples > 0 && bytes > 0){
+			double tupleBytes = (double)bytes / batchTuples;
+			avgTupleBytes = avgTupleBytes < 0 ? tupleBytes : (1 - EWMA_WEIGHT) * avgTupleBytes + EWMA_WEIGHT * tupleBytes;
+		}
+		if(stats == null){
+			return;
+		}
+		Stats.IntervalTput tput = stats.add(now, bytes);
+		if(adaptive && tput != null){
+			adapt(tput);
+		}
+	}
+
+	public synchronized void reset(){
+		tuples = 0;
+		openTs = -1;
+		forced = false;
+	}
+
+	private void adapt(Stats.IntervalTput tput){
+		if(avgTupleBytes <= 0 || tput.intervalTput <= 0){
+			return;
+		}
+		// Stats reports Kb/s
+		double bytesPerMs = tput.intervalTput * 1024 / 8 / 1000;
+		double targetBytes = Math.min(maxBytes, bytesPerMs * maxLatency * LATENCY_SHARE);
+		int newLimit = (int)Math.max(1, Math.min(maxTuples, targetBytes / avgTupleBytes));
+		if(newLimit != tupleLimit){
+			LOG.debug("Adapting batch limit from "+tupleLimit+" to "+newLimit+" tuples, tput="+tput.intervalTput+", avgTupleBytes="+avgTupleBytes);
+			tupleLimit = newLimit;
+		}
+	}
+}
@@ -26,6 +26,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import uk.ac.imperial.lsds.seep.GLOBALS;
+import uk.ac.imperial.lsds.seep.comm.ChannelOutputStream;
 import uk.ac.imperial.lsds.seep.comm.serialization.ControlTuple;
 import uk.ac.imperial.lsds.seep.comm.serialization.controlhelpers.Ack;
 import uk.ac.imperial.lsds.seep.comm.serialization.controlhelpers.BackupNodeState;
@@ -45,6 +46,7 @@ import uk.ac.imperial.lsds.seep.comm.serialization.controlhelpers.ScaleOutInfo;
 import uk.ac.imperial.lsds.seep.comm.serialization.controlhelpers.StateAck;
 import uk.ac.imperial.lsds.seep.comm.serialization.controlhelpers.StateChunk;
 import uk.ac.imperial.lsds.seep.comm.serialization.controlhelpers.UpDownRCtrl;
+import uk.ac.imperial.lsds.seep.comm.serialization.serializers.OpFailureCtrlSerializer;
 import uk.ac.imperial.lsds.seep.operator.EndPoint;
 import uk.ac.imperial.lsds.seep.processingunit.PUContext;
 import uk.ac.imperial.lsds.seep.reliable.MemoryChunk;
@@ -100,7 +102,7 @@ public class ControlDispatcher {
 		k.register(ReconfigureConnection.class);
 		//k.register(BitSet.class);
 		k.register(BitSet.class, new BitSetSerializer());
-		k.register(OpFailureCtrl.class);
+		k.register(OpFailureCtrl.class, new OpFailureCtrlSerializer());
 		k.register(FailureCtrl.class);
 		k.register(UpDownRCtrl.class);
 		k.register(DownUpRCtrl.class);
@@ -159,7 +161,7 @@ public class ControlDispatcher {
 			try{
 				//boolean compress = true;
 				boolean compress = false;
-				OutputStream outputStream = compress ? new DeflaterOutputStream(socket.getOutputStream()) : socket.getOutputStream();
+				OutputStream outputStream = compress ? new DeflaterOutputStream(ChannelOutputStream.of(socket)) : ChannelOutputStream.of(socket);
 				output = new Output(outputStream);
 				long syncStart = System.currentTimeMillis();
 				//synchronized(k){
@@ -20,6 +20,7 @@ import com.esotericsoftware.kryo.Kryo;
 import com.esotericsoftware.kryo.KryoException;
 import com.esotericsoftware.kryo.io.Output;
 
+import uk.ac.imperial.lsds.seep.comm.ChannelOutputStream;
 import uk.ac.imperial.lsds.seep.comm.serialization.ControlTuple;
 import uk.ac.imperial.lsds.seep.comm.serialization.controlhelpers.Ack;
 import uk.ac.imperial.lsds.seep.comm.serialization.controlhelpers.BackupNodeState;
@@ -39,6 +40,7 @@ import uk.ac.imperial.lsds.seep.comm.serialization.controlhelpers.ScaleOutInfo;
 import uk.ac.imperial.lsds.seep.comm.serialization.controlhelpers.StateAck;
 import uk.ac.imperial.lsds.seep.comm.serialization.controlhelpers.StateChunk;
 import uk.ac.imperial.lsds.seep.comm.serialization.controlhelpers.UpDownRCtrl;
+import uk.ac.imperial.lsds.seep.comm.serialization.serializers.OpFailureCtrlSerializer;
 import uk.ac.imperial.lsds.seep.reliable.MemoryChunk;
 import com.esotericsoftware.kryo.serializers.MapSerializer;
 import de.javakaffee.kryoserializers.BitSetSerializer;
@@ -90,7 +92,7 @@ public class ControlDispatcherWorker implements Runnable
 		k.register(ReconfigureConnection.class);
 		//k.register(BitSet.class);
 		k.register(BitSet.class, new BitSetSerializer());
-		k.register(OpFailureCtrl.class);
+		k.register(OpFailureCtrl.class, new OpFailureCtrlSerializer());
 		k.register(FailureCtrl.class);
 		k.register(UpDownRCtrl.class);
 		k.register(DownUpRCtrl.class);
@@ -125,7 +127,7 @@ public class ControlDispatcherWorker implements Runnable
 				try{
 					//boolean compress = true;
 					boolean compress = false;
-					OutputStream outputStream = compress ? new DeflaterOutputStream(socket.getOutputStream()) : socket.getOutputStream();
+					OutputStream outputStream = compress ? new DeflaterOutputStream(ChannelOutputStream.of(socket)) : ChannelOutputStream.of(socket);
 					output = new Output(outputStream);
 					long syncStart = System.currentTimeMillis();
 					//synchronized(k){
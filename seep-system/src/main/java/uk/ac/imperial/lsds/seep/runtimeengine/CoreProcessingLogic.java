@@ -11,18 +11,14 @@
  ******************************************************************************/
 package uk.ac.imperial.lsds.seep.runtimeengine;
 
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.Serializable;
 import java.net.Socket;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.concurrent.ArrayBlockingQueue;
 
 import org.slf4j.Logger;
@@ -54,6 +50,7 @@ import uk.ac.imperial.lsds.seep.processingunit.PUContext;
 import uk.ac.imperial.lsds.seep.processingunit.StatefulProcessingUnit;
 import uk.ac.imperial.lsds.seep.reliable.BackupHandler;
 import uk.ac.imperial.lsds.seep.reliable.MemoryChunk;
+import uk.ac.imperial.lsds.seep.reliable.StateRestorer;
 import uk.ac.imperial.lsds.seep.reliable.StreamerWorker;
 import uk.ac.imperial.lsds.seep.state.Partitionable;
 import uk.ac.imperial.lsds.seep.state.StateWrapper;
@@ -260,8 +257,9 @@ public class CoreProcessingLogic implements Serializable{
 		String stateTag = stateToSplit.getStateTag();
 		TimestampTracker data_ts = stateToSplit.getData_ts();
 		StateWrapper splitted[] = null;
-		if(stateToSplit instanceof Partitionable){
-			splitted = ((Partitionable)stateToSplit).splitState(stateToSplit, key);
+		//The state implementation, not its wrapper, is what knows how to split itself
+		if(stateToSplit.getStateImpl() instanceof Partitionable){
+			splitted = ((Partitionable)stateToSplit.getStateImpl()).splitState(stateToSplit, key);
 		}
 		else{
 			LOG.warn("-> this state is not partitionable");
@@ -480,43 +478,27 @@ public class CoreProcessingLogic implements Serializable{
 	
 	//public void directReplayStateFailure(ReplayStateInfo rsi, BackupHandler bh, File folder){
 	public void directReplayStateFailure(int opId, BackupHandler bh){
-		File folder = new File("backup/");
-		String lastSessionName = bh.getLastBackupSessionName(opId);
-		List<File> filesToStream = new ArrayList<File>();
+		// Chunks of the last session backed up by opId, read from their mapped segments
+		List<InputStream> chunksToStream = bh.getStore().openChunks(opId);
 		SynchronousCommunicationChannel cci = puCtx.getCCIfromOpId(opId, "d");
 		Socket controlSocket = cci.getDownstreamControlSocket();
-		int totalNumberChunks = 0;
 		int keeperOpId = pu.getOperator().getOperatorId(); // myself
-		// Read folder and filter out files to send through the network
 		try {
-			LOG.debug("-> Request to stream to a single node");
+			LOG.debug("-> Request to stream {} chunks to a single node", chunksToStream.size());
 			Output output = new Output(controlSocket.getOutputStream());
-			///\todo{Can't all this block of code just be avoided by accessing directly the channels}
-			// ok, cause there is no simple way to access to the filechannel names. We can use the file objects that are ready to
-			// garbage collect to access to this information, saving some valuable IO interactions with the disk, not only in this block
-			// but most improtnatly below, at deserialization time
-			for(File chunkFile : folder.listFiles()){
-				String chunkName = chunkFile.getName();
-				if(matchSession(opId, chunkName, lastSessionName)){
-					totalNumberChunks++;
-					filesToStream.add(chunkFile);
-					System.out.println("Filename: "+chunkName);
-				}
-			}
 			
 			/** end test2 **/
 			
 			long timeread = 0;
 			long timewrite = 0;
 
-			for(File chunk : filesToStream){
-				System.out.println("STREAM CHUNK ("+keeperOpId+"): "+chunk.getName());
-				Input i = new Input(new FileInputStream(chunk));
-//				Input i = new Input(new FileInputStream(filesToStream.get(ig)));
+			// Chunks are decoded to tell the node that receives them who keeps them, so they cannot be transferred as they are
+			for(InputStream chunk : chunksToStream){
+				Input i = new Input(chunk);
 				long a = System.currentTimeMillis();
 				ControlTuple ct = k.readObject(i, ControlTuple.class);
 				long b = System.currentTimeMillis();
-				ct.getStateChunk().setTotalChunks(filesToStream.size());
+				ct.getStateChunk().setTotalChunks(chunksToStream.size());
 				ct.getStateChunk().setKeeperOpId(keeperOpId);
 //				ct.getStateChunk().setTotalChunks(fakechunksnumber);
 				k.writeObject(output, ct);
@@ -535,10 +517,6 @@ public class CoreProcessingLogic implements Serializable{
 			System.out.println("READ: "+timeread);
 			System.out.println("WRITE: "+timewrite);
 		}
-		catch (FileNotFoundException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		}
 		catch (IOException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
@@ -551,9 +529,6 @@ public class CoreProcessingLogic implements Serializable{
 		int _np = 0;
 		int _op = 0;
 		// END DEBUG VAR
-		File folder = new File("backup/");
-		String lastSessionName = bh.getLastBackupSessionName(oldOpId);
-		int totalNumberChunks = 0;
 		int keeperOpId = pu.getOperator().getOperatorId();
 		
 		System.out.println("Scaling out: "+oldOpId+" to new OP: "+newOpId);
@@ -569,7 +544,7 @@ public class CoreProcessingLogic implements Serializable{
 //		InetAddress oldIp = puCtx.getDCCfromOpIdInStarTopology(oldOpId).getIp();
 //		InetAddress newIp = puCtx.getDCCfromOpIdInStarTopology(newOpId).getIp();
 //		
-		List<File> filesToStream = new ArrayList<File>();
+		List<InputStream> chunksToStream = bh.getStore().openChunks(oldOpId);
 		
 		try{
 //			Socket oldS = new Socket(oldIp, Main.CONTROL_SOCKET+oldOpId);
@@ -577,16 +552,7 @@ public class CoreProcessingLogic implements Serializable{
 			
 			Output oldO = new Output(oldS.getOutputStream());
 			Output newO = new Output(newS.getOutputStream());
-			// Get files to replay
-			for(File chunkFile : folder.listFiles()){
-				String chunkName = chunkFile.getName();
-				if(matchSession(oldOpId, chunkName, lastSessionName)){
-					totalNumberChunks++;
-					filesToStream.add(chunkFile);
-					System.out.println("Filename: "+chunkName);
-				}
-			}
-System.out.println("there are: "+filesToStream.size()+" to stream");
+			LOG.debug("There are {} chunks to stream", chunksToStream.size());
 
 //			// There is a fixed size per chunk, so there is an upper bound size per partition. Let's then
 //			// make dynamically-sized chunks.
@@ -612,12 +578,13 @@ System.out.println("there are: "+filesToStream.size()+" to stream");
 			t1.start();
 			t2.start();
 			
-			for(File chunk : filesToStream){
-				System.out.println("Splitting file: "+chunk.getName());
+			for(InputStream chunk : chunksToStream){
 				currentNumberBatch++;
-				i = new Input(new FileInputStream(chunk));
+				i = new Input(chunk);
 				long a = System.currentTimeMillis();
 				ControlTuple ct = k.readObject(i, ControlTuple.class);
+				// Done with the chunk, so its session can go once superseded
+				i.close();
 				long b = System.currentTimeMillis();
 				readFromDiskTime += (b-a);
 				MemoryChunk mc = ct.getStateChunk().getMemoryChunk();
@@ -713,51 +680,53 @@ System.out.println("there are: "+filesToStream.size()+" to stream");
 		}
 	}
 	
-	private boolean matchSession(int opId, String fileName, String sessionName){
-		String[] splits = fileName.split("_");
-		return (splits[2].equals(sessionName) && splits[1].equals(new Integer(opId).toString()));
-	}
-	
-	// Structure and method to keep tracking of merging state
-	private Set<Integer> activeOpStreaming = new HashSet<Integer>();
-	long mergeTotal = 0;
+	// Restores the state streamed by peers after a failure
+	private StateRestorer restorer = null;
 	public void handleNewChunk(StateChunk stateChunk){
 		// First we check who is sending this chunk
 		int opId = stateChunk.getKeeperOpId();
-		System.out.println("STATE CHUNK FROM : "+opId);
-		// If not in state merging state
-		if(!pu.getSystemStatus().equals(StatefulProcessingUnit.SystemStatus.MERGING_STATE)){
-			// change to merging state
-			pu.setSystemStatus(StatefulProcessingUnit.SystemStatus.MERGING_STATE);
-			((StatefulProcessingUnit)pu).resetState();
+		LOG.debug("State chunk from: {}", opId);
+		StateRestorer r;
+		synchronized(this){
+			// If not in state merging state
+			if(restorer == null){
+				// change to merging state, input is discarded until the state is restored and upstreams replay it
+				restorer = new StateRestorer(((StatefulProcessingUnit)pu).getStreamableState(), recoveryMergers(), new Runnable(){
+					public void run() {
+						stateRestored();
+					}
+				});
+				pu.setSystemStatus(StatefulProcessingUnit.SystemStatus.MERGING_STATE);
+			}
+			r = restorer;
 		}
 		// If null means this operator has finished streaming
 		if(stateChunk.getMemoryChunk() == null){
-			activeOpStreaming.remove(opId);
 			LOG.debug("OP: {} has finished streaming", opId);
-			if(activeOpStreaming.size() == 0){
-				// finished merging state
-				LOG.debug("Finished merging streaming state");
-				System.out.println("TOTAL MERGING TIME: "+mergeTotal);
-				((StatefulProcessingUnit)pu).mergeChunkToState(null);
-				ControlTuple rb = new ControlTuple().makeStateAck(owner.getNodeDescr().getNodeId(), pu.getOperator().getOperatorId());
-				owner.getControlDispatcher().sendAllUpstreams(rb);
-				// No longer merging state
-				pu.setSystemStatus(StatefulProcessingUnit.SystemStatus.NORMAL);
-			}
+			r.finish(opId);
 		}
-		// an active operator sends us a chunk
+		// an active operator sends us a chunk, split to be merged concurrently with those of the others
 		else{
-			// New chunk to merge. We state this op is actively streaming
-			activeOpStreaming.add(opId);
-			LOG.debug("New OP streaming: {}", opId);		
-//			// And we call the correct function to merge the state
-			long a = System.currentTimeMillis();
-			((StatefulProcessingUnit)pu).mergeChunkToState(stateChunk);
-			long b = System.currentTimeMillis();
-			mergeTotal += (b-a);
+			r.add(stateChunk);
+		}
+	}
+	
+	private void stateRestored(){
+		LOG.debug("Finished merging streaming state");
+		ControlTuple rb = new ControlTuple().makeStateAck(owner.getNodeDescr().getNodeId(), pu.getOperator().getOperatorId());
+		owner.getControlDispatcher().sendAllUpstreams(rb);
+		synchronized(this){
+			// No longer merging state
+			pu.setSystemStatus(StatefulProcessingUnit.SystemStatus.NORMAL);
+			restorer = null;
 		}
 	}
+	
+	private int recoveryMergers(){
+		String mergers = GLOBALS.valueFor("recoveryMergers");
+		int n = mergers == null ? 0 : Integer.parseInt(mergers.trim());
+		return n > 0 ? n : Runtime.getRuntime().availableProcessors();
+	}
 
 	public void propagateNewKeys(int[] bounds, int oldOpIndex, int newOpIndex) {
 		int splittingKey = (int)(bounds[1]-bounds[0])/2;
@@ -37,9 +37,11 @@ import uk.ac.imperial.lsds.seep.comm.OutgoingDataHandlerWorker;
 import uk.ac.imperial.lsds.seep.comm.routing.Router;
 import uk.ac.imperial.lsds.seep.comm.serialization.ControlTuple;
 import uk.ac.imperial.lsds.seep.comm.serialization.DataTuple;
+import uk.ac.imperial.lsds.seep.comm.serialization.TupleSchema;
 import uk.ac.imperial.lsds.seep.comm.serialization.controlhelpers.Ack;
 import uk.ac.imperial.lsds.seep.comm.serialization.controlhelpers.BackupOperatorState;
 import uk.ac.imperial.lsds.seep.comm.serialization.controlhelpers.FailureCtrl;
+import uk.ac.imperial.lsds.seep.comm.serialization.controlhelpers.FailureCtrlDeltas;
 import uk.ac.imperial.lsds.seep.comm.serialization.controlhelpers.UpDownRCtrl;
 import uk.ac.imperial.lsds.seep.comm.serialization.controlhelpers.ReconfigureConnection;
 import uk.ac.imperial.lsds.seep.comm.serialization.controlhelpers.Resume;
@@ -79,6 +81,8 @@ public class CoreRE {
 	private final boolean enableDummies = Boolean.parseBoolean(GLOBALS.valueFor("sendDummyFailureControlTraffic"));
 	private final boolean mergeFailureAndRoutingCtrl = Boolean.parseBoolean(GLOBALS.valueFor("mergeFailureAndRoutingCtrl"));
 	private final Map<Integer, ControlTuple> lastUpOpIndexFctrls = new ConcurrentHashMap<Integer, ControlTuple>();
+	private final FailureCtrlDeltas upFctrlDeltas = new FailureCtrlDeltas();
+	private final FailureCtrlDeltas downFctrlDeltas = new FailureCtrlDeltas();
 	private final boolean enableUpstreamRoutingControl = Boolean.parseBoolean(GLOBALS.valueFor("enableUpstreamRoutingControl")); 
 	private final boolean multiHopReplayOptimization = Boolean.parseBoolean(GLOBALS.valueFor("optimizeReplay")) && Boolean.parseBoolean(GLOBALS.valueFor("multiHopReplayOptimization")) && !GLOBALS.valueFor("frontierRouting").equals("broadcast"); 
 	private WorkerNodeDescription nodeDescr = null;
@@ -207,13 +211,13 @@ public class CoreRE {
 		if(processingUnit.isOperatorReady()){
 			LOG.info("-> All operators in this unit are ready. Initializing communications...");
 			// Once the operators are in the node, we extract and declare how they will handle data tuples
-			Map<String, Integer> idxMapper = processingUnit.createTupleAttributeMapper();
+			TupleSchema schema = processingUnit.createTupleSchema();
 			processingUnit.initOperator();
-			initializeCommunications(idxMapper);
+			initializeCommunications(schema);
 		}
 	}
 	
-	public void initializeCommunications(Map<String, Integer> tupleIdxMapper){
+	public void initializeCommunications(TupleSchema tupleSchema){
 		int numDownstreams = processingUnit.getOperator().getOpContext().getDownstreamOpIdList().size();
 		outputQueues = new ArrayList<>(numDownstreams);
 		for (int i = 0; i < numDownstreams; i++)
@@ -261,7 +265,7 @@ public class CoreRE {
 		} 
 
 		
-		idh = new IncomingDataHandler(this, inD, tupleIdxMapper, dsa, ctrlQueues);
+		idh = new IncomingDataHandler(this, inD, tupleSchema, dsa, ctrlQueues);
 		iDataH = new Thread(idh, "dataHandlerT");
 		//Consumer worker
 		dataConsumer = new DataConsumer(this, dsa);
@@ -641,6 +645,10 @@ public class CoreRE {
 		processingUnit.processData(data);
 	}
 	
+	public void forwardData(int upstreamOpId, DataTuple data){
+		processingUnit.processData(upstreamOpId, data);
+	}
+	
 	public int getBackupUpstreamIndex() {
 		return backupUpstreamIndex;
 	}
@@ -1037,6 +1045,7 @@ public class CoreRE {
 				processingUnit.stopConnection(opId);
 			} 
 			processingUnit.reconfigureOperatorConnection(opId, ip);
+			resetFailureCtrlDeltas(opId);
 			
 			if(command.equals("reconfigure_U")){
 				coreProcessLogic.sendRoutingInformation(opId, rc.getOperatorType());
@@ -1077,6 +1086,7 @@ public class CoreRE {
 //				dsa.reconfigureNumUpstream(originalOpId, upstreamSize);
 				dsa.reconfigureNumUpstream(originalOpId, upstreamSizeForBarrier);
 			}
+			resetFailureCtrlDeltas(opId);
 			controlDispatcher.ackControlMessage(genericAck, os);
 		}
 		/** SYSTEM READY message **/
@@ -1122,6 +1132,16 @@ public class CoreRE {
 		}
 	}
 	
+	/** The next failure ctrl sent to opId is a full one, as it may be a new instance that has none of the previous ones. **/
+	private void resetFailureCtrlDeltas(int opId)
+	{
+		OperatorContext opContext = processingUnit.getOperator().getOpContext();
+		int downOpIndex = opContext.getDownOpIndexFromOpId(opId);
+		if (downOpIndex >= 0) { downFctrlDeltas.reset(downOpIndex); }
+		int upOpIndex = opContext.getUpOpIndexFromOpId(opId);
+		if (upOpIndex >= 0) { upFctrlDeltas.reset(upOpIndex); }
+	}
+	
 	public void ack(TimestampTracker tsVector) {
 		// ack per input channel
 		Iterator<Entry<Integer, Long>> i = tsVector.getTsStream();
@@ -1158,7 +1178,7 @@ public class CoreRE {
 					frontierQuery.getLogicalNodeId(upOpId)));
 			if (!downstreamsRoutable) { upFctrl = purgeFctrl; }
 			LOG.debug("Writing failure ctrl, node="+nodeFctrl+",upOp="+upFctrl);
-			ControlTuple ct = new ControlTuple(ControlTupleType.FAILURE_CTRL, opId , upFctrl);
+			ControlTuple ct = new ControlTuple(ControlTupleType.FAILURE_CTRL, upFctrlDeltas.next(upOpIndex, opId, upFctrl));
 			boolean bestEffortAcks = "true".equals(GLOBALS.valueFor("bestEffortAcks"));
 
 			if (!piggybackControlTraffic || !mergeFailureAndRoutingCtrl || routingController == null)
@@ -1167,6 +1187,9 @@ public class CoreRE {
 			}
 			else
 			{
+				// The routing controller may not have sent the previous one, keep its acks
+				ControlTuple prevCt = lastUpOpIndexFctrls.get(upOpIndex);
+				if (prevCt != null) { ct.getOpFailureCtrl().coalesce(prevCt.getOpFailureCtrl()); }
 				lastUpOpIndexFctrls.put(upOpIndex, ct);
 			}
 
@@ -1185,7 +1208,7 @@ public class CoreRE {
 		{
 			int downOpId = processingUnit.getOperator().getOpContext().getDownOpIdFromIndex(downOpIndex);
 			LOG.debug("Writing failure ctrl to down op id="+downOpId+",fctrl="+noAlives);
-			ControlTuple ct = new ControlTuple(ControlTupleType.FAILURE_CTRL, opId, noAlives);
+			ControlTuple ct = new ControlTuple(ControlTupleType.FAILURE_CTRL, downFctrlDeltas.next(downOpIndex, opId, noAlives));
 			//Why don't I care about this failing here?
 			if (!piggybackControlTraffic)
 			{
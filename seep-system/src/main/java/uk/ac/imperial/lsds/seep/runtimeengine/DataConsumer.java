@@ -13,11 +13,21 @@ package uk.ac.imperial.lsds.seep.runtimeengine;
 import java.util.ArrayList;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import uk.ac.imperial.lsds.seep.GLOBALS;
 import uk.ac.imperial.lsds.seep.comm.serialization.DataTuple;
+import uk.ac.imperial.lsds.seep.infrastructure.monitor.latency.LatencyHistogram;
+import uk.ac.imperial.lsds.seep.infrastructure.monitor.latency.LatencyStage;
+import uk.ac.imperial.lsds.seep.infrastructure.monitor.latency.StageLatencies;
+import uk.ac.imperial.lsds.seep.operator.KeyLocalProcessing;
+import uk.ac.imperial.lsds.seep.operator.Operator;
+import uk.ac.imperial.lsds.seep.state.Partitionable;
+import uk.ac.imperial.lsds.seep.state.StateWrapper;
 
 public class DataConsumer implements Runnable {
 
@@ -25,6 +35,9 @@ public class DataConsumer implements Runnable {
 	private CoreRE owner;
 	private DataStructureAdapter dataAdapter;
 	private boolean doWork = true;
+	// Barriers record the input queue wait themselves, when batches are pulled
+	private final LatencyHistogram queueLatency = StageLatencies.histogram(LatencyStage.INPUT_QUEUE);
+	private final LatencyHistogram processingLatency = StageLatencies.histogram(LatencyStage.PROCESSING);
 	
 	public void setDoWork(boolean doWork){
 		this.doWork = doWork;
@@ -42,7 +55,7 @@ public class DataConsumer implements Runnable {
 		if(inputDataModeMap.size() > 1){
 			logger.info("Multiple input data ingestion modes.");
 			for(Entry<Integer, DataStructureI> entry : inputDataModeMap.entrySet()){
-				DataConsumerWorker dcw = new DataConsumerWorker(entry.getValue());
+				DataConsumerWorker dcw = new DataConsumerWorker(entry.getKey(), entry.getValue());
 				Thread worker = new Thread(dcw);
 				worker.start();
 			}
@@ -52,21 +65,31 @@ public class DataConsumer implements Runnable {
 			logger.info("1 input data ingestion mode.");
 			DataStructureI dso = dataAdapter.getUniqueDso();
 			if(dso instanceof InputQueue || dso instanceof OutOfOrderInputQueue || dso instanceof OutOfOrderFairInputQueue){
-				logger.info("Pulling from input queue");
-				while(doWork){
-					DataTuple data = dso.pull();
-//					DataTuple[] dataBatch = ((InputQueue)dso).pullMiniBatch();
-					if(owner.checkSystemStatus()){
-						owner.forwardData(data);
-//						for(int i = 0; i<dataBatch.length; i++){
-//							DataTuple data = dataBatch[i];
-//							if(data != null)
-//								owner.forwardData(data);
-//							else
-//								break;
-//						}
+				int workers = numWorkers(dso);
+				if(workers > 1 && owner.getProcessingUnit().isNodeStateful()){
+					String keyAttribute = partitionKey(owner.getProcessingUnit().getOperator());
+					if(keyAttribute != null){
+						logger.info("Pulling from input queue, {} workers partitioned on {}", workers, keyAttribute);
+						partition(dso, keyAttribute, workers);
+						return;
+					}
+					workers = 1;
+				}
+				if(workers > 1){
+					logger.info("Pulling from input queue, {} workers", workers);
+					for(int i = 1; i < workers; i++){
+						final DataStructureI queue = dso;
+						new Thread(new Runnable(){
+							public void run(){
+								consume(queue);
+							}
+						}, "dataConsumerT-"+i).start();
 					}
 				}
+				else{
+					logger.info("Pulling from input queue");
+				}
+				consume(dso);
 			}
 			else if(dso instanceof Barrier || dso instanceof OutOfOrderBufferedBarrier || dso instanceof OutOfOrderFairBufferedBarrier){
 				logger.info("Pulling from barrier");
@@ -74,8 +97,11 @@ public class DataConsumer implements Runnable {
 					ArrayList<DataTuple> ldata = dso.pull_from_barrier();
 					logger.debug("Pulled from barrier");
 					if(owner.checkSystemStatus()){
-						logger.debug("Forwarding data: "+ldata);
+						logger.debug("Forwarding data: {}", ldata);
+						long processStart = System.nanoTime();
 						owner.forwardData(ldata);
+						processingLatency.record((System.nanoTime() - processStart) / 1000);
+						release(ldata);
 					}
 					logger.debug("Next.");
 				}
@@ -87,10 +113,138 @@ public class DataConsumer implements Runnable {
 		}
 	}
 	
+	private void consume(DataStructureI dso){
+		while(doWork){
+			DataTuple data = dso.pull();
+//			DataTuple[] dataBatch = ((InputQueue)dso).pullMiniBatch();
+			if(owner.checkSystemStatus()){
+				forward(data);
+//				for(int i = 0; i<dataBatch.length; i++){
+//					DataTuple data = dataBatch[i];
+//					if(data != null)
+//						owner.forwardData(data);
+//					else
+//						break;
+//				}
+			}
+		}
+	}
+	
+	private void forward(DataTuple data){
+		if(data != null) { queueLatency.recordMillis(System.currentTimeMillis() - data.getPayload().local_ts); }
+		long processStart = System.nanoTime();
+		owner.forwardData(data);
+		processingLatency.record((System.nanoTime() - processStart) / 1000);
+		if(data != null) { data.release(); }
+	}
+	
+	/**
+	 * Routes the tuples pulled from dso to one of workers threads by the hash of their key, so that the tuples of
+	 * a key are still processed one at a time and in the order they were received
+	 */
+	void partition(DataStructureI dso, String keyAttribute, int workers){
+		int capacity = Integer.parseInt(GLOBALS.valueFor("inputQueueLength"));
+		ArrayList<BlockingQueue<DataTuple>> partitions = new ArrayList<BlockingQueue<DataTuple>>(workers);
+		for(int i = 0; i < workers; i++){
+			BlockingQueue<DataTuple> partition = new ArrayBlockingQueue<DataTuple>(capacity);
+			partitions.add(partition);
+			new Thread(new PartitionWorker(partition), "dataConsumerT-"+i).start();
+		}
+		while(doWork){
+			DataTuple data = dso.pull();
+			if(data == null){ continue; }
+			Object key = data.getValue(keyAttribute);
+			int idx = key == null ? 0 : (key.hashCode() & Integer.MAX_VALUE) % workers;
+			try {
+				partitions.get(idx).put(data);
+			}
+			catch (InterruptedException e) {
+				logger.error("Interrupted routing to partition {}", idx);
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * Threads to process the input with, 1 unless operatorWorkers says otherwise and the input is out of order.
+	 * The in order InputQueue acks what it has processed by timestamp, so it needs the tuples in order
+	 */
+	private int numWorkers(DataStructureI dso){
+		String workers = GLOBALS.valueFor("operatorWorkers");
+		int n = workers == null ? 1 : Integer.parseInt(workers.trim());
+		if(n > 1 && !(dso instanceof OutOfOrderInputQueue || dso instanceof OutOfOrderFairInputQueue)){
+			logger.warn("operatorWorkers={} ignored, input queue is not out of order", n);
+			return 1;
+		}
+		return n;
+	}
+	
+	/**
+	 * Attribute to partition the input of op on, the key of its state if it is Partitionable, else of its context,
+	 * or null if op cannot process several keys at a time, i.e. it is not KeyLocalProcessing or has no key
+	 */
+	static String partitionKey(Operator op){
+		if(!(op.getOperatorCode() instanceof KeyLocalProcessing)){
+			// Its processData may touch fields shared across keys, e.g. windows or the last seen tuples
+			logger.warn("Stateful operator not key local, ignoring operatorWorkers");
+			return null;
+		}
+		StateWrapper state = op.getStateWrapper();
+		String keyAttribute = null;
+		if(state != null && state.getStateImpl() instanceof Partitionable){
+			keyAttribute = ((Partitionable)state.getStateImpl()).getKeyAttribute();
+		}
+		if(keyAttribute == null){
+			keyAttribute = op.getOpContext().getKeyAttribute();
+		}
+		if(keyAttribute == null){
+			// Not safe to process tuples of a state we cannot partition concurrently, keep a single worker
+			logger.warn("Stateful operator without key attribute, ignoring operatorWorkers");
+		}
+		return keyAttribute;
+	}
+	
+	// Received tuples go back to the pool of their connection, if any, once processed
+	private void release(ArrayList<DataTuple> ldata){
+		for(DataTuple dt : ldata){
+			if(dt != null){
+				dt.release();
+			}
+		}
+	}
+	
+	class PartitionWorker implements Runnable{
+		
+		private BlockingQueue<DataTuple> partition;
+		public PartitionWorker(BlockingQueue<DataTuple> partition){
+			this.partition = partition;
+		}
+		
+		@Override
+		public void run() {
+			while(doWork){
+				DataTuple data;
+				try {
+					data = partition.take();
+				}
+				catch (InterruptedException e) {
+					logger.error("Partition worker interrupted");
+					return;
+				}
+				if(owner.checkSystemStatus()){
+					forward(data);
+				}
+			}
+		}
+	}
+	
 	class DataConsumerWorker implements Runnable{
 		
+		private int upstreamOpId;
 		private DataStructureI dsi = null;
-		public DataConsumerWorker(DataStructureI dsi){
+		public DataConsumerWorker(int upstreamOpId, DataStructureI dsi){
+			this.upstreamOpId = upstreamOpId;
 			this.dsi = dsi;
 		}
 
@@ -101,7 +255,12 @@ public class DataConsumer implements Runnable {
 				while(doWork){
 					DataTuple data = dsi.pull();
 					if(owner.checkSystemStatus()){
-						owner.forwardData(data);
+						if(data != null) { queueLatency.recordMillis(System.currentTimeMillis() - data.getPayload().local_ts); }
+						long processStart = System.nanoTime();
+						// Tuples of each input are tagged with their upstream, for operators with several inputs
+						owner.forwardData(upstreamOpId, data);
+						processingLatency.record((System.nanoTime() - processStart) / 1000);
+						if(data != null) { data.release(); }
 					}
 				}
 			}
@@ -110,7 +269,10 @@ public class DataConsumer implements Runnable {
 				while(doWork){
 					ArrayList<DataTuple> ldata = dsi.pull_from_barrier();
 					if(owner.checkSystemStatus()){
+						long processStart = System.nanoTime();
 						owner.forwardData(ldata);
+						processingLatency.record((System.nanoTime() - processStart) / 1000);
+						release(ldata);
 					}
 				}
 			}
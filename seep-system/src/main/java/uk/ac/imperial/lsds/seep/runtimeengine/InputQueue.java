@@ -124,7 +124,7 @@ public class InputQueue implements DataStructureI{
 
 	@Override
 	public int size() {
-		throw new UnsupportedOperationException();
+		return inputQueue.size();
 	}
 	
 	
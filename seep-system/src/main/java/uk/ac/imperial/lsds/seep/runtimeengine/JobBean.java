@@ -11,6 +11,7 @@
 package uk.ac.imperial.lsds.seep.runtimeengine;
 
 import java.net.InetAddress;
+import java.util.concurrent.Semaphore;
 
 import uk.ac.imperial.lsds.seep.comm.serialization.ControlTuple;
 
@@ -18,10 +19,19 @@ public class JobBean {
 
 	public InetAddress ip;
 	public ControlTuple msg;
+	// Index of ip in the star topology, and the chunks in flight to it, released once msg is sent
+	public int destination = -1;
+	public Semaphore inFlight = null;
 	
 	public JobBean(InetAddress ip, ControlTuple msg){
 		this.ip = ip;
 		this.msg = msg;
 	}
 	
+	public JobBean(InetAddress ip, ControlTuple msg, int destination, Semaphore inFlight){
+		this(ip, msg);
+		this.destination = destination;
+		this.inFlight = inFlight;
+	}
+	
 }
@@ -22,6 +22,9 @@ import uk.ac.imperial.lsds.seep.GLOBALS;
 import uk.ac.imperial.lsds.seep.comm.serialization.DataTuple;
 import uk.ac.imperial.lsds.seep.comm.serialization.controlhelpers.DownUpRCtrl;
 import uk.ac.imperial.lsds.seep.comm.serialization.controlhelpers.FailureCtrl;
+import uk.ac.imperial.lsds.seep.infrastructure.monitor.latency.LatencyHistogram;
+import uk.ac.imperial.lsds.seep.infrastructure.monitor.latency.LatencyStage;
+import uk.ac.imperial.lsds.seep.infrastructure.monitor.latency.StageLatencies;
 import uk.ac.imperial.lsds.seep.manet.Query;
 
 public class OutOfOrderBufferedBarrier implements DataStructureI {
@@ -41,6 +44,8 @@ public class OutOfOrderBufferedBarrier implements DataStructureI {
 	private final boolean boundReadyQueue;
 	private final long barrierTimeout;
 	private final BarrierTimeoutMonitor barrierTimeoutMonitor;
+	private final LatencyHistogram[] pendingLatencies;	//Per logical input
+	private final LatencyHistogram readyLatency;
 	
 	public OutOfOrderBufferedBarrier(Query frontierQuery, int opId)
 	{
@@ -69,11 +74,14 @@ public class OutOfOrderBufferedBarrier implements DataStructureI {
 		if (numLogicalInputs != 2) { throw new RuntimeException("TODO"); }
 		inputFctrls = new ArrayList<>(numLogicalInputs);	//TODO: Bit redundant to have per input fctrls?
 		pending = new ArrayList<>(numLogicalInputs);
+		pendingLatencies = new LatencyHistogram[numLogicalInputs];
 		for (int i = 0; i < numLogicalInputs; i++)
 		{
 			pending.add(new TreeMap<Long, DataTuple>());
 			inputFctrls.add(new FailureCtrl());
+			pendingLatencies[i] = StageLatencies.histogram(LatencyStage.BARRIER, i);
 		}
+		readyLatency = StageLatencies.histogram(LatencyStage.INPUT_QUEUE);
 	}
 	
 	//TODO: Note the incoming data handler worker
@@ -145,17 +153,14 @@ public class OutOfOrderBufferedBarrier implements DataStructureI {
 		}
 		
 		long readyTime = System.currentTimeMillis();
-		String msg  = "Pending latencies for ts="+ts+":";
 		for (int i = 0; i < readyBatches.size(); i++)
 		{
 			if (readyBatches.get(i) == null) { continue; }
-			long latency = readyTime - readyBatches.get(i).getPayload().instrumentation_ts;
 			long pendingLatency = readyTime - readyBatches.get(i).getPayload().local_ts;
 			readyBatches.get(i).getPayload().local_ts = readyTime;
-			msg += "idx="+i+";latency="+latency+";pending="+pendingLatency;
-			if (i < readyBatches.size() - 1) { msg += ","; }
+			pendingLatencies[i].recordMillis(pendingLatency);
+			if (logger.isDebugEnabled()) { logger.debug("Pending latency for ts="+ts+",idx="+i+";latency="+(readyTime - readyBatches.get(i).getPayload().instrumentation_ts)+";pending="+pendingLatency); }
 		}
-		logger.debug(msg);
 		
 		//TODO: Clear any timers for this ts
 		
@@ -175,19 +180,16 @@ public class OutOfOrderBufferedBarrier implements DataStructureI {
 				logger.warn("Unexpectedly interrupted while waiting on barrier.");
 			}
 		}
-		logger.debug("Pulling batches with ts="+ready.firstKey());
+		if (logger.isDebugEnabled()) { logger.debug("Pulling batches with ts="+ready.firstKey()); }
 		ArrayList<DataTuple> dts = ready.remove(ready.firstKey());
 		
 		long pullEnd = System.currentTimeMillis();
 		for (int i = 0; i < dts.size(); i++)
 		{
 			if (dts.get(i) == null) { continue; }
-			long ts = dts.get(i).getPayload().timestamp;
-			long latency = pullEnd - dts.get(i).getPayload().instrumentation_ts;
 			long pullLatency = pullEnd - dts.get(i).getPayload().local_ts;
-			long pullReadTime = pullEnd - pullStart;
-			
-			logger.debug("Pulled tuple with ts="+ts+",latency="+latency+",pullLatency="+pullLatency+",pullReadTime="+pullReadTime);
+			readyLatency.recordMillis(pullLatency);
+			if (logger.isDebugEnabled()) { logger.debug("Pulled tuple with ts="+dts.get(i).getPayload().timestamp+",latency="+(pullEnd - dts.get(i).getPayload().instrumentation_ts)+",pullLatency="+pullLatency+",pullReadTime="+(pullEnd - pullStart)); }
 		}
 		for (DataTuple dt : dts) 
 		{ 
@@ -246,7 +248,7 @@ public class OutOfOrderBufferedBarrier implements DataStructureI {
 		while (qIter.hasNext())
 		{
 			Long ts = qIter.next();
-			if (ts <= downFctrl.lw() || downFctrl.acks().contains(ts)
+			if (downFctrl.isAcked(ts)
 					|| (!reprocessNonLocals && downFctrl.alives().contains(ts)))
 			{
 				qIter.remove();
@@ -1,40 +1,52 @@
 package uk.ac.imperial.lsds.seep.runtimeengine;
 
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectRBTreeMap;
+import it.unimi.dsi.fastutil.longs.LongIterator;
+
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Iterator;
 import java.util.Map;
-import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
-import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.Condition;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.common.collect.Range;
 import com.google.common.collect.RangeSet;
-import com.google.common.collect.TreeRangeSet;
 
 import uk.ac.imperial.lsds.seep.GLOBALS;
 import uk.ac.imperial.lsds.seep.comm.serialization.DataTuple;
 import uk.ac.imperial.lsds.seep.comm.serialization.RangeUtil;
 import uk.ac.imperial.lsds.seep.comm.serialization.controlhelpers.FailureCtrl;
+import uk.ac.imperial.lsds.seep.infrastructure.monitor.latency.LatencyHistogram;
+import uk.ac.imperial.lsds.seep.infrastructure.monitor.latency.LatencyStage;
+import uk.ac.imperial.lsds.seep.infrastructure.monitor.latency.StageLatencies;
 import uk.ac.imperial.lsds.seep.manet.Query;
 
+/**
+ * Joins the tuples of each timestamp from all the logical inputs. The pending tuples are striped by timestamp, each
+ * stripe with its own lock, so that upstreams pushing different timestamps do not contend. Only the ready queue is
+ * shared, under a lock of its own, with separate conditions for the consumer (not empty) and the producers (not full).
+ * Purging locks all the stripes, in order, so that no tuple it purges can be pushed back meanwhile.
+ */
 public class OutOfOrderFairBufferedBarrier implements DataStructureI {
 
 	private final static Logger logger = LoggerFactory.getLogger(OutOfOrderFairBufferedBarrier.class);
+	private final static int NUM_STRIPES = 16;	//Power of two
 	private final int opId;
 	private final int logicalId;
 	private final Query frontierQuery;
 	private final int numLogicalInputs;
-	private final ArrayList<TreeMap<Long, DataTuple>> pending;	//Unbounded
-	private final TreeMap<Long, ArrayList<DataTuple>> ready = new TreeMap<Long, ArrayList<DataTuple>>();
+	private final Stripe[] stripes;	//Pending tuples, unbounded
+	private final AtomicIntegerArray pendingSizes;	//Per logical input
+	private final Long2ObjectRBTreeMap<ArrayList<DataTuple>> ready = new Long2ObjectRBTreeMap<ArrayList<DataTuple>>();
 	private final ArrayList<FailureCtrl> inputFctrls;
 	private final boolean optimizeReplay;
 	private final boolean bestEffort;
@@ -43,8 +55,13 @@ public class OutOfOrderFairBufferedBarrier implements DataStructureI {
 	private final boolean boundReadyQueue;
 	private final long barrierTimeout;
 	private final BarrierTimeoutMonitor barrierTimeoutMonitor;
-	private final ReentrantLock lock = new ReentrantLock(true){};
-	private final Condition cond = lock.newCondition();
+	private final LatencyHistogram[] pendingLatencies;	//Per logical input
+	private final LatencyHistogram readyLatency;
+	private final int minUpOpId;
+	private final int[] upOpInputIndexes;	//Logical input index of each upstream, by upOpId - minUpOpId, -1 if unknown
+	private final ReentrantLock readyLock = new ReentrantLock(true){};
+	private final Condition notEmpty = readyLock.newCondition();
+	private final Condition notFull = readyLock.newCondition();
 	
 	public OutOfOrderFairBufferedBarrier(Query frontierQuery, int opId)
 	{
@@ -72,11 +89,37 @@ public class OutOfOrderFairBufferedBarrier implements DataStructureI {
 		
 		if (numLogicalInputs != 2) { throw new RuntimeException("TODO"); }
 		inputFctrls = new ArrayList<>(numLogicalInputs);	//TODO: Bit redundant to have per input fctrls?
-		pending = new ArrayList<>(numLogicalInputs);
+		pendingSizes = new AtomicIntegerArray(numLogicalInputs);
+		pendingLatencies = new LatencyHistogram[numLogicalInputs];
 		for (int i = 0; i < numLogicalInputs; i++)
 		{
-			pending.add(new TreeMap<Long, DataTuple>());
 			inputFctrls.add(new FailureCtrl());
+			pendingLatencies[i] = StageLatencies.histogram(LatencyStage.BARRIER, i);
+		}
+		stripes = new Stripe[NUM_STRIPES];
+		for (int i = 0; i < NUM_STRIPES; i++) { stripes[i] = new Stripe(numLogicalInputs); }
+		readyLatency = StageLatencies.histogram(LatencyStage.INPUT_QUEUE);
+
+		//Resolve the logical input of every physical upstream once, rather than through the query maps per tuple.
+		Integer[] logicalInputs = frontierQuery.getLogicalInputs(logicalId);
+		int min = Integer.MAX_VALUE, max = Integer.MIN_VALUE;
+		for (int i = 0; i < numLogicalInputs; i++)
+		{
+			for (Object upOpId : frontierQuery.getPhysicalNodeIds(logicalInputs[i]))
+			{
+				min = Math.min(min, (Integer)upOpId);
+				max = Math.max(max, (Integer)upOpId);
+			}
+		}
+		minUpOpId = min;
+		upOpInputIndexes = new int[min > max ? 0 : max - min + 1];
+		Arrays.fill(upOpInputIndexes, -1);
+		for (int i = 0; i < numLogicalInputs; i++)
+		{
+			for (Object upOpId : frontierQuery.getPhysicalNodeIds(logicalInputs[i]))
+			{
+				upOpInputIndexes[(Integer)upOpId - minUpOpId] = i;
+			}
 		}
 	}
 	
@@ -85,30 +128,29 @@ public class OutOfOrderFairBufferedBarrier implements DataStructureI {
 	//or even the frontier query index.
 	public void push(DataTuple dt, int upOpId)
 	{
-		//synchronized(this)
-		//{
-		lock.lock();
+		long ts = dt.getPayload().timestamp;
+		int logicalInputIndex = logicalInputIndex(upOpId);
+		boolean tsReady = true;
+		Stripe stripe = stripeOf(ts);
+		stripe.lock.lock();
 		try
 		{
-			long ts = dt.getPayload().timestamp;
-			int logicalInputIndex = frontierQuery.getLogicalInputIndex(logicalId, frontierQuery.getLogicalNodeId(upOpId));
 			FailureCtrl inputFctrl = inputFctrls.get(logicalInputIndex); 
-			if (pending.get(logicalInputIndex).containsKey(ts) || inputFctrl.isAcked(ts) || inputFctrl.alives().contains(ts))
+			if (stripe.pending[logicalInputIndex].containsKey(ts) || inputFctrl.isAcked(ts) || inputFctrl.alives().contains(ts))
 			{
 				logger.debug("Ignoring tuple with ts="+ts);
 				return; 
 			}
 			
-			boolean tsReady = true;
-			pending.get(logicalInputIndex).put(ts, dt);
+			stripe.pending[logicalInputIndex].put(ts, dt);
+			pendingSizes.incrementAndGet(logicalInputIndex);
 			for (int i = 0; i < numLogicalInputs; i++)
 			{
 				if (i == logicalInputIndex) { continue; }
-				if (!pending.get(i).containsKey(ts))
+				if (!stripe.pending[i].containsKey(ts))
 				{
 					tsReady = false;
 					logger.debug("Adding "+ts+" to pending queue "+logicalInputIndex);
-					//pending.get(logicalInputIndex).put(ts, dt);
 					break;
 				}
 			}
@@ -116,16 +158,8 @@ public class OutOfOrderFairBufferedBarrier implements DataStructureI {
 			if (tsReady)
 			{
 				logger.debug("Tuple "+ts+" all ready."); 
-				addReady(ts);
+				addReady(stripe, ts);
 				if (barrierTimeoutMonitor != null) { barrierTimeoutMonitor.clear(ts); }
-				
-				while (boundReadyQueue && ready.size() > maxReadyQueueSize)
-				{
-					try {
-						//this.wait();
-						cond.await();
-					} catch (InterruptedException e) {}
-				}
 			}
 			else if (barrierTimeoutMonitor != null)
 			{
@@ -136,93 +170,115 @@ public class OutOfOrderFairBufferedBarrier implements DataStructureI {
 				barrierTimeoutMonitor.set(ts, delay);
 			}
 		}
-		finally { lock.unlock(); }
+		finally { stripe.lock.unlock(); }
+
+		//Wait for room without holding the stripe, so that other timestamps in it still join.
+		if (tsReady && boundReadyQueue)
+		{
+			readyLock.lock();
+			try
+			{
+				while (ready.size() > maxReadyQueueSize)
+				{
+					try {
+						notFull.await();
+					} catch (InterruptedException e) {}
+				}
+			}
+			finally { readyLock.unlock(); }
+		}
+	}
+	
+	private int logicalInputIndex(int upOpId)
+	{
+		int idx = upOpId - minUpOpId;
+		if (idx >= 0 && idx < upOpInputIndexes.length && upOpInputIndexes[idx] >= 0) { return upOpInputIndexes[idx]; }
+		//Not an upstream when the barrier was created
+		return frontierQuery.getLogicalInputIndex(logicalId, frontierQuery.getLogicalNodeId(upOpId));
 	}
 	
-	//Assumes lock held
-	private void addReady(long ts)
+	private Stripe stripeOf(long ts)
+	{
+		return stripes[(int)(ts ^ (ts >>> 32)) & (NUM_STRIPES - 1)];
+	}
+	
+	//Assumes the lock of the stripe held
+	private void addReady(Stripe stripe, long ts)
 	{
 		ArrayList<DataTuple> readyBatches = new ArrayList<>(numLogicalInputs);
 		for (int i = 0; i < numLogicalInputs; i++)
 		{
 			if (!bestEffort) { inputFctrls.get(i).updateAlives(ts); }	//TODO: Should just have 1?
-			readyBatches.add(pending.get(i).remove(ts));
-			/*
-			if (i == logicalInputIndex) { readyBatches.add(dt); }
-			else { readyBatches.add(pending.get(i).remove(ts)); }
-			*/
+			DataTuple dt = stripe.pending[i].remove(ts);
+			if (dt != null) { pendingSizes.decrementAndGet(i); }
+			readyBatches.add(dt);
 		}
 		
 		long readyTime = System.currentTimeMillis();
-		String msg  = "Pending latencies for ts="+ts+":";
 		for (int i = 0; i < readyBatches.size(); i++)
 		{
 			if (readyBatches.get(i) == null) { continue; }
-			long latency = readyTime - readyBatches.get(i).getPayload().instrumentation_ts;
 			long pendingLatency = readyTime - readyBatches.get(i).getPayload().local_ts;
 			readyBatches.get(i).getPayload().local_ts = readyTime;
-			msg += "idx="+i+";latency="+latency+";pending="+pendingLatency;
-			if (i < readyBatches.size() - 1) { msg += ","; }
+			pendingLatencies[i].recordMillis(pendingLatency);
+			if (logger.isDebugEnabled()) { logger.debug("Pending latency for ts="+ts+",idx="+i+";latency="+(readyTime - readyBatches.get(i).getPayload().instrumentation_ts)+";pending="+pendingLatency); }
 		}
-		logger.debug(msg);
 		
 		//TODO: Clear any timers for this ts
 		
-		ready.put(ts, readyBatches);
-		//this.notifyAll();
-		cond.signalAll();
+		readyLock.lock();
+		try
+		{
+			ready.put(ts, readyBatches);
+			notEmpty.signal();
+		}
+		finally { readyLock.unlock(); }
 	}
 	
 	@Override
-	//public synchronized ArrayList<DataTuple> pull_from_barrier() {
 	public ArrayList<DataTuple> pull_from_barrier() {
-		lock.lock();
+		ArrayList<DataTuple> dts;
+		long pullStart = System.currentTimeMillis();
+		readyLock.lock();
 		try
 		{
-			long pullStart = System.currentTimeMillis();
 			while(ready.isEmpty())
 			{
 				logger.debug("Waiting for ready batches.");
 				try {
-					//this.wait();
-					cond.await();
+					notEmpty.await();
 				} catch (InterruptedException e) {
 					logger.warn("Unexpectedly interrupted while waiting on barrier.");
 				}
 			}
-			logger.debug("Pulling batches with ts="+ready.firstKey());
-			ArrayList<DataTuple> dts = ready.remove(ready.firstKey());
-			
-			long pullEnd = System.currentTimeMillis();
-			for (int i = 0; i < dts.size(); i++)
-			{
-				if (dts.get(i) == null) { continue; }
-				long ts = dts.get(i).getPayload().timestamp;
-				long latency = pullEnd - dts.get(i).getPayload().instrumentation_ts;
-				long pullLatency = pullEnd - dts.get(i).getPayload().local_ts;
-				long pullReadTime = pullEnd - pullStart;
-				
-				logger.debug("Pulled tuple with ts="+ts+",latency="+latency+",pullLatency="+pullLatency+",pullReadTime="+pullReadTime);
-			}
-			for (DataTuple dt : dts) 
-			{ 
-				if (dt != null) { dt.getPayload().local_ts = pullEnd; }
-			}	
-			//this.notifyAll();
-			cond.signalAll();
-			return dts;
+			if (logger.isDebugEnabled()) { logger.debug("Pulling batches with ts="+ready.firstLongKey()); }
+			dts = ready.remove(ready.firstLongKey());
+			notFull.signal();
 		}
-		finally { lock.unlock(); }
+		finally { readyLock.unlock(); }
+		
+		long pullEnd = System.currentTimeMillis();
+		for (int i = 0; i < dts.size(); i++)
+		{
+			if (dts.get(i) == null) { continue; }
+			long pullLatency = pullEnd - dts.get(i).getPayload().local_ts;
+			readyLatency.recordMillis(pullLatency);
+			if (logger.isDebugEnabled()) { logger.debug("Pulled tuple with ts="+dts.get(i).getPayload().timestamp+",latency="+(pullEnd - dts.get(i).getPayload().instrumentation_ts)+",pullLatency="+pullLatency+",pullReadTime="+(pullEnd - pullStart)); }
+		}
+		for (DataTuple dt : dts) 
+		{ 
+			if (dt != null) { dt.getPayload().local_ts = pullEnd; }
+		}	
+		return dts;
 	}
 
 	@Override
-	//public synchronized ArrayList<FailureCtrl> purge(FailureCtrl downFctrl) {
 	public ArrayList<FailureCtrl> purge(FailureCtrl downFctrl) {
-		lock.lock();
+		if (bestEffort) { throw new RuntimeException("Logic error"); }
+		
+		for (Stripe stripe : stripes) { stripe.lock.lock(); }
 		try
 		{
-			if (bestEffort) { throw new RuntimeException("Logic error"); }
-			
 			for (int i = 0; i < numLogicalInputs; i++)
 			{
 				//inputFctrls.get(i).update(downFctrl.lw(), downFctrl.acks(), null);
@@ -230,54 +286,65 @@ public class OutOfOrderFairBufferedBarrier implements DataStructureI {
 			}
 			
 			//Now purge the ready queue of any acked batches.
-			trimQueue(ready.keySet().iterator(), downFctrl);
-
-			//Now purge each input's pending queue.
-			for (int i = 0; i < numLogicalInputs; i++)
+			readyLock.lock();
+			try
 			{
-				trimQueue(pending.get(i).keySet().iterator(), downFctrl);
+				trimQueue(ready.keySet().iterator(), downFctrl);
+				notFull.signalAll();
 			}
-			
-			ArrayList<FailureCtrl> upOpFctrls = new ArrayList<>(numLogicalInputs);
-			if (optimizeReplay)
+			finally { readyLock.unlock(); }
+
+			//Now purge each input's pending queue.
+			for (Stripe stripe : stripes)
 			{
 				for (int i = 0; i < numLogicalInputs; i++)
 				{
-					//FailureCtrl upOpFctrl = new FailureCtrl(inputFctrls.get(i));
-					FailureCtrl upOpFctrl = inputFctrls.get(i).copy();
-					upOpFctrl.updateAlives(downFctrl.alives());
-					upOpFctrls.add(upOpFctrl);
+					pendingSizes.addAndGet(i, -trimQueue(stripe.pending[i].keySet().iterator(), downFctrl));
 				}
 			}
-			else
+		}
+		finally
+		{ 
+			for (Stripe stripe : stripes) { stripe.lock.unlock(); }
+		}
+		
+		ArrayList<FailureCtrl> upOpFctrls = new ArrayList<>(numLogicalInputs);
+		if (optimizeReplay)
+		{
+			for (int i = 0; i < numLogicalInputs; i++)
+			{
+				//FailureCtrl upOpFctrl = new FailureCtrl(inputFctrls.get(i));
+				FailureCtrl upOpFctrl = inputFctrls.get(i).copy();
+				upOpFctrl.updateAlives(downFctrl.alives());
+				upOpFctrls.add(upOpFctrl);
+			}
+		}
+		else
+		{
+			for (int i = 0; i < numLogicalInputs; i++)
 			{
-				for (int i = 0; i < numLogicalInputs; i++)
-				{
-					//upOpFctrls.add(new FailureCtrl(downFctrl));
-					upOpFctrls.add(downFctrl.copy());
-				}
+				//upOpFctrls.add(new FailureCtrl(downFctrl));
+				upOpFctrls.add(downFctrl.copy());
 			}
-		
-			//this.notifyAll();
-			cond.signalAll();
-			
-			return upOpFctrls; 
 		}
-		finally { lock.unlock(); }
+		return upOpFctrls; 
 	}
 	
-	private void trimQueue(Iterator<Long> qIter, FailureCtrl downFctrl)
+	private int trimQueue(LongIterator qIter, FailureCtrl downFctrl)
 	{
+		int trimmed = 0;
 		while (qIter.hasNext())
 		{
-			Long ts = qIter.next();
-			if (ts <= downFctrl.lw() || downFctrl.acks().contains(ts)
+			long ts = qIter.nextLong();
+			if (downFctrl.isAcked(ts)
 					|| (!reprocessNonLocals && downFctrl.alives().contains(ts)))
 			{
 				qIter.remove();
+				trimmed++;
 				if (barrierTimeoutMonitor != null) { barrierTimeoutMonitor.clear(ts); }
 			}
 		}
+		return trimmed;
 	}
 	
 	
@@ -287,19 +354,16 @@ public class OutOfOrderFairBufferedBarrier implements DataStructureI {
 	//At the moment its the ready plus the sum of all the pendings.
 	//Could alternatively go for ready plus the avg of all the pendings.
 	public Map<Integer, Integer> sizes() {
-		lock.lock();
-		try
+		Map<Integer, Integer> sizes = new HashMap<>();
+		readyLock.lock();
+		try { sizes.put(-1, ready.size()); }
+		finally { readyLock.unlock(); }
+		for (int i = 0; i < numLogicalInputs; i++)
 		{
-			Map<Integer, Integer> sizes = new HashMap<>();
-			sizes.put(-1, ready.size());
-			for (int i = 0; i < numLogicalInputs; i++)
-			{
-				sizes.put(i, pending.get(i).size());
-			}
-			logger.debug("op "+opId+" sizes="+sizes);
-			return sizes;
+			sizes.put(i, pendingSizes.get(i));
 		}
-		finally { lock.unlock(); }
+		logger.debug("op "+opId+" sizes="+sizes);
+		return sizes;
 	}
 
 	/*
@@ -329,27 +393,33 @@ public class OutOfOrderFairBufferedBarrier implements DataStructureI {
 	 * of batch ids not yet received but already received for other inputs 
 	 */
 	public ArrayList<RangeSet<Long>> getRoutingConstraints() {
-		lock.lock();
-		try
+		ArrayList<TreeSet<Long>> constraints = new ArrayList<>(numLogicalInputs);
+		ArrayList<RangeSet<Long>> constraintRanges = new ArrayList<>(numLogicalInputs);
+		for (int i = 0; i < numLogicalInputs; i++) { constraints.add(new TreeSet<Long>()); }
+		//Not a snapshot of all the stripes at once, but timestamps only move out of pending in the meantime.
+		for (Stripe stripe : stripes)
 		{
-			ArrayList<TreeSet<Long>> constraints = new ArrayList<>(numLogicalInputs);
-			ArrayList<RangeSet<Long>> constraintRanges = new ArrayList<>(numLogicalInputs);
-			for (int i = 0; i < numLogicalInputs; i++)
+			stripe.lock.lock();
+			try
 			{
-				constraints.add(new TreeSet<Long>());
-				
-				for (int j = 0; j < numLogicalInputs; j++)
+				for (int i = 0; i < numLogicalInputs; i++)
 				{
-					if (i == j) { continue; }
-					// TODO: if numLogicalInputs > 2 should really have a count for each constraint
-					constraints.get(i).addAll(pending.get(j).keySet());
+					for (int j = 0; j < numLogicalInputs; j++)
+					{
+						if (i == j) { continue; }
+						// TODO: if numLogicalInputs > 2 should really have a count for each constraint
+						constraints.get(i).addAll(stripe.pending[j].keySet());
+					}
 				}
-				constraintRanges.add(RangeUtil.toRangeSet(constraints.get(i)));
 			}
-			logger.debug("Constraint ranges: "+constraintRanges+", constraints:"+constraints);
-			return constraintRanges;
+			finally { stripe.lock.unlock(); }
 		}
-		finally { lock.unlock(); }
+		for (int i = 0; i < numLogicalInputs; i++)
+		{
+			constraintRanges.add(RangeUtil.toRangeSet(constraints.get(i)));
+		}
+		logger.debug("Constraint ranges: "+constraintRanges+", constraints:"+constraints);
+		return constraintRanges;
 	}
 	
 	@Override
@@ -362,9 +432,24 @@ public class OutOfOrderFairBufferedBarrier implements DataStructureI {
 		throw new RuntimeException("Logic error - use pull_from_barrier()");
 	}
 
+	/** The tuples pending of the timestamps of a stripe, per logical input **/
+	private static class Stripe
+	{
+		private final ReentrantLock lock = new ReentrantLock();
+		private final Long2ObjectOpenHashMap<DataTuple>[] pending;
+		
+		@SuppressWarnings("unchecked")
+		Stripe(int numLogicalInputs)
+		{
+			pending = new Long2ObjectOpenHashMap[numLogicalInputs];
+			for (int i = 0; i < numLogicalInputs; i++) { pending[i] = new Long2ObjectOpenHashMap<DataTuple>(); }
+		}
+	}
+
 	private class BarrierTimeoutMonitor
 	{
-		private final Map<Long, TimerTask> timeoutTasks = new HashMap<>();
+		//Set and cleared under the lock of the stripe of each timestamp
+		private final Map<Long, TimerTask> timeoutTasks = new ConcurrentHashMap<>();
 		private final Timer timer = new Timer(true);
 		
 		public void set(final long ts, long delay)
@@ -376,16 +461,16 @@ public class OutOfOrderFairBufferedBarrier implements DataStructureI {
 				{  
 
 					logger.warn("Nonblocking join "+ts+" timed out."); 
-					//synchronized(OutOfOrderBufferedBarrier.this)
-					lock.lock();
+					Stripe stripe = stripeOf(ts);
+					stripe.lock.lock();
 					try	
 					{					
 						if (timeoutTasks.remove(ts) != null)
 						{
-							addReady(ts);
+							addReady(stripe, ts);
 						}
 					}
-					finally { lock.unlock(); }
+					finally { stripe.lock.unlock(); }
 					//TODO:
 				} 
 			};
@@ -396,10 +481,8 @@ public class OutOfOrderFairBufferedBarrier implements DataStructureI {
 		
 		public void clear(final long ts)
 		{
-			if (timeoutTasks.containsKey(ts))
-			{
-				timeoutTasks.remove(ts).cancel();
-			}			
+			TimerTask timeoutTask = timeoutTasks.remove(ts);
+			if (timeoutTask != null) { timeoutTask.cancel(); }
 		}
 	}
 }
@@ -210,7 +210,7 @@ public class OutOfOrderFairInputQueue implements DataStructureI {
 				long ts = iter.next();
 				//Probably want to delete tuples that are live downstream but not
 				//here to prevent leaks with multi-input ops.
-				if (ts <= inputFctrl.lw() || inputFctrl.acks().contains(ts) 
+				if (inputFctrl.isAcked(ts) 
 						|| (!reprocessNonLocals && downFctrl.alives().contains(ts)))
 				{
 					iter.remove();
@@ -11,7 +11,11 @@
 package uk.ac.imperial.lsds.seep.runtimeengine;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -22,12 +26,17 @@ import uk.ac.imperial.lsds.seep.GLOBALS;
 import uk.ac.imperial.lsds.seep.buffer.IBuffer;
 import uk.ac.imperial.lsds.seep.buffer.OutputLogEntry;
 import uk.ac.imperial.lsds.seep.comm.serialization.DataTuple;
+import uk.ac.imperial.lsds.seep.comm.serialization.TupleSchema;
 import uk.ac.imperial.lsds.seep.comm.serialization.ControlTuple;
 import uk.ac.imperial.lsds.seep.comm.serialization.messages.BatchTuplePayload;
 import uk.ac.imperial.lsds.seep.comm.serialization.messages.Payload;
 import uk.ac.imperial.lsds.seep.comm.serialization.messages.TuplePayload;
 import uk.ac.imperial.lsds.seep.comm.serialization.serializers.ArrayListSerializer;
+import uk.ac.imperial.lsds.seep.comm.serialization.serializers.BatchTuplePayloadSerializer;
+import uk.ac.imperial.lsds.seep.comm.serialization.serializers.TuplePayloadSerializer;
 import uk.ac.imperial.lsds.seep.infrastructure.NodeManager;
+import uk.ac.imperial.lsds.seep.infrastructure.monitor.latency.LatencyStage;
+import uk.ac.imperial.lsds.seep.infrastructure.monitor.latency.StageLatencies;
 import uk.ac.imperial.lsds.seep.operator.EndPoint;
 
 import com.esotericsoftware.kryo.Kryo;
@@ -49,6 +58,9 @@ public class OutputQueue {
 	private final boolean enableTupleTracking = Boolean.parseBoolean(GLOBALS.valueFor("enableTupleTracking"));
 	private long currentReconnectCount = -1;
 	private int opId;
+	// Channels that may hold partial batches, flushed by partialBatchTimer
+	private final Set<SynchronousCommunicationChannel> batchingChannels = new HashSet<SynchronousCommunicationChannel>();
+	private Timer partialBatchTimer = null;
 	
 	public OutputQueue(CoreRE owner){
 		this.owner = owner;
@@ -62,12 +74,19 @@ public class OutputQueue {
 	}
 	
 	private Kryo initializeKryo(){
-		//optimize here kryo
+		// Tuples we emit carry our own declared schema, used to expand compacted tuples on the wire
+		return newKryo(owner.getProcessingUnit().getOperator().getOpContext().getTupleSchema());
+	}
+	
+	/**
+	 * Kryo instance configured as the output queues use it to write batches of tuples with the given schema
+	 */
+	public static Kryo newKryo(TupleSchema schema){
 		Kryo k = new Kryo();
 		k.register(ArrayList.class, new ArrayListSerializer());
 		k.register(Payload.class);
-		k.register(TuplePayload.class);
-		k.register(BatchTuplePayload.class);
+		k.register(TuplePayload.class, new TuplePayloadSerializer(schema));
+		k.register(BatchTuplePayload.class, new BatchTuplePayloadSerializer(schema));
 		return k;
 	}
 	
@@ -167,6 +186,7 @@ public class OutputQueue {
 				long latency = currentTime - tp.instrumentation_ts;
 				long oqLatency = currentTime - tp.local_ts;
 				tp.local_ts = currentTime;
+				if (tp.dispatch_ts > 0) { StageLatencies.histogram(LatencyStage.OUTPUT_QUEUE, channelRecord.getOperatorId()).recordMillis(currentTime - tp.dispatch_ts); }
 
 				if (tuple.getMap().containsKey("latencyBreakdown"))
 				{
@@ -179,48 +199,18 @@ public class OutputQueue {
 
 				channelRecord.addDataToBatch(tp);
 				
-				String logline = "t="+System.currentTimeMillis()+", oq.sync "+opId+" sending ts="+tp.timestamp+" for "+channelRecord.getOperatorId()+", current latency="+latency+", oq latency="+oqLatency;
-				if (enableTupleTracking) { LOG.info(logline); } else { LOG.debug(logline);}
-				if(channelRecord.getChannelBatchSize() <= 0){
-					channelRecord.setTick(currentTime);
-					BatchTuplePayload msg = channelRecord.getBatch();
-					
-					// We save the data
-					if(GLOBALS.valueFor("eftMechanismEnabled").equals("true")){
-						// while taking latency measures, to avoid that sources and sink in same node will be affected by buffer trimming
-						if(GLOBALS.valueFor("TTT").equals("TRUE") || 
-								GLOBALS.valueFor("reliability").equals("bestEffort") ||
-								GLOBALS.valueFor("noBufferSave").equals("true")){
-							
-						}
-						else{
-							buffer.save(msg, msg.outputTs, owner.getIncomingTT());
-						}
-					}
-
-					boolean flushed = false;
-					while(!flushed)
-					{
-						try
-						{
-							LOG.debug("Writing batch tuple to "+dest.getOperatorId()+", msg="+msg);
-							k.writeObject(channelRecord.getOutput(), msg);
-							//Flush the buffer to the stream
-							channelRecord.getOutput().flush();
-							flushed = true;
-						}
-						catch(KryoException|IllegalArgumentException e)
-						{
-							LOG.error("Writing batch to "+dest.getOperatorId() + " failed, ts="+ tp.timestamp+", "+e);
-							channelRecord.cleanBatch2();
-							return false;
-						}
-						catch(Exception e) { LOG.error("Unexpected exception, should squash and return false: "+e); System.exit(1); }
+				if (enableTupleTracking || LOG.isDebugEnabled())
+				{
+					String logline = "t="+System.currentTimeMillis()+", oq.sync "+opId+" sending ts="+tp.timestamp+" for "+channelRecord.getOperatorId()+", current latency="+latency+", oq latency="+oqLatency;
+					if (enableTupleTracking) { LOG.info(logline); } else { LOG.debug(logline);}
+				}
+				if(channelRecord.isBatchReady(currentTime)){
+					if(!flushBatch(channelRecord, currentTime)){
+						return false;
 					}
-					
-					// Anf finally we reset the batch
-//					channelRecord.cleanBatch(); // RACE CONDITION ??
-					channelRecord.cleanBatch2();
+				}
+				else{
+					schedulePartialBatchFlush(channelRecord);
 				}
 			}
 			//Is there any thread replaying?
@@ -239,6 +229,83 @@ public class OutputQueue {
 		return true;
 	}
 
+	/**
+	 * Saves and writes the current batch of channelRecord. Must be called with the OutputQueue lock held.
+	 * @return false if writing to the socket failed, in which case the batch is dropped.
+	 */
+	private boolean flushBatch(SynchronousCommunicationChannel channelRecord, long now){
+		channelRecord.setTick(now);
+		BatchTuplePayload msg = channelRecord.getBatch();
+		IBuffer buffer = channelRecord.getBuffer();
+		
+		// We save the data
+		if(GLOBALS.valueFor("eftMechanismEnabled").equals("true")){
+			// while taking latency measures, to avoid that sources and sink in same node will be affected by buffer trimming
+			if(GLOBALS.valueFor("TTT").equals("TRUE") || 
+					GLOBALS.valueFor("reliability").equals("bestEffort") ||
+					GLOBALS.valueFor("noBufferSave").equals("true")){
+				
+			}
+			else{
+				buffer.save(msg, msg.outputTs, owner.getIncomingTT());
+			}
+		}
+
+		Output output = channelRecord.getOutput();
+		long bytesBefore = output.total();
+		try
+		{
+			LOG.debug("Writing batch tuple to "+channelRecord.getOperatorId()+", msg="+msg);
+			k.writeObject(output, msg);
+			//Flush the buffer to the stream
+			output.flush();
+		}
+		catch(KryoException|IllegalArgumentException e)
+		{
+			LOG.error("Writing batch to "+channelRecord.getOperatorId() + " failed, ts="+ channelRecord.getLast_ts()+", "+e);
+			channelRecord.cleanBatch2();
+			return false;
+		}
+		catch(Exception e) { LOG.error("Unexpected exception, should squash and return false: "+e); System.exit(1); }
+		channelRecord.recordBatchSent(output.total() - bytesBefore, System.currentTimeMillis());
+		
+		// Anf finally we reset the batch
+//		channelRecord.cleanBatch(); // RACE CONDITION ??
+		channelRecord.cleanBatch2();
+		return true;
+	}
+	
+	/**
+	 * Partial batches are not sent until more tuples arrive, so when batches can hold more than one tuple a timer
+	 * makes sure none of them waits longer than maxLatencyAllowed.
+	 */
+	private void schedulePartialBatchFlush(SynchronousCommunicationChannel channelRecord){
+		if(!channelRecord.getBatchPolicy().isBatching() || !batchingChannels.add(channelRecord)){
+			return;
+		}
+		if(partialBatchTimer == null){
+			long period = Math.max(1, Long.parseLong(GLOBALS.valueFor("maxLatencyAllowed")) / 4);
+			partialBatchTimer = new Timer("oq-partial-batch-"+opId, true);
+			partialBatchTimer.schedule(new TimerTask(){
+				public void run(){
+					flushExpiredBatches();
+				}
+			}, period, period);
+		}
+	}
+	
+	private synchronized void flushExpiredBatches(){
+		if(replaySemaphore.get() >= 1){
+			return;
+		}
+		long now = System.currentTimeMillis();
+		for(SynchronousCommunicationChannel channelRecord : batchingChannels){
+			if(!channelRecord.getStop().get() && channelRecord.isBatchExpired(now) && !flushBatch(channelRecord, now)){
+				LOG.warn("Dropped expired partial batch to "+channelRecord.getOperatorId());
+			}
+		}
+	}
+	
 	public void replay(SynchronousCommunicationChannel oi){
 		long a = System.currentTimeMillis();
 				while(oi.getSharedIterator().hasNext()){
@@ -12,6 +12,7 @@ import uk.ac.imperial.lsds.seep.GLOBALS;
 import uk.ac.imperial.lsds.seep.buffer.IBuffer;
 
 import uk.ac.imperial.lsds.seep.comm.serialization.DataTuple;
+import uk.ac.imperial.lsds.seep.comm.serialization.TupleSchema;
 import uk.ac.imperial.lsds.seep.comm.serialization.ControlTuple;
 import uk.ac.imperial.lsds.seep.comm.serialization.messages.BatchTuplePayload;
 import uk.ac.imperial.lsds.seep.comm.serialization.messages.Payload;
@@ -37,10 +38,15 @@ import uk.ac.imperial.lsds.seep.comm.serialization.controlhelpers.UpDownRCtrl;
 import uk.ac.imperial.lsds.seep.runtimeengine.CoreRE;
 import uk.ac.imperial.lsds.seep.reliable.MemoryChunk;
 import uk.ac.imperial.lsds.seep.manet.Query;
+import uk.ac.imperial.lsds.seep.infrastructure.monitor.latency.LatencyStage;
+import uk.ac.imperial.lsds.seep.infrastructure.monitor.latency.StageLatencies;
 
 import uk.ac.imperial.lsds.seep.operator.EndPoint;
 
 import uk.ac.imperial.lsds.seep.comm.serialization.serializers.ArrayListSerializer;
+import uk.ac.imperial.lsds.seep.comm.serialization.serializers.BatchTuplePayloadSerializer;
+import uk.ac.imperial.lsds.seep.comm.serialization.serializers.TuplePayloadSerializer;
+import uk.ac.imperial.lsds.seep.comm.serialization.serializers.OpFailureCtrlSerializer;
 import com.esotericsoftware.kryo.Kryo;
 import com.esotericsoftware.kryo.KryoException;
 import com.esotericsoftware.kryo.io.Output;
@@ -97,11 +103,13 @@ public class OutputQueueWorker
 	
 	private Kryo initialiseKryo()
 	{
+		// Tuples we emit carry our own declared schema, used to expand compacted tuples on the wire
+		TupleSchema schema = owner.getProcessingUnit().getOperator().getOpContext().getTupleSchema();
 		Kryo k = new Kryo();
 		k.register(ArrayList.class, new ArrayListSerializer());
 		k.register(Payload.class);
-		k.register(TuplePayload.class);
-		k.register(BatchTuplePayload.class);
+		k.register(TuplePayload.class, new TuplePayloadSerializer(schema));
+		k.register(BatchTuplePayload.class, new BatchTuplePayloadSerializer(schema));
 
 		k.register(ControlTuple.class);
 		k.register(MemoryChunk.class);
@@ -124,7 +132,7 @@ public class OutputQueueWorker
 		k.register(ReconfigureConnection.class);
 		//k.register(BitSet.class);
 		k.register(BitSet.class, new BitSetSerializer());
-		k.register(OpFailureCtrl.class);
+		k.register(OpFailureCtrl.class, new OpFailureCtrlSerializer());
 		k.register(FailureCtrl.class);
 		k.register(UpDownRCtrl.class);
 		k.register(DownUpRCtrl.class);
@@ -295,6 +303,7 @@ public class OutputQueueWorker
 			long latency = currentTime - tp.instrumentation_ts;
 			long oqLatency = currentTime - tp.local_ts;
 			tp.local_ts = currentTime;
+			if (tp.dispatch_ts > 0) { StageLatencies.histogram(LatencyStage.OUTPUT_QUEUE, channelRecord.getOperatorId()).recordMillis(currentTime - tp.dispatch_ts); }
 
 			if (tuple.getMap().containsKey("latencyBreakdown"))
 			{
@@ -306,12 +315,15 @@ public class OutputQueueWorker
 			}
 
 			channelRecord.addDataToBatch(tp);
-			String logline = "t="+System.currentTimeMillis()+", oq.sync "+opId+" sending ts="+tp.timestamp+" for "+channelRecord.getOperatorId()+", current latency="+latency+", oq latency="+oqLatency;
-			if (enableTupleTracking) { logger.info(logline); } else { logger.debug(logline);}
+			if (enableTupleTracking || logger.isDebugEnabled())
+			{
+				String logline = "t="+System.currentTimeMillis()+", oq.sync "+opId+" sending ts="+tp.timestamp+" for "+channelRecord.getOperatorId()+", current latency="+latency+", oq latency="+oqLatency;
+				if (enableTupleTracking) { logger.info(logline); } else { logger.debug(logline);}
+			}
 		}
 
 		//if(channelRecord.getChannelBatchSize() <= 0 || ctrlDataTuple.rctrl != null || ctrlDataTuple.fctrl != null){
-		if(channelRecord.getChannelBatchSize() <= 0 || ctrlDataTuple.rctrl != null || ctrlDataTuple.fctrl != null ||
+		if(channelRecord.isBatchReady(System.currentTimeMillis()) || ctrlDataTuple.rctrl != null || ctrlDataTuple.fctrl != null ||
 			(enableUpstreamRoutingCtrl && !downIsMultiInput && !channelRecord.getDownstreamDataSocket().isClosed()) ) {	//last clause is essentially a ping.
 			//channelRecord.setTick(currentTime);
 			BatchTuplePayload msg = channelRecord.getBatch();
@@ -331,6 +343,7 @@ public class OutputQueueWorker
 			{ logger.debug("Coalesced data with ctrl traffic, coalseced %="+ (++coalesced/totalSent)); }
 			else { logger.debug("No coalescing for "+channelRecord.getOperatorId()+": "+ (coalesced / totalSent) ); }  
 
+			long bytesBefore = channelRecord.getOutput().total();
 			try
 			{
 				k.writeObject(channelRecord.getOutput(), msg);
@@ -345,6 +358,7 @@ public class OutputQueueWorker
 				return false;
 			}
 			catch(Exception e) { logger.error("Unexpected exception, should squash and return false: "+e); System.exit(1); }
+			if (!msg.batch.isEmpty()) { channelRecord.recordBatchSent(channelRecord.getOutput().total() - bytesBefore, System.currentTimeMillis()); }
 			
 			// Anf finally we reset the batch
 //					channelRecord.cleanBatch(); // RACE CONDITION ??
@@ -373,7 +387,12 @@ public class OutputQueueWorker
 				if (isConnected())
 				{
 					if (ctrl.getType().equals(CoreRE.ControlTupleType.UP_DOWN_RCTRL)) { rctrl = ctrl; }
-					else if (ctrl.getType().equals(CoreRE.ControlTupleType.FAILURE_CTRL)) { fctrl = ctrl; }
+					else if (ctrl.getType().equals(CoreRE.ControlTupleType.FAILURE_CTRL))
+					{
+						// Failure ctrls may only carry new acks, keep those of one not sent yet
+						if (fctrl != null) { ctrl.getOpFailureCtrl().coalesce(fctrl.getOpFailureCtrl()); }
+						fctrl = ctrl;
+					}
 					else  { throw new RuntimeException("Logic error."); } 
 					lock.notifyAll();
 					return true;
@@ -409,7 +428,9 @@ public class OutputQueueWorker
 				//while (!ctrlDataChanged(channel))
 				while (!ctrlDataChanged(channel) && (!enableUpstreamRoutingCtrl || downIsMultiInput || (System.currentTimeMillis() - waitStart < 2*DEFAULT_TIMEOUT)))
 				{
-					try { lock.wait(DEFAULT_TIMEOUT); } catch(InterruptedException e) { logger.debug("getCtrlData wait timed out"); }
+					//Wake up in time to send a partial batch before it exceeds maxLatencyAllowed
+					long timeout = Math.max(1, Math.min(DEFAULT_TIMEOUT, channel.timeToBatchDeadline(System.currentTimeMillis())));
+					try { lock.wait(timeout); } catch(InterruptedException e) { logger.debug("getCtrlData wait timed out"); }
 				}
 				CtrlDataTuple result = new CtrlDataTuple(data, rctrl, fctrl);	
 				if (rctrl != null) { prevRCtrl = rctrl; }	
@@ -426,7 +447,8 @@ public class OutputQueueWorker
 				//(rctrl != null && (prevRCtrl == null || (rctrl.getUpDown().getQlen() != prevRCtrl.getUpDown().getQlen() || channel.getDownstreamDataSocket().isClosed()))) || 
 				(rctrl != null) || 
 				(!mergeFailureAndRoutingCtrl && fctrl != null) ||
-				(enableUpstreamRoutingCtrl && !downIsMultiInput && channel.getDownstreamDataSocket().isClosed());
+				(enableUpstreamRoutingCtrl && !downIsMultiInput && channel.getDownstreamDataSocket().isClosed()) ||
+				channel.isBatchExpired(System.currentTimeMillis());
 
 		}
 
@@ -16,6 +16,7 @@ import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.SocketException;
+import java.net.UnknownHostException;
 import java.util.Iterator;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.Random;
@@ -28,6 +29,7 @@ import uk.ac.imperial.lsds.seep.buffer.IBuffer;
 import uk.ac.imperial.lsds.seep.buffer.OutputLogEntry;
 import uk.ac.imperial.lsds.seep.comm.serialization.messages.BatchTuplePayload;
 import uk.ac.imperial.lsds.seep.comm.serialization.messages.TuplePayload;
+import uk.ac.imperial.lsds.seep.manet.LinkEmulator;
 import uk.ac.imperial.lsds.seep.operator.EndPoint;
 
 import com.esotericsoftware.kryo.KryoException;
@@ -44,6 +46,8 @@ public class SynchronousCommunicationChannel implements EndPoint{
 	private static final Logger logger = LoggerFactory.getLogger(SynchronousCommunicationChannel.class);
 	private static final boolean piggybackControlTraffic = Boolean.parseBoolean(GLOBALS.valueFor("piggybackControlTraffic"));
 	private static final int socketConnectTimeout = Integer.parseInt(GLOBALS.valueFor("socketConnectTimeout"));
+	// Local address of the connections, if the node has one configured (null binds the wildcard address)
+	private static final InetAddress localAddr = getLocalAddr();
 	private static final long reconnectBackoff = Long.parseLong(GLOBALS.valueFor("reconnectBackoff"));
 	private int targetOperatorId;
 	private Socket downstreamDataSocket;
@@ -66,7 +70,7 @@ public class SynchronousCommunicationChannel implements EndPoint{
 	
 	//Batch information for this channel
 	private BatchTuplePayload batch = new BatchTuplePayload();
-	private int channelBatchSize = Integer.parseInt(GLOBALS.valueFor("batchLimit"));
+	private final BatchPolicy batchPolicy;
 	private long tick = 0;
 	private boolean deferredInit = false;
 	private InetAddress deferredIp = null;
@@ -84,6 +88,7 @@ public class SynchronousCommunicationChannel implements EndPoint{
 	}
 	public SynchronousCommunicationChannel(int opId, Socket downstreamSocketD, Socket downstreamSocketC, Socket blindSocket, IBuffer buffer, int localSiblingIndex, int localSiblings){
 		this.targetOperatorId = opId;
+		this.batchPolicy = new BatchPolicy(opId);
 		this.downstreamDataSocket = downstreamSocketD;
 		this.downstreamControlSocket = downstreamSocketC;
 		this.blindSocket = blindSocket;
@@ -115,6 +120,7 @@ public class SynchronousCommunicationChannel implements EndPoint{
 
 	public SynchronousCommunicationChannel(int opId, InetAddress deferredIp, InetAddress deferredControlIp, int deferredPortD, int deferredPortC, IBuffer buffer, int localSiblingIndex, int localSiblings){	
 		this.targetOperatorId = opId;
+		this.batchPolicy = new BatchPolicy(opId);
 		this.buffer = buffer;
 		this.deferredInit = true;
 		this.deferredIp = deferredIp;
@@ -218,15 +224,15 @@ public class SynchronousCommunicationChannel implements EndPoint{
 			{
 				//tmpSocket = new Socket(ip, port);
 				tmpSocket = new Socket();
-				if (localSiblingIndex < 0) { tmpSocket.bind(null); }
+				if (localSiblingIndex < 0) { tmpSocket.bind(new InetSocketAddress(localAddr, 0)); }
 				else
 				{
-					tmpSocket.bind(new InetSocketAddress(getIndexedPort()));
+					tmpSocket.bind(new InetSocketAddress(localAddr, getIndexedPort()));
 				}
 
 				tmpSocket.connect(new InetSocketAddress(ip, port), socketConnectTimeout);
 				if (piggybackControlTraffic) { setSocketRcvBufSize(tmpSocket); }
-				tmpOutput = tmpSocket.getOutputStream();
+				tmpOutput = LinkEmulator.output(tmpSocket);
 				downstreamDataSocket = tmpSocket;
 				output = new Output(tmpOutput);
 				success = true;
@@ -404,7 +410,7 @@ public class SynchronousCommunicationChannel implements EndPoint{
 					{
 						//tmpSocket = new Socket(ip, port);
 						tmpSocket = new Socket();
-						tmpSocket.bind(null);
+						tmpSocket.bind(new InetSocketAddress(localAddr, 0));
 						tmpSocket.connect(new InetSocketAddress(ip, port), socketConnectTimeout);
 						setSocketBufSize(tmpSocket);
 						synchronized(controlSocketLock)
@@ -509,26 +515,48 @@ public class SynchronousCommunicationChannel implements EndPoint{
 	
 	public synchronized void addDataToBatch(TuplePayload payload){
 		batch.addTuple(payload);
-		channelBatchSize--;
+		batchPolicy.tupleAdded(System.currentTimeMillis());
 		last_ts = payload.timestamp;
 	}
 	
 	public int getChannelBatchSize(){
-		return channelBatchSize;
+		return batchPolicy.remaining();
 	}
 	
 	public void resetChannelBatchSize(){
-		channelBatchSize = 0;
+		batchPolicy.close();
+	}
+	
+	public BatchPolicy getBatchPolicy(){
+		return batchPolicy;
+	}
+	
+	/** Whether the current batch is full or has waited for maxLatencyAllowed and must be sent **/
+	public boolean isBatchReady(long now){
+		return batchPolicy.isReady(now);
+	}
+	
+	public boolean isBatchExpired(long now){
+		return batchPolicy.isExpired(now);
+	}
+	
+	public long timeToBatchDeadline(long now){
+		return batchPolicy.timeToDeadline(now);
+	}
+	
+	/** To be called once the current batch has been written, with the number of bytes it took on the wire **/
+	public void recordBatchSent(long bytes, long now){
+		batchPolicy.batchSent(now, batch.size(), bytes);
 	}
 	
 	public void cleanBatch(){
 		batch.clear();
-		int limit = Integer.parseInt(GLOBALS.valueFor("batchLimit"));
-		channelBatchSize = limit;
+		batchPolicy.reset();
 	}
 	
 	public void cleanBatch2(){
 		batch = new BatchTuplePayload();
+		batchPolicy.reset();
 	}
 	
 	public long getLast_ts(){
@@ -543,6 +571,14 @@ public class SynchronousCommunicationChannel implements EndPoint{
 		this.reconf_ts = ts;
 	}
 
+	private static InetAddress getLocalAddr()
+	{
+		String nodeAddr = GLOBALS.valueFor("nodeAddr");
+		if (nodeAddr == null || nodeAddr.equals("")) { return null; }
+		try { return InetAddress.getByName(nodeAddr); }
+		catch (UnknownHostException e) { throw new RuntimeException("Unknown nodeAddr "+nodeAddr, e); }
+	}
+
 	private int getIndexedPort()
 	{
 		int minPort = 33300;
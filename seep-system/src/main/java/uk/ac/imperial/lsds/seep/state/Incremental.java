@@ -0,0 +1,28 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Imperial College London.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Raul Castro Fernandez - initial design and implementation
+ ******************************************************************************/
+package uk.ac.imperial.lsds.seep.state;
+
+/**
+ * Incremental is implemented by CustomState that tracks the changes made to it since the last checkpoint. The light-state
+ * checkpoint then only takes those changes, in O(1), while processing is stopped, and applies them to its own copy of the
+ * state in the background instead of deep copying the whole state every time.
+ * Values are copy-on-write: once a value is recorded in a delta it must not be modified, only replaced by a new one.
+ * @author raulcf
+ *
+ */
+public interface Incremental {
+
+	/** Returns the changes since the previous call, and starts recording the next ones in a new delta. Must be O(1) **/
+	public StateDelta takeDelta();
+	/** Applies to this state, a copy of the original one, the changes taken from the original one **/
+	public void applyDelta(StateDelta delta);
+	
+}
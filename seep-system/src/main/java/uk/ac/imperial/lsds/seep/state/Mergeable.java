@@ -0,0 +1,31 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Imperial College London.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Raul Castro Fernandez - initial design and implementation
+ ******************************************************************************/
+package uk.ac.imperial.lsds.seep.state;
+
+import java.util.ArrayList;
+
+/**
+ * Mergeable is implemented by LargeState that can be rebuilt from recovered chunks concurrently. The system splits the
+ * chunks by key into partitions, each merged by a single thread into its own structure, and finishes every partition
+ * as soon as all its chunks are merged, so that the keys in it can be processed again while the rest are still merging.
+ * @author raulcf
+ *
+ */
+public interface Mergeable {
+
+	/** Starts a merge in partitions, for about expectedSize entries in total **/
+	public void prepareMerge(int partitions, int expectedSize);
+	/** Merges key/value pairs of a partition. Called concurrently for different partitions, never for the same one **/
+	public void appendChunk(int partition, ArrayList<Object> chunk) throws NullChunkWhileMerging, MalformedStateChunk;
+	/** Makes the entries merged into the partition part of the state **/
+	public void finishPartition(int partition);
+	
+}
@@ -0,0 +1,68 @@
+/*******************************************************************************
+ * Copyright (c) 2013 Imperial College London.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Raul Castro Fernandez - initial design and implementation
+ ******************************************************************************/
+package uk.ac.imperial.lsds.seep.state;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * StateDelta records the changes made to a key-value state since a checkpoint: the keys updated with their new values,
+ * the keys removed, and whether the state was cleared before them. It is the dirtyUpdates and dirtyRemoves of SeepMap,
+ * for any Incremental state.
+ * @author raulcf
+ *
+ */
+public class StateDelta implements Serializable{
+
+	private static final long serialVersionUID = 1L;
+	
+	private HashMap<Object, Object> updates = new HashMap<Object, Object>();
+	private HashSet<Object> removes = new HashSet<Object>();
+	private boolean cleared = false;
+	
+	public void update(Object key, Object value){
+		updates.put(key, value);
+		removes.remove(key);
+	}
+	
+	public void remove(Object key){
+		updates.remove(key);
+		removes.add(key);
+	}
+	
+	public void clear(){
+		updates.clear();
+		removes.clear();
+		cleared = true;
+	}
+	
+	/** Whether the state was cleared before the updates (and the removes are then not needed) **/
+	public boolean isCleared(){
+		return cleared;
+	}
+	
+	public HashMap<Object, Object> getUpdates(){
+		return updates;
+	}
+	
+	public HashSet<Object> getRemoves(){
+		return removes;
+	}
+	
+	public boolean isEmpty(){
+		return !cleared && updates.isEmpty() && removes.isEmpty();
+	}
+	
+	public int size(){
+		return updates.size() + removes.size();
+	}
+}
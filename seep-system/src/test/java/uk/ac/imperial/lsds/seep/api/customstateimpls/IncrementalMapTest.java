@@ -0,0 +1,109 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Imperial College London
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Raul Castro Fernandez - initial API and implementation
+ ******************************************************************************/
+package uk.ac.imperial.lsds.seep.api.customstateimpls;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import junit.framework.TestCase;
+import uk.ac.imperial.lsds.seep.state.StateDelta;
+
+public class IncrementalMapTest extends TestCase {
+
+	public void testTakeDeltaRecordsChangesSinceLastTake() {
+		IncrementalMap<String, Integer> map = new IncrementalMap<String, Integer>();
+		map.put("a", 1);
+		map.put("b", 2);
+		map.takeDelta();
+
+		map.put("a", 3);
+		map.remove("b");
+		map.put("c", 4);
+		StateDelta delta = map.takeDelta();
+		assertFalse(delta.isCleared());
+		assertEquals(2, delta.getUpdates().size());
+		assertEquals(3, delta.getUpdates().get("a"));
+		assertEquals(4, delta.getUpdates().get("c"));
+		assertTrue(delta.getRemoves().contains("b"));
+
+		assertTrue(map.takeDelta().isEmpty());
+	}
+
+	public void testApplyDeltaKeepsCopyInSync() {
+		IncrementalMap<String, Integer> map = new IncrementalMap<String, Integer>();
+		IncrementalMap<String, Integer> copy = new IncrementalMap<String, Integer>();
+		map.put("a", 1);
+		map.put("b", 2);
+		copy.applyDelta(map.takeDelta());
+		assertEquals(map, copy);
+
+		map.remove("a");
+		map.put("b", 5);
+		HashMap<String, Integer> more = new HashMap<String, Integer>();
+		more.put("c", 6);
+		map.putAll(more);
+		copy.applyDelta(map.takeDelta());
+		assertEquals(map, copy);
+		// Applying does not record changes in the copy
+		assertTrue(copy.takeDelta().isEmpty());
+	}
+
+	public void testClearDropsPreviousChanges() {
+		IncrementalMap<String, Integer> map = new IncrementalMap<String, Integer>();
+		IncrementalMap<String, Integer> copy = new IncrementalMap<String, Integer>();
+		map.put("a", 1);
+		copy.applyDelta(map.takeDelta());
+
+		map.put("b", 2);
+		map.clear();
+		map.put("c", 3);
+		StateDelta delta = map.takeDelta();
+		assertTrue(delta.isCleared());
+		assertTrue(delta.getRemoves().isEmpty());
+		copy.applyDelta(delta);
+		assertEquals(map, copy);
+	}
+
+	public void testViewsAreReadOnly() {
+		IncrementalMap<String, Integer> map = new IncrementalMap<String, Integer>();
+		map.put("a", 1);
+		map.put("b", 2);
+		map.takeDelta();
+
+		assertTrue(map.keySet().contains("a"));
+		assertTrue(map.values().contains(2));
+		Iterator<Map.Entry<String, Integer>> entries = map.entrySet().iterator();
+		Map.Entry<String, Integer> entry = entries.next();
+		try {
+			entry.setValue(5);
+			fail();
+		}
+		catch (UnsupportedOperationException e) {}
+		try {
+			entries.remove();
+			fail();
+		}
+		catch (UnsupportedOperationException e) {}
+		try {
+			map.values().remove(1);
+			fail();
+		}
+		catch (UnsupportedOperationException e) {}
+		try {
+			map.keySet().clear();
+			fail();
+		}
+		catch (UnsupportedOperationException e) {}
+		assertEquals(2, map.size());
+		assertTrue(map.takeDelta().isEmpty());
+	}
+}
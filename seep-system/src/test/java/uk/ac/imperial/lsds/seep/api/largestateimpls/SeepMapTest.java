@@ -135,6 +135,75 @@ public class SeepMapTest extends TestCase {
 		}
 	}
 
+	/**
+	 * Run the Mergeable methods: partitions merged by several threads only become part of the map once finished.
+	 *
+	 * @throws Exception
+	 */
+	public void testAppendChunkToPartition_1()
+		throws Exception {
+		final SeepMap fixture = new SeepMap();
+		final int partitions = 4;
+		fixture.prepareMerge(partitions, 4000);
+		Thread[] mergers = new Thread[partitions];
+		for (int p = 0; p < partitions; p++) {
+			final int partition = p;
+			mergers[p] = new Thread(new Runnable() {
+				public void run() {
+					ArrayList<Object> chunk = new ArrayList<Object>();
+					for (int i = partition; i < 4000; i += partitions) {
+						chunk.add("k" + i);
+						chunk.add(i);
+					}
+					try {
+						fixture.appendChunk(partition, chunk);
+					}
+					catch (Exception e) {
+						throw new RuntimeException(e);
+					}
+				}
+			});
+			mergers[p].start();
+		}
+		for (Thread merger : mergers) {
+			merger.join();
+		}
+		assertTrue(fixture.isEmpty());
+
+		fixture.finishPartition(1);
+		assertEquals(1000, fixture.size());
+		assertEquals(5, fixture.get("k5"));
+		assertNull(fixture.get("k4"));
+
+		fixture.finishPartition(0);
+		fixture.finishPartition(2);
+		fixture.finishPartition(3);
+		assertEquals(4000, fixture.size());
+	}
+
+	/**
+	 * Run the void appendChunk(int, ArrayList<Object>) method test with an odd number of objects.
+	 *
+	 * @throws Exception
+	 */
+	public void testAppendChunkToPartition_2()
+		throws Exception {
+		SeepMap fixture = new SeepMap();
+		fixture.prepareMerge(1, 10);
+		ArrayList<Object> chunk = new ArrayList<Object>();
+		chunk.add("k");
+
+		boolean thrown = false;
+		try{
+			fixture.appendChunk(0, chunk);
+		}
+		catch(MalformedStateChunk e){
+			thrown = true;
+		}
+		
+		assertTrue(thrown);
+	}
+
 	/**
 	 * Run the void clear() method test.
 	 *
@@ -0,0 +1,82 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Imperial College London
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Raul Castro Fernandez - initial API and implementation
+ ******************************************************************************/
+package uk.ac.imperial.lsds.seep.buffer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * The class <code>SpscRingBufferTest</code> contains tests for the class <code>{@link SpscRingBuffer}</code>.
+ */
+public class SpscRingBufferTest extends TestCase {
+
+	public void testBoundedFifo(){
+		SpscRingBuffer<Long> rb = new SpscRingBuffer<Long>(3, SpscRingBuffer.WaitStrategy.PARK);
+
+		assertEquals(4, rb.capacity());
+		for(long i = 0; i < 4; i++){
+			assertTrue(rb.offer(i));
+		}
+		assertFalse(rb.offer(4L));
+		assertFalse(rb.offer(4L, 20));
+		assertEquals(Long.valueOf(1), rb.peek(1));
+		assertNull(rb.peek(4));
+
+		assertEquals(Long.valueOf(0), rb.poll());
+		assertTrue(rb.offer(4L));
+		List<Long> drained = new ArrayList<Long>();
+		assertEquals(3, rb.drainTo(drained, 3));
+		assertEquals(3, drained.size());
+		assertEquals(Long.valueOf(1), drained.get(0));
+		assertEquals(Long.valueOf(4), rb.poll());
+		assertNull(rb.poll());
+		assertTrue(rb.isEmpty());
+	}
+
+	public void testHeadStaysVisibleUntilPolled() throws InterruptedException {
+		SpscRingBuffer<Long> rb = new SpscRingBuffer<Long>(4, SpscRingBuffer.WaitStrategy.PARK);
+		rb.offer(7L);
+		rb.offer(8L);
+
+		assertEquals(Long.valueOf(7), rb.awaitHead());
+		long head = rb.headSequence();
+		assertEquals(head + 2, rb.tailSequence());
+		assertEquals(Long.valueOf(7), rb.peekAt(head));
+		assertEquals(Long.valueOf(7), rb.poll());
+		// Polled, while the next item keeps its sequence number
+		assertNull(rb.peekAt(head));
+		assertEquals(Long.valueOf(8), rb.peekAt(head + 1));
+		assertNull(rb.peekAt(head + 2));
+	}
+
+	public void testHandoffBetweenThreadsKeepsOrder() throws InterruptedException {
+		// Not SPIN, which can take a whole time slice per handoff on a single core
+		for(final SpscRingBuffer.WaitStrategy ws : new SpscRingBuffer.WaitStrategy[]{SpscRingBuffer.WaitStrategy.YIELD, SpscRingBuffer.WaitStrategy.PARK}){
+			final SpscRingBuffer<Long> rb = new SpscRingBuffer<Long>(4, ws);
+			final int n = 20000;
+			Thread producer = new Thread(new Runnable(){
+				public void run(){
+					for(long i = 0; i < n; i++){
+						while(!rb.offer(i, 100)){}
+					}
+				}
+			});
+			producer.start();
+			for(long i = 0; i < n; i++){
+				assertEquals(ws.name(), Long.valueOf(i), rb.take());
+			}
+			producer.join();
+			assertTrue(rb.isEmpty());
+		}
+	}
+}
@@ -0,0 +1,149 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Imperial College London
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Raul Castro Fernandez - initial API and implementation
+ ******************************************************************************/
+package uk.ac.imperial.lsds.seep.comm;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import uk.ac.imperial.lsds.seep.comm.serialization.TupleSchema;
+import uk.ac.imperial.lsds.seep.comm.serialization.messages.BatchTuplePayload;
+import uk.ac.imperial.lsds.seep.comm.serialization.messages.Payload;
+import uk.ac.imperial.lsds.seep.comm.serialization.messages.TuplePayload;
+import uk.ac.imperial.lsds.seep.comm.serialization.serializers.ArrayListSerializer;
+import uk.ac.imperial.lsds.seep.comm.serialization.serializers.BatchTuplePayloadSerializer;
+import uk.ac.imperial.lsds.seep.comm.serialization.serializers.TuplePayloadSerializer;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+import junit.framework.TestCase;
+
+/**
+ * The class <code>BatchFrameDecoderTest</code> contains tests for the class <code>{@link BatchFrameDecoder}</code>.
+ */
+public class BatchFrameDecoderTest extends TestCase {
+
+	private static final TupleSchema SCHEMA = TupleSchema.fromAttributes(Arrays.asList("id", "value"));
+
+	private Kryo kryo(){
+		Kryo k = new Kryo();
+		k.register(ArrayList.class, new ArrayListSerializer());
+		k.register(Payload.class);
+		k.register(TuplePayload.class, new TuplePayloadSerializer(SCHEMA));
+		k.register(BatchTuplePayload.class, new BatchTuplePayloadSerializer(SCHEMA));
+		return k;
+	}
+
+	private byte[] stream(int batches, int tuplesPerBatch){
+		Kryo k = kryo();
+		Output output = new Output(4096, -1);
+		for(int b = 0; b < batches; b++){
+			BatchTuplePayload msg = new BatchTuplePayload();
+			for(int i = 0; i < tuplesPerBatch; i++){
+				TuplePayload tp = new TuplePayload();
+				tp.timestamp = b * tuplesPerBatch + i;
+				tp.attrValues = new Payload((long)tp.timestamp, "value-"+tp.timestamp);
+				msg.addTuple(tp);
+			}
+			k.writeObject(output, msg);
+		}
+		return output.toBytes();
+	}
+
+	private void assertBatch(BatchTuplePayload batch, int b, int tuplesPerBatch){
+		assertNotNull(batch);
+		assertEquals(tuplesPerBatch, batch.size());
+		long ts = b * tuplesPerBatch;
+		assertEquals(ts, batch.getTuple(0).timestamp);
+		assertEquals("value-"+ts, batch.getTuple(0).attrValues.get(1));
+	}
+
+	public void testWholeStream(){
+		BatchFrameDecoder decoder = new BatchFrameDecoder(kryo());
+		decoder.append(ByteBuffer.wrap(stream(3, 4)), 0);
+
+		for(int b = 0; b < 3; b++){
+			assertBatch(decoder.poll(0), b, 4);
+		}
+		assertNull(decoder.poll(0));
+		assertEquals(0, decoder.pendingBytes());
+		assertEquals(-1, decoder.getFrameStartTs());
+	}
+
+	public void testResumesAtEverySplitPoint(){
+		byte[] bytes = stream(2, 3);
+		for(int split = 1; split < bytes.length; split++){
+			BatchFrameDecoder decoder = new BatchFrameDecoder(kryo());
+			decoder.append(ByteBuffer.wrap(bytes, 0, split), 0);
+			int decoded = 0;
+			BatchTuplePayload batch;
+			while((batch = decoder.poll(0)) != null){
+				assertBatch(batch, decoded++, 3);
+			}
+			decoder.append(ByteBuffer.wrap(bytes, split, bytes.length - split), 0);
+			while((batch = decoder.poll(0)) != null){
+				assertBatch(batch, decoded++, 3);
+			}
+			assertEquals("split="+split, 2, decoded);
+		}
+	}
+
+	public void testOneByteAtATime(){
+		byte[] bytes = stream(5, 2);
+		BatchFrameDecoder decoder = new BatchFrameDecoder(kryo());
+		int decoded = 0;
+		for(int i = 0; i < bytes.length; i++){
+			decoder.append(ByteBuffer.wrap(bytes, i, 1), i);
+			BatchTuplePayload batch = decoder.poll(i);
+			if(batch != null){
+				assertBatch(batch, decoded++, 2);
+			}
+		}
+		assertEquals(5, decoded);
+	}
+
+	public void testDecodesEachBatchOnce(){
+		final int[] reads = new int[1];
+		Kryo k = kryo();
+		k.register(BatchTuplePayload.class, new BatchTuplePayloadSerializer(SCHEMA){
+			@Override
+			public BatchTuplePayload read(Kryo kryo, Input input, Class<BatchTuplePayload> type){
+				reads[0]++;
+				return super.read(kryo, input, type);
+			}
+		});
+		byte[] bytes = stream(3, 50);
+		BatchFrameDecoder decoder = new BatchFrameDecoder(k);
+		int decoded = 0;
+		for(int i = 0; i < bytes.length; i++){
+			decoder.append(ByteBuffer.wrap(bytes, i, 1), i);
+			if(decoder.poll(i) != null){
+				decoded++;
+			}
+		}
+		assertEquals(3, decoded);
+		assertEquals(3, reads[0]);
+	}
+
+	public void testGrowsForLargeBatches(){
+		byte[] bytes = stream(1, 5000);
+		assertTrue(bytes.length > 64 * 1024);
+		BatchFrameDecoder decoder = new BatchFrameDecoder(kryo());
+		for(int off = 0; off < bytes.length; off += 16384){
+			decoder.append(ByteBuffer.wrap(bytes, off, Math.min(16384, bytes.length - off)), 0);
+		}
+
+		assertBatch(decoder.poll(0), 0, 5000);
+		assertEquals(0, decoder.pendingBytes());
+	}
+}
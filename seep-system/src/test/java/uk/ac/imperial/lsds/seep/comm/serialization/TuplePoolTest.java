@@ -0,0 +1,120 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Imperial College London
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Raul Castro Fernandez - initial API and implementation
+ ******************************************************************************/
+package uk.ac.imperial.lsds.seep.comm.serialization;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import uk.ac.imperial.lsds.seep.comm.serialization.TupleSchema.Type;
+import uk.ac.imperial.lsds.seep.comm.serialization.messages.BatchTuplePayload;
+import uk.ac.imperial.lsds.seep.comm.serialization.messages.Payload;
+import uk.ac.imperial.lsds.seep.comm.serialization.messages.TuplePayload;
+import uk.ac.imperial.lsds.seep.comm.serialization.serializers.ArrayListSerializer;
+import uk.ac.imperial.lsds.seep.comm.serialization.serializers.BatchTuplePayloadSerializer;
+import uk.ac.imperial.lsds.seep.comm.serialization.serializers.TuplePayloadSerializer;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+import junit.framework.TestCase;
+
+/**
+ * The class <code>TuplePoolTest</code> contains tests for the class <code>{@link TuplePool}</code>.
+ */
+public class TuplePoolTest extends TestCase {
+
+	private static final TupleSchema SCHEMA = TupleSchema.fromAttributes(Arrays.asList("id", "value"),
+			Arrays.asList(Type.LONG, Type.DOUBLE));
+
+	private Kryo kryo(TuplePool pool){
+		Kryo k = new Kryo();
+		k.register(ArrayList.class, new ArrayListSerializer());
+		k.register(Payload.class);
+		k.register(TuplePayload.class, new TuplePayloadSerializer(SCHEMA));
+		k.register(BatchTuplePayload.class, new BatchTuplePayloadSerializer(SCHEMA, pool));
+		return k;
+	}
+
+	private byte[] batch(int n, long first){
+		BatchTuplePayload msg = new BatchTuplePayload();
+		for(int i = 0; i < n; i++){
+			TuplePayload tp = new TuplePayload();
+			tp.timestamp = first + i;
+			tp.attrValues = new Payload(first + i, i * 0.5d);
+			msg.addTuple(tp);
+		}
+		Output output = new Output(4096, -1);
+		kryo(null).writeObject(output, msg);
+		return output.toBytes();
+	}
+
+	private BatchTuplePayload read(Kryo k, byte[] bytes){
+		return k.readObject(new Input(bytes), BatchTuplePayload.class);
+	}
+
+	public void testReleasedTuplesAreReadInPlace(){
+		TuplePool pool = new TuplePool(SCHEMA, 16);
+		Kryo k = kryo(pool);
+
+		BatchTuplePayload first = read(k, batch(2, 10));
+		DataTuple a = pool.getBatchTuple(0);
+		DataTuple b = pool.getBatchTuple(1);
+		assertSame(a.getPayload(), first.getTuple(0));
+		assertEquals(11L, b.getLongAt(0));
+		a.release();
+		b.release();
+
+		BatchTuplePayload second = read(k, batch(2, 20));
+		assertSame(first, second);
+		assertSame(a, pool.getBatchTuple(0));
+		assertSame(b, pool.getBatchTuple(1));
+		assertEquals(20L, pool.getBatchTuple(0).getLongAt(0));
+		assertEquals(0.5d, pool.getBatchTuple(1).getDoubleAt(1), 0.0d);
+	}
+
+	public void testRetainedAndDetachedTuplesAreNotRecycled(){
+		TuplePool pool = new TuplePool(SCHEMA, 16);
+		Kryo k = kryo(pool);
+
+		read(k, batch(2, 10));
+		DataTuple retained = pool.getBatchTuple(0).retain();
+		DataTuple sent = pool.getBatchTuple(1);
+		retained.release();
+		sent.detach();
+		sent.release();
+
+		read(k, batch(2, 20));
+		assertNotSame(retained, pool.getBatchTuple(0));
+		assertNotSame(sent, pool.getBatchTuple(1));
+		assertEquals(10L, retained.getLongAt(0));
+		assertEquals(11L, sent.getLongAt(0));
+	}
+
+	public void testTuplesOfIncompleteReadGoBackToPool(){
+		TuplePool pool = new TuplePool(SCHEMA, 16);
+		Kryo k = kryo(pool);
+
+		byte[] bytes = batch(3, 10);
+		try{
+			read(k, Arrays.copyOf(bytes, bytes.length - 4));
+			fail("Expected the read to run out of bytes");
+		}
+		catch(KryoException e){
+		}
+		DataTuple partial = pool.getBatchTuple(0);
+
+		read(k, bytes);
+		assertSame(partial, pool.getBatchTuple(0));
+		assertEquals(12L, pool.getBatchTuple(2).getLongAt(0));
+	}
+}
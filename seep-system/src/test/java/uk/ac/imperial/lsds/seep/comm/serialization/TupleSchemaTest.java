@@ -0,0 +1,110 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Imperial College London
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Raul Castro Fernandez - initial API and implementation
+ ******************************************************************************/
+package uk.ac.imperial.lsds.seep.comm.serialization;
+
+import java.util.Arrays;
+
+import uk.ac.imperial.lsds.seep.comm.serialization.TupleSchema.Type;
+import uk.ac.imperial.lsds.seep.comm.serialization.messages.Payload;
+import uk.ac.imperial.lsds.seep.comm.serialization.messages.TuplePayload;
+import junit.framework.TestCase;
+
+/**
+ * The class <code>TupleSchemaTest</code> contains tests for the class <code>{@link TupleSchema}</code>
+ * and the index based accessors of <code>{@link DataTuple}</code>.
+ */
+public class TupleSchemaTest extends TestCase {
+
+	private TupleSchema typedSchema(){
+		return TupleSchema.fromAttributes(Arrays.asList("id", "value", "load", "name"),
+				Arrays.asList(Type.LONG, Type.DOUBLE, Type.INT, Type.OBJECT));
+	}
+
+	private DataTuple tuple(TupleSchema schema, Object... values){
+		TuplePayload tp = new TuplePayload();
+		tp.attrValues = new Payload(values);
+		return new DataTuple(schema, tp);
+	}
+
+	public void testUntypedSchemaHasNoSlots(){
+		TupleSchema schema = TupleSchema.fromAttributes(Arrays.asList("a", "b"));
+
+		assertEquals(2, schema.size());
+		assertEquals(1, schema.indexOf("b"));
+		assertEquals(-1, schema.indexOf("c"));
+		assertFalse(schema.hasFixedWidthAttributes());
+		assertEquals(Integer.valueOf(0), schema.getIdxMapper().get("a"));
+	}
+
+	public void testSlotsAssignedToFixedWidthAttributesOnly(){
+		TupleSchema schema = typedSchema();
+
+		assertEquals(3, schema.getNumSlots());
+		assertEquals(0, schema.slotOf(0));
+		assertEquals(1, schema.slotOf(1));
+		assertEquals(2, schema.slotOf(2));
+		assertEquals(-1, schema.slotOf(3));
+	}
+
+	public void testMismatchedTypesRejected(){
+		try{
+			TupleSchema.fromAttributes(Arrays.asList("a", "b"), Arrays.asList(Type.LONG));
+			fail("Expected IllegalArgumentException");
+		}
+		catch(IllegalArgumentException expected){}
+	}
+
+	public void testIndexAccessOnBoxedPayload(){
+		DataTuple dt = tuple(typedSchema(), 7L, 2.5d, 3, "plug");
+		int value = dt.indexOf("value");
+
+		assertFalse(dt.isCompact());
+		assertEquals(7L, dt.getLongAt(0));
+		assertEquals(2.5d, dt.getDoubleAt(value), 0.0d);
+		assertEquals(3, dt.getIntAt(2));
+		assertEquals("plug", dt.getString("name"));
+	}
+
+	public void testCompactKeepsDataTupleIAccessors(){
+		DataTuple dt = tuple(typedSchema(), 7L, 2.5d, 3, "plug");
+		dt.compact();
+
+		assertTrue(dt.isCompact());
+		assertNull(dt.getPayload().attrValues.get(1));
+		assertEquals(Long.valueOf(7L), dt.getLong("id"));
+		assertEquals(Double.valueOf(2.5d), dt.getDouble("value"));
+		assertEquals(Integer.valueOf(3), dt.getInt("load"));
+		assertEquals("plug", dt.getString("name"));
+		assertEquals(2.5d, dt.getDoubleAt(1), 0.0d);
+		assertEquals(2L, dt.getLongAt(1));
+		assertEquals("VAL 7 2.5 3 plug ", dt.toString());
+	}
+
+	public void testPrimitiveSetters(){
+		DataTuple dt = tuple(typedSchema(), 7L, 2.5d, 3, "plug");
+		dt.setLongAt(0, 42L);
+		dt.setDoubleAt(1, -1.25d);
+
+		assertTrue(dt.isCompact());
+		assertEquals(42L, dt.getLongAt(0));
+		assertEquals(-1.25d, dt.getDoubleAt(1), 0.0d);
+		assertEquals(Integer.valueOf(3), dt.getInt("load"));
+	}
+
+	public void testSetValuesKeepsSchema(){
+		TupleSchema schema = typedSchema();
+		DataTuple dt = tuple(schema, 7L, 2.5d, 3, "plug");
+		DataTuple out = dt.setValues(8L, 1.0d, 4, "other");
+
+		assertSame(schema, out.getSchema());
+		assertEquals(8L, out.getLongAt(0));
+	}
+}
@@ -0,0 +1,181 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Imperial College London
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Raul Castro Fernandez - initial API and implementation
+ ******************************************************************************/
+package uk.ac.imperial.lsds.seep.comm.serialization.controlhelpers;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import uk.ac.imperial.lsds.seep.comm.serialization.LongRangeSet;
+import uk.ac.imperial.lsds.seep.comm.serialization.RangeUtil;
+
+import junit.framework.TestCase;
+
+/**
+ * The class <code>FailureCtrlTest</code> contains tests for the class <code>{@link FailureCtrl}</code>
+ * and the range set it stores acks and alives in, <code>{@link LongRangeSet}</code>.
+ */
+public class FailureCtrlTest extends TestCase {
+
+	private static Set<Long> set(long... ids){
+		Set<Long> s = new HashSet<Long>();
+		for(long id : ids){
+			s.add(id);
+		}
+		return s;
+	}
+
+	public void testRangeSetCoalesces(){
+		LongRangeSet rs = LongRangeSet.of(7, 3, 4, 5, 9, 8, 12);
+
+		assertEquals(3, rs.numRanges());
+		assertEquals(7, rs.count());
+		assertEquals("[3:6),[7:10),[12:13)", rs.toRangeString());
+		assertTrue(rs.contains(4));
+		assertFalse(rs.contains(6));
+		assertFalse(rs.contains(2));
+		assertEquals(set(3, 4, 5, 7, 8, 9, 12), new HashSet<Long>(rs));
+		assertEquals(set(3, 4, 5, 7, 8, 9, 12), rs);
+	}
+
+	public void testRangeStringMatchesRangeUtil(){
+		Set<Long> ids = set(1, 2, 3, 10, 11, 20);
+		LongRangeSet rs = LongRangeSet.copyOf(ids);
+
+		assertEquals(RangeUtil.toRangeSetStr(ids), rs.toRangeString());
+		assertEquals(rs, LongRangeSet.parse(RangeUtil.toRangeSetStr(ids)));
+		assertEquals(rs, LongRangeSet.parse("[10:11],(0:3],[20:21)"));
+		assertEquals(ids, RangeUtil.parseRangeSet(RangeUtil.toRangeSetStr(rs)));
+		assertNull(LongRangeSet.EMPTY.toRangeString());
+	}
+
+	public void testRangeSetOperationsMatchHashSet(){
+		Random r = new Random(42);
+		for(int round = 0; round < 200; round++){
+			Set<Long> a = new HashSet<Long>();
+			Set<Long> b = new HashSet<Long>();
+			for(int i = 0; i < 30; i++){
+				a.add((long) r.nextInt(60));
+				b.add((long) r.nextInt(60));
+			}
+			LongRangeSet ra = LongRangeSet.copyOf(a);
+			LongRangeSet rb = LongRangeSet.copyOf(b);
+			long lw = r.nextInt(60);
+
+			Set<Long> union = new HashSet<Long>(a);
+			union.addAll(b);
+			Set<Long> minus = new HashSet<Long>(a);
+			minus.removeAll(b);
+			Set<Long> above = new HashSet<Long>();
+			long atMost = 0;
+			for(Long id : a){
+				if(id > lw){ above.add(id); }
+				else{ atMost++; }
+			}
+
+			assertEquals(union, ra.union(rb));
+			assertEquals(minus, ra.minus(rb));
+			assertEquals(above, ra.above(lw));
+			assertEquals(atMost, ra.countAtMost(lw));
+			assertEquals(a.size(), ra.size());
+			assertEquals(a.hashCode(), ra.hashCode());
+		}
+	}
+
+	public void testRangeSetHashAcrossHighBits(){
+		long[][] ranges = {
+				{-3, 3}, {(1L << 32) - 4, (1L << 32) + 4}, {(7L << 32) - 1, 7L << 32},
+				{Long.MIN_VALUE, Long.MIN_VALUE + 2}, {Long.MAX_VALUE - 2, Long.MAX_VALUE}, {-(1L << 32) - 2, -(1L << 32) + 2}};
+		Set<Long> all = new HashSet<Long>();
+		for(long[] range : ranges){
+			Set<Long> ids = new HashSet<Long>();
+			for(long id = range[0]; ; id++){
+				ids.add(id);
+				if(id == range[1]){ break; }
+			}
+			all.addAll(ids);
+			LongRangeSet rs = LongRangeSet.range(range[0], range[1]);
+			assertEquals(ids, rs);
+			assertEquals(ids.hashCode(), rs.hashCode());
+		}
+		assertEquals(all.hashCode(), LongRangeSet.copyOf(all).hashCode());
+		assertEquals(0, LongRangeSet.EMPTY.hashCode());
+	}
+
+	public void testRangeSetCountsAcrossRanges(){
+		LongRangeSet rs = LongRangeSet.parse("[0:10),[20:30),[40:50)");
+		assertEquals(0, rs.countAtMost(-1));
+		assertEquals(10, rs.countAtMost(15));
+		assertEquals(15, rs.countAtMost(24));
+		assertEquals(20, rs.countAtMost(39));
+		assertEquals(30, rs.countAtMost(Long.MAX_VALUE));
+	}
+
+	public void testUpdateAdvancesLowWatermark(){
+		FailureCtrl fctrl = new FailureCtrl();
+
+		assertTrue(fctrl.update(-1, set(0, 1, 2, 5, 6), set(3, 4, 5, 8)));
+		assertEquals(2, fctrl.lw());
+		assertEquals(set(5, 6), fctrl.acks());
+		assertEquals(set(3, 4, 8), fctrl.alives());
+		assertTrue(fctrl.isAcked(1));
+		assertTrue(fctrl.isAcked(6));
+		assertFalse(fctrl.isAcked(3));
+		assertTrue(fctrl.isAlive(8));
+		assertFalse(fctrl.isAlive(5));
+
+		assertFalse(fctrl.update(1, set(5), set(8)));
+
+		assertTrue(fctrl.update(4, set(7), null));
+		assertEquals(7, fctrl.lw());
+		assertTrue(fctrl.acks().isEmpty());
+		assertEquals(set(8), fctrl.alives());
+		assertEquals("7::[8:9)", fctrl.toString());
+	}
+
+	public void testStringRoundTrip(){
+		FailureCtrl fctrl = new FailureCtrl(10, set(12, 13, 20), set(15, 16));
+		FailureCtrl parsed = new FailureCtrl("10:12,13,20:15,16");
+
+		assertEquals("10:[12:14),[20:21):[15:17)", fctrl.toString());
+		assertEquals(fctrl.toString(), parsed.toString());
+		assertEquals(fctrl.toString(), new OpFailureCtrl(0, fctrl.lw(), fctrl.acks(), fctrl.alives()).getFailureCtrl().toString());
+	}
+
+	public void testSinkAckAndUnacked(){
+		FailureCtrl fctrl = new FailureCtrl();
+		for(long ts : Arrays.asList(2L, 0L, 5L, 1L, 4L)){
+			fctrl.ack(ts);
+		}
+
+		assertEquals(2, fctrl.lw());
+		assertEquals(set(4, 5), fctrl.acks());
+		assertEquals(0, fctrl.unacked(2));
+		assertEquals(1, fctrl.unacked(4));
+		assertEquals(3, fctrl.unacked(7));
+
+		fctrl.ack(3);
+		assertEquals(5, fctrl.lw());
+		assertTrue(fctrl.acks().isEmpty());
+	}
+
+	public void testCopyIsIndependent(){
+		FailureCtrl fctrl = new FailureCtrl(0, set(2), set(3));
+		FailureCtrl copy = fctrl.copy(false);
+		fctrl.update(3, null, null);
+
+		assertEquals(0, copy.lw());
+		assertEquals(set(2), copy.acks());
+		assertTrue(copy.alives().isEmpty());
+		assertEquals(3, fctrl.lw());
+	}
+}
@@ -0,0 +1,136 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Imperial College London
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Raul Castro Fernandez - initial API and implementation
+ ******************************************************************************/
+package uk.ac.imperial.lsds.seep.comm.serialization.serializers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import uk.ac.imperial.lsds.seep.comm.serialization.DataTuple;
+import uk.ac.imperial.lsds.seep.comm.serialization.TupleSchema;
+import uk.ac.imperial.lsds.seep.comm.serialization.TupleSchema.Type;
+import uk.ac.imperial.lsds.seep.comm.serialization.messages.BatchTuplePayload;
+import uk.ac.imperial.lsds.seep.comm.serialization.messages.Payload;
+import uk.ac.imperial.lsds.seep.comm.serialization.messages.TuplePayload;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+import junit.framework.TestCase;
+
+/**
+ * The class <code>BatchTuplePayloadSerializerTest</code> contains tests for the classes
+ * <code>{@link BatchTuplePayloadSerializer}</code> and <code>{@link TuplePayloadSerializer}</code>.
+ */
+public class BatchTuplePayloadSerializerTest extends TestCase {
+
+	private static final TupleSchema SCHEMA = TupleSchema.fromAttributes(Arrays.asList("id", "value", "name"),
+			Arrays.asList(Type.LONG, Type.DOUBLE, Type.OBJECT));
+
+	private Kryo kryo(TupleSchema schema){
+		Kryo k = new Kryo();
+		k.register(ArrayList.class, new ArrayListSerializer());
+		k.register(Payload.class);
+		k.register(TuplePayload.class, new TuplePayloadSerializer(schema));
+		k.register(BatchTuplePayload.class, new BatchTuplePayloadSerializer(schema));
+		return k;
+	}
+
+	private BatchTuplePayload batch(int n){
+		BatchTuplePayload msg = new BatchTuplePayload();
+		long now = 1400000000000L;
+		for(int i = 0; i < n; i++){
+			TuplePayload tp = new TuplePayload();
+			tp.timestamp = 1000 + i;
+			tp.instrumentation_ts = now + i;
+			tp.local_ts = now + 2 * i;
+			tp.attrValues = new Payload((long)i, i * 0.5d, "plug-"+i);
+			msg.addTuple(tp);
+		}
+		return msg;
+	}
+
+	private BatchTuplePayload roundTrip(Kryo writer, Kryo reader, BatchTuplePayload msg){
+		Output output = new Output(4096, -1);
+		writer.writeObject(output, msg);
+		Input input = new Input(output.toBytes());
+		return reader.readObject(input, BatchTuplePayload.class);
+	}
+
+	public void testRoundTripUntyped(){
+		TupleSchema untyped = TupleSchema.fromAttributes(Arrays.asList("id", "value", "name"));
+		BatchTuplePayload msg = batch(5);
+		msg.rctrl = 3;
+		BatchTuplePayload copy = roundTrip(kryo(untyped), kryo(untyped), msg);
+
+		assertEquals(5, copy.size());
+		assertEquals(5, copy.batchSize);
+		assertEquals(msg.outputTs, copy.outputTs);
+		assertEquals(Integer.valueOf(3), copy.rctrl);
+		assertNull(copy.fctrl);
+		for(int i = 0; i < 5; i++){
+			TuplePayload expected = msg.getTuple(i);
+			TuplePayload actual = copy.getTuple(i);
+			assertEquals(expected.timestamp, actual.timestamp);
+			assertEquals(expected.instrumentation_ts, actual.instrumentation_ts);
+			assertEquals(expected.local_ts, actual.local_ts);
+			assertEquals(expected.attrValues, actual.attrValues);
+			assertNull(actual.fixedSlots);
+		}
+	}
+
+	public void testTypedReaderDecodesIntoSlots(){
+		BatchTuplePayload copy = roundTrip(kryo(null), kryo(SCHEMA), batch(3));
+		DataTuple dt = new DataTuple(SCHEMA, copy.getTuple(2));
+
+		assertTrue(dt.isCompact());
+		assertEquals(2L, dt.getLongAt(0));
+		assertEquals(1.0d, dt.getDoubleAt(1), 0.0d);
+		assertEquals("plug-2", dt.getString("name"));
+	}
+
+	public void testCompactedTupleIsExpandedByWriter(){
+		BatchTuplePayload msg = batch(2);
+		for(TuplePayload tp : msg.batch){
+			new DataTuple(SCHEMA, tp).compact();
+		}
+		BatchTuplePayload copy = roundTrip(kryo(SCHEMA), kryo(null), msg);
+
+		assertEquals(new Payload(1L, 0.5d, "plug-1"), copy.getTuple(1).attrValues);
+	}
+
+	public void testMismatchedValuesStayBoxed(){
+		BatchTuplePayload msg = new BatchTuplePayload();
+		TuplePayload tp = new TuplePayload();
+		tp.attrValues = new Payload(1L, "not a double", "x");
+		msg.addTuple(tp);
+		TuplePayload copy = roundTrip(kryo(null), kryo(SCHEMA), msg).getTuple(0);
+
+		assertNull(copy.fixedSlots);
+		assertEquals(tp.attrValues, copy.attrValues);
+	}
+
+	public void testSmallerThanFieldSerializer(){
+		Kryo legacy = new Kryo();
+		legacy.register(ArrayList.class, new ArrayListSerializer());
+		legacy.register(Payload.class);
+		legacy.register(TuplePayload.class);
+		legacy.register(BatchTuplePayload.class);
+		BatchTuplePayload msg = batch(50);
+
+		Output legacyOut = new Output(1 << 16, -1);
+		legacy.writeObject(legacyOut, msg);
+		Output out = new Output(1 << 16, -1);
+		kryo(null).writeObject(out, msg);
+
+		assertTrue(out.position() < legacyOut.position());
+	}
+}
@@ -0,0 +1,121 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Imperial College London
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Raul Castro Fernandez - initial API and implementation
+ ******************************************************************************/
+package uk.ac.imperial.lsds.seep.comm.serialization.serializers;
+
+import uk.ac.imperial.lsds.seep.comm.serialization.LongRangeSet;
+import uk.ac.imperial.lsds.seep.comm.serialization.controlhelpers.FailureCtrl;
+import uk.ac.imperial.lsds.seep.comm.serialization.controlhelpers.FailureCtrlDeltas;
+import uk.ac.imperial.lsds.seep.comm.serialization.controlhelpers.OpFailureCtrl;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+import junit.framework.TestCase;
+
+/**
+ * The class <code>OpFailureCtrlSerializerTest</code> contains tests for the class
+ * <code>{@link OpFailureCtrlSerializer}</code> and the deltas of <code>{@link FailureCtrlDeltas}</code>.
+ */
+public class OpFailureCtrlSerializerTest extends TestCase {
+
+	private Kryo kryo(){
+		Kryo k = new Kryo();
+		k.register(OpFailureCtrl.class, new OpFailureCtrlSerializer());
+		return k;
+	}
+
+	private byte[] write(OpFailureCtrl fctrl){
+		Output output = new Output(256, -1);
+		kryo().writeObject(output, fctrl);
+		return output.toBytes();
+	}
+
+	private OpFailureCtrl read(byte[] bytes){
+		return kryo().readObject(new Input(bytes), OpFailureCtrl.class);
+	}
+
+	public void testRoundTrip(){
+		LongRangeSet acks = LongRangeSet.range(1400000000050L, 1400000000060L).union(LongRangeSet.of(1400000000100L));
+		LongRangeSet alives = LongRangeSet.range(1400000000001L, 1400000000040L);
+		OpFailureCtrl fctrl = new OpFailureCtrl(7, 1400000000000L, acks, alives);
+
+		byte[] bytes = write(fctrl);
+		OpFailureCtrl copy = read(bytes);
+
+		assertEquals(7, copy.getOpId());
+		assertEquals(1400000000000L, copy.getLw());
+		assertEquals(acks, copy.getAcks());
+		assertEquals(alives, copy.getAlives());
+		// A large lw and three ranges close to it
+		assertTrue("size="+bytes.length, bytes.length <= 20);
+	}
+
+	public void testEmptyAndNegativeLw(){
+		OpFailureCtrl copy = read(write(new OpFailureCtrl(-1, -1, null, null)));
+
+		assertEquals(-1, copy.getOpId());
+		assertEquals(-1, copy.getLw());
+		assertTrue(copy.getAcks().isEmpty());
+		assertTrue(copy.getAlives().isEmpty());
+		assertEquals("-1::", copy.getFailureCtrl().toString());
+	}
+
+	public void testDeltasOnlyCarryNewAcks(){
+		FailureCtrlDeltas deltas = new FailureCtrlDeltas(3);
+		FailureCtrl fctrl = new FailureCtrl(10, LongRangeSet.of(12, 14), LongRangeSet.of(11));
+
+		OpFailureCtrl full = deltas.next(0, 1, fctrl);
+		assertEquals(LongRangeSet.of(12, 14), full.getAcks());
+
+		fctrl.update(10, LongRangeSet.of(16), null);
+		OpFailureCtrl delta = deltas.next(0, 1, fctrl);
+		assertEquals(10, delta.getLw());
+		assertEquals(LongRangeSet.of(16), delta.getAcks());
+		assertEquals(LongRangeSet.of(11), delta.getAlives());
+
+		fctrl.update(10, LongRangeSet.of(18), null);
+		assertEquals(LongRangeSet.of(16, 18), deltas.next(0, 1, fctrl).getAcks());
+		assertEquals(LongRangeSet.of(12, 14, 16, 18), deltas.next(0, 1, fctrl).getAcks());
+
+		// Other peers get their own full failure ctrl first
+		assertEquals(LongRangeSet.of(12, 14, 16, 18), deltas.next(1, 1, fctrl).getAcks());
+	}
+
+	public void testResetSendsFullFailureCtrl(){
+		FailureCtrlDeltas deltas = new FailureCtrlDeltas(10);
+		FailureCtrl fctrl = new FailureCtrl(10, LongRangeSet.of(12, 14), LongRangeSet.of(11));
+		deltas.next(0, 1, fctrl);
+		deltas.next(1, 1, fctrl);
+
+		fctrl.update(10, LongRangeSet.of(16), null);
+		assertEquals(LongRangeSet.of(16), deltas.next(0, 1, fctrl).getAcks());
+
+		// A reconnected peer may hold none of the acks sent before, other peers keep getting deltas
+		deltas.reset(0);
+		assertEquals(LongRangeSet.of(12, 14, 16), deltas.next(0, 1, fctrl).getAcks());
+		assertEquals(LongRangeSet.of(16), deltas.next(1, 1, fctrl).getAcks());
+
+		fctrl.update(10, LongRangeSet.of(18), null);
+		assertEquals(LongRangeSet.of(18), deltas.next(0, 1, fctrl).getAcks());
+	}
+
+	public void testCoalesceKeepsAcksOfReplacedDelta(){
+		OpFailureCtrl older = new OpFailureCtrl(1, 10, LongRangeSet.of(12, 20), LongRangeSet.of(15));
+		OpFailureCtrl newer = new OpFailureCtrl(1, 12, LongRangeSet.of(22), LongRangeSet.of(15, 20));
+
+		newer.coalesce(older);
+
+		assertEquals(12, newer.getLw());
+		assertEquals(LongRangeSet.of(20, 22), newer.getAcks());
+		assertEquals(LongRangeSet.of(15), newer.getAlives());
+	}
+}
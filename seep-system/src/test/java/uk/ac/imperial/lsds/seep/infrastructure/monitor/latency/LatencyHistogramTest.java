@@ -0,0 +1,71 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Imperial College London
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Raul Castro Fernandez - initial API and implementation
+ ******************************************************************************/
+package uk.ac.imperial.lsds.seep.infrastructure.monitor.latency;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the interval latency histogram.
+ */
+public class LatencyHistogramTest {
+    
+    public LatencyHistogramTest() {
+    }
+
+    @Test
+    public void testSmallValuesAreExact() {
+        for(int value = 0; value < 128; value++) {
+            int index = LatencyHistogram.indexOf(value);
+            assertEquals("Lowest value is incorrect", value, 
+                    LatencyHistogram.lowestEquivalentValue(index));
+            assertEquals("Highest value is incorrect", value, 
+                    LatencyHistogram.highestEquivalentValue(index));
+        }
+    }
+    
+    @Test
+    public void testLargeValuesWithinPrecision() {
+        for(long value = 128; value < LatencyHistogram.HIGHEST_TRACKABLE_VALUE; value = value * 3 + 7) {
+            int index = LatencyHistogram.indexOf(value);
+            long lowest = LatencyHistogram.lowestEquivalentValue(index);
+            long highest = LatencyHistogram.highestEquivalentValue(index);
+            
+            assertTrue("Value " + value + " outside its bucket", 
+                    lowest <= value && value <= highest);
+            assertTrue("Bucket of " + value + " is too wide", 
+                    (highest - lowest) <= value / 64);
+        }
+    }
+    
+    @Test
+    public void testIntervalSnapshot() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        
+        for(int value = 1; value <= 1000; value++) {
+            histogram.record(value);
+        }
+        histogram.record(-5);
+        
+        LatencySnapshot snapshot 
+                = histogram.intervalSnapshot(LatencyStage.PROCESSING, StageLatencies.LOCAL);
+        
+        assertEquals("Count is incorrect", 1001, snapshot.getCount());
+        assertEquals("Min is incorrect", 0, snapshot.getMin());
+        assertEquals("Max is incorrect", 1000, snapshot.getMax(), 1000 / 64);
+        assertEquals("Median is incorrect", 500, snapshot.getP50(), 500 / 64);
+        assertEquals("99th percentile is incorrect", 991, snapshot.getP99(), 991 / 64);
+        assertEquals("Mean is incorrect", 500, snapshot.getMean(), 500 / 64);
+        
+        snapshot = histogram.intervalSnapshot(LatencyStage.PROCESSING, StageLatencies.LOCAL);
+        assertEquals("Next interval is not empty", 0, snapshot.getCount());
+    }
+}
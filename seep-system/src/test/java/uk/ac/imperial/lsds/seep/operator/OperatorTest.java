@@ -11,6 +11,7 @@
 package uk.ac.imperial.lsds.seep.operator;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import uk.ac.imperial.lsds.seep.processingunit.IProcessingUnit;
 import java.util.Map;
@@ -80,4 +81,62 @@ public class OperatorTest extends TestCase {
 			junit.textui.TestRunner.run(suite);
 		}
 	}
+
+	/**
+	 * Operator code with two inputs told apart by upstream, counting its tuples per upstream
+	 */
+	private static class TaggedCode implements OperatorCode, UpstreamTaggedProcessing {
+		private static final long serialVersionUID = 1L;
+		boolean setUp = false;
+		@Override
+		public void setUp() {
+			setUp = true;
+		}
+		@Override
+		public void processData(int upstreamOpId, DataTuple data) {
+		}
+		@Override
+		public void processData(DataTuple data) {
+			fail("Untagged tuple");
+		}
+		@Override
+		public void processData(List<DataTuple> dataList) {
+			fail("Untagged tuples");
+		}
+	}
+
+	private static Operator tagged(TaggedCode code, InputDataIngestionMode... modes) {
+		Operator op = Operator.getStatelessOperator(10, code, Arrays.asList("value"));
+		for (int i = 0; i < modes.length; i++) {
+			op.getOpContext().setInputDataIngestionModePerUpstream(i + 1, modes[i]);
+		}
+		return op;
+	}
+
+	private static void assertSetUpFails(Operator op) {
+		try {
+			op.setUp();
+			fail("Set up " + op);
+		}
+		catch (IllegalStateException e) {
+		}
+	}
+
+	public void testTaggedOperatorSetUpWithOneQueuePerUpstream() {
+		TaggedCode code = new TaggedCode();
+		tagged(code, InputDataIngestionMode.ONE_AT_A_TIME, InputDataIngestionMode.ONE_AT_A_TIME).setUp();
+		assertTrue(code.setUp);
+	}
+
+	public void testTaggedOperatorWithOneUpstreamFailsToSetUp() {
+		TaggedCode code = new TaggedCode();
+		assertSetUpFails(tagged(code, InputDataIngestionMode.ONE_AT_A_TIME));
+		assertFalse(code.setUp);
+	}
+
+	public void testTaggedOperatorBehindBarrierFailsToSetUp() {
+		TaggedCode code = new TaggedCode();
+		assertSetUpFails(tagged(code, InputDataIngestionMode.ONE_AT_A_TIME, InputDataIngestionMode.UPSTREAM_SYNC_BARRIER));
+		assertFalse(code.setUp);
+	}
 }
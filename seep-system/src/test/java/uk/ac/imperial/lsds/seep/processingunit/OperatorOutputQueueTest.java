@@ -0,0 +1,189 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Imperial College London
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Raul Castro Fernandez - initial API and implementation
+ ******************************************************************************/
+package uk.ac.imperial.lsds.seep.processingunit;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+import uk.ac.imperial.lsds.seep.comm.serialization.DataTuple;
+import uk.ac.imperial.lsds.seep.comm.serialization.LongRangeSet;
+import uk.ac.imperial.lsds.seep.comm.serialization.messages.TuplePayload;
+import uk.ac.imperial.lsds.seep.manet.Query;
+import uk.ac.imperial.lsds.seep.operator.Operator;
+import uk.ac.imperial.lsds.seep.processingunit.Dispatcher.OperatorOutputQueue;
+
+public class OperatorOutputQueueTest extends TestCase {
+
+	private static final List<String> ATTRIBUTES = Arrays.asList("timestamp", "value");
+
+	// Source 10 feeding sink 11
+	private static Query query() throws Exception {
+		TreeMap<Integer, Integer[]> logicalTopology = new TreeMap<Integer, Integer[]>();
+		logicalTopology.put(0, new Integer[] {});
+		logicalTopology.put(1, new Integer[] {0});
+		TreeMap<Integer, Set<Integer>> log2phys = new TreeMap<Integer, Set<Integer>>();
+		log2phys.put(0, new HashSet<Integer>(Arrays.asList(10)));
+		log2phys.put(1, new HashSet<Integer>(Arrays.asList(11)));
+		Map<Integer, InetAddress> phys2addr = new HashMap<Integer, InetAddress>();
+		phys2addr.put(10, InetAddress.getByAddress(new byte[] {127, 0, 0, 1}));
+		phys2addr.put(11, InetAddress.getByAddress(new byte[] {127, 0, 0, 2}));
+		return new Query(logicalTopology, log2phys, phys2addr);
+	}
+
+	// The processing unit is only asked for its operator when the dispatcher is built
+	private static OperatorOutputQueue queue(int maxSize) throws Exception {
+		final Operator op = Operator.getStatelessOperator(11, null, ATTRIBUTES);
+		op.getOpContext().setIsSink(true);
+		op.getOpContext().setFrontierQuery(query());
+		IProcessingUnit pu = (IProcessingUnit) Proxy.newProxyInstance(IProcessingUnit.class.getClassLoader(),
+				new Class<?>[] {IProcessingUnit.class}, new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) {
+						if (method.getName().equals("getOperator")) { return op; }
+						throw new UnsupportedOperationException(method.getName());
+					}
+				});
+		return new Dispatcher(pu).new OperatorOutputQueue(maxSize);
+	}
+
+	private static DataTuple tuple(long ts) {
+		TuplePayload payload = new TuplePayload();
+		payload.timestamp = ts;
+		return new DataTuple(new HashMap<String, Integer>(), payload);
+	}
+
+	private static long ts(DataTuple dt) {
+		return dt.getPayload().timestamp;
+	}
+
+	public void testOrderedByTimestampWithoutDuplicates() throws Exception {
+		OperatorOutputQueue queue = queue(Integer.MAX_VALUE);
+		queue.add(tuple(3));
+		queue.add(tuple(1));
+		queue.add(tuple(2));
+		queue.forceAdd(tuple(2));
+
+		assertEquals(3, queue.size());
+		assertEquals(1, ts(queue.tryPeekHead()));
+		assertTrue(queue.contains(2));
+		assertEquals(1, ts(queue.tryRemoveHead()));
+		assertEquals(2, ts(queue.remove(2)));
+		assertNull(queue.remove(2));
+		assertEquals(3, ts(queue.tryRemoveHead()));
+		assertNull(queue.tryRemoveHead());
+		assertTrue(queue.isEmpty());
+		assertEquals(0, queue.size());
+		assertNull(queue.keys());
+	}
+
+	public void testRemovesAckedTuples() throws Exception {
+		OperatorOutputQueue queue = queue(Integer.MAX_VALUE);
+		for (long ts = 1; ts <= 10; ts++)
+			queue.add(tuple(ts));
+
+		Map<Long, DataTuple> removed = queue.removeAll(LongRangeSet.ofRanges(new long[] {2, 7}, new long[] {4, 8}, 2));
+		assertEquals(new HashSet<Long>(Arrays.asList(2L, 3L, 4L, 7L, 8L)), removed.keySet());
+		assertEquals(5, queue.size());
+		// Sets smaller and larger than the queue
+		assertEquals(1, queue.removeAll(new HashSet<Long>(Arrays.asList(1L, 100L))).size());
+		Set<Long> large = new HashSet<Long>(Arrays.asList(9L));
+		for (long ts = 11; ts < 20; ts++)
+			large.add(ts);
+		assertEquals(1, queue.removeAll(large).size());
+		assertTrue(queue.removeOlderInclusive(5));
+		assertFalse(queue.removeOlderInclusive(5));
+		assertEquals(new HashSet<Long>(Arrays.asList(6L, 10L)), queue.keys());
+		assertEquals(2, queue.size());
+	}
+
+	public void testAddWaitsForRoom() throws Exception {
+		final OperatorOutputQueue queue = queue(1);
+		queue.add(tuple(1));
+		queue.add(tuple(2));
+		Thread producer = new Thread(new Runnable() {
+			public void run() {
+				queue.add(tuple(3));
+			}
+		});
+		producer.start();
+		producer.join(200);
+		assertTrue(producer.isAlive());
+		assertEquals(2, queue.size());
+
+		queue.tryRemoveHead();
+		producer.join(5000);
+		assertFalse(producer.isAlive());
+		assertTrue(queue.contains(3));
+	}
+
+	public void testPeekHeadWaitsForTuple() throws Exception {
+		final OperatorOutputQueue queue = queue(Integer.MAX_VALUE);
+		final DataTuple[] head = new DataTuple[1];
+		Thread consumer = new Thread(new Runnable() {
+			public void run() {
+				head[0] = queue.peekHead();
+			}
+		});
+		consumer.start();
+		consumer.join(100);
+		assertTrue(consumer.isAlive());
+
+		queue.add(tuple(5));
+		consumer.join(5000);
+		assertEquals(5, ts(head[0]));
+		assertEquals(1, queue.size());
+	}
+
+	public void testConcurrentAddsAndRemovals() throws Exception {
+		final OperatorOutputQueue queue = queue(64);
+		final int perProducer = 5000;
+		final AtomicInteger taken = new AtomicInteger();
+		Thread[] producers = new Thread[3];
+		for (int p = 0; p < producers.length; p++) {
+			final long first = p * perProducer;
+			producers[p] = new Thread(new Runnable() {
+				public void run() {
+					for (long ts = first; ts < first + perProducer; ts++)
+						queue.add(tuple(ts));
+				}
+			});
+			producers[p].start();
+		}
+		Thread consumer = new Thread(new Runnable() {
+			public void run() {
+				while (taken.get() < 3 * perProducer) {
+					queue.peekHead();
+					if (queue.tryRemoveHead() != null)
+						taken.incrementAndGet();
+				}
+			}
+		});
+		consumer.start();
+		for (Thread t : producers)
+			t.join(30000);
+		consumer.join(30000);
+
+		assertEquals(3 * perProducer, taken.get());
+		assertTrue(queue.isEmpty());
+		assertEquals(0, queue.size());
+	}
+}
@@ -0,0 +1,144 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Imperial College London
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Raul Castro Fernandez - initial API and implementation
+ ******************************************************************************/
+package uk.ac.imperial.lsds.seep.reliable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class BackupStoreTest extends TestCase {
+
+	private File folder;
+	private BackupStore store;
+
+	@Override
+	protected void setUp() throws Exception {
+		folder = File.createTempFile("backup", "");
+		folder.delete();
+		store = new BackupStore(folder, 1024);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		for (File f : folder.listFiles())
+			f.delete();
+		folder.delete();
+	}
+
+	private byte[] bytes(int n, int seed) {
+		byte[] b = new byte[n];
+		for (int i = 0; i < n; i++)
+			b[i] = (byte) (seed + i);
+		return b;
+	}
+
+	private long receive(int opId, String session, int transNumber, byte[] data) throws IOException {
+		return store.receive(opId, session, transNumber, Channels.newChannel(new ByteArrayInputStream(data)));
+	}
+
+	private byte[] read(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[100];
+		int n;
+		while ((n = in.read(buffer)) != -1)
+			out.write(buffer, 0, n);
+		return out.toByteArray();
+	}
+
+	public void testChunksSpanAndShareSegments() throws Exception {
+		byte[] first = bytes(2500, 0);
+		byte[] second = bytes(300, 7);
+		store.openSession(1, "a");
+		assertEquals(2500, receive(1, "a", 0, first));
+		assertEquals(300, receive(1, "a", 1, second));
+		store.closeSession(1);
+
+		assertEquals("a", store.getLastSessionName(1));
+		assertEquals(2, store.getNumberOfChunks(1));
+		// 2800 bytes in 1 KB segments
+		assertEquals(3, store.getSegmentFiles(1).size());
+		List<InputStream> chunks = store.openChunks(1);
+		assertTrue(Arrays.equals(first, read(chunks.get(0))));
+		assertTrue(Arrays.equals(second, read(chunks.get(1))));
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		assertEquals(2500, store.transferChunk(1, 0, Channels.newChannel(out)));
+		assertTrue(Arrays.equals(first, out.toByteArray()));
+	}
+
+	public void testClosedSessionSupersedesPreviousOne() throws Exception {
+		store.openSession(1, "a");
+		receive(1, "a", 0, bytes(100, 0));
+		store.closeSession(1);
+		ArrayList<File> old = store.getSegmentFiles(1);
+
+		store.openSession(1, "b");
+		receive(1, "b", 0, bytes(200, 1));
+		// Recovery still reads the last closed session until the new one closes
+		assertEquals("a", store.getLastSessionName(1));
+		assertTrue(old.get(0).exists());
+		store.closeSession(1);
+
+		assertEquals("b", store.getLastSessionName(1));
+		assertFalse(old.get(0).exists());
+		assertTrue(Arrays.equals(bytes(200, 1), read(store.openChunks(1).get(0))));
+	}
+
+	public void testSupersededSessionIsKeptWhileRead() throws Exception {
+		store.openSession(1, "a");
+		receive(1, "a", 0, bytes(1500, 0));
+		store.closeSession(1);
+		ArrayList<File> old = store.getSegmentFiles(1);
+		InputStream chunk = store.openChunks(1).get(0);
+		byte[] start = new byte[10];
+		assertEquals(10, chunk.read(start));
+
+		store.openSession(1, "b");
+		receive(1, "b", 0, bytes(200, 1));
+		store.closeSession(1);
+		assertTrue(old.get(0).exists());
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		assertEquals(200, store.transferChunk(1, 0, Channels.newChannel(out)));
+
+		// Deleted once read to the end
+		byte[] rest = read(chunk);
+		assertEquals(1490, rest.length);
+		assertEquals(bytes(1500, 0)[10], rest[0]);
+		assertFalse(old.get(0).exists());
+		assertFalse(old.get(1).exists());
+	}
+
+	public void testTransferChunkWithoutSession() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		assertEquals(-1, store.transferChunk(1, 0, Channels.newChannel(out)));
+		store.openSession(1, "a");
+		receive(1, "a", 0, bytes(10, 0));
+		store.closeSession(1);
+		assertEquals(-1, store.transferChunk(1, 1, Channels.newChannel(out)));
+		assertEquals(0, out.size());
+	}
+
+	public void testChunkOutOfSessionIsDropped() throws Exception {
+		store.openSession(1, "a");
+		assertEquals(-1, receive(1, "b", 0, bytes(10, 0)));
+		assertEquals(-1, receive(2, "a", 0, bytes(10, 0)));
+		store.closeSession(1);
+		assertEquals(0, store.getNumberOfChunks(1));
+	}
+}
@@ -0,0 +1,69 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Imperial College London
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Raul Castro Fernandez - initial API and implementation
+ ******************************************************************************/
+package uk.ac.imperial.lsds.seep.reliable;
+
+import java.util.ArrayList;
+
+import junit.framework.TestCase;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+public class ChunkEncoderTest extends TestCase {
+
+	private ArrayList<Object> chunk() {
+		ArrayList<Object> chunk = new ArrayList<Object>();
+		for (int i = 0; i < 1000; i++) {
+			chunk.add("key" + i);
+			chunk.add(i);
+		}
+		return chunk;
+	}
+
+	private MemoryChunk roundTrip(MemoryChunk mc) {
+		Kryo k = new Kryo();
+		k.register(MemoryChunk.class);
+		Output out = new Output(1 << 12, -1);
+		k.writeObject(out, mc);
+		return k.readObject(new Input(out.toBytes()), MemoryChunk.class);
+	}
+
+	public void testEncodedChunkIsDecodedWhenRead() {
+		MemoryChunk mc = new MemoryChunk(chunk());
+		new ChunkEncoder(false).encode(mc);
+		assertTrue(mc.isEncoded());
+		assertNull(mc.chunk);
+		assertEquals(mc.getRawLength(), mc.getEncodedLength());
+		assertEquals(chunk(), roundTrip(mc).chunk);
+	}
+
+	public void testCompressedChunkIsDecodedWhenRead() {
+		MemoryChunk mc = new MemoryChunk(chunk());
+		new ChunkEncoder(true).encode(mc);
+		assertTrue(mc.getEncodedLength() < mc.getRawLength());
+		assertEquals(chunk(), roundTrip(mc).chunk);
+	}
+
+	public void testEncoderBuffersAreReused() {
+		ChunkEncoder encoder = new ChunkEncoder(true);
+		MemoryChunk first = new MemoryChunk(chunk());
+		encoder.encode(first);
+		MemoryChunk firstCopy = roundTrip(first);
+		encoder.encode(new MemoryChunk(chunk()));
+		assertEquals(chunk(), firstCopy.chunk);
+	}
+
+	public void testUnencodedChunkIsStillSent() {
+		assertEquals(chunk(), roundTrip(new MemoryChunk(chunk())).chunk);
+		assertNull(roundTrip(new MemoryChunk()).chunk);
+	}
+}
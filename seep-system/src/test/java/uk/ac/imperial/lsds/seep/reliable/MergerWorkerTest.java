@@ -10,16 +10,9 @@
  ******************************************************************************/
 package uk.ac.imperial.lsds.seep.reliable;
 
-import java.net.InetAddress;
-import java.net.URL;
-import uk.ac.imperial.lsds.seep.processingunit.StatefulProcessingUnit;
-import uk.ac.imperial.lsds.seep.comm.serialization.controlhelpers.StateChunk;
-import java.net.URLClassLoader;
-import uk.ac.imperial.lsds.seep.infrastructure.WorkerNodeDescription;
-import uk.ac.imperial.lsds.seep.infrastructure.dynamiccodedeployer.RuntimeClassLoader;
-import uk.ac.imperial.lsds.seep.processingunit.IProcessingUnit;
-import uk.ac.imperial.lsds.seep.runtimeengine.CoreRE;
-import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import uk.ac.imperial.lsds.seep.reliable.StateRestorer.Merge;
 import junit.framework.*;
 
 /**
@@ -31,7 +24,7 @@ import junit.framework.*;
  */
 public class MergerWorkerTest extends TestCase {
 	/**
-	 * Run the MergerWorker(IProcessingUnit,ArrayBlockingQueue<StateChunk>) constructor test.
+	 * Run the MergerWorker(StateRestorer,BlockingQueue<Merge>) constructor test.
 	 *
 	 * @throws Exception
 	 *
@@ -39,17 +32,16 @@ public class MergerWorkerTest extends TestCase {
 	 */
 	public void testMergerWorker_1()
 		throws Exception {
-		IProcessingUnit pu = new StatefulProcessingUnit(new CoreRE(new WorkerNodeDescription(InetAddress.getLocalHost(), 1), new RuntimeClassLoader(new URL[] {}, new URLClassLoader(new URL[] {}))), true);
-		ArrayBlockingQueue<StateChunk> jobQueue = new ArrayBlockingQueue(1);
+		LinkedBlockingQueue<Merge> jobQueue = new LinkedBlockingQueue<Merge>();
 
-		MergerWorker result = new MergerWorker(pu, jobQueue);
+		MergerWorker result = new MergerWorker(null, jobQueue);
 
 		// add additional test code here
 		assertNotNull(result);
 	}
 
 	/**
-	 * Run the void run() method test.
+	 * Run the void run() method test: the worker stops once the state is restored.
 	 *
 	 * @throws Exception
 	 *
@@ -57,75 +49,13 @@ public class MergerWorkerTest extends TestCase {
 	 */
 	public void testRun_1()
 		throws Exception {
-		MergerWorker fixture = new MergerWorker(new StatefulProcessingUnit(new CoreRE(new WorkerNodeDescription(InetAddress.getLocalHost(), 1), new RuntimeClassLoader(new URL[] {}, new URLClassLoader(new URL[] {}))), true), new ArrayBlockingQueue(1));
-
-		fixture.run();
-
-		// add additional test code here
-	}
-
-	/**
-	 * Run the void run() method test.
-	 *
-	 * @throws Exception
-	 *
-	 * @generatedBy CodePro at 18/10/13 18:59
-	 */
-	public void testRun_2()
-		throws Exception {
-		MergerWorker fixture = new MergerWorker(new StatefulProcessingUnit(new CoreRE(new WorkerNodeDescription(InetAddress.getLocalHost(), 1), new RuntimeClassLoader(new URL[] {}, new URLClassLoader(new URL[] {}))), true), new ArrayBlockingQueue(1));
-
-		fixture.run();
-
-		// add additional test code here
-	}
-
-	/**
-	 * Run the void run() method test.
-	 *
-	 * @throws Exception
-	 *
-	 * @generatedBy CodePro at 18/10/13 18:59
-	 */
-	public void testRun_3()
-		throws Exception {
-		MergerWorker fixture = new MergerWorker(new StatefulProcessingUnit(new CoreRE(new WorkerNodeDescription(InetAddress.getLocalHost(), 1), new RuntimeClassLoader(new URL[] {}, new URLClassLoader(new URL[] {}))), true), new ArrayBlockingQueue(1));
+		LinkedBlockingQueue<Merge> jobQueue = new LinkedBlockingQueue<Merge>();
+		jobQueue.add(Merge.END);
+		MergerWorker fixture = new MergerWorker(null, jobQueue);
 
 		fixture.run();
 
-		// add additional test code here
-	}
-
-	/**
-	 * Run the void run() method test.
-	 *
-	 * @throws Exception
-	 *
-	 * @generatedBy CodePro at 18/10/13 18:59
-	 */
-	public void testRun_4()
-		throws Exception {
-		MergerWorker fixture = new MergerWorker(new StatefulProcessingUnit(new CoreRE(new WorkerNodeDescription(InetAddress.getLocalHost(), 1), new RuntimeClassLoader(new URL[] {}, new URLClassLoader(new URL[] {}))), true), new ArrayBlockingQueue(1));
-
-		fixture.run();
-
-		// add additional test code here
-	}
-
-	/**
-	 * Run the void run() method test.
-	 *
-	 * @throws Exception
-	 *
-	 * @generatedBy CodePro at 18/10/13 18:59
-	 */
-	public void testRun_5()
-		throws Exception {
-		MergerWorker fixture = new MergerWorker(new StatefulProcessingUnit(new CoreRE(new WorkerNodeDescription(InetAddress.getLocalHost(), 1), new RuntimeClassLoader(new URL[] {}, new URLClassLoader(new URL[] {}))), true), new ArrayBlockingQueue(1));
-
-		fixture.run();
-
-		// add additional test code here
+		assertTrue(jobQueue.isEmpty());
 	}
 
 	/**
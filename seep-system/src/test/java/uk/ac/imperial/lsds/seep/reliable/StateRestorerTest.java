@@ -0,0 +1,229 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Imperial College London
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Raul Castro Fernandez - initial API and implementation
+ ******************************************************************************/
+package uk.ac.imperial.lsds.seep.reliable;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+import uk.ac.imperial.lsds.seep.api.largestateimpls.SeepMap;
+import uk.ac.imperial.lsds.seep.comm.serialization.ControlTuple;
+import uk.ac.imperial.lsds.seep.comm.serialization.DataTuple;
+import uk.ac.imperial.lsds.seep.comm.serialization.controlhelpers.StateChunk;
+import uk.ac.imperial.lsds.seep.comm.serialization.messages.TuplePayload;
+import uk.ac.imperial.lsds.seep.infrastructure.NodeManager;
+import uk.ac.imperial.lsds.seep.infrastructure.WorkerNodeDescription;
+import uk.ac.imperial.lsds.seep.infrastructure.master.Node;
+import uk.ac.imperial.lsds.seep.infrastructure.monitor.slave.MonitorSlaveFactory;
+import uk.ac.imperial.lsds.seep.operator.InputDataIngestionMode;
+import uk.ac.imperial.lsds.seep.operator.Operator;
+import uk.ac.imperial.lsds.seep.operator.OperatorCode;
+import uk.ac.imperial.lsds.seep.operator.OperatorStaticInformation;
+import uk.ac.imperial.lsds.seep.processingunit.IProcessingUnit.SystemStatus;
+import uk.ac.imperial.lsds.seep.runtimeengine.CoreProcessingLogic;
+import uk.ac.imperial.lsds.seep.runtimeengine.CoreRE;
+import uk.ac.imperial.lsds.seep.runtimeengine.ControlDispatcher;
+import uk.ac.imperial.lsds.seep.runtimeengine.DataConsumer;
+import uk.ac.imperial.lsds.seep.runtimeengine.DataStructureAdapter;
+import uk.ac.imperial.lsds.seep.runtimeengine.InputQueue;
+import uk.ac.imperial.lsds.seep.state.StateWrapper;
+
+public class StateRestorerTest extends TestCase {
+
+	private static StateChunk chunk(int keeperOpId, int totalChunks, int from, int to, int value) {
+		ArrayList<Object> entries = new ArrayList<Object>();
+		for (int k = from; k < to; k++) {
+			entries.add("k" + k);
+			entries.add(value);
+		}
+		return new StateChunk(1, keeperOpId, 0, totalChunks, new MemoryChunk(entries), 0);
+	}
+
+	/** Counts the tuples of each key in the state of the operator **/
+	static class Counter implements OperatorCode {
+		private static final long serialVersionUID = 1L;
+		private final SeepMap state;
+		private final AtomicInteger processed = new AtomicInteger();
+		Counter(SeepMap state){ this.state = state; }
+		public void setUp(){}
+		public void processData(DataTuple data){
+			String key = data.getString("key");
+			state.put(key, (Integer) state.get(key) + 1);
+			processed.incrementAndGet();
+		}
+		public void processData(List<DataTuple> dataList){}
+	}
+
+	private static void drain(InputQueue queue) throws InterruptedException {
+		for (int i = 0; i < 1000 && queue.size() > 0; i++) {
+			Thread.sleep(10);
+		}
+		assertEquals(0, queue.size());
+	}
+
+	// Live input goes through DataConsumer and CoreRE.checkSystemStatus() while CoreProcessingLogic restores the state
+	public void testInputDuringRestoreIsOnlyAppliedByReplay() throws Exception {
+		final SeepMap state = new SeepMap();
+		final Counter counter = new Counter(state);
+		final CountDownLatch acked = new CountDownLatch(1);
+		NodeManager.monitorSlave = new MonitorSlaveFactory(1).create();
+		CoreRE owner = new CoreRE(new WorkerNodeDescription(InetAddress.getLocalHost(), InetAddress.getLocalHost(), 1), null) {
+			private final ControlDispatcher dispatcher = new ControlDispatcher(null) {
+				@Override
+				public void sendAllUpstreams(ControlTuple ct) {
+					if (ct.getType() == CoreRE.ControlTupleType.STATE_ACK) {
+						acked.countDown();
+					}
+				}
+			};
+			@Override
+			public ControlDispatcher getControlDispatcher() {
+				return dispatcher;
+			}
+		};
+		Operator op = Operator.getStatefulOperator(1, counter, new StateWrapper(1, 1000, state), Arrays.asList("key"));
+		op.getOpContext().setOperatorStaticInformation(
+				new OperatorStaticInformation(1, 1, new Node(InetAddress.getLocalHost(), InetAddress.getLocalHost(), InetAddress.getLocalHost(), 1), 0, 0, true));
+		owner.pushOperator(op);
+		CoreProcessingLogic logic = new CoreProcessingLogic();
+		logic.setOwner(owner);
+		logic.setProcessingUnit(owner.getProcessingUnit());
+
+		DataStructureAdapter dsa = new DataStructureAdapter();
+		dsa.setUp(Collections.singletonMap(0, InputDataIngestionMode.ONE_AT_A_TIME), op.getOpContext());
+		InputQueue queue = (InputQueue) dsa.getUniqueDso();
+		DataConsumer consumer = new DataConsumer(owner, dsa);
+		Thread consumerT = new Thread(consumer);
+		consumerT.setDaemon(true);
+		consumerT.start();
+		Map<String, Integer> idxMapper = new HashMap<String, Integer>();
+		idxMapper.put("key", 0);
+		DataTuple template = new DataTuple(idxMapper, new TuplePayload());
+
+		logic.handleNewChunk(chunk(7, 2, 0, 50, 10));
+		assertEquals(SystemStatus.MERGING_STATE, owner.getProcessingUnit().getSystemStatus());
+		logic.handleNewChunk(chunk(7, 2, 50, 100, 10));
+
+		// Tuple of a key already merged, sent live while merging: dropped, upstream still buffers it
+		queue.push(template.setValues("k1"));
+		drain(queue);
+		Thread.sleep(100);
+		assertEquals(0, counter.processed.get());
+
+		// End of stream of the only peer, the state is restored and acked
+		logic.handleNewChunk(new StateChunk(1, 7, 0, 0, null, 0));
+		assertTrue(acked.await(10, TimeUnit.SECONDS));
+		assertEquals(SystemStatus.NORMAL, owner.getProcessingUnit().getSystemStatus());
+		assertEquals(100, state.size());
+
+		// STATE_ACK: upstream replays all it buffered since the checkpoint, the live tuple among them
+		for (int i = 0; i < 3; i++) {
+			queue.push(template.setValues("k1"));
+		}
+		drain(queue);
+		for (int i = 0; i < 1000 && counter.processed.get() < 3; i++) {
+			Thread.sleep(10);
+		}
+		consumer.setDoWork(false);
+		assertEquals(3, counter.processed.get());
+		assertEquals(13, state.get("k1"));
+		assertEquals(10, state.get("k2"));
+	}
+
+	// A peer with empty state only sends its end of stream
+	public void testFinishWithoutChunks() throws Exception {
+		final SeepMap state = new SeepMap();
+		state.put("stale", 1);
+		final CountDownLatch restored = new CountDownLatch(1);
+		StateRestorer restorer = new StateRestorer(state, 2, new Runnable() {
+			public void run() {
+				restored.countDown();
+			}
+		});
+		assertTrue(restorer.finish(7));
+		assertTrue(restored.await(10, TimeUnit.SECONDS));
+		assertTrue(restorer.isRestored());
+		assertEquals(0, state.size());
+	}
+
+	public void testMergesPeersConcurrently() throws Exception {
+		final SeepMap state = new SeepMap();
+		final CountDownLatch restored = new CountDownLatch(1);
+		final StateRestorer restorer = new StateRestorer(state, 4, new Runnable() {
+			public void run() {
+				restored.countDown();
+			}
+		});
+		final int peers = 4, chunksPerPeer = 20, entriesPerChunk = 500;
+		Thread[] senders = new Thread[peers];
+		for (int p = 0; p < peers; p++) {
+			final int keeperOpId = 10 + p;
+			senders[p] = new Thread(new Runnable() {
+				public void run() {
+					for (int c = 0; c < chunksPerPeer; c++) {
+						int from = ((keeperOpId - 10) * chunksPerPeer + c) * entriesPerChunk;
+						restorer.add(chunk(keeperOpId, chunksPerPeer, from, from + entriesPerChunk, keeperOpId));
+					}
+				}
+			});
+			senders[p].start();
+		}
+		for (Thread sender : senders) {
+			sender.join();
+		}
+		// Not restored until every peer has finished, however far the merges got
+		for (int p = 0; p < peers - 1; p++) {
+			assertFalse(restorer.finish(10 + p));
+			assertFalse(restorer.isRestored());
+		}
+		Thread.sleep(100);
+		assertFalse(restorer.isRestored());
+		assertEquals(1, restored.getCount());
+
+		assertTrue(restorer.finish(10 + peers - 1));
+		assertTrue(restored.await(10, TimeUnit.SECONDS));
+		assertTrue(restorer.isRestored());
+		assertEquals(peers * chunksPerPeer * entriesPerChunk, state.size());
+		assertEquals(10, state.get("k0"));
+		assertEquals(13, state.get("k" + (peers * chunksPerPeer * entriesPerChunk - 1)));
+	}
+
+	public void testExpectedSizeDoesNotOverflow() throws Exception {
+		final int[] expected = new int[1];
+		SeepMap state = new SeepMap() {
+			@Override
+			public void prepareMerge(int partitions, int expectedSize) {
+				expected[0] = expectedSize;
+				super.prepareMerge(partitions, 16);
+			}
+		};
+		final CountDownLatch restored = new CountDownLatch(1);
+		StateRestorer restorer = new StateRestorer(state, 1, new Runnable() {
+			public void run() {
+				restored.countDown();
+			}
+		});
+		// A million chunks of 5000 entries: 5e9 entries do not fit in an int
+		restorer.add(chunk(7, 1000000, 0, 5000, 1));
+		assertEquals(Integer.MAX_VALUE, expected[0]);
+		restorer.finish(7);
+		assertTrue(restored.await(10, TimeUnit.SECONDS));
+		assertEquals(5000, state.size());
+	}
+}
@@ -0,0 +1,97 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Imperial College London
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Raul Castro Fernandez - initial API and implementation
+ ******************************************************************************/
+package uk.ac.imperial.lsds.seep.runtimeengine;
+
+import uk.ac.imperial.lsds.seep.manet.stats.Stats;
+import junit.framework.TestCase;
+
+/**
+ * The class <code>BatchPolicyTest</code> contains tests for the class <code>{@link BatchPolicy}</code>.
+ */
+public class BatchPolicyTest extends TestCase {
+
+	public void testSingleTupleBatchesAreAlwaysReady(){
+		BatchPolicy policy = new BatchPolicy(1, 16000, 250, false, null);
+		policy.tupleAdded(0);
+
+		assertFalse(policy.isBatching());
+		assertTrue(policy.isReady(0));
+		assertEquals(0, policy.remaining());
+	}
+
+	public void testTupleLimit(){
+		BatchPolicy policy = new BatchPolicy(3, 16000, 250, false, null);
+		policy.tupleAdded(0);
+		policy.tupleAdded(1);
+
+		assertTrue(policy.isBatching());
+		assertFalse(policy.isReady(2));
+		assertEquals(1, policy.remaining());
+		policy.tupleAdded(2);
+		assertTrue(policy.isFull());
+	}
+
+	public void testPartialBatchExpires(){
+		BatchPolicy policy = new BatchPolicy(100, 16000, 250, false, null);
+
+		assertEquals(Long.MAX_VALUE, policy.timeToDeadline(0));
+		assertFalse(policy.isExpired(1000));
+		policy.tupleAdded(1000);
+		policy.tupleAdded(1100);
+		assertEquals(150, policy.timeToDeadline(1100));
+		assertFalse(policy.isExpired(1249));
+		assertTrue(policy.isExpired(1250));
+		policy.reset();
+		assertFalse(policy.isExpired(2000));
+	}
+
+	public void testBatchClosedAtPacketSize(){
+		BatchPolicy policy = new BatchPolicy(1000, 1000, 250, false, null);
+		for(int i = 0; i < 10; i++){
+			policy.tupleAdded(0);
+		}
+		// 100 bytes per tuple from now on
+		policy.batchSent(0, 10, 1000);
+		policy.reset();
+		for(int i = 0; i < 9; i++){
+			policy.tupleAdded(0);
+		}
+
+		assertFalse(policy.isFull());
+		policy.tupleAdded(0);
+		assertTrue(policy.isFull());
+	}
+
+	public void testCloseForcesSend(){
+		BatchPolicy policy = new BatchPolicy(10, 16000, 250, false, null);
+		policy.tupleAdded(0);
+		policy.close();
+
+		assertEquals(0, policy.remaining());
+		assertTrue(policy.isReady(0));
+		policy.reset();
+		assertEquals(10, policy.remaining());
+	}
+
+	public void testLimitAdaptsToThroughput(){
+		long start = System.currentTimeMillis();
+		BatchPolicy policy = new BatchPolicy(1, 16000, 1000, true, new Stats(1, -1));
+		// 100 byte tuples at ~10 bytes/ms, a quarter of the latency budget fits ~25 tuples
+		policy.batchSent(start + 1, 100, 10000);
+		policy.batchSent(start + 6000, 500, 50000);
+		int limit = policy.getTupleLimit();
+
+		assertTrue("limit="+limit, limit >= 20 && limit <= 25);
+		// A fast link is capped to one packet worth of tuples
+		policy.batchSent(start + 12000, 100000, 10000000);
+		assertEquals(160, policy.getTupleLimit());
+	}
+}
@@ -0,0 +1,109 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Imperial College London
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Raul Castro Fernandez - initial API and implementation
+ ******************************************************************************/
+package uk.ac.imperial.lsds.seep.runtimeengine;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+import uk.ac.imperial.lsds.seep.comm.serialization.DataTuple;
+import uk.ac.imperial.lsds.seep.comm.serialization.messages.TuplePayload;
+import uk.ac.imperial.lsds.seep.infrastructure.WorkerNodeDescription;
+import uk.ac.imperial.lsds.seep.operator.KeyLocalProcessing;
+import uk.ac.imperial.lsds.seep.operator.Operator;
+import uk.ac.imperial.lsds.seep.operator.OperatorCode;
+import uk.ac.imperial.lsds.seep.state.StateWrapper;
+
+public class DataConsumerTest extends TestCase {
+
+	private static final int KEYS = 8;
+	private static final int TUPLES = 4000;
+
+	static class Counter implements OperatorCode {
+		private static final long serialVersionUID = 1L;
+		public void setUp(){}
+		public void processData(DataTuple data){}
+		public void processData(List<DataTuple> dataList){}
+	}
+
+	static class KeyLocalCounter extends Counter implements KeyLocalProcessing {
+		private static final long serialVersionUID = 1L;
+	}
+
+	private static Operator operator(OperatorCode code){
+		Operator op = Operator.getStatefulOperator(1, code, new StateWrapper(), new ArrayList<String>());
+		op.getOpContext().setKeyAttribute("key");
+		return op;
+	}
+
+	public void testPartitionsOnlyKeyLocalOperators() {
+		assertNull(DataConsumer.partitionKey(operator(new Counter())));
+		assertEquals("key", DataConsumer.partitionKey(operator(new KeyLocalCounter())));
+	}
+
+	// Workers process tuples without a lock, as SPU does while sending, so only the partitioning keeps keys apart
+	public void testWorkersProcessEachKeyOneAtATimeInOrder() throws Exception {
+		final Set<Object> inFlight = Collections.newSetFromMap(new ConcurrentHashMap<Object, Boolean>());
+		final Map<Object, Integer> lastSeq = new ConcurrentHashMap<Object, Integer>();
+		final Set<String> threads = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+		final boolean[] failed = new boolean[1];
+		final CountDownLatch done = new CountDownLatch(TUPLES);
+		CoreRE owner = new CoreRE(new WorkerNodeDescription(InetAddress.getLocalHost(), InetAddress.getLocalHost(), 1), null){
+			@Override
+			public boolean checkSystemStatus(){
+				return true;
+			}
+			@Override
+			public void forwardData(DataTuple data){
+				Object key = data.getValue("key");
+				int seq = (Integer)data.getValue("seq");
+				threads.add(Thread.currentThread().getName());
+				if(!inFlight.add(key)){ failed[0] = true; }
+				Integer last = lastSeq.get(key);
+				if(last != null && last >= seq){ failed[0] = true; }
+				lastSeq.put(key, seq);
+				Thread.yield();
+				inFlight.remove(key);
+				done.countDown();
+			}
+		};
+		final InputQueue queue = new InputQueue(TUPLES);
+		Map<String, Integer> idxMapper = new HashMap<String, Integer>();
+		idxMapper.put("key", 0);
+		idxMapper.put("seq", 1);
+		DataTuple template = new DataTuple(idxMapper, new TuplePayload());
+		for(int i = 0; i < TUPLES; i++){
+			queue.push(template.setValues("k"+(i % KEYS), i));
+		}
+		final DataConsumer consumer = new DataConsumer(owner, new DataStructureAdapter());
+		Thread router = new Thread(new Runnable(){
+			public void run(){
+				consumer.partition(queue, "key", 4);
+			}
+		});
+		router.setDaemon(true);
+		router.start();
+
+		assertTrue(done.await(30, TimeUnit.SECONDS));
+		consumer.setDoWork(false);
+		assertFalse(failed[0]);
+		assertEquals(KEYS, lastSeq.size());
+		assertTrue(threads.size() > 1);
+	}
+}
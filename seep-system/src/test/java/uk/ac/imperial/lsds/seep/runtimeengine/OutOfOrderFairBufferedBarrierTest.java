@@ -0,0 +1,112 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Imperial College London
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ * 
+ * Contributors:
+ *     Raul Castro Fernandez - initial API and implementation
+ ******************************************************************************/
+package uk.ac.imperial.lsds.seep.runtimeengine;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.TreeMap;
+
+import junit.framework.TestCase;
+import uk.ac.imperial.lsds.seep.comm.serialization.DataTuple;
+import uk.ac.imperial.lsds.seep.comm.serialization.controlhelpers.FailureCtrl;
+import uk.ac.imperial.lsds.seep.comm.serialization.messages.TuplePayload;
+import uk.ac.imperial.lsds.seep.manet.Query;
+
+public class OutOfOrderFairBufferedBarrierTest extends TestCase {
+
+	// Join 30 of inputs 10, 11 (one logical input) and 20 (the other)
+	private static Query joinQuery() {
+		TreeMap<Integer, Integer[]> logicalTopology = new TreeMap<Integer, Integer[]>();
+		logicalTopology.put(0, new Integer[] {});
+		logicalTopology.put(1, new Integer[] {});
+		logicalTopology.put(2, new Integer[] {0, 1});
+		TreeMap<Integer, HashSet<Integer>> log2phys = new TreeMap<Integer, HashSet<Integer>>();
+		log2phys.put(0, new HashSet<Integer>(Arrays.asList(10, 11)));
+		log2phys.put(1, new HashSet<Integer>(Arrays.asList(20)));
+		log2phys.put(2, new HashSet<Integer>(Arrays.asList(30)));
+		return new Query(logicalTopology, log2phys, new HashMap<Integer, InetAddress>());
+	}
+
+	private static DataTuple tuple(long ts) {
+		TuplePayload payload = new TuplePayload();
+		payload.timestamp = ts;
+		return new DataTuple(new HashMap<String, Integer>(), payload);
+	}
+
+	public void testJoinsInTimestampOrder() {
+		OutOfOrderFairBufferedBarrier barrier = new OutOfOrderFairBufferedBarrier(joinQuery(), 30);
+		barrier.push(tuple(2), 10);
+		barrier.push(tuple(1), 20);
+		barrier.push(tuple(2), 20);
+		barrier.push(tuple(1), 11);
+
+		ArrayList<DataTuple> first = barrier.pull_from_barrier();
+		assertEquals(2, first.size());
+		assertEquals(1, first.get(0).getPayload().timestamp);
+		assertEquals(1, first.get(1).getPayload().timestamp);
+		assertEquals(2, barrier.pull_from_barrier().get(0).getPayload().timestamp);
+	}
+
+	public void testIgnoresDuplicatesAndPurgesAcked() {
+		OutOfOrderFairBufferedBarrier barrier = new OutOfOrderFairBufferedBarrier(joinQuery(), 30);
+		barrier.push(tuple(1), 10);
+		barrier.push(tuple(1), 11);
+		barrier.push(tuple(2), 10);
+		barrier.push(tuple(5), 20);
+		Map<Integer, Integer> sizes = barrier.sizes();
+		assertEquals(0, (int) sizes.get(-1));
+		assertEquals(2, (int) sizes.get(0));
+		assertEquals(1, (int) sizes.get(1));
+		assertTrue(barrier.getRoutingConstraints().get(1).contains(2L));
+
+		barrier.purge(new FailureCtrl(2, new HashSet<Long>(), new HashSet<Long>()));
+		sizes = barrier.sizes();
+		assertEquals(0, (int) sizes.get(0));
+		assertEquals(1, (int) sizes.get(1));
+		// Acked, so not joined any more
+		barrier.push(tuple(1), 20);
+		assertEquals(0, (int) barrier.sizes().get(-1));
+	}
+
+	public void testConcurrentProducers() throws Exception {
+		final OutOfOrderFairBufferedBarrier barrier = new OutOfOrderFairBufferedBarrier(joinQuery(), 30);
+		final int n = 5000;
+		Thread[] producers = new Thread[3];
+		final int[] upOpIds = {10, 11, 20};
+		for (int p = 0; p < producers.length; p++) {
+			final int upOpId = upOpIds[p];
+			producers[p] = new Thread(new Runnable() {
+				public void run() {
+					for (long ts = 1; ts <= n; ts++) {
+						// 10 and 11 split the first input between them
+						if (upOpId == 20 || (ts % 2 == 0) == (upOpId == 10)) {
+							barrier.push(tuple(ts), upOpId);
+						}
+					}
+				}
+			});
+			producers[p].start();
+		}
+		for (int i = 0; i < n; i++) {
+			ArrayList<DataTuple> joined = barrier.pull_from_barrier();
+			assertEquals(joined.get(0).getPayload().timestamp, joined.get(1).getPayload().timestamp);
+		}
+		for (Thread producer : producers) {
+			producer.join();
+		}
+		assertEquals(0, (int) barrier.sizes().get(-1));
+		assertEquals(0, (int) barrier.sizes().get(0));
+	}
+}